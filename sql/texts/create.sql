@@ -1,7 +1,17 @@
--- Defines works that are recorded in a local database
+-- Records the version of this schema. Databases created with an earlier version can be
+-- upgraded using MySQLSchemaMigrator and the migrate-<version>.sql scripts.
+CREATE TABLE IF NOT EXISTS texts_schema_version (
+    version             INTEGER NOT NULL PRIMARY KEY,
+    applied             TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP
+) ENGINE=InnoDB CHARSET utf8;
+
+INSERT IGNORE INTO texts_schema_version (version) VALUES (5);
+
+-- Defines works that are recorded in a local database. UUIDs are stored as 16 bytes in 
+-- big-endian order.
 CREATE TABLE IF NOT EXISTS texts_works (
     work_id             SERIAL  PRIMARY KEY,
-    uuid                CHAR(38) NOT NULL UNIQUE,
+    uuid                BINARY(16) NOT NULL UNIQUE,
     
     title               VARCHAR(255),
     abbreviation        VARCHAR(32),
@@ -17,37 +27,80 @@ CREATE TABLE IF NOT EXISTS texts_works (
     soruce_url          VARCHAR(255),
     
     publication_date    CHAR(10),
-    import_date         DATETIME
+    import_date         DATETIME,
+    
+    -- the number of tokens stored for this work, maintained with texts_tokens
+    token_count         INTEGER NOT NULL DEFAULT 0
     
 ) ENGINE=InnoDB CHARSET utf8;
 
--- Defines the tokens for works stored in this database 
+-- Defines the distinct token strings (terms) used by each work 
+CREATE TABLE IF NOT EXISTS texts_vocabulary (
+    work_id        BIGINT UNSIGNED NOT NULL,
+    term_id        INTEGER NOT NULL,
+    term_text      VARCHAR(255) NOT NULL,
+    
+    PRIMARY KEY (work_id, term_id),
+    
+    FOREIGN KEY (work_id)
+      REFERENCES texts_works (work_id)
+      ON DELETE CASCADE
+) ENGINE=InnoDB CHARSET utf8 COLLATE utf8_bin;
+
+-- Defines the tokens for works stored in this database. The text of each token is 
+-- stored once per work in texts_vocabulary and referenced by term_id.
 CREATE TABLE IF NOT EXISTS texts_tokens (
     token_id       SERIAL  PRIMARY KEY,
-    uuid           CHAR(38) NOT NULL UNIQUE,
+    uuid           BINARY(16) NOT NULL UNIQUE,
     work_id        BIGINT UNSIGNED NOT NULL,
     
     token_pos      INTEGER,
-    token_text     VARCHAR(255) NOT NULL,
+    term_id        INTEGER NOT NULL,
     token_type     ENUM('WORD', 'WHITESPACE', 'PUNCTUATION'), 
     
     UNIQUE (work_id, token_pos),
     
+    FOREIGN KEY (work_id, term_id)
+      REFERENCES texts_vocabulary (work_id, term_id)
+      ON DELETE CASCADE,
+    
     FOREIGN KEY (work_id)
       REFERENCES texts_works (work_id)
       ON DELETE CASCADE
 ) ENGINE=InnoDB CHARSET utf8;
 
+-- Defines the structures of works stored in this database. Structures are retrieved by 
+-- work and name or by token position, ordered by start_pos ASC, end_pos DESC. The 
+-- secondary indexes include every column read by these queries, so that they are 
+-- answered from the index without reading the table rows.
+--
+-- Structures are found by position through their span level and bucket: the level is 
+-- the lowest L for which start_pos and end_pos lie in the same aligned block of 2^L 
+-- token positions and the bucket is that block (start_pos >> L). The structures that 
+-- include a position are found by looking up one bucket at each level.
 CREATE TABLE IF NOT EXISTS texts_structures (
     structure_id        SERIAL  PRIMARY KEY,
-    uuid                CHAR(38) NOT NULL UNIQUE,
-    work_uuid           CHAR(38) NOT NULL,
+    uuid                BINARY(16) NOT NULL UNIQUE,
+    work_id             BIGINT UNSIGNED NOT NULL,
     
     structure_name      VARCHAR(255),
     perspective         VARCHAR(255),
     
     start_pos           INTEGER,
-    end_pos             INTEGER
+    end_pos             INTEGER,
+    
+    span_level          TINYINT,
+    span_bucket         INTEGER,
+    
+    INDEX structures_by_name 
+      (work_id, structure_name, start_pos, end_pos DESC, perspective, uuid),
+    
+    INDEX structures_by_span 
+      (work_id, span_level, span_bucket, start_pos, end_pos, structure_name, perspective, uuid),
+    
+    FOREIGN KEY (work_id)
+      REFERENCES texts_works (work_id)
+      ON DELETE CASCADE
     
 ) ENGINE=InnoDB CHARSET utf8;
 
@@ -59,6 +112,9 @@ CREATE TABLE IF NOT EXISTS texts_structureattributes (
     
     UNIQUE (structure_id, attr_key),
     
+    -- finds structures by attribute value, for example, a verse by its osisID
+    INDEX attributes_by_value (attr_key, attr_value(64), structure_id),
+    
     FOREIGN KEY (structure_id)
       REFERENCES texts_structures (structure_id)
       ON DELETE CASCADE
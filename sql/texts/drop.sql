@@ -1,4 +1,6 @@
 DROP TABLE IF EXISTS texts_structureattributes;
 DROP TABLE IF EXISTS texts_structures;
 DROP TABLE IF EXISTS texts_tokens;
-DROP TABLE IF EXISTS texts_works;
\ No newline at end of file
+DROP TABLE IF EXISTS texts_vocabulary;
+DROP TABLE IF EXISTS texts_works;
+DROP TABLE IF EXISTS texts_schema_version;
\ No newline at end of file
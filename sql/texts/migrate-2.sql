@@ -0,0 +1,45 @@
+-- Upgrades a version 1 texts schema to version 2. Version 2 stores UUIDs as BINARY(16) 
+-- rather than CHAR(38) and references works from texts_structures by work_id rather 
+-- than by work_uuid. Run this using MySQLSchemaMigrator, which checks that every 
+-- structure belongs to a work stored in this database before the script is executed.
+
+CREATE TABLE IF NOT EXISTS texts_schema_version (
+    version             INTEGER NOT NULL PRIMARY KEY,
+    applied             TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP
+) ENGINE=InnoDB CHARSET utf8;
+
+-- Key structures by work id. This must be done before the work UUIDs are converted.
+ALTER TABLE texts_structures ADD COLUMN work_id BIGINT UNSIGNED AFTER work_uuid;
+
+UPDATE texts_structures AS S, texts_works AS W 
+   SET S.work_id = W.work_id 
+ WHERE S.work_uuid = W.uuid;
+
+ALTER TABLE texts_structures 
+    MODIFY COLUMN work_id BIGINT UNSIGNED NOT NULL,
+    DROP COLUMN work_uuid,
+    ADD FOREIGN KEY (work_id) REFERENCES texts_works (work_id) ON DELETE CASCADE;
+
+-- Convert UUIDs to their 16 byte binary form
+ALTER TABLE texts_structures ADD COLUMN uuid_bin BINARY(16) AFTER uuid;
+UPDATE texts_structures SET uuid_bin = UNHEX(REPLACE(uuid, '-', ''));
+ALTER TABLE texts_structures 
+    DROP COLUMN uuid, 
+    CHANGE COLUMN uuid_bin uuid BINARY(16) NOT NULL,
+    ADD UNIQUE (uuid);
+
+ALTER TABLE texts_tokens ADD COLUMN uuid_bin BINARY(16) AFTER uuid;
+UPDATE texts_tokens SET uuid_bin = UNHEX(REPLACE(uuid, '-', ''));
+ALTER TABLE texts_tokens 
+    DROP COLUMN uuid, 
+    CHANGE COLUMN uuid_bin uuid BINARY(16) NOT NULL,
+    ADD UNIQUE (uuid);
+
+ALTER TABLE texts_works ADD COLUMN uuid_bin BINARY(16) AFTER uuid;
+UPDATE texts_works SET uuid_bin = UNHEX(REPLACE(uuid, '-', ''));
+ALTER TABLE texts_works 
+    DROP COLUMN uuid, 
+    CHANGE COLUMN uuid_bin uuid BINARY(16) NOT NULL,
+    ADD UNIQUE (uuid);
+
+INSERT INTO texts_schema_version (version) VALUES (2);
@@ -0,0 +1,14 @@
+-- Upgrades a version 2 texts schema to version 3. Version 3 adds the indexes used to
+-- retrieve structures by work, name and position and by attribute value. Run this using 
+-- MySQLSchemaMigrator. Building the indexes may take some time for large databases.
+
+ALTER TABLE texts_structures 
+    ADD INDEX structures_by_name 
+      (work_id, structure_name, start_pos, end_pos DESC, perspective, uuid),
+    ADD INDEX structures_by_position 
+      (work_id, start_pos, end_pos DESC, structure_name, perspective, uuid);
+
+ALTER TABLE texts_structureattributes 
+    ADD INDEX attributes_by_value (attr_key, attr_value(64), structure_id);
+
+INSERT INTO texts_schema_version (version) VALUES (3);
@@ -0,0 +1,22 @@
+-- Upgrades a version 3 texts schema to version 4. Version 4 records the span level and 
+-- bucket of each structure, which are used to find the structures that include a token 
+-- position, and replaces the index on start_pos with an index on these columns. The 
+-- span level is the lowest L for which start_pos and end_pos lie in the same aligned 
+-- block of 2^L token positions. Run this using MySQLSchemaMigrator.
+
+ALTER TABLE texts_structures 
+    ADD COLUMN span_level TINYINT AFTER end_pos,
+    ADD COLUMN span_bucket INTEGER AFTER span_level;
+
+UPDATE texts_structures 
+   SET span_level = IF(start_pos = end_pos, 0, LENGTH(BIN(start_pos ^ end_pos)));
+
+UPDATE texts_structures 
+   SET span_bucket = LEAST(start_pos, end_pos) >> span_level;
+
+ALTER TABLE texts_structures 
+    DROP INDEX structures_by_position,
+    ADD INDEX structures_by_span 
+      (work_id, span_level, span_bucket, start_pos, end_pos, structure_name, perspective, uuid);
+
+INSERT INTO texts_schema_version (version) VALUES (4);
@@ -0,0 +1,54 @@
+-- Upgrades a version 4 texts schema to version 5. Version 5 stores the text of each 
+-- token once per work in texts_vocabulary, references it from texts_tokens by term_id 
+-- rather than storing token_text, and records the number of tokens of each work in 
+-- texts_works.token_count. Run this using MySQLSchemaMigrator, which only records the 
+-- new version for databases that were created with these tables in place. Numbering 
+-- the terms requires window functions, which were introduced in MySQL 8.0.
+
+-- Record the number of token positions of each work. As maintained by the token 
+-- repository, this is one more than the highest stored position, so new tokens are 
+-- appended after every stored token even if some positions are not used.
+ALTER TABLE texts_works ADD COLUMN token_count INTEGER NOT NULL DEFAULT 0;
+
+UPDATE texts_works AS W 
+   SET W.token_count = (SELECT COALESCE(MAX(T.token_pos), -1) + 1 
+                          FROM texts_tokens AS T WHERE T.work_id = W.work_id);
+
+CREATE TABLE IF NOT EXISTS texts_vocabulary (
+    work_id        BIGINT UNSIGNED NOT NULL,
+    term_id        INTEGER NOT NULL,
+    term_text      VARCHAR(255) NOT NULL,
+    
+    PRIMARY KEY (work_id, term_id),
+    
+    FOREIGN KEY (work_id)
+      REFERENCES texts_works (work_id)
+      ON DELETE CASCADE
+) ENGINE=InnoDB CHARSET utf8 COLLATE utf8_bin;
+
+-- Number the distinct token strings of each work from 0, in order of their exact text. 
+-- The index on the text is used only to assign the terms to tokens below.
+INSERT INTO texts_vocabulary (work_id, term_id, term_text) 
+SELECT work_id, ROW_NUMBER() OVER (PARTITION BY work_id ORDER BY term_text) - 1, term_text 
+  FROM (SELECT DISTINCT work_id, token_text COLLATE utf8_bin AS term_text 
+          FROM texts_tokens) AS D;
+
+ALTER TABLE texts_vocabulary ADD INDEX migrate_terms (work_id, term_text(64));
+
+-- Replace the text of each token with its term
+ALTER TABLE texts_tokens ADD COLUMN term_id INTEGER AFTER token_text;
+
+UPDATE texts_tokens AS T, texts_vocabulary AS V 
+   SET T.term_id = V.term_id 
+ WHERE V.work_id = T.work_id AND V.term_text = T.token_text COLLATE utf8_bin;
+
+ALTER TABLE texts_tokens 
+    MODIFY COLUMN term_id INTEGER NOT NULL,
+    DROP COLUMN token_text,
+    ADD FOREIGN KEY (work_id, term_id) 
+      REFERENCES texts_vocabulary (work_id, term_id) 
+      ON DELETE CASCADE;
+
+ALTER TABLE texts_vocabulary DROP INDEX migrate_terms;
+
+INSERT INTO texts_schema_version (version) VALUES (5);
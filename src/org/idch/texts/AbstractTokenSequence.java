@@ -3,7 +3,9 @@
  */
 package org.idch.texts;
 
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
 import java.util.ListIterator;
 import java.util.NoSuchElementException;
 import java.util.UUID;
@@ -16,6 +18,32 @@ import org.idch.persist.RepositoryAccessException;
  */
 public abstract class AbstractTokenSequence implements TokenSequence {
 
+    //========================================================================================
+    // PREFETCHING CONFIGURATION
+    //========================================================================================
+    
+    /** The number of tokens retrieved by the first fetch of an iterator. */
+    private static volatile int initialPrefetchSize = 64;
+    
+    /** The maximum number of tokens retrieved by a single fetch. */
+    private static volatile int maxPrefetchSize = 4096;
+    
+    /**
+     * Configures the number of tokens that are retrieved from the underlying repository 
+     * at a time when iterating over a sequence. Iterators start by fetching 
+     * <tt>initial</tt> tokens and double the size of each subsequent fetch (up to 
+     * <tt>max</tt>) for as long as access remains sequential. 
+     * 
+     * @param initial The number of tokens retrieved by the first fetch. 
+     * @param max The maximum number of tokens retrieved by a single fetch.
+     */
+    public static void setPrefetchSize(int initial, int max) {
+        if (initial < 1 || max < initial)
+            throw new IllegalArgumentException("Invalid prefetch size: " + initial + ", " + max);
+        
+        initialPrefetchSize = initial;
+        maxPrefetchSize = max;
+    }
     
     protected AbstractTokenSequence() {
     }
@@ -88,9 +116,8 @@ public abstract class AbstractTokenSequence implements TokenSequence {
             return null;
 
         StringBuilder sb = new StringBuilder();
-        Iterator<Token> i = this.iterator();
-        while (i.hasNext()) {
-            sb.append(i.next().getText());
+        for (Token t : this.toArray()) {
+            sb.append(t.getText());
         }
         
         return sb.toString();
@@ -144,6 +171,52 @@ public abstract class AbstractTokenSequence implements TokenSequence {
         
         return t;
     }
+    
+    /**
+     * Returns the tokens at indices <tt>[from, to)</tt> relative to this sequence using a 
+     * single request to the underlying repository. This is used by iterators and bulk 
+     * accessors to avoid retrieving tokens one at a time. 
+     * 
+     * @param from The index of the first token to return (inclusive).
+     * @param to The index of the last token to return (exclusive).
+     * @return The tokens in the requested range or <tt>null</tt> if they could not be 
+     *      retrieved. The returned list may be shorter than requested.
+     */
+    protected List<Token> getRange(int from, int to) {
+        List<Token> tokens = null;
+        try {
+            TextModule textModule = TextModuleInstance.get();
+            Work w = textModule.getWork(this);
+            int start = this.getStart();
+            tokens = textModule.getTokenRepository().find(w, start + from, start + to);
+        } catch (RepositoryAccessException e) {
+            tokens = null;
+        }
+        
+        return tokens;
+    }
+    
+    /**
+     * Copies the tokens of this sequence into the supplied array, retrieving them from 
+     * the repository in blocks.
+     */
+    private void copyInto(Token[] tokens, int size) {
+        int blockSize = maxPrefetchSize;
+        for (int from = 0; from < size; from += blockSize) {
+            int to = Math.min(size, from + blockSize);
+            List<Token> block = getRange(from, to);
+            
+            int n = (block != null) ? Math.min(block.size(), to - from) : 0;
+            for (int i = 0; i < n; i++) {
+                tokens[from + i] = block.get(i);
+            }
+            
+            // fall back to retrieving tokens individually
+            for (int i = from + n; i < to; i++) {
+                tokens[i] = this.get(i);
+            }
+        }
+    }
 
     /* (non-Javadoc)
      * @see openscriptures.text.TokenSequence#iterator()
@@ -196,13 +269,9 @@ public abstract class AbstractTokenSequence implements TokenSequence {
      */
     @Override
     public Token[] toArray() {
-        Token[] tokens = new Token[this.size()];
-        
-        int ix = 0;
-        Iterator<Token> i = this.iterator();
-        while (i.hasNext()) {
-            tokens[ix++] = i.next();
-        }
+        int size = this.size();
+        Token[] tokens = new Token[size];
+        copyInto(tokens, size);
         
         return tokens;
     }
@@ -227,17 +296,14 @@ public abstract class AbstractTokenSequence implements TokenSequence {
      */
     @Override
     public Token[] toArray(Token[] tokens) {
-        if (tokens.length < this.size())
-            tokens = new Token[this.size()];
+        int size = this.size();
+        if (tokens.length < size)
+            tokens = new Token[size];
         
-        int ix = 0;
-        Iterator<Token> i = this.iterator();
-        while (i.hasNext()) {
-            tokens[ix++] = i.next();
-        }
+        copyInto(tokens, size);
         
-        if (tokens.length > this.size())
-            tokens[this.size()] = null;
+        if (tokens.length > size)
+            tokens[size] = null;
         
         return tokens;
     }
@@ -248,6 +314,10 @@ public abstract class AbstractTokenSequence implements TokenSequence {
 //========================================================================================
       
     /**
+     * Iterates over the tokens of a sequence. Tokens are retrieved from the underlying 
+     * repository in windows rather than individually. The size of the window starts at 
+     * <tt>initialPrefetchSize</tt> and doubles (up to <tt>maxPrefetchSize</tt>) with 
+     * each fetch for as long as access continues in the same direction.
      * 
      * @author Neal Audenaert
      */
@@ -260,6 +330,14 @@ public abstract class AbstractTokenSequence implements TokenSequence {
          private int ix = -1;
          private TokenSequence s = null;
          
+         /** The most recently fetched window of tokens, starting at index windowStart. */
+         private List<Token> window = Collections.emptyList();
+         private int windowStart = 0;
+         
+         /** The size of the next window to fetch and the direction of the last fetch. */
+         private int windowSize = 0;
+         private boolean forward = true;
+         
      //========================================================================================
      // CONSTRUCTORS
      //========================================================================================
@@ -287,6 +365,43 @@ public abstract class AbstractTokenSequence implements TokenSequence {
                  this.ix = s.size() - 1;            
          }
 
+         /**
+          * Returns the token at the specified index, fetching a new window of tokens if it 
+          * is not in the current window.
+          * 
+          * @param index The index of the token to return.
+          * @param fwd Whether the iterator is moving forward (toward the end of the 
+          *      sequence).
+          */
+         private Token fetch(int index, boolean fwd) {
+             int offset = index - windowStart;
+             if (offset >= 0 && offset < window.size())
+                 return window.get(offset);
+             
+             if (!(s instanceof AbstractTokenSequence))
+                 return s.get(index);
+             
+             // grow the window while access is sequential, otherwise start over
+             boolean sequential = (windowSize > 0) && (fwd == forward) &&
+                     (fwd ? index == windowStart + window.size() : index == windowStart - 1);
+             windowSize = sequential 
+                     ? Math.min(windowSize * 2, maxPrefetchSize)
+                     : Math.min(initialPrefetchSize, maxPrefetchSize);
+             forward = fwd;
+             
+             int from = fwd ? index : Math.max(0, index - windowSize + 1);
+             int to = fwd ? Math.min(s.size(), index + windowSize) : index + 1;
+             List<Token> tokens = ((AbstractTokenSequence)s).getRange(from, to);
+             if (tokens == null || tokens.size() <= index - from) {
+                 window = Collections.emptyList();
+                 return s.get(index);
+             }
+             
+             window = tokens;
+             windowStart = from;
+             return tokens.get(index - from);
+         }
+         
      //========================================================================================
      // METHODS
      //========================================================================================
@@ -315,7 +430,7 @@ public abstract class AbstractTokenSequence implements TokenSequence {
              if (!this.hasNext())
                  throw new NoSuchElementException();
              
-             return s.get(++ix);
+             return fetch(++ix, true);
          }
 
          /* (non-Javadoc)
@@ -334,7 +449,7 @@ public abstract class AbstractTokenSequence implements TokenSequence {
              if (!this.hasPrevious())
                  throw new NoSuchElementException();
              
-             return s.get(--ix);
+             return fetch(--ix, false);
          }
 
          /* (non-Javadoc)
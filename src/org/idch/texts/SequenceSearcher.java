@@ -5,6 +5,7 @@ package org.idch.texts;
 
 import java.text.CharacterIterator;
 import java.text.StringCharacterIterator;
+import java.util.List;
 
 import com.ibm.icu.text.Collator;
 import com.ibm.icu.text.RuleBasedCollator;
@@ -17,6 +18,8 @@ public class SequenceSearcher {
     
     private final TextModule module;
     private final TokenSequence seq;                  /* The sequence to search */
+    private final List<Token> seqTokens;              /* The tokens of the sequence */
+    private final TokenOffsetIndex seqOffsets;        /* Character offsets of the tokens */
     private final String seqText;                     /* A string representation of the sequence. */
     private final CharacterIterator seqIterator;      /* Character iterator over the sequence text */ 
     
@@ -28,7 +31,9 @@ public class SequenceSearcher {
     public SequenceSearcher(TextModule module, TokenSequence seq) {
         this.module = module;
         this.seq = seq;
-        this.seqText = module.toString(seq);
+        this.seqTokens = module.getTokens(seq);
+        this.seqOffsets = new TokenOffsetIndex(seqTokens);
+        this.seqText = module.toString(seqTokens);
         this.seqIterator = new StringCharacterIterator(this.seqText);
         
         reset(Collator.PRIMARY, Collator.CANONICAL_DECOMPOSITION);
@@ -79,11 +84,17 @@ public class SequenceSearcher {
     public Structure getStructure(String name) {
         Structure s = null;
         if (lastMatch != StringSearch.DONE) {
-            Token start = module.getTokenAt(seq, lastMatch);
-            Token end = module.getTokenAt(seq, lastMatch + searchPattern.length() - 1);
+            Token start = getTokenAt(lastMatch);
+            Token end = getTokenAt(lastMatch + searchPattern.length() - 1);
             s = new Structure(seq.getWorkUUID(), name, start, end);
         }
         
         return s;
     }
+    
+    /** Returns the token containing the character at an offset in the sequence text. */
+    private Token getTokenAt(int offset) {
+        int ix = seqOffsets.indexAt(offset);
+        return (ix >= 0) ? seqTokens.get(ix) : null;
+    }
 }
\ No newline at end of file
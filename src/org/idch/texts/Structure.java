@@ -144,6 +144,19 @@ public class Structure extends AbstractTokenSequence {
         // Proposed
         //ELEMENT_CHOICES.put("doubted", "doubted"); //level1 and level2? rdg
 	}
+	
+	/** Generates the UUIDs of new structures. */
+	private static volatile UUIDGenerator uuidGenerator = UUIDGenerator.TIME_ORDERED;
+	
+	/**
+	 * Sets the generator used to create UUIDs for new structures. By default, structures 
+	 * are assigned time-ordered UUIDs.
+	 * 
+	 * @param generator The UUID generator to use.
+	 */
+	public static void setUUIDGenerator(UUIDGenerator generator) {
+	    uuidGenerator = generator;
+	}
 
 //========================================================================================
 // MEMBER VARIABLES
@@ -196,6 +209,9 @@ public class Structure extends AbstractTokenSequence {
     protected Map<String, String> attributes = 
         new HashMap<String, String>();
     
+    /** The key by which this structure is sorted, or <tt>null</tt> if not yet computed. */
+    private volatile SortKey sortKey = null;
+    
 //========================================================================================
 // MISC PROPERTIES, CURRENTLY UNUSED
 //========================================================================================
@@ -241,7 +257,7 @@ public class Structure extends AbstractTokenSequence {
 	
 	@Deprecated
 	public Structure(Work work, String name) {
-	    this.uuid = UUID.randomUUID();
+	    this.uuid = uuidGenerator.generate();
         
         this.name = name;
         this.workUUID = work.getUUID();
@@ -254,7 +270,7 @@ public class Structure extends AbstractTokenSequence {
     }
 	
 	public Structure(UUID workUUID, String name) {
-        this.uuid = UUID.randomUUID();
+        this.uuid = uuidGenerator.generate();
         
         this.name = name;
         this.workUUID = workUUID;
@@ -298,6 +314,8 @@ public class Structure extends AbstractTokenSequence {
     String getUUIDString() { return uuid.toString(); }
     /** Used by persistence layer to set the UUID from a string. */
     public void setUUIDString(String uuid) { this.uuid = UUID.fromString(uuid); }
+    /** Used by persistence layer to set the UUID. */
+    public void setUUID(UUID uuid) { this.uuid = uuid; }
     
     /** Returns the <tt>Work</tt> that this structure is found in. */
     // TODO make persistent
@@ -552,4 +570,60 @@ public class Structure extends AbstractTokenSequence {
                (s.getEnd() == this.getEnd()) &&             
                s.getName().equals(this.getName());
     }
+    
+    /**
+     * Returns the key used by {@link StructureComparator} to order this structure. The 
+     * key is computed when it is first requested and recomputed if the structure's 
+     * positions, name or UUID have since been changed.
+     */
+    SortKey getSortKey() {
+        SortKey key = sortKey;
+        if (key == null || !key.isFor(this)) {
+            key = new SortKey(this);
+            sortKey = key;
+        }
+        
+        return key;
+    }
+    
+    /**
+     * The properties by which structures are sorted: start position, end position, name 
+     * and UUID. Names are interned so that structures with the same name can be 
+     * recognized without comparing strings. A key records the (immutable) objects it was 
+     * computed from, so that it can tell, by identity, whether any have been replaced.
+     */
+    static final class SortKey {
+        private static final Vocabulary NAMES = new Vocabulary();
+        
+        private final Integer startPosition;
+        private final Integer endPosition;
+        private final UUID uuid;
+        
+        final int start;
+        final int end;
+        final String name;
+        final int nameId;
+        final long uuidMsb;
+        final long uuidLsb;
+        
+        SortKey(Structure s) {
+            startPosition = s.startTokenPosition;
+            endPosition = s.endTokenPosition;
+            uuid = s.uuid;
+            
+            start = (startPosition != null) ? startPosition : -1;
+            end = (endPosition != null) ? endPosition + 1 : start;
+            name = s.name;
+            nameId = (name != null) ? NAMES.intern(name) : Vocabulary.NO_TERM;
+            uuidMsb = (uuid != null) ? uuid.getMostSignificantBits() : 0;
+            uuidLsb = (uuid != null) ? uuid.getLeastSignificantBits() : 0;
+        }
+        
+        boolean isFor(Structure s) {
+            return startPosition == s.startTokenPosition 
+                && endPosition == s.endTokenPosition
+                && name == s.name 
+                && uuid == s.uuid;
+        }
+    }
 }
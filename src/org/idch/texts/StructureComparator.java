@@ -5,6 +5,7 @@
 package org.idch.texts;
 
 import java.util.Comparator;
+import java.util.UUID;
 
 /**
  * Tests to determine the sequential relationship between two <tt>Structures</tt>. 
@@ -53,36 +54,49 @@ public class StructureComparator implements Comparator<Structure> {
         
         // Make sure these structures are from the same text. If not, we can't 
         // compare them.
-        if (!a.getWorkUUID().equals(b.getWorkUUID())) {
+        UUID work = a.getWorkUUID();
+        if (work != b.getWorkUUID() && !work.equals(b.getWorkUUID())) {
             // this is all we can do as per the API.
             throw new ClassCastException("Incomparable structures. " +
             		"These structures are defined for different texts.");  
         }
         
+        Structure.SortKey x = a.getSortKey();
+        Structure.SortKey y = b.getSortKey();
+        
         // If one structure starts before the other, it comes first. This holds for both
         // nested and overlapping structures.
-        int startDiff = a.getStart() - b.getStart();
-        if (startDiff != 0)
-            return startDiff;
+        if (x.start != y.start)
+            return (x.start < y.start) ? -1 : 1;
+        
+        // If they start at the same place, the one that ends last is the "earlier" 
+        // structure because it is nested inside the surrounding structure.
+        if (x.end != y.end)
+            return (x.end > y.end) ? -1 : 1;
         
-        // These structures are co-extensive. We'll order them (semi-arbitrarily) 
-        // by their names or UUIDs.
-        if (b.getEnd() == a.getEnd()) {
-            int order = a.getName().compareTo(b.getName());
-            if (order == 0) {
-                // This seems like a fringe case, but it is required to be consistent 
-                // with 'equals'.
-                String aUUID = a.getUUID().toString();                
-                String bUUID = b.getUUID().toString();
-                
-                order = aUUID.compareTo(bUUID);
-            }
+        // These structures are co-extensive. We'll order them (semi-arbitrarily) by their
+        // names and then their UUIDs. Name ids are assigned as names are first seen, so 
+        // they show whether two names are the same, but names themselves are compared 
+        // to keep this order the same in every process (e.g., for mapped work files).
+        if (x.nameId != y.nameId) {
+            if (x.name == null || y.name == null)
+                return (x.name == null) ? -1 : 1;
             
-            return order;
+            return x.name.compareTo(y.name);
         }
-
-        // If they start at the same place, the one that ends last is the "earlier" 
-        // structure because because it is nested inside the surrounding structure.
-        return b.getEnd() - a.getEnd();
+        
+        // UUIDs are compared as unsigned numbers, which is the order of their strings.
+        // This seems like a fringe case, but it is required to be consistent with 
+        // 'equals'.
+        if (x.uuidMsb != y.uuidMsb)
+            return compareUnsigned(x.uuidMsb, y.uuidMsb);
+        
+        return compareUnsigned(x.uuidLsb, y.uuidLsb);
+    }
+    
+    private static int compareUnsigned(long a, long b) {
+        a += Long.MIN_VALUE;
+        b += Long.MIN_VALUE;
+        return (a < b) ? -1 : ((a == b) ? 0 : 1);
     }
 }
\ No newline at end of file
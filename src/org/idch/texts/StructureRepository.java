@@ -3,6 +3,7 @@
  */
 package org.idch.texts;
 
+import java.util.Collection;
 import java.util.Map;
 import java.util.SortedSet;
 import java.util.UUID;
@@ -19,6 +20,17 @@ public interface StructureRepository {
     
     public Structure create(Structure s);
     
+    /**
+     * Creates a group of new structures. This is equivalent to calling 
+     * {@link #create(Structure)} for each structure, but allows the repository to store
+     * the group in fewer operations.
+     * 
+     * @param structures The structures to create. None of these may have been created.
+     * @return <tt>true</tt> if all of the structures were created, <tt>false</tt> if any
+     *      of them could not be. 
+     */
+    public boolean createAll(Collection<Structure> structures);
+    
     public boolean hasStructuresFor(UUID workId);
     
     public Structure synchronize(Structure s);
@@ -59,6 +71,18 @@ public interface StructureRepository {
      */
     public SortedSet<Structure> find(Work w, int position);
     
+    /**
+     * Looks up all structures within a work that include any of the tokens in the range 
+     * <tt>[start, end)</tt>, that is, all structures for which 
+     * <tt>getStart() &lt; end</tt> and <tt>getEnd() &gt; start</tt>.
+     *  
+     * @param w The work for which to retrieve structures.
+     * @param start The position of the first token in the range.
+     * @param end The position following the last token in the range.
+     * @return The specified structures or the empty set if no such structures exist.
+     */
+    public SortedSet<Structure> findOverlapping(Work w, int start, int end);
+    
     public SortedSet<Structure> find(Work w, String name, int start, int end);
     
     public SortedSet<Structure> find(Work w, String name, int start, int end, boolean strict);
@@ -68,4 +92,15 @@ public interface StructureRepository {
     public Map<UUID, SortedSet<Structure>> find(String name, String attribute, String value);
     
     public boolean save(Structure s);
+    
+    /**
+     * Saves a group of structures, creating those that have not yet been created. This 
+     * is equivalent to calling {@link #save(Structure)} for each structure, but allows 
+     * the repository to store the group in fewer operations.
+     * 
+     * @param structures The structures to save.
+     * @return <tt>true</tt> if all of the structures were saved, <tt>false</tt> if any
+     *      of them could not be. 
+     */
+    public boolean saveAll(Collection<Structure> structures);
 }
@@ -68,6 +68,11 @@ public class StructureWrapper extends Structure {
         return me.getEnd();
     }
     
+    @Override
+    SortKey getSortKey() {
+        return me.getSortKey();
+    }
+    
 //========================================================================================
 // ACCESSORS
 //========================================================================================
@@ -5,6 +5,8 @@ package org.idch.texts;
 
 import java.util.List;
 
+import org.idch.persist.RepositoryAccessException;
+
 /**
  * @author Neal Audenaert
  */
@@ -16,6 +18,17 @@ public interface TextModule {
     
     public StructureRepository getStructureRepository();
     
+    /**
+     * Begins a unit of work that groups the changes made by the current thread through 
+     * this module's repositories into a single transaction. If a unit of work is already
+     * active for this thread, the returned unit joins it: committing the inner unit has 
+     * no effect and rolling it back causes the outer unit to fail.
+     * 
+     * @return The unit of work. 
+     * @throws RepositoryAccessException If the unit of work could not be started.
+     */
+    public UnitOfWork beginUnitOfWork() throws RepositoryAccessException;
+    
     public Work getWork(TokenSequence s);
     public List<Token> getTokens(TokenSequence s);
     
@@ -68,16 +68,25 @@ public class Token implements Comparable<Token> {
      * @return
      */
     public static Token.Type classify(String string) {
-        Token.Type type = null;
-        if (string.matches(UNICODE_WORDSCHARS + "+")) {
-            type = Token.Type.WORD;
-        } else if (string.matches(UNICODE_PUNCTUATION + "+")) {
-            type = Token.Type.PUNCTUATION;
-        } else if (string.matches(UNICODE_WHITESPACE + "+")) {
-            type = Token.Type.WHITESPACE;
-        }
-        
-        return type;
+        return Tokenizer.classify(string);
+    }
+    
+    /** Generates the UUIDs of new tokens. */
+    private static volatile UUIDGenerator uuidGenerator = UUIDGenerator.TIME_ORDERED;
+    
+    /**
+     * Sets the generator used to create UUIDs for new tokens. By default, tokens are 
+     * assigned time-ordered UUIDs.
+     * 
+     * @param generator The UUID generator to use.
+     */
+    public static void setUUIDGenerator(UUIDGenerator generator) {
+        uuidGenerator = generator;
+    }
+    
+    /** Returns a new UUID for a token. */
+    static UUID nextUUID() {
+        return uuidGenerator.generate();
     }
     
     //====================================================================================
@@ -89,6 +98,7 @@ public class Token implements Comparable<Token> {
 	
 	private Work work;
 	private Token.Type type;
+	private int termId = Vocabulary.NO_TERM;
 	private String value;
 	private int position;
 	
@@ -110,15 +120,48 @@ public class Token implements Comparable<Token> {
 	 * @param text
 	 */
 	public Token(Work work, int position, String text) {
-		this.uuid = UUID.randomUUID();
-		
+		this(work, position, text, classify(text));
+	}
+	
+	/**
+	 * Creates a token whose type has already been determined, for example, by a 
+	 * {@link Tokenizer}.
+	 * 
+	 * @param work
+	 * @param position
+	 * @param text
+	 * @param type
+	 */
+	Token(Work work, int position, String text, Token.Type type) {
+	    this.uuid = nextUUID();
+	    
+	    this.work = work;
+	    this.type = type;
+	    this.position = position;
+	    this.setText(text);
+	}
+
+	/**
+	 * Used by the persistence layer to restore a previously created token. The text of 
+	 * the token is resolved from the work's vocabulary.
+	 *
+	 * @param work
+	 * @param position
+	 * @param termId
+	 * @param type
+	 * @param uuid
+	 */
+	public Token(Work work, int position, int termId, Token.Type type, UUID uuid) {
+		this.uuid = uuid;
+
 		this.work = work;
-		this.value = text;
-		this.type = classify(text);
+		this.termId = termId;
+		this.value = work.getVocabulary().getTerm(termId);
+		this.type = type;
 		this.position = position;
 	}
-	
-	
+
+
 	//====================================================================================
     // ACCESSORS & MUTATORS
     //====================================================================================
@@ -138,12 +181,32 @@ public class Token implements Comparable<Token> {
 	public void setUUIDString(String value) { this.uuid = UUID.fromString(value); }
 	
 	public Work getWork() { return work; }
-	public void setWork(Work w) { this.work = w; }
+	public void setWork(Work w) { 
+	    this.work = w;
+	    this.setText(this.value);     // term ids are specific to a work's vocabulary
+	}
 	
 	/** Returns the textual value of this token. */
     public String getText() { return this.value; }
     /** Used by the persistence layer to set this token's textual value. */
-    void setText(String value) { this.value = value; }
+    void setText(String value) {
+        if (work != null && value != null) {
+            // share a single String instance for all occurrences of this term
+            Vocabulary vocab = work.getVocabulary();
+            this.termId = vocab.intern(value);
+            this.value = vocab.getTerm(termId);
+        } else {
+            this.termId = Vocabulary.NO_TERM;
+            this.value = value;
+        }
+    }
+    
+    /** 
+     * Returns the id of this token's text in the work's vocabulary or 
+     * <tt>Vocabulary.NO_TERM</tt> if the text has not been added to a vocabulary. Tokens 
+     * from the same work have equal text if and only if they have the same term id.
+     */
+    public int getTermId() { return this.termId; }
     
     /** Returns the position of this token in the associated work's token stream. */
     public int getPosition() { return this.position; }
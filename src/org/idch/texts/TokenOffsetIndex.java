@@ -0,0 +1,136 @@
+/**
+ *
+ */
+package org.idch.texts;
+
+import java.util.List;
+
+
+/**
+ * Maps between the positions of tokens in a sequence and the character offsets of
+ * those tokens in the text of the sequence (that is, the concatenation of the tokens'
+ * text). The index stores the cumulative character offset of each token, so the offset
+ * of a token is found in constant time and the token containing a given character
+ * offset is found by binary search.
+ *
+ * <p>Indices are append-only. A <tt>Work</tt> maintains an index of its tokens that is
+ * extended as tokens are appended (see {@link Work#getOffsetIndex()}).
+ *
+ * @author Neal Audenaert
+ */
+public class TokenOffsetIndex {
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    //===================================================================================
+    // MEMBER VARIABLES
+    //===================================================================================
+
+    /**
+     * The character offset of each token. The text of token <tt>i</tt> occupies the
+     * characters <tt>[offsets[i], offsets[i + 1])</tt>.
+     */
+    private int[] offsets;
+    private int size = 0;
+
+    //===================================================================================
+    // CONSTRUCTORS
+    //===================================================================================
+
+    public TokenOffsetIndex() {
+        this.offsets = new int[INITIAL_CAPACITY + 1];
+    }
+
+    /**
+     * Creates an index of the supplied tokens.
+     *
+     * @param tokens The tokens to index, in sequence.
+     */
+    public TokenOffsetIndex(List<Token> tokens) {
+        this.offsets = new int[tokens.size() + 1];
+        this.addAll(tokens);
+    }
+
+    //===================================================================================
+    // INDEX METHODS
+    //===================================================================================
+
+    /** Returns the number of tokens in this index. */
+    public synchronized int size() {
+        return size;
+    }
+
+    /** Returns the total number of characters in the indexed tokens. */
+    public synchronized int length() {
+        return offsets[size];
+    }
+
+    /**
+     * Adds a token to the end of this index.
+     *
+     * @param t The token to add.
+     */
+    public synchronized void add(Token t) {
+        if (size + 1 == offsets.length) {
+            int[] expanded = new int[offsets.length * 2];
+            System.arraycopy(offsets, 0, expanded, 0, size + 1);
+            offsets = expanded;
+        }
+
+        String text = t.getText();
+        offsets[size + 1] = offsets[size] + ((text != null) ? text.length() : 0);
+        size++;
+    }
+
+    /**
+     * Adds a list of tokens to the end of this index.
+     *
+     * @param tokens The tokens to add, in sequence.
+     */
+    public synchronized void addAll(List<Token> tokens) {
+        for (Token t : tokens) {
+            this.add(t);
+        }
+    }
+
+    /**
+     * Returns the character offset at which the token at the specified index starts.
+     *
+     * @param index The index of the token.
+     * @return The character offset of the token.
+     * @throws IndexOutOfBoundsException If the index is not in <tt>[0, size()]</tt>.
+     */
+    public synchronized int offsetOf(int index) {
+        if (index < 0 || index > size)
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+
+        return offsets[index];
+    }
+
+    /**
+     * Returns the index of the token that contains the specified character offset.
+     *
+     * @param offset The character offset.
+     * @return The index of the token containing the offset or <tt>-1</tt> if the offset
+     *      lies outside the indexed text.
+     */
+    public synchronized int indexAt(int offset) {
+        if (offset < 0 || offset >= offsets[size])
+            return -1;
+
+        // find the last token starting at or before the offset. Empty tokens share their
+        // offset with the following token and are skipped.
+        int lo = 0;
+        int hi = size - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (offsets[mid] <= offset) {
+                lo = mid;
+            } else {
+                hi = mid - 1;
+            }
+        }
+
+        return lo;
+    }
+}
@@ -24,6 +24,21 @@ public interface TokenRepository {
     
     public List<Token> find(Work w, int start, int end);
     
+    /**
+     * Passes the tokens of a work in the range <tt>[start, end)</tt> to a visitor, in 
+     * order of position. Unlike {@link #find(Work, int, int)}, this does not hold the 
+     * whole range in memory, so it should be used to read large ranges such as a 
+     * complete work.
+     * 
+     * @param w The work whose tokens should be visited.
+     * @param start The starting position (inclusive) of the tokens to visit.
+     * @param end The ending position (exclusive) of the tokens to visit.
+     * @param visitor The visitor to receive the tokens.
+     * @return <tt>true</tt> if all tokens in the range were visited, <tt>false</tt> if the
+     *      visitor stopped early or the tokens could not be retrieved. 
+     */
+    public boolean forEach(Work w, int start, int end, TokenVisitor visitor);
+    
     public List<Token> find(Structure s);
     
 //    public void save(Token t);
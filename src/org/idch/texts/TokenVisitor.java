@@ -0,0 +1,22 @@
+/**
+ *
+ */
+package org.idch.texts;
+
+
+/**
+ * Receives the tokens of a range in order of position (see
+ * {@link TokenRepository#forEach(Work, int, int, TokenVisitor)}).
+ *
+ * @author Neal Audenaert
+ */
+public interface TokenVisitor {
+
+    /**
+     * Called for each token in the range.
+     *
+     * @param t The token.
+     * @return <tt>true</tt> to continue with the next token, <tt>false</tt> to stop.
+     */
+    public boolean visit(Token t);
+}
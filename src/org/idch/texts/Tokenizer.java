@@ -0,0 +1,222 @@
+/**
+ *
+ */
+package org.idch.texts;
+
+
+/**
+ * Splits text into tokens in a single pass over its code points. This produces the same
+ * tokens as matching {@link Token#TOKENIZATION_PATTERN} against the text, but classifies
+ * each character with <tt>Character.getType</tt> rather than a regular expression, and
+ * reports the type of each token as it is found.
+ *
+ * <p>Typical usage:
+ * <pre>
+ *   Tokenizer tokenizer = new Tokenizer(text);
+ *   while (tokenizer.next()) {
+ *       Token.Type type = tokenizer.getType();
+ *       String token = tokenizer.getToken();
+ *       ...
+ *   }
+ * </pre>
+ *
+ * <p>Text may be supplied either as a <tt>CharSequence</tt> or as a range of a character
+ * array. In the latter case, tokens are reported as offsets into the array, so that
+ * callers such as SAX handlers can consume tokens without creating strings.
+ *
+ * <p>Tokens are runs of characters of the same class: word characters, punctuation,
+ * whitespace or unknown characters. Unknown tokens have a <tt>null</tt> type. As with the
+ * regular expression, a run of unknown characters extends over any newline or tab
+ * characters that immediately follow it.
+ *
+ * @author Neal Audenaert
+ */
+public class Tokenizer {
+
+    //===================================================================================
+    // CHARACTER CLASSES
+    //===================================================================================
+
+    private static final int WORD = 0;
+    private static final int PUNCTUATION = 1;
+    private static final int WHITESPACE = 2;
+    private static final int UNKNOWN = 3;
+
+    /** The token type corresponding to each character class. */
+    private static final Token.Type[] TYPES = {
+        Token.Type.WORD, Token.Type.PUNCTUATION, Token.Type.WHITESPACE, null
+    };
+
+    /**
+     * Returns the class of a code point, as defined by {@link Token#UNICODE_WORDSCHARS},
+     * {@link Token#UNICODE_PUNCTUATION} and {@link Token#UNICODE_WHITESPACE}.
+     */
+    private static int classOf(int cp) {
+        if (cp >= '0' && cp <= '9')
+            return WORD;            // \d matches ASCII digits only
+
+        switch (Character.getType(cp)) {
+        case Character.UPPERCASE_LETTER:
+        case Character.LOWERCASE_LETTER:
+        case Character.TITLECASE_LETTER:
+        case Character.MODIFIER_LETTER:
+        case Character.OTHER_LETTER:
+        case Character.MODIFIER_SYMBOL:
+            return WORD;
+
+        case Character.CONNECTOR_PUNCTUATION:
+        case Character.DASH_PUNCTUATION:
+        case Character.START_PUNCTUATION:
+        case Character.END_PUNCTUATION:
+        case Character.INITIAL_QUOTE_PUNCTUATION:
+        case Character.FINAL_QUOTE_PUNCTUATION:
+        case Character.OTHER_PUNCTUATION:
+            return PUNCTUATION;
+
+        case Character.SPACE_SEPARATOR:
+        case Character.LINE_SEPARATOR:
+        case Character.PARAGRAPH_SEPARATOR:
+            return WHITESPACE;
+
+        default:
+            return (cp == '\n' || cp == '\t') ? WHITESPACE : UNKNOWN;
+        }
+    }
+
+    /**
+     * Indicates whether a code point belongs to a token of the specified class. Unknown
+     * tokens include newlines and tabs, which are otherwise whitespace.
+     */
+    private static boolean continues(int cls, int cp) {
+        int c = classOf(cp);
+        return (c == cls) || (cls == UNKNOWN && (cp == '\n' || cp == '\t'));
+    }
+
+    /**
+     * Returns the type of token formed by the supplied string. This is equivalent to
+     * testing the string against each of the token character classes in turn.
+     *
+     * @param text The string to classify.
+     * @return The type of the token or <tt>null</tt> if the string is empty or is not a
+     *      single word, punctuation or whitespace token.
+     */
+    public static Token.Type classify(CharSequence text) {
+        int len = text.length();
+        if (len == 0)
+            return null;
+
+        int cp = Character.codePointAt(text, 0);
+        int cls = classOf(cp);
+        for (int i = Character.charCount(cp); i < len; i += Character.charCount(cp)) {
+            cp = Character.codePointAt(text, i);
+            if (classOf(cp) != cls)
+                return null;
+        }
+
+        return TYPES[cls];
+    }
+
+    //===================================================================================
+    // MEMBER VARIABLES
+    //===================================================================================
+
+    private final CharSequence text;
+    private final char[] buf;
+    private final int limit;
+
+    private int start;
+    private int end;
+    private int cls = UNKNOWN;
+
+    //===================================================================================
+    // CONSTRUCTORS
+    //===================================================================================
+
+    /**
+     * @param text The text to tokenize.
+     */
+    public Tokenizer(CharSequence text) {
+        this.text = text;
+        this.buf = null;
+        this.limit = text.length();
+        this.end = 0;
+    }
+
+    /**
+     * @param buf The buffer containing the text to tokenize.
+     * @param off The offset of the first character to tokenize.
+     * @param len The number of characters to tokenize.
+     */
+    public Tokenizer(char[] buf, int off, int len) {
+        if (off < 0 || len < 0 || off + len > buf.length)
+            throw new IndexOutOfBoundsException("Offset: " + off + ", Length: " + len);
+
+        this.text = null;
+        this.buf = buf;
+        this.limit = off + len;
+        this.end = off;
+    }
+
+    private int codePointAt(int index) {
+        return (buf != null)
+            ? Character.codePointAt(buf, index, limit)
+            : Character.codePointAt(text, index);
+    }
+
+    //===================================================================================
+    // TOKENIZER METHODS
+    //===================================================================================
+
+    /**
+     * Advances to the next token in the text.
+     *
+     * @return <tt>true</tt> if a token was found, <tt>false</tt> if the end of the text
+     *      has been reached.
+     */
+    public boolean next() {
+        start = end;
+        if (start >= limit)
+            return false;
+
+        int cp = codePointAt(start);
+        cls = classOf(cp);
+        end = start + Character.charCount(cp);
+        while (end < limit) {
+            cp = codePointAt(end);
+            if (!continues(cls, cp))
+                break;
+
+            end += Character.charCount(cp);
+        }
+
+        return true;
+    }
+
+    /**
+     * Returns the offset of the first character of the current token. Offsets into a
+     * character array are relative to the start of the array.
+     */
+    public int getStart() {
+        return start;
+    }
+
+    /** Returns the offset just past the last character of the current token. */
+    public int getEnd() {
+        return end;
+    }
+
+    /**
+     * Returns the type of the current token, or <tt>null</tt> if the token consists of
+     * characters that are not word characters, punctuation or whitespace.
+     */
+    public Token.Type getType() {
+        return TYPES[cls];
+    }
+
+    /** Returns the text of the current token. */
+    public String getToken() {
+        return (buf != null)
+            ? new String(buf, start, end - start)
+            : text.subSequence(start, end).toString();
+    }
+}
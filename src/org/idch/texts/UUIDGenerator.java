@@ -0,0 +1,97 @@
+/**
+ *
+ */
+package org.idch.texts;
+
+import java.util.Random;
+import java.util.UUID;
+
+
+/**
+ * Generates the identifiers assigned to newly created tokens and structures (see
+ * {@link Token#setUUIDGenerator(UUIDGenerator)} and
+ * {@link Structure#setUUIDGenerator(UUIDGenerator)}).
+ *
+ * <p>Two generators are provided. {@link #RANDOM} creates version 4 (random) UUIDs using
+ * <tt>UUID.randomUUID()</tt>, which draws from a shared <tt>SecureRandom</tt>.
+ * {@link #TIME_ORDERED} creates version 7 style UUIDs: a 48 bit millisecond timestamp
+ * followed by a 12 bit sequence number and 62 random bits. Time-ordered UUIDs are
+ * generated from per-thread state without locking and, since successive identifiers
+ * increase, they are inserted at the end of a database's <tt>uuid</tt> index rather than
+ * at random positions. They are unique but not unpredictable and must not be used as
+ * secrets.
+ *
+ * @author Neal Audenaert
+ */
+public abstract class UUIDGenerator {
+
+    /** Generates random (version 4) UUIDs. */
+    public static final UUIDGenerator RANDOM = new UUIDGenerator() {
+        @Override
+        public UUID generate() {
+            return UUID.randomUUID();
+        }
+    };
+
+    /** Generates time-ordered (version 7) UUIDs. */
+    public static final UUIDGenerator TIME_ORDERED = new TimeOrderedGenerator();
+
+    /** Returns a new UUID. */
+    public abstract UUID generate();
+
+    //===================================================================================
+    // TIME ORDERED GENERATOR
+    //===================================================================================
+
+    /**
+     * Generates version 7 UUIDs. Within a thread, UUIDs are strictly increasing: the
+     * sequence number distinguishes UUIDs created in the same millisecond and, if it
+     * overflows, the timestamp is advanced. UUIDs from different threads are
+     * distinguished by their random bits.
+     */
+    private static class TimeOrderedGenerator extends UUIDGenerator {
+
+        private static final int SEQUENCE_BITS = 12;
+        private static final int MAX_SEQUENCE = (1 << SEQUENCE_BITS) - 1;
+
+        private static final long VERSION = 0x7000L;
+        private static final long VARIANT = 0x8000000000000000L;
+        private static final long RANDOM_MASK = 0x3FFFFFFFFFFFFFFFL;
+
+        /** The per-thread state of the generator. */
+        private static class State {
+            final Random random = new Random();
+            long timestamp = 0;
+            int sequence = 0;
+        }
+
+        private final ThreadLocal<State> state = new ThreadLocal<State>() {
+            @Override
+            protected State initialValue() {
+                return new State();
+            }
+        };
+
+        @Override
+        public UUID generate() {
+            State s = state.get();
+
+            long now = System.currentTimeMillis();
+            if (now > s.timestamp) {
+                // start each millisecond at a random point in the lower half of the
+                // sequence space, leaving room to count up
+                s.timestamp = now;
+                s.sequence = s.random.nextInt((MAX_SEQUENCE + 1) / 2);
+            } else if (s.sequence < MAX_SEQUENCE) {
+                s.sequence++;
+            } else {
+                s.timestamp++;
+                s.sequence = 0;
+            }
+
+            long msb = (s.timestamp << 16) | VERSION | s.sequence;
+            long lsb = VARIANT | (s.random.nextLong() & RANDOM_MASK);
+            return new UUID(msb, lsb);
+        }
+    }
+}
@@ -0,0 +1,55 @@
+/**
+ *
+ */
+package org.idch.texts;
+
+import org.idch.persist.RepositoryAccessException;
+
+
+/**
+ * A transaction that spans many repository calls (see
+ * {@link TextModule#beginUnitOfWork()}). While a unit of work is active, the
+ * repositories of the module that created it apply their changes within the unit's
+ * transaction rather than committing each change separately. Changes become durable when
+ * the unit is checkpointed or committed and are discarded if it is rolled back.
+ *
+ * <p>A unit of work is bound to the thread that began it. Units must be ended by calling
+ * either <tt>commit</tt> or <tt>rollback</tt>, typically as follows:
+ *
+ * <pre>
+ *   UnitOfWork unit = module.beginUnitOfWork();
+ *   try {
+ *       ...
+ *       unit.commit();
+ *   } finally {
+ *       unit.rollback();        // has no effect if the unit was committed
+ *   }
+ * </pre>
+ *
+ * @author Neal Audenaert
+ */
+public interface UnitOfWork {
+
+    /**
+     * Commits the changes made so far and continues the unit of work.
+     *
+     * @throws RepositoryAccessException If the changes could not be committed or if a
+     *      change made within this unit of work failed. In either case, the changes made
+     *      since the last checkpoint have been discarded.
+     */
+    public void checkpoint() throws RepositoryAccessException;
+
+    /**
+     * Commits the changes made so far and ends the unit of work.
+     *
+     * @throws RepositoryAccessException If the changes could not be committed or if a
+     *      change made within this unit of work failed.
+     */
+    public void commit() throws RepositoryAccessException;
+
+    /**
+     * Discards any changes made since the last checkpoint and ends the unit of work. This
+     * has no effect if the unit of work has already ended.
+     */
+    public void rollback();
+}
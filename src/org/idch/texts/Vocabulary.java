@@ -0,0 +1,262 @@
+/**
+ *
+ */
+package org.idch.texts;
+
+
+/**
+ * A dictionary of the distinct token strings used in a <tt>Work</tt>. Each distinct string
+ * (term) is assigned a dense integer identifier the first time it is encountered. Tokens
+ * store this term id rather than their own copy of the text, so that all occurrences of a
+ * term (e.g., 'καὶ' or ' ') share a single <tt>String</tt> instance. Two tokens from the
+ * same work have the same text if and only if they have the same term id.
+ *
+ * <p>Term ids are assigned sequentially starting at <tt>0</tt> and are never reused or
+ * reassigned. Updates are synchronized; lookups by id and by term do not block.
+ *
+ * @author Neal Audenaert
+ */
+public class Vocabulary {
+
+    //===================================================================================
+    // SYMBOLIC CONSTANTS
+    //===================================================================================
+
+    /** Returned by {@link #lookup(String)} for terms that are not in the vocabulary. */
+    public static final int NO_TERM = -1;
+
+    private static final int INITIAL_CAPACITY = 256;
+
+    //===================================================================================
+    // MEMBER VARIABLES
+    //===================================================================================
+
+    /** The terms in this vocabulary, indexed by term id. */
+    private volatile String[] terms = new String[INITIAL_CAPACITY];
+    private volatile int size = 0;
+
+    /**
+     * Open addressing hash table mapping terms to ids. Each slot holds the term id + 1 or
+     * <tt>0</tt> if the slot is empty. Slots are filled before the term's id is published
+     * by <tt>size</tt>, so readers ignore ids that are not less than <tt>size</tt>.
+     */
+    private volatile int[] table = new int[INITIAL_CAPACITY * 2];
+
+    //===================================================================================
+    // CONSTRUCTORS
+    //===================================================================================
+
+    public Vocabulary() {
+
+    }
+
+    //===================================================================================
+    // HELPER METHODS
+    //===================================================================================
+
+    private static int hash(String term) {
+        return spread(term.hashCode());
+    }
+
+    /** Returns the same hash as {@link #hash(String)} for a range of characters. */
+    private static int hash(char[] buf, int off, int len) {
+        int h = 0;
+        for (int i = off; i < off + len; i++) {
+            h = 31 * h + buf[i];
+        }
+
+        return spread(h);
+    }
+
+    private static int spread(int h) {
+        return h ^ (h >>> 16);
+    }
+
+    private static boolean matches(String term, char[] buf, int off, int len) {
+        if (term.length() != len)
+            return false;
+
+        for (int i = 0; i < len; i++) {
+            if (term.charAt(i) != buf[off + i])
+                return false;
+        }
+
+        return true;
+    }
+
+    /** Returns the slot of the supplied term or the empty slot where it should be added. */
+    private int slot(String term) {
+        int mask = table.length - 1;
+        int slot = hash(term) & mask;
+        int entry;
+        while ((entry = table[slot]) != 0) {
+            if (terms[entry - 1].equals(term))
+                break;
+
+            slot = (slot + 1) & mask;
+        }
+
+        return slot;
+    }
+
+    /** Returns the slot of the supplied characters or the empty slot for them. */
+    private int slot(char[] buf, int off, int len) {
+        int mask = table.length - 1;
+        int slot = hash(buf, off, len) & mask;
+        int entry;
+        while ((entry = table[slot]) != 0) {
+            if (matches(terms[entry - 1], buf, off, len))
+                break;
+
+            slot = (slot + 1) & mask;
+        }
+
+        return slot;
+    }
+
+    /** Adds a term that is known not to be in the vocabulary. Must hold the lock. */
+    private int add(String term, int slot) {
+        int id = size;
+        String[] t = terms;
+        if (id == t.length) {
+            String[] expanded = new String[t.length * 2];
+            System.arraycopy(t, 0, expanded, 0, id);
+            t = expanded;
+        }
+
+        t[id] = term;
+        terms = t;
+        table[slot] = id + 1;
+        size = id + 1;
+
+        if (size * 2 > table.length) {
+            rehash(table.length * 2);
+        }
+
+        return id;
+    }
+
+    /** Builds a larger table and then publishes it, so that readers see a full table. */
+    private void rehash(int capacity) {
+        int[] tbl = new int[capacity];
+
+        int mask = capacity - 1;
+        for (int id = 0; id < size; id++) {
+            int slot = hash(terms[id]) & mask;
+            while (tbl[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+
+            tbl[slot] = id + 1;
+        }
+
+        table = tbl;
+    }
+
+    //===================================================================================
+    // VOCABULARY METHODS
+    //===================================================================================
+
+    /** Returns the number of terms in this vocabulary. */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * Returns the id of the supplied term, adding it to the vocabulary if needed.
+     *
+     * @param term The term whose id should be returned.
+     * @return The id of the supplied term.
+     */
+    public synchronized int intern(String term) {
+        int slot = slot(term);
+        int entry = table[slot];
+
+        return (entry != 0) ? entry - 1 : add(term, slot);
+    }
+
+    /**
+     * Returns the id of the term formed by a range of characters, adding it to the
+     * vocabulary if needed. The characters are copied only if the term is new, which
+     * allows tokenizers to intern text directly from their input buffers.
+     *
+     * @param buf The buffer containing the term.
+     * @param off The offset of the first character of the term.
+     * @param len The number of characters in the term.
+     * @return The id of the term.
+     */
+    public synchronized int intern(char[] buf, int off, int len) {
+        int slot = slot(buf, off, len);
+        int entry = table[slot];
+
+        return (entry != 0) ? entry - 1 : add(new String(buf, off, len), slot);
+    }
+
+    /**
+     * Returns the id of the supplied term, without adding it to the vocabulary. This
+     * allows callers to compare the text of tokens by term id.
+     *
+     * @param term The term to look up.
+     * @return The id of the supplied term or <tt>NO_TERM</tt> if this vocabulary does
+     *      not contain the term.
+     */
+    public int lookup(String term) {
+        int n = size;                       // read first: publishes the terms below it
+        String[] t = terms;
+        int[] tbl = table;
+
+        int mask = tbl.length - 1;
+        int slot = hash(term) & mask;
+        int entry;
+        while ((entry = tbl[slot]) != 0) {
+            int id = entry - 1;
+            if (id < n && t[id].equals(term))
+                return id;
+
+            slot = (slot + 1) & mask;
+        }
+
+        return NO_TERM;
+    }
+
+    /**
+     * Returns the term with the supplied id.
+     *
+     * @param id The id of the term to return.
+     * @return The term with the supplied id or <tt>null</tt> if no such term has been
+     *      defined.
+     */
+    public String getTerm(int id) {
+        int n = size;                       // read first: publishes the terms below it
+        String[] t = terms;
+        return (id >= 0 && id < n) ? t[id] : null;
+    }
+
+    /**
+     * Used by the persistence layer to restore a previously stored term. Terms must be
+     * defined in order of their ids.
+     *
+     * @param id The id of the term.
+     * @param term The term.
+     * @throws IllegalStateException If the supplied id conflicts with the current state of
+     *      this vocabulary.
+     */
+    public synchronized void define(int id, String term) {
+        if (id < size) {
+            if (!terms[id].equals(term))
+                throw new IllegalStateException("Conflicting definitions for term " + id +
+                        ": '" + terms[id] + "' and '" + term + "'");
+
+            return;
+        } else if (id > size) {
+            throw new IllegalStateException("Terms must be defined in order. Expected id " +
+                    size + " but found " + id);
+        }
+
+        int slot = slot(term);
+        if (table[slot] != 0)
+            throw new IllegalStateException("Duplicate term: '" + term + "'");
+
+        add(term, slot);
+    }
+}
@@ -11,8 +11,6 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
 import java.util.UUID;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 
 
@@ -67,13 +65,25 @@ public class Work extends AbstractTokenSequence {
 	
 	private TokenRepository tokens = null;
 	
-	private int tokenBufferStart = 0;
+	/** The distinct token strings used in this work. */
+	private final Vocabulary vocabulary = new Vocabulary();
+	
+	/** 
+	 * The number of tokens that have been written to the token repository, or 
+	 * <tt>UNKNOWN</tt> if this has not yet been retrieved. Buffered tokens start here.
+	 */
+	private int tokenBufferStart = UNKNOWN;
 	private List<Token> tokenBuffer = new ArrayList<Token>();
 	
     boolean lastTokenWasWhitespace = true;         // used when importing tokens
 
     // Of dubious value - cache at the repo level
 	private Cache<Integer, Token> tokenCache = new Cache<Integer, Token>("tokens", 1000);
+	
+	/** Character offsets of this work's tokens. Built on demand, extended on append. */
+	private TokenOffsetIndex offsetIndex = null;
+	
+	private static final int UNKNOWN = -1;
 
 //============================================================================================
 // CONSTRUCTORS
@@ -109,6 +119,11 @@ public class Work extends AbstractTokenSequence {
 		this.description = desc;
 	}
 	
+	/** Returns the dictionary of distinct token strings used in this work. */
+	public Vocabulary getVocabulary() {
+	    return this.vocabulary;
+	}
+	
 	public TokenRepository getTokenRepository() {
 	    if (this.tokens == null) {
             try {
@@ -126,6 +141,21 @@ public class Work extends AbstractTokenSequence {
 	    return this.tokens;
 	}
 
+	/**
+	 * Sets the repository used to store and retrieve the tokens of this work. By default, 
+	 * works use the token repository of the globally configured <tt>TextModule</tt>. 
+	 * Repositories that are not the configured module (for example, a work loaded from a 
+	 * file) bind their works explicitly.
+	 * 
+	 * @param tokens The token repository for this work.
+	 */
+	public void setTokenRepository(TokenRepository tokens) {
+	    this.tokens = tokens;
+	    if (tokenBuffer.isEmpty()) {
+	        this.tokenBufferStart = UNKNOWN;
+	    }
+	}
+
 	//===================================================================================
 	// METHODS TO CREATE AND QUERY THE CONTENTS OF THIS WORK
 	//===================================================================================
@@ -133,10 +163,68 @@ public class Work extends AbstractTokenSequence {
 	private boolean useTokenBuffer = true;
 	private int maxTokenBuffer = 100;
 	
+	/**
+	 * Sets the number of appended tokens that are buffered before they are written to 
+	 * the token repository. Larger buffers allow more tokens to be written in a single 
+	 * batch. The default is 100.
+	 * 
+	 * @param size The number of tokens to buffer. Must be at least 1.
+	 * @throws IllegalArgumentException If <tt>size</tt> is less than 1.
+	 */
+	public void setMaxTokenBuffer(int size) {
+	    if (size < 1)
+	        throw new IllegalArgumentException("Invalid token buffer size: " + size);
+	    
+	    this.maxTokenBuffer = size;
+	}
+	
+	/**
+	 * Sets whether appended tokens are buffered and written to the token repository in 
+	 * batches or are written as they are appended. Any buffered tokens are written when 
+	 * buffering is turned off.
+	 */
+	public void setUseTokenBuffer(boolean flag) {
+	    if (!flag) {
+	        this.flushTokens();
+	    }
+	    
+	    this.useTokenBuffer = flag;
+	}
+	
 	public void flushTokens() {
-	    this.getTokenRepository().create(tokenBuffer);
+	    if (tokenBuffer.isEmpty())
+	        return;
+	    
+	    int stored = this.getStoredTokenCount();
+	    List<Token> created = this.getTokenRepository().create(tokenBuffer);
+	    this.tokenBufferStart = (created != null) ? stored + tokenBuffer.size() : UNKNOWN;
         tokenBuffer.clear();
-        this.tokenBufferStart = this.getTokenRepository().getNumberOfTokens(this);
+	}
+	
+	/**
+	 * Returns the number of this work's tokens that have been written to the token 
+	 * repository. The count is retrieved from the repository the first time it is needed
+	 * and is maintained as tokens are written, so that <tt>size()</tt> does not require a 
+	 * query for each call.
+	 */
+	private int getStoredTokenCount() {
+	    if (this.tokenBufferStart == UNKNOWN) {
+	        if (this.id == null)
+	            return 0;       // no tokens can be stored until this work has been created
+	        
+	        this.tokenBufferStart = Math.max(0, this.getTokenRepository().getNumberOfTokens(this));
+	    }
+	    
+	    return this.tokenBufferStart;
+	}
+	
+	/**
+	 * Discards the cached number of tokens in this work. This should be called if this 
+	 * work's tokens are modified other than through this work.
+	 */
+	public void invalidateTokenCount() {
+	    this.flushTokens();
+	    this.tokenBufferStart = UNKNOWN;
 	}
 	
 	/**
@@ -145,11 +233,28 @@ public class Work extends AbstractTokenSequence {
      * @return
      */
     public Token append(String value) {
+        return append(value, Token.classify(value));
+    }
+    
+    /**
+     * Appends a token whose type has already been determined.
+     */
+    private Token append(String value, Token.Type type) {
+        return append(new Token(this, this.size(), value, type));
+    }
+    
+    /**
+     * Appends a token for a term in this work's vocabulary.
+     */
+    private Token append(int termId, Token.Type type) {
+        return append(new Token(this, this.size(), termId, type, Token.nextUUID()));
+    }
+    
+    private Token append(Token t) {
         // FIXME  this may have synchronization issues, but this will be used only in
         //        pretty rare instances, so it likely doesn't pose a problem in the 
         //        near term (2011-2012)
         
-        Token t = new Token(this, this.size(), value);
         if (useTokenBuffer) {
             // TODO synchronize on tokenBuffer
             tokenBuffer.add(t);
@@ -158,12 +263,24 @@ public class Work extends AbstractTokenSequence {
             }
         } else {
             t = this.getTokenRepository().create(t);
+            if (t != null) {
+                if (this.tokenBufferStart != UNKNOWN)
+                    this.tokenBufferStart++;    // otherwise, counted when next needed
+            } else {
+                this.tokenBufferStart = UNKNOWN;
+                return null;
+            }
         }
         
         synchronized (tokenCache) {
             tokenCache.cache(t.getPosition(), t);
         }
         
+        synchronized (this) {
+            if ((offsetIndex != null) && (offsetIndex.size() == t.getPosition())) 
+                offsetIndex.add(t);
+        }
+        
         return t; 
     }
     
@@ -180,33 +297,73 @@ public class Work extends AbstractTokenSequence {
         if (text == null)
             return tokens;
         
-        Matcher mat = Pattern.compile(Token.TOKENIZATION_PATTERN).matcher(text);
-        while (mat.find()) {
-            String token = mat.group();
-
-            Token.Type type = Token.classify(token);
+        Tokenizer tokenizer = new Tokenizer(text);
+        while (tokenizer.next()) {
+            Token.Type type = tokenizer.getType();
             if (type == null) {
                 continue;       // TODO do something about this 
 
             } else if (type == Token.Type.WHITESPACE) {
                 if (!lastTokenWasWhitespace) { // normalize whitespace.
-                    tokens.add(append(WHITESPACE));
+                    tokens.add(append(WHITESPACE, type));
                 }
 
                 lastTokenWasWhitespace = true;
             } else {
                 lastTokenWasWhitespace = false;
-                tokens.add(append(token));
+                tokens.add(append(tokenizer.getToken(), type));
             }
         }
        
         return tokens;
     }
     
+    /**
+     * Tokenizes a range of characters and appends the resulting tokens to this work. 
+     * This behaves like {@link #appendAll(String)}, but reads the text directly from the 
+     * supplied buffer (for example, the buffer passed to a SAX <tt>characters</tt> 
+     * callback). The text of each token is resolved through this work's vocabulary, so 
+     * characters are copied only for terms that have not been seen before.
+     * 
+     * @param buf The buffer containing the text.
+     * @param off The offset of the first character to append.
+     * @param len The number of characters to append.
+     * @return The number of tokens appended. 
+     */
+    public int append(char[] buf, int off, int len) {
+        int ct = 0;
+        int whitespace = Vocabulary.NO_TERM;
+        Tokenizer tokenizer = new Tokenizer(buf, off, len);
+        while (tokenizer.next()) {
+            Token.Type type = tokenizer.getType();
+            if (type == null) {
+                continue;       // TODO do something about this 
+
+            } else if (type == Token.Type.WHITESPACE) {
+                if (!lastTokenWasWhitespace) { // normalize whitespace.
+                    if (whitespace == Vocabulary.NO_TERM)
+                        whitespace = vocabulary.intern(WHITESPACE);
+                    
+                    append(whitespace, type);
+                    ct++;
+                }
+
+                lastTokenWasWhitespace = true;
+            } else {
+                int start = tokenizer.getStart();
+                lastTokenWasWhitespace = false;
+                append(vocabulary.intern(buf, start, tokenizer.getEnd() - start), type);
+                ct++;
+            }
+        }
+        
+        return ct;
+    }
+    
 	/** Returns the token at the specified index. */
     public Token get(int index) {
         Token t = null;
-        if ((this.useTokenBuffer) && (index > this.tokenBufferStart)) {
+        if ((this.useTokenBuffer) && (index >= this.getStoredTokenCount())) {
             int ix = index - this.tokenBufferStart;
             if (ix >= this.tokenBuffer.size()) {
                 throw new IndexOutOfBoundsException("Index: " + ix + ", Size: " + tokenBuffer.size());
@@ -227,15 +384,63 @@ public class Work extends AbstractTokenSequence {
         return t;
     }
 
-    public int size() {
-        int sz = 0;
-        if (this.useTokenBuffer) {
-            sz = this.tokenBufferStart + this.tokenBuffer.size();
-        } else {
-            sz = this.getTokenRepository().getNumberOfTokens(this);
+    /**
+     * Returns the tokens in the range <tt>[from, to)</tt>. Tokens that have already been 
+     * written to the token repository are retrieved with a single query; any remaining 
+     * tokens are taken from the buffer of tokens waiting to be written.
+     */
+    @Override
+    protected List<Token> getRange(int from, int to) {
+        if (!this.useTokenBuffer || to <= this.getStoredTokenCount()) 
+            return this.getTokenRepository().find(this, from, to);
+        
+        List<Token> tokens = new ArrayList<Token>(to - from);
+        if (from < this.tokenBufferStart) {
+            tokens.addAll(this.getTokenRepository().find(this, from, this.tokenBufferStart));
+            from = this.tokenBufferStart;
+        }
+        
+        int start = from - this.tokenBufferStart;
+        int end = Math.min(to - this.tokenBufferStart, this.tokenBuffer.size());
+        if (start < end) {
+            tokens.addAll(this.tokenBuffer.subList(start, end));
+        }
+        
+        return tokens;
+    }
+    
+    /**
+     * Returns an index that maps between the positions of this work's tokens and their 
+     * character offsets in the text of this work. The index is built when it is first 
+     * requested and is extended as tokens are appended to this work. 
+     * 
+     * @return The character offset index for this work.
+     */
+    public synchronized TokenOffsetIndex getOffsetIndex() {
+        if (offsetIndex == null) {
+            offsetIndex = new TokenOffsetIndex();
         }
         
-        return sz;
+        int sz = this.size();
+        int blockSize = 4096;
+        for (int from = offsetIndex.size(); from < sz; from += blockSize) {
+            int to = Math.min(sz, from + blockSize);
+            List<Token> tokens = this.getRange(from, to);
+            int n = (tokens != null) ? Math.min(tokens.size(), to - from) : 0;
+            if (n > 0) {
+                offsetIndex.addAll(tokens.subList(0, n));
+            }
+            
+            for (int i = from + n; i < to; i++) {
+                offsetIndex.add(this.get(i));
+            }
+        }
+        
+        return offsetIndex;
+    }
+    
+    public int size() {
+        return this.getStoredTokenCount() + this.tokenBuffer.size();
     }
 	
 	
@@ -260,6 +465,8 @@ public class Work extends AbstractTokenSequence {
 	String getUUIDString() { return this.uuid.toString(); }
 	/** Sets the UUID as a string. Intended to be used by the persistence framework. */
 	public void setUUIDString(String id) { this.uuid = UUID.fromString(id); }
+	/** Sets the UUID. Intended to be used by the persistence framework. */
+	public void setUUID(UUID id) { this.uuid = id; }
 		
 	/** The <tt>WorkId</tt> of this work. */
 	public WorkId getWorkId() { 
@@ -3,14 +3,22 @@
  */
 package org.idch.texts.importer;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.apache.log4j.Logger;
+import org.idch.persist.RepositoryAccessException;
+import org.idch.texts.Structure;
 import org.idch.texts.StructureRepository;
 import org.idch.texts.TextModule;
+import org.idch.texts.UnitOfWork;
 import org.idch.texts.Work;
 import org.idch.texts.WorkRepository;
+import org.idch.texts.persist.WriteBehindTextModule;
 
 
 /**
@@ -23,6 +31,9 @@ import org.idch.texts.WorkRepository;
 public class Context {
     private static final Logger LOGGER = Logger.getLogger(Context.class);
     
+    /** The default number of closed structures that are saved together. */
+    public static final int DEFAULT_STRUCTURE_GROUP_SIZE = 256;
+    
     /** The <tt>Work</tt> that is being imported. */
     public Work work = null;
     
@@ -55,6 +66,21 @@ public class Context {
     /** Structures that are currently being processed. */
     private Map<String, StructureHandler> handler = new HashMap<String, StructureHandler>();
     
+    /** The names of structures whose completion triggers a checkpoint. */
+    private Set<String> checkpoints = new HashSet<String>();
+    
+    /** The unit of work used to store the imported document. */
+    private UnitOfWork unit = null;
+    
+    /** Indicates that a checkpoint structure has been closed since the last checkpoint. */
+    private boolean checkpointDue = false;
+    
+    /** Closed structures that have not yet been saved. */
+    private List<Structure> deferred = new ArrayList<Structure>();
+    
+    /** The number of closed structures that are saved together. */
+    private int structureGroupSize = DEFAULT_STRUCTURE_GROUP_SIZE;
+    
     //=====================================================================================
     // CONSTRUCTORS
     //=====================================================================================
@@ -180,6 +206,162 @@ public class Context {
         return this.repo.getStructureRepository();
     }
     
+    //=====================================================================================
+    // STRUCTURE PERSISTENCE
+    //=====================================================================================
+    
+    /**
+     * Sets the number of closed structures that are saved together. Rather than storing 
+     * each structure as it is closed, the context collects closed structures and saves 
+     * them with a single call to {@link StructureRepository#saveAll(java.util.Collection)}
+     * once this many have been closed, as well as at each checkpoint and once the 
+     * document has been processed.
+     * 
+     * @param size The number of structures to save together. Values of one or less 
+     *      cause structures to be created when they are opened and saved when they are 
+     *      closed.
+     */
+    public void setStructureGroupSize(int size) {
+        this.structureGroupSize = size;
+    }
+    
+    /** Indicates whether structures are saved in groups. */
+    private boolean isDeferring() {
+        return this.structureGroupSize > 1;
+    }
+    
+    /**
+     * Returns a new structure with the specified name for the work being imported. If 
+     * structures are saved in groups, the structure is not stored until it is passed to
+     * {@link #save(Structure)} and the group it belongs to is saved. 
+     * 
+     * @param name The name of the structure to create.
+     * @return The new structure, or <tt>null</tt> if it could not be created.
+     */
+    public Structure newStructure(String name) {
+        return isDeferring() 
+                ? new Structure(this.work.getUUID(), name)
+                : this.getStructureRepo().create(this.work, name);
+    }
+    
+    /**
+     * Saves a structure that has been closed. If structures are saved in groups, this 
+     * adds the structure to the current group.
+     * 
+     * @param s The structure to save.
+     */
+    public void save(Structure s) {
+        if (isDeferring()) {
+            this.deferred.add(s);
+        } else {
+            this.getStructureRepo().save(s);
+        }
+    }
+    
+    /** 
+     * Saves the structures that have been closed since they were last saved. 
+     * 
+     * @throws RepositoryAccessException If the structures could not be saved.
+     */
+    private void flushStructures() throws RepositoryAccessException {
+        if (this.deferred.isEmpty())
+            return;
+        
+        int ct = this.deferred.size();
+        boolean success = this.getStructureRepo().saveAll(this.deferred);
+        this.deferred.clear();
+        if (!success)
+            throw new RepositoryAccessException("Could not save " + ct + " structure(s).");
+        
+        LOGGER.debug("Saved " + ct + " structure(s).");
+    }
+    
+    /**
+     * Saves any closed structures and waits for any writes that the text module has 
+     * deferred to complete. This allows the importer to report write failures once a 
+     * document has been processed.
+     * 
+     * @throws RepositoryAccessException If any deferred write failed.
+     */
+    public void flush() throws RepositoryAccessException {
+        this.flushStructures();
+        if (this.repo instanceof WriteBehindTextModule) {
+            ((WriteBehindTextModule)this.repo).flush();
+        }
+    }
+    
+    //=====================================================================================
+    // UNIT OF WORK METHODS
+    //=====================================================================================
+    
+    /**
+     * Commits the import each time a structure with the specified name (for example, 
+     * <tt>book</tt>) has been closed. By default, the entire import is committed once the
+     * document has been processed, so that a failed import leaves no changes behind. 
+     * With checkpoints, a failed import retains the structures and tokens that were 
+     * committed at the last checkpoint.
+     * 
+     * @param structureName The name of the structure.
+     */
+    public void addCheckpoint(String structureName) {
+        this.checkpoints.add(structureName);
+    }
+    
+    /**
+     * Called by structure handlers once a structure has been closed and saved. 
+     * 
+     * @param s The structure that was closed.
+     */
+    public void closed(Structure s) {
+        if (this.checkpoints.contains(s.getName())) {
+            this.checkpointDue = true;
+        }
+    }
+    
+    /** Begins the unit of work in which the document will be stored. */
+    void begin() throws RepositoryAccessException {
+        this.unit = this.repo.beginUnitOfWork();
+    }
+    
+    /** 
+     * Commits the changes made so far if a checkpoint structure has been closed. Any 
+     * buffered tokens are written first, so that the committed structures are complete.
+     * Otherwise, this saves the closed structures once a full group has been collected.
+     */
+    void checkpoint() throws RepositoryAccessException {
+        if (!this.checkpointDue || this.unit == null) {
+            if (this.deferred.size() >= this.structureGroupSize)
+                this.flushStructures();
+            return;
+        }
+        
+        this.checkpointDue = false;
+        if (this.work != null) {
+            this.work.flushTokens();
+        }
+        
+        this.flush();
+        this.unit.checkpoint();
+        LOGGER.debug("Checkpoint committed.");
+    }
+    
+    /** Commits the changes made by the import. */
+    void commit() throws RepositoryAccessException {
+        if (this.unit != null) {
+            this.flush();
+            this.unit.commit();
+            this.unit = null;
+        }
+    }
+    
+    /** Discards any changes that have not been committed. */
+    void rollback() {
+        if (this.unit != null) {
+            this.unit.rollback();
+            this.unit = null;
+        }
+    }
+    
     //=====================================================================================
     // HANDLER ACCESS METHOS
     //=====================================================================================
@@ -14,6 +14,7 @@ import javax.xml.parsers.SAXParserFactory;
 
 
 import org.apache.log4j.Logger;
+import org.idch.persist.RepositoryAccessException;
 import org.idch.texts.Work;
 import org.idch.texts.importer.Context;
 import org.idch.texts.importer.PathElement;
@@ -114,7 +115,16 @@ public class Importer extends DefaultHandler {
         SAXParser saxParser = spf.newSAXParser();
         XMLReader xmlReader = saxParser.getXMLReader();
         xmlReader.setContentHandler(this);
-        xmlReader.parse(url);
+        
+        try {
+            context.begin();
+            xmlReader.parse(url);
+            context.commit();
+        } catch (RepositoryAccessException ex) {
+            throw new SAXException("Could not store the imported document.", ex);
+        } finally {
+            context.rollback();
+        }
         
         LOGGER.info("Finished importing: " + url);
     }
@@ -217,6 +227,12 @@ public class Importer extends DefaultHandler {
         if (!handled) {
             LOGGER.info("Unhandled end tag: " + this.path);
         }
+        
+        try {
+            context.checkpoint();
+        } catch (RepositoryAccessException ex) {
+            throw new SAXException("Could not commit the imported text.", ex);
+        }
     }
     
     StopWatch timer = new StopWatch("Tokens", 100);
@@ -244,10 +260,8 @@ public class Importer extends DefaultHandler {
         // textual and paratextual elements.
         path.characters(ch, start, length);
         
-        if (context.isInText()) {
-            String text = new String(ch, start, length);        // FIXME this is inefficient (object creation)
-            if (context.work != null)
-                context.work.appendAll(text);
+        if (context.isInText() && context.work != null) {
+            context.work.append(ch, start, length);
         }
     }
     
@@ -256,6 +270,11 @@ public class Importer extends DefaultHandler {
      */
     public void endDocument() throws SAXException {
         context.work.flushTokens();
+        try {
+            context.flush();
+        } catch (RepositoryAccessException ex) {
+            throw new SAXException("Could not store the imported document.", ex);
+        }
         
         // TODO notify all handlers of the end of document.
     }
@@ -182,9 +182,16 @@ public abstract class StructureHandler {
             return null;
         
         Token start = ctx.work.get(end);
-        return (start != null)
-                ? ctx.getStructureRepo().create(ctx.work, name, start, null)
-                : null;
+        if (start == null)
+            return null;
+        
+        Structure s = ctx.newStructure(name);
+        if (s != null) {
+            s.setStartToken(start);
+            ctx.save(s);
+        }
+        
+        return s;
     }
     
     /**
@@ -207,7 +214,7 @@ public abstract class StructureHandler {
         }
         
         startAfterIndex = ctx.work.getEnd();
-        this.activeStructure = ctx.getStructureRepo().create(ctx.work, name);
+        this.activeStructure = ctx.newStructure(name);
 
         ctx.setHandler(this);
 
@@ -260,8 +267,9 @@ public abstract class StructureHandler {
             structure.setEndToken(end);
 
             this.close(structure);
-            ctx.getStructureRepo().save(structure);
+            ctx.save(structure);
             ctx.clearHandler(this.getName());
+            ctx.closed(structure);
             LOGGER.info("closed structure: " + structure.getName());
         } else {
             warning += "No active structure.";
@@ -8,11 +8,14 @@ import java.util.List;
 import java.util.UUID;
 
 import org.idch.persist.DBBackedRepository;
+import org.idch.persist.RepositoryAccessException;
 import org.idch.texts.SequenceSearcher;
 import org.idch.texts.Structure;
 import org.idch.texts.TextModule;
 import org.idch.texts.Token;
+import org.idch.texts.TokenOffsetIndex;
 import org.idch.texts.TokenSequence;
+import org.idch.texts.UnitOfWork;
 import org.idch.texts.Work;
 
 
@@ -20,6 +23,21 @@ import org.idch.texts.Work;
  * @author Neal Audenaert
  */
 public abstract class AbstractTextModule extends DBBackedRepository implements TextModule {
+    
+    /** A unit of work for modules whose changes take effect immediately. */
+    private static final UnitOfWork IMMEDIATE = new UnitOfWork() {
+        public void checkpoint() { }
+        public void commit() { }
+        public void rollback() { }
+    };
+    
+    /**
+     * Returns a unit of work that has no effect. Modules that write changes in 
+     * transactions should override this to group changes into a single transaction.
+     */
+    public UnitOfWork beginUnitOfWork() throws RepositoryAccessException {
+        return IMMEDIATE;
+    }
 
     /**
      * Attempts to return the work associated with the provided structure. Note that, 
@@ -59,13 +77,15 @@ public abstract class AbstractTextModule extends DBBackedRepository implements T
      * @return
      */
     public List<Structure> createStructures(TokenSequence seq, String name, String match) {
-        String seqText = toString(seq);
+        List<Token> tokens = getTokens(seq);
+        TokenOffsetIndex offsets = new TokenOffsetIndex(tokens);
+        String seqText = toString(tokens);
         
         List<Structure> structures = new ArrayList<Structure>();
         int ix = seqText.indexOf(match);
         while (ix >= 0) {
-            Token start = getTokenAt(seq, ix);
-            Token end = getTokenAt(seq, ix + match.length() - 1);
+            Token start = tokens.get(offsets.indexAt(ix));
+            Token end = tokens.get(offsets.indexAt(ix + match.length() - 1));
             Structure s = new Structure(seq.getWorkUUID(), name, start, end);
             structures.add(s);
             
@@ -177,30 +197,45 @@ public abstract class AbstractTextModule extends DBBackedRepository implements T
     }
     
     
+    /**
+     * Returns the token in the supplied sequence that contains the character at the 
+     * specified offset in the text of the sequence. This uses the character offset 
+     * index maintained by the sequence's work, so only the matching token is retrieved.
+     * Sequences that do not belong to a work are indexed for each call.
+     * 
+     * @param s The sequence to search.
+     * @param index The character offset relative to the start of the sequence's text.
+     * @return The token containing the specified character or <tt>null</tt> if the 
+     *      offset is outside of the sequence.
+     */
     public Token getTokenAt(TokenSequence s, int index) {
-        return getTokenAt(getTokens(s), index);
+        Work w = getWork(s);
+        if (w == null)
+            return getTokenAt(getTokens(s), index);
+        
+        TokenOffsetIndex offsets = w.getOffsetIndex();
+        int start = s.getStart();
+        if (start < 0 || start > offsets.size())
+            return null;
+        
+        int pos = offsets.indexAt(offsets.offsetOf(start) + index);
+        return (pos >= start && pos < s.getEnd()) ? w.get(pos) : null;
     }
     
     /**
-     * Returns the token in the specified list having the 
+     * Returns the token in the specified list that contains the character at the 
+     * specified offset in the concatenated text of the tokens. This indexes the tokens for
+     * each call; callers that search the same tokens repeatedly should build and retain
+     * a {@link TokenOffsetIndex} instead.
      * 
-     * @param tokens
-     * @param index
-     * @return
+     * @param tokens The tokens to search.
+     * @param index The character offset relative to the start of the first token.
+     * @return The token containing the specified character or <tt>null</tt> if the 
+     *      offset is outside of the tokens' text.
      */
     public Token getTokenAt(List<Token> tokens, int index) {
-        int ix = 0;
-        
-        Token token = null;
-        for (Token t : tokens) {
-            ix += t.getText().length();
-            if (ix > index) {
-                token = t; 
-                break;
-            }
-        }
-        
-        return token;
+        int ix = new TokenOffsetIndex(tokens).indexAt(index);
+        return (ix >= 0) ? tokens.get(ix) : null;
     }
 
 }
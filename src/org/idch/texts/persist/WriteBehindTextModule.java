@@ -0,0 +1,742 @@
+/**
+ *
+ */
+package org.idch.texts.persist;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CountDownLatch;
+
+import org.apache.log4j.Logger;
+import org.idch.persist.RepositoryAccessException;
+import org.idch.texts.Structure;
+import org.idch.texts.StructureRepository;
+import org.idch.texts.TextModule;
+import org.idch.texts.Token;
+import org.idch.texts.TokenRepository;
+import org.idch.texts.TokenVisitor;
+import org.idch.texts.UnitOfWork;
+import org.idch.texts.Work;
+import org.idch.texts.WorkRepository;
+
+
+/**
+ * Decorates a text module so that tokens and structures are written by background
+ * threads rather than by the thread that creates them. This allows an importer to
+ * continue parsing a document while the tokens and structures it has already produced
+ * are written to the underlying repositories.
+ *
+ * <p>Token and structure writes are placed on bounded queues, each of which is served by
+ * a single writer thread. All writes for a work are assigned to the same queue, so that
+ * they are applied in the order in which they were made. When a queue is full, the
+ * thread adding a write blocks until the writer has caught up. A writer takes all of the
+ * writes that are waiting on its queue at once and writes consecutive token lists for a
+ * work in a single call to the underlying token repository. The writes taken at once
+ * are applied in a single unit of work (see {@link TextModule#beginUnitOfWork()}).
+ *
+ * <p>Structures are copied when they are created or saved, so they may be modified
+ * while earlier versions are waiting to be written. Tokens that are waiting to be
+ * written are returned by the token repository. Other queries wait until all pending
+ * writes have been applied. Works are created immediately.
+ *
+ * <p>Write failures are reported by {@link #flush()}, which waits for all pending writes
+ * to complete. Since writes are not applied when they are made, <tt>create</tt> and
+ * <tt>save</tt> return their arguments rather than the results of the underlying
+ * repositories. The writers do not modify these structures: the ids assigned to them are
+ * set by <tt>flush</tt>, on the thread that calls it.
+ *
+ * @author Neal Audenaert
+ */
+public class WriteBehindTextModule extends AbstractTextModule {
+    private final static Logger LOGGER = Logger.getLogger(WriteBehindTextModule.class);
+
+    /** The default capacity of each writer's queue. */
+    public static final int DEFAULT_QUEUE_SIZE = 1000;
+
+    /** The maximum number of queued writes that a writer takes at once. */
+    private static final int MAX_GROUP_SIZE = 256;
+
+    private final TextModule module;
+    private final Writer[] writers;
+
+    private final WorkRepository worksRepo = new WriteBehindWorkRepository();
+    private final TokenRepository tokensRepo = new WriteBehindTokenRepository();
+    private final StructureRepository structuresRepo = new WriteBehindStructureRepository();
+
+    /** Tokens waiting to be written for each work, keyed by the position of each list. */
+    private final ConcurrentMap<UUID, ConcurrentNavigableMap<Integer, List<Token>>> pending =
+            new ConcurrentHashMap<UUID, ConcurrentNavigableMap<Integer, List<Token>>>();
+
+    /** Structures and the ids assigned to them that have not yet been set by <tt>flush</tt>. */
+    private final ConcurrentLinkedQueue<Map.Entry<Structure, Long>> assigned =
+            new ConcurrentLinkedQueue<Map.Entry<Structure, Long>>();
+
+    /** The first write failure that has not yet been reported by <tt>flush</tt>. */
+    private Exception failure = null;
+    private int numFailures = 0;
+
+    private volatile boolean closed = false;
+
+    /**
+     * Creates a write-behind module with a single writer thread.
+     *
+     * @param module The module to which tokens and structures are written.
+     */
+    public WriteBehindTextModule(TextModule module) {
+        this(module, 1, DEFAULT_QUEUE_SIZE);
+    }
+
+    /**
+     * @param module The module to which tokens and structures are written.
+     * @param numWriters The number of writer threads. Writes for different works may be
+     *      applied concurrently.
+     * @param queueSize The maximum number of writes that may be waiting for each writer.
+     */
+    public WriteBehindTextModule(TextModule module, int numWriters, int queueSize) {
+        if (numWriters < 1)
+            throw new IllegalArgumentException("Invalid number of writers: " + numWriters);
+        if (queueSize < 1)
+            throw new IllegalArgumentException("Invalid queue size: " + queueSize);
+
+        this.module = module;
+        this.writers = new Writer[numWriters];
+        for (int i = 0; i < numWriters; i++) {
+            writers[i] = new Writer(queueSize);
+            writers[i].setName("WriteBehindTextModule-" + i);
+            writers[i].setDaemon(true);
+            writers[i].start();
+        }
+    }
+
+    //===================================================================================
+    // QUEUE MANAGEMENT
+    //===================================================================================
+
+    /** Adds a write to the queue of the writer responsible for a work. */
+    private void enqueue(UUID workUUID, Op op) {
+        if (closed)
+            throw new IllegalStateException("This module has been closed.");
+
+        int ix = (workUUID.hashCode() & Integer.MAX_VALUE) % writers.length;
+        try {
+            writers[ix].queue.put(op);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting to queue a write.", ie);
+        }
+    }
+
+    /** Records a failed write. */
+    private synchronized void fail(String msg, Throwable ex) {
+        LOGGER.warn(msg, ex);
+        if (failure == null)
+            failure = (ex instanceof Exception) ? (Exception)ex
+                                                : new RepositoryAccessException(msg, ex);
+        numFailures++;
+    }
+
+    /** Waits for all writes that have been queued to be applied. */
+    private void await() {
+        if (closed)
+            return;
+
+        CountDownLatch latch = new CountDownLatch(writers.length);
+        try {
+            for (Writer w : writers) {
+                w.queue.put(new Barrier(latch));
+            }
+
+            latch.await();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for writes.", ie);
+        }
+    }
+
+    /**
+     * Waits until all pending tokens and structures have been written and sets the ids
+     * assigned to the structures that were created or saved.
+     *
+     * @throws RepositoryAccessException If any write failed since the last flush. The
+     *      remaining writes are still applied.
+     */
+    public void flush() throws RepositoryAccessException {
+        await();
+
+        Map.Entry<Structure, Long> id;
+        while ((id = assigned.poll()) != null) {
+            id.getKey().setId(id.getValue());
+        }
+
+        synchronized (this) {
+            if (failure != null) {
+                Exception ex = failure;
+                int ct = numFailures;
+
+                failure = null;
+                numFailures = 0;
+                throw new RepositoryAccessException(ct + " write(s) failed: " + ex.getMessage(), ex);
+            }
+        }
+    }
+
+    /**
+     * Flushes any pending writes and stops the writer threads.
+     *
+     * @throws RepositoryAccessException If any write failed since the last flush.
+     */
+    public void close() throws RepositoryAccessException {
+        if (closed)
+            return;
+
+        try {
+            flush();
+        } finally {
+            closed = true;
+            for (Writer w : writers) {
+                w.interrupt();
+            }
+        }
+    }
+
+    //===================================================================================
+    // REPOSITORY GETTERS
+    //===================================================================================
+
+    public WorkRepository getWorkRepository() {
+        return this.worksRepo;
+    }
+
+    public TokenRepository getTokenRepository() {
+        return this.tokensRepo;
+    }
+
+    public StructureRepository getStructureRepository() {
+        return this.structuresRepo;
+    }
+
+    @Override
+    public boolean probe() {
+        return true;
+    }
+
+    //===================================================================================
+    // WRITE OPERATIONS
+    //===================================================================================
+
+    /** A write to be applied by a writer thread. */
+    private static abstract class Op {
+
+    }
+
+    /** Indicates that all earlier writes on a queue have been applied. */
+    private static class Barrier extends Op {
+        final CountDownLatch latch;
+
+        Barrier(CountDownLatch latch) {
+            this.latch = latch;
+        }
+    }
+
+    /** Creates a list of consecutive tokens. */
+    private static class CreateTokens extends Op {
+        final Work work;
+        final List<Token> tokens;
+
+        CreateTokens(Work work, List<Token> tokens) {
+            this.work = work;
+            this.tokens = tokens;
+        }
+    }
+
+    /** Creates or updates a structure. */
+    private static class SaveStructure extends Op {
+        final Structure original;
+        final Structure copy;
+        final boolean create;
+
+        SaveStructure(Structure s, boolean create) {
+            this.original = s;
+            this.create = create;
+
+            this.copy = new Structure(s.getUUID());
+            this.copy.setId(s.getId());
+            this.copy.setWork(s.getWorkUUID());
+            this.copy.setName(s.getName());
+            this.copy.setPerspective(s.getPerspective());
+            this.copy.setStartTokenPosition(s.getStartTokenPosition());
+            this.copy.setEndTokenPosition(s.getEndTokenPosition());
+            this.copy.setAttributes(new HashMap<String, String>(s.getAttributes()));
+        }
+    }
+
+    /**
+     * Applies the writes on a queue.
+     */
+    private class Writer extends Thread {
+        final BlockingQueue<Op> queue;
+
+        /** The ids assigned to structures created by this writer. */
+        private final Map<UUID, Long> structureIds = new HashMap<UUID, Long>();
+
+        Writer(int queueSize) {
+            this.queue = new ArrayBlockingQueue<Op>(queueSize);
+        }
+
+        @Override
+        public void run() {
+            List<Op> ops = new ArrayList<Op>(MAX_GROUP_SIZE);
+            while (!closed) {
+                try {
+                    ops.add(queue.take());
+                } catch (InterruptedException ie) {
+                    break;
+                }
+
+                queue.drainTo(ops, MAX_GROUP_SIZE - 1);
+                try {
+                    apply(ops);
+                } catch (Throwable t) {
+                    // keep serving the queue, so that waiting threads are not stranded
+                    fail("Could not apply " + ops.size() + " writes: " + t.getMessage(), t);
+                } finally {
+                    ops.clear();
+                }
+            }
+        }
+
+        /**
+         * Applies a group of writes in a single unit of work, combining consecutive token
+         * writes for a work. Tokens remain available from memory and barriers are
+         * released only once the unit of work has been committed, or once the writes
+         * have failed.
+         */
+        private void apply(List<Op> ops) {
+            List<Barrier> barriers = new ArrayList<Barrier>();
+            for (Op op : ops) {
+                if (op instanceof Barrier)
+                    barriers.add((Barrier)op);
+            }
+
+            try {
+                applyWrites(ops);
+            } finally {
+                for (Barrier b : barriers) {
+                    b.latch.countDown();
+                }
+            }
+        }
+
+        private void applyWrites(List<Op> ops) {
+            UnitOfWork unit = null;
+            try {
+                unit = module.beginUnitOfWork();
+            } catch (RepositoryAccessException ex) {
+                fail("Could not begin a unit of work: " + ex.getMessage(), ex);
+            }
+
+            List<CreateTokens> written = new ArrayList<CreateTokens>();
+            try {
+                int ct = ops.size();
+                for (int i = 0; i < ct; i++) {
+                    Op op = ops.get(i);
+                    if (op instanceof CreateTokens) {
+                        Work w = ((CreateTokens)op).work;
+                        List<CreateTokens> group = new ArrayList<CreateTokens>();
+                        group.add((CreateTokens)op);
+                        while (i + 1 < ct && ops.get(i + 1) instanceof CreateTokens
+                                && ((CreateTokens)ops.get(i + 1)).work == w) {
+                            group.add((CreateTokens)ops.get(++i));
+                        }
+
+                        createTokens(w, group);
+                        written.addAll(group);
+                    } else if (op instanceof SaveStructure) {
+                        // save consecutive structures together, but apply repeated 
+                        // writes of a structure in order
+                        List<SaveStructure> group = new ArrayList<SaveStructure>();
+                        Set<UUID> uuids = new HashSet<UUID>();
+                        group.add((SaveStructure)op);
+                        uuids.add(((SaveStructure)op).copy.getUUID());
+                        while (i + 1 < ct && ops.get(i + 1) instanceof SaveStructure
+                                && uuids.add(((SaveStructure)ops.get(i + 1)).copy.getUUID())) {
+                            group.add((SaveStructure)ops.get(++i));
+                        }
+
+                        if (group.size() == 1) {
+                            saveStructure(group.get(0));
+                        } else {
+                            saveStructures(group);
+                        }
+                    }
+                }
+
+                if (unit != null)
+                    unit.commit();
+            } catch (RepositoryAccessException ex) {
+                fail("Could not commit " + ops.size() + " writes: " + ex.getMessage(), ex);
+            } finally {
+                if (unit != null)
+                    unit.rollback();
+
+                for (CreateTokens op : written) {
+                    pending.get(op.work.getUUID()).remove(op.tokens.get(0).getPosition());
+                }
+            }
+        }
+
+        private void createTokens(Work w, List<CreateTokens> group) {
+            List<Token> tokens = group.get(0).tokens;
+            if (group.size() > 1) {
+                tokens = new ArrayList<Token>();
+                for (CreateTokens op : group) {
+                    tokens.addAll(op.tokens);
+                }
+            }
+
+            try {
+                if (module.getTokenRepository().create(tokens) == null)
+                    fail("Could not write " + tokens.size() + " tokens for work " +
+                            w.getUUID(), null);
+            } catch (RuntimeException ex) {
+                fail("Could not write " + tokens.size() + " tokens for work " +
+                        w.getUUID() + ": " + ex.getMessage(), ex);
+            }
+        }
+
+        private void saveStructure(SaveStructure op) {
+            Structure s = op.copy;
+            StructureRepository structures = module.getStructureRepository();
+            try {
+                boolean success;
+                if (op.create) {
+                    success = (structures.create(s) != null);
+                } else {
+                    if (s.getId() == null)
+                        s.setId(structureIds.get(s.getUUID()));
+                    success = structures.save(s);
+                }
+
+                if (!success) {
+                    fail("Could not write structure " + s.getName() + " (" + s.getUUID() + ")", null);
+                } else if (s.getId() != null) {
+                    structureIds.put(s.getUUID(), s.getId());
+                    assigned.add(new AbstractMap.SimpleImmutableEntry<Structure, Long>(
+                            op.original, s.getId()));
+                }
+            } catch (RuntimeException ex) {
+                fail("Could not write structure " + s.getName() + " (" + s.getUUID() + "): " +
+                        ex.getMessage(), ex);
+            }
+        }
+
+        /** 
+         * Saves a group of distinct structures with a single call to the module's 
+         * structure repository. Structures that were created by an earlier write are 
+         * updated, while the remaining structures are created.
+         */
+        private void saveStructures(List<SaveStructure> group) {
+            List<Structure> copies = new ArrayList<Structure>(group.size());
+            for (SaveStructure op : group) {
+                Structure s = op.copy;
+                if (!op.create && s.getId() == null)
+                    s.setId(structureIds.get(s.getUUID()));
+                copies.add(s);
+            }
+
+            StructureRepository structures = module.getStructureRepository();
+            try {
+                if (!structures.saveAll(copies)) {
+                    fail("Could not write " + copies.size() + " structure(s)", null);
+                    return;
+                }
+
+                for (SaveStructure op : group) {
+                    Structure s = op.copy;
+                    if (s.getId() != null) {
+                        structureIds.put(s.getUUID(), s.getId());
+                        assigned.add(new AbstractMap.SimpleImmutableEntry<Structure, Long>(
+                                op.original, s.getId()));
+                    }
+                }
+            } catch (RuntimeException ex) {
+                fail("Could not write " + copies.size() + " structure(s): " +
+                        ex.getMessage(), ex);
+            }
+        }
+    }
+
+    //===================================================================================
+    // REPOSITORIES
+    //===================================================================================
+
+    /**
+     * Creates works immediately and binds them to the write-behind token repository.
+     */
+    private class WriteBehindWorkRepository implements WorkRepository {
+        private WorkRepository delegate() {
+            return module.getWorkRepository();
+        }
+
+        public TokenRepository getTokenRepository() {
+            return tokensRepo;
+        }
+
+        public Work create(String workId) {
+            Work w = delegate().create(workId);
+            if (w != null) {
+                w.setTokenRepository(tokensRepo);
+            }
+
+            return w;
+        }
+
+        public Work find(long id) { return delegate().find(id); }
+        public Work find(UUID id) { return delegate().find(id); }
+        public List<Work> findByType(String type) { return delegate().findByType(type); }
+        public List<Work> findByType(String type, String lgCode) {
+            return delegate().findByType(type, lgCode);
+        }
+        public List<Work> findByAbbr(String abbr) { return delegate().findByAbbr(abbr); }
+        public boolean save(Work w) { return delegate().save(w); }
+
+        public boolean remove(Work w) {
+            await();
+            return delegate().remove(w);
+        }
+    }
+
+    /**
+     * Queues tokens to be written and returns tokens that are waiting to be written from
+     * memory.
+     */
+    private class WriteBehindTokenRepository implements TokenRepository {
+        private TokenRepository delegate() {
+            return module.getTokenRepository();
+        }
+
+        private ConcurrentNavigableMap<Integer, List<Token>> getPending(Work w) {
+            ConcurrentNavigableMap<Integer, List<Token>> lists = pending.get(w.getUUID());
+            if (lists == null) {
+                lists = new ConcurrentSkipListMap<Integer, List<Token>>();
+                ConcurrentNavigableMap<Integer, List<Token>> existing =
+                        pending.putIfAbsent(w.getUUID(), lists);
+                lists = (existing != null) ? existing : lists;
+            }
+
+            return lists;
+        }
+
+        public Token create(Token t) {
+            return (create(Collections.singletonList(t)) != null) ? t : null;
+        }
+
+        public List<Token> create(List<Token> tokens) {
+            if ((tokens == null) || (tokens.size() == 0)) {
+                return tokens;
+            }
+
+            // the caller may reuse its list once this returns
+            List<Token> copy = new ArrayList<Token>(tokens);
+            Work w = copy.get(0).getWork();
+            getPending(w).put(copy.get(0).getPosition(), copy);
+            enqueue(w.getUUID(), new CreateTokens(w, copy));
+
+            return tokens;
+        }
+
+        public int getNumberOfTokens(Work w) {
+            ConcurrentNavigableMap<Integer, List<Token>> lists = pending.get(w.getUUID());
+            Map.Entry<Integer, List<Token>> last = (lists != null) ? lists.lastEntry() : null;
+            if (last != null) {
+                return last.getKey() + last.getValue().size();
+            }
+
+            return delegate().getNumberOfTokens(w);
+        }
+
+        public Token find(UUID id) {
+            await();
+            return delegate().find(id);
+        }
+
+        public Token find(Work w, int pos) {
+            ConcurrentNavigableMap<Integer, List<Token>> lists = pending.get(w.getUUID());
+            Map.Entry<Integer, List<Token>> entry = (lists != null) ? lists.floorEntry(pos) : null;
+            if (entry != null) {
+                int ix = pos - entry.getKey();
+                if (ix < entry.getValue().size())
+                    return entry.getValue().get(ix);
+            }
+
+            // not pending, so the token has either been written or does not exist
+            return delegate().find(w, pos);
+        }
+
+        /**
+         * Copies tokens from the pending lists that cover the range and reads each run of 
+         * positions between them from the underlying repository with a single query. 
+         * Lists are removed only once they have been written, so a position that is not 
+         * pending can be read from the underlying repository.
+         */
+        public List<Token> find(Work w, int start, int end) {
+            ConcurrentNavigableMap<Integer, List<Token>> lists = pending.get(w.getUUID());
+            if (lists == null || lists.isEmpty())
+                return delegate().find(w, start, end);
+
+            List<Token> tokens = new ArrayList<Token>(Math.max(end - start, 0));
+            int pos = start;
+            while (pos < end) {
+                Map.Entry<Integer, List<Token>> entry = lists.floorEntry(pos);
+                if (entry != null && pos - entry.getKey() < entry.getValue().size()) {
+                    List<Token> list = entry.getValue();
+                    int to = Math.min(list.size(), end - entry.getKey());
+                    tokens.addAll(list.subList(pos - entry.getKey(), to));
+                    pos = entry.getKey() + to;
+                } else {
+                    Integer next = lists.higherKey(pos);
+                    int stop = (next != null) ? Math.min(end, next) : end;
+                    List<Token> written = delegate().find(w, pos, stop);
+                    if (written == null)
+                        return null;
+
+                    tokens.addAll(written);
+                    if (written.size() < stop - pos)
+                        break;          // the remaining tokens do not exist
+
+                    pos = stop;
+                }
+            }
+
+            return tokens;
+        }
+
+        public boolean forEach(Work w, int start, int end, TokenVisitor visitor) {
+            await();
+            return delegate().forEach(w, start, end, visitor);
+        }
+
+        public List<Token> find(Structure s) {
+            await();
+            return delegate().find(s);
+        }
+    }
+
+    /**
+     * Queues structures to be written. Queries wait until all pending writes have been
+     * applied.
+     */
+    private class WriteBehindStructureRepository implements StructureRepository {
+        private StructureRepository delegate() {
+            return module.getStructureRepository();
+        }
+
+        public Structure create(Work work, String name) {
+            return create(new Structure(work.getUUID(), name));
+        }
+
+        public Structure create(Work work, String name, Token start, Token end) {
+            return create(new Structure(work.getUUID(), name, start, end));
+        }
+
+        public Structure create(Structure s) {
+            enqueue(s.getWorkUUID(), new SaveStructure(s, true));
+            return s;
+        }
+
+        public boolean createAll(Collection<Structure> structures) {
+            for (Structure s : structures) {
+                create(s);
+            }
+
+            return true;
+        }
+
+        public boolean save(Structure s) {
+            enqueue(s.getWorkUUID(), new SaveStructure(s, false));
+            return true;
+        }
+
+        public boolean saveAll(Collection<Structure> structures) {
+            for (Structure s : structures) {
+                save(s);
+            }
+
+            return true;
+        }
+
+        public Structure synchronize(Structure s) {
+            await();
+            return delegate().synchronize(s);
+        }
+
+        public boolean hasStructuresFor(UUID workId) {
+            await();
+            return delegate().hasStructuresFor(workId);
+        }
+
+        public Structure find(UUID id) {
+            await();
+            return delegate().find(id);
+        }
+
+        public Structure find(long id) {
+            await();
+            return delegate().find(id);
+        }
+
+        public SortedSet<Structure> find(Work w, String name) {
+            await();
+            return delegate().find(w, name);
+        }
+
+        public SortedSet<Structure> find(Work w, int position) {
+            await();
+            return delegate().find(w, position);
+        }
+
+        public SortedSet<Structure> findOverlapping(Work w, int start, int end) {
+            await();
+            return delegate().findOverlapping(w, start, end);
+        }
+
+        public SortedSet<Structure> find(Work w, String name, int start, int end) {
+            await();
+            return delegate().find(w, name, start, end);
+        }
+
+        public SortedSet<Structure> find(Work w, String name, int start, int end,
+                boolean strict) {
+            await();
+            return delegate().find(w, name, start, end, strict);
+        }
+
+        public SortedSet<Structure> find(Work w, String name, String attribute,
+                String value) {
+            await();
+            return delegate().find(w, name, attribute, value);
+        }
+
+        public Map<UUID, SortedSet<Structure>> find(String name, String attribute,
+                String value) {
+            await();
+            return delegate().find(name, attribute, value);
+        }
+    }
+}
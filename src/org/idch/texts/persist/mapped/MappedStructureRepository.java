@@ -0,0 +1,289 @@
+/**
+ *
+ */
+package org.idch.texts.persist.mapped;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.UUID;
+
+import org.idch.texts.Structure;
+import org.idch.texts.StructureRepository;
+import org.idch.texts.Token;
+import org.idch.texts.Work;
+import org.idch.texts.persist.mapped.MappedWorkFile.RecordFilter;
+
+
+/**
+ * Read-only structure repository backed by memory-mapped work files. Queries are
+ * answered from the structure records stored in the file and return sorted views over
+ * the matching records (see {@link StructureSlice}).
+ *
+ * @author Neal Audenaert
+ */
+class MappedStructureRepository implements StructureRepository {
+
+    private MappedTextModule repo = null;
+
+    MappedStructureRepository(MappedTextModule repo) {
+        this.repo = repo;
+    }
+
+    /**
+     * Returns the mapped file of a work. This throws a runtime exception if the work is
+     * not stored in this repository.
+     */
+    private MappedWorkFile getFile(Work w) {
+        MappedWorkFile file = repo.getFile(w);
+        if (file == null) {
+            // TODO throw RepositoryAccessException
+            throw new RuntimeException("Invalid work: not stored in this repository.");
+        }
+
+        return file;
+    }
+
+    /** Returns the records with a given attribute value among the supplied records. */
+    private static int[] filterByAttribute(MappedWorkFile file, int[] records,
+            String attribute, String value) {
+        final int key = file.getStringId(attribute);
+        final int val = file.getStringId(value);
+        if (key < 0 || val < 0)
+            return new int[0];
+
+        final MappedWorkFile f = file;
+        return MappedWorkFile.filter(records, new RecordFilter() {
+            public boolean accept(int r) {
+                return f.hasAttribute(r, key, val);
+            }
+        });
+    }
+
+    //===================================================================================
+    // CREATION AND UPDATE METHODS
+    //===================================================================================
+
+    /**
+     * Not supported. Mapped work files are created using {@link WorkFileWriter}.
+     * @throws UnsupportedOperationException always
+     */
+    @Override
+    public Structure create(Work work, String name) {
+        throw new UnsupportedOperationException("Mapped structure repositories are read-only.");
+    }
+
+    /**
+     * Not supported. Mapped work files are created using {@link WorkFileWriter}.
+     * @throws UnsupportedOperationException always
+     */
+    @Override
+    public Structure create(Work work, String name, Token start, Token end) {
+        throw new UnsupportedOperationException("Mapped structure repositories are read-only.");
+    }
+
+    /**
+     * Not supported. Mapped work files are created using {@link WorkFileWriter}.
+     * @throws UnsupportedOperationException always
+     */
+    @Override
+    public Structure create(Structure s) {
+        throw new UnsupportedOperationException("Mapped structure repositories are read-only.");
+    }
+
+    /**
+     * Not supported. Mapped work files are created using {@link WorkFileWriter}.
+     * @throws UnsupportedOperationException always
+     */
+    @Override
+    public boolean createAll(Collection<Structure> structures) {
+        throw new UnsupportedOperationException("Mapped structure repositories are read-only.");
+    }
+
+    /**
+     * Not supported. Mapped work files are created using {@link WorkFileWriter}.
+     * @throws UnsupportedOperationException always
+     */
+    @Override
+    public boolean save(Structure s) {
+        throw new UnsupportedOperationException("Mapped structure repositories are read-only.");
+    }
+
+    /**
+     * Not supported. Mapped work files are created using {@link WorkFileWriter}.
+     * @throws UnsupportedOperationException always
+     */
+    @Override
+    public boolean saveAll(Collection<Structure> structures) {
+        throw new UnsupportedOperationException("Mapped structure repositories are read-only.");
+    }
+
+    /* (non-Javadoc)
+     * @see org.idch.texts.StructureRepository#hasStructuresFor(java.util.UUID)
+     */
+    @Override
+    public boolean hasStructuresFor(UUID workId) {
+        MappedWorkFile file = repo.getFile(workId);
+        return (file != null) && (file.getNumberOfStructures() > 0);
+    }
+
+    //===================================================================================
+    // RETRIEVAL METHODS
+    //===================================================================================
+
+    /* (non-Javadoc)
+     * @see org.idch.texts.StructureRepository#synchronize(org.idch.texts.Structure)
+     */
+    @Override
+    public Structure synchronize(Structure s) {
+        if (s.getId() != null) {
+            return find(s.getId());
+        } else if (s.getUUID() != null) {
+            return find(s.getUUID());
+        }
+
+        return null;
+    }
+
+    /* (non-Javadoc)
+     * @see org.idch.texts.StructureRepository#find(java.util.UUID)
+     */
+    @Override
+    public Structure find(UUID id) {
+        for (MappedWorkFile file : repo.getFiles()) {
+            int record = file.indexOfStructure(id);
+            if (record >= 0)
+                return file.getStructure(record);
+        }
+
+        return null;
+    }
+
+    /**
+     * Looks up a structure by its identifier. Identifiers are composed from the id of
+     * the work (high 32 bits) and the number of the structure's record (low 32 bits).
+     *
+     * @see org.idch.texts.StructureRepository#find(long)
+     */
+    @Override
+    public Structure find(long id) {
+        MappedWorkFile file = repo.getFile(id >>> 32);
+        int record = (int)id;
+        if (file == null || record < 0 || record >= file.getNumberOfStructures())
+            return null;
+
+        return file.getStructure(record);
+    }
+
+    /* (non-Javadoc)
+     * @see org.idch.texts.StructureRepository#find(org.idch.texts.Work, java.lang.String)
+     */
+    @Override
+    public SortedSet<Structure> find(Work w, String name) {
+        MappedWorkFile file = getFile(w);
+        return new StructureSlice(file, file.getRecords(name));
+    }
+
+    /**
+     * Looks up all structures that include the specified token, that is, all structures
+     * for which <tt>getStart() &lt;= position &lt; getEnd()</tt>.
+     *
+     * @see org.idch.texts.StructureRepository#find(org.idch.texts.Work, int)
+     */
+    @Override
+    public SortedSet<Structure> find(Work w, final int position) {
+        final MappedWorkFile file = getFile(w);
+        int[] records = MappedWorkFile.filter(file.getRecords(), new RecordFilter() {
+            public boolean accept(int r) {
+                return file.getStart(r) <= position && file.getEnd(r) > position;
+            }
+        });
+
+        return new StructureSlice(file, records);
+    }
+
+    /**
+     * Looks up all structures that include any token in the range <tt>[start, end)</tt>.
+     *
+     * @see org.idch.texts.StructureRepository#findOverlapping(org.idch.texts.Work, int, int)
+     */
+    @Override
+    public SortedSet<Structure> findOverlapping(Work w, final int start, final int end) {
+        final MappedWorkFile file = getFile(w);
+        int[] records = MappedWorkFile.filter(file.getRecords(), new RecordFilter() {
+            public boolean accept(int r) {
+                return file.getStart(r) < end && file.getEnd(r) > start;
+            }
+        });
+
+        return new StructureSlice(file, records);
+    }
+
+    /**
+     * Looks up all structures with the specified name that lie within the range
+     * <tt>[start, end)</tt>.
+     *
+     * @see org.idch.texts.StructureRepository#find(org.idch.texts.Work, java.lang.String, int, int)
+     */
+    @Override
+    public SortedSet<Structure> find(Work w, String name, final int start, final int end) {
+        final MappedWorkFile file = getFile(w);
+        int[] records = MappedWorkFile.filter(file.getRecords(name), new RecordFilter() {
+            public boolean accept(int r) {
+                return file.getStart(r) >= start && file.getEnd(r) <= end;
+            }
+        });
+
+        return new StructureSlice(file, records);
+    }
+
+    /**
+     * Looks up structures with the specified name relative to the range
+     * <tt>[start, end)</tt>. If <tt>strict</tt> is <tt>false</tt>, this returns the
+     * structures that lie within the range. Otherwise, it returns all structures that
+     * overlap the range.
+     *
+     * @see org.idch.texts.StructureRepository#find(org.idch.texts.Work, java.lang.String, int, int, boolean)
+     */
+    @Override
+    public SortedSet<Structure> find(Work w, String name, final int start, final int end,
+            boolean strict) {
+        if (!strict)
+            return this.find(w, name, start, end);
+
+        final MappedWorkFile file = getFile(w);
+        int[] records = MappedWorkFile.filter(file.getRecords(name), new RecordFilter() {
+            public boolean accept(int r) {
+                return file.getStart(r) < end && file.getEnd(r) > start;
+            }
+        });
+
+        return new StructureSlice(file, records);
+    }
+
+    /* (non-Javadoc)
+     * @see org.idch.texts.StructureRepository#find(java.lang.String, java.lang.String, java.lang.String)
+     */
+    @Override
+    public Map<UUID, SortedSet<Structure>> find(String name, String attribute, String value) {
+        Map<UUID, SortedSet<Structure>> structures = new HashMap<UUID, SortedSet<Structure>>();
+        for (MappedWorkFile file : repo.getFiles()) {
+            int[] records = filterByAttribute(file, file.getRecords(name), attribute, value);
+            if (records.length > 0) {
+                structures.put(file.getWork().getUUID(), new StructureSlice(file, records));
+            }
+        }
+
+        return structures;
+    }
+
+    /* (non-Javadoc)
+     * @see org.idch.texts.StructureRepository#find(org.idch.texts.Work, java.lang.String, java.lang.String, java.lang.String)
+     */
+    @Override
+    public SortedSet<Structure> find(Work w, String name, String attribute, String value) {
+        MappedWorkFile file = getFile(w);
+        return new StructureSlice(file, filterByAttribute(file, file.getRecords(name), attribute, value));
+    }
+}
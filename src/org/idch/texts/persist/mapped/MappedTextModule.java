@@ -0,0 +1,175 @@
+/**
+ *
+ */
+package org.idch.texts.persist.mapped;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.ResourceBundle;
+import java.util.UUID;
+
+import org.apache.log4j.Logger;
+import org.idch.persist.RepositoryAccessException;
+import org.idch.texts.StructureRepository;
+import org.idch.texts.TokenRepository;
+import org.idch.texts.Work;
+import org.idch.texts.WorkRepository;
+import org.idch.texts.persist.AbstractTextModule;
+
+/**
+ * Read-only text module that serves works from memory-mapped binary work files (see
+ * {@link WorkFileFormat}). Files are opened with <tt>FileChannel.map</tt>, so startup
+ * does not depend on the size of the works and the operating system's page cache is
+ * shared by all JVMs on a host that open the same files. Work files are created from
+ * another text module using {@link WorkFileWriter}.
+ *
+ * <p>When configured through a property bundle, this module opens all files with the
+ * <tt>.work</tt> extension in the directory specified by the <tt>repo.mapped.dir</tt>
+ * property.
+ *
+ * @author Neal Audenaert
+ */
+public class MappedTextModule extends AbstractTextModule {
+    private final static Logger LOGGER = Logger.getLogger(MappedTextModule.class);
+
+    /** The directory from which work files should be loaded. */
+    public final static String DATA_DIR_PROP = "repo.mapped.dir";
+
+    private WorkRepository m_worksRepo = new MappedWorkRepository(this);
+    private TokenRepository m_tokensRepo = new MappedTokenRepository(this);
+    private StructureRepository m_structuresRepo = new MappedStructureRepository(this);
+
+    private final List<MappedWorkFile> m_files = new ArrayList<MappedWorkFile>();
+    private final Map<Long, MappedWorkFile> m_filesById = new HashMap<Long, MappedWorkFile>();
+    private final Map<UUID, MappedWorkFile> m_filesByUUID = new HashMap<UUID, MappedWorkFile>();
+
+    //========================================================================
+    // CONSTRUCTORS
+    //========================================================================
+
+    public MappedTextModule() {
+
+    }
+
+    /**
+     * Creates a module that serves all work files in the supplied directory.
+     *
+     * @param dir The directory containing the work files.
+     * @throws IOException If the work files could not be opened.
+     */
+    public MappedTextModule(File dir) throws IOException {
+        this.openAll(dir);
+    }
+
+    /**
+     * Opens the work files in the directory specified by the <tt>repo.mapped.dir</tt>
+     * property. Unlike other modules, this does not require a database connection.
+     */
+    @Override
+    protected void initialize(String module, ResourceBundle bundle)
+            throws RepositoryAccessException {
+        m_bundle = bundle;
+
+        File dir = new File(bundle.getString(DATA_DIR_PROP));
+        try {
+            this.openAll(dir);
+        } catch (IOException ioe) {
+            throw new RepositoryAccessException("Could not open work files in " + dir, ioe);
+        }
+    }
+
+    //========================================================================
+    // FILE MANAGEMENT
+    //========================================================================
+
+    /**
+     * Opens all work files in a directory.
+     *
+     * @param dir The directory containing the work files.
+     * @throws IOException If the work files could not be opened.
+     */
+    public void openAll(File dir) throws IOException {
+        if (!dir.isDirectory())
+            throw new IOException("Not a directory: " + dir);
+
+        File[] files = dir.listFiles(new FileFilter() {
+            public boolean accept(File f) {
+                return f.isFile() && f.getName().endsWith(WorkFileFormat.EXTENSION);
+            }
+        });
+
+        Arrays.sort(files);
+        for (File f : files) {
+            open(f);
+        }
+    }
+
+    /**
+     * Opens a work file, making the work stored in it available through this module.
+     *
+     * @param f The file to open.
+     * @return The work stored in the file.
+     * @throws IOException If the file could not be opened or is not a valid work file.
+     */
+    public synchronized Work open(File f) throws IOException {
+        MappedWorkFile file = new MappedWorkFile(f, m_files.size() + 1);
+        Work w = file.getWork();
+        if (m_filesByUUID.containsKey(w.getUUID()))
+            throw new IOException("Duplicate work (" + w.getUUID() + "): " + f);
+
+        m_files.add(file);
+        m_filesById.put(file.getId(), file);
+        m_filesByUUID.put(w.getUUID(), file);
+        w.setTokenRepository(m_tokensRepo);
+
+        LOGGER.info("Opened work file " + f + " (" + w.getAbbreviation() + ", " +
+                file.getNumberOfTokens() + " tokens)");
+        return w;
+    }
+
+    synchronized List<MappedWorkFile> getFiles() {
+        return Collections.unmodifiableList(new ArrayList<MappedWorkFile>(m_files));
+    }
+
+    synchronized MappedWorkFile getFile(long id) {
+        return m_filesById.get(id);
+    }
+
+    synchronized MappedWorkFile getFile(UUID uuid) {
+        return m_filesByUUID.get(uuid);
+    }
+
+    MappedWorkFile getFile(Work w) {
+        return (w.getUUID() != null) ? getFile(w.getUUID()) : null;
+    }
+
+    //========================================================================
+    // REPOSITORY GETTERS
+    //========================================================================
+    public WorkRepository getWorkRepository() {
+        return this.m_worksRepo;
+    }
+
+    public TokenRepository getTokenRepository() {
+        return this.m_tokensRepo;
+    }
+
+    public StructureRepository getStructureRepository() {
+        return this.m_structuresRepo;
+    }
+
+    /* (non-Javadoc)
+     * @see org.idch.persist.DBBackedRepository#probe()
+     */
+    @Override
+    public boolean probe() {
+        return true;
+    }
+}
@@ -0,0 +1,201 @@
+/**
+ *
+ */
+package org.idch.texts.persist.mapped;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.UUID;
+
+import org.idch.texts.Structure;
+import org.idch.texts.Token;
+import org.idch.texts.TokenRepository;
+import org.idch.texts.TokenVisitor;
+import org.idch.texts.Work;
+
+
+/**
+ * Read-only token repository backed by memory-mapped work files. Ranges of tokens are
+ * returned as views over the mapped token columns; <tt>Token</tt> objects are created
+ * as the elements of these views are accessed.
+ *
+ * @author Neal Audenaert
+ */
+class MappedTokenRepository implements TokenRepository {
+
+    private MappedTextModule repo = null;
+
+    MappedTokenRepository(MappedTextModule repo) {
+        this.repo = repo;
+    }
+
+    /**
+     * Returns the mapped file of a work. This throws a runtime exception if the work is
+     * not stored in this repository.
+     */
+    private MappedWorkFile getFile(Work w) {
+        MappedWorkFile file = repo.getFile(w);
+        if (file == null) {
+            // TODO throw RepositoryAccessException
+            throw new RuntimeException("Invalid work: not stored in this repository.");
+        }
+
+        return file;
+    }
+
+    /**
+     * Not supported. Mapped work files are created using {@link WorkFileWriter}.
+     * @throws UnsupportedOperationException always
+     */
+    @Override
+    public Token create(Token t) {
+        throw new UnsupportedOperationException("Mapped token repositories are read-only.");
+    }
+
+    /**
+     * Not supported. Mapped work files are created using {@link WorkFileWriter}.
+     * @throws UnsupportedOperationException always
+     */
+    @Override
+    public List<Token> create(List<Token> tokens) {
+        throw new UnsupportedOperationException("Mapped token repositories are read-only.");
+    }
+
+    /* (non-Javadoc)
+     * @see org.idch.texts.TokenRepository#getNumberOfTokens(org.idch.texts.Work)
+     */
+    @Override
+    public int getNumberOfTokens(Work work) {
+        return getFile(work).getNumberOfTokens();
+    }
+
+    /* (non-Javadoc)
+     * @see org.idch.texts.TokenRepository#find(java.util.UUID)
+     */
+    @Override
+    public Token find(UUID id) {
+        for (MappedWorkFile file : repo.getFiles()) {
+            int pos = file.indexOfToken(id);
+            if (pos >= 0)
+                return file.getToken(pos);
+        }
+
+        return null;
+    }
+
+    /* (non-Javadoc)
+     * @see org.idch.texts.TokenRepository#find(org.idch.texts.Work, int)
+     */
+    @Override
+    public Token find(Work w, int pos) {
+        assert pos >= 0 : "Position must be non-negative";
+
+        MappedWorkFile file = getFile(w);
+        return (pos < file.getNumberOfTokens()) ? file.getToken(pos) : null;
+    }
+
+    /**
+     * Returns all tokens for a specified work in the range <tt>[start, end)</tt>. The
+     * returned list is an unmodifiable view over the mapped token columns.
+     *
+     * @param w The work for which the tokens should be retrieved.
+     * @param start The starting position (inclusive) of the tokens to retrieve.
+     * @param end The ending position (exclusive) of the tokens to retrieve.
+     *
+     * @see org.idch.texts.TokenRepository#find(org.idch.texts.Work, int, int)
+     */
+    @Override
+    public List<Token> find(Work w, int start, int end) {
+        assert start >= 0 : "Starting position must be non-negative";
+        assert end > start : "The ending position must be greater than the starting position";
+
+        MappedWorkFile file = getFile(w);
+        end = Math.min(end, file.getNumberOfTokens());
+        return new TokenSlice(file, start, Math.max(start, end));
+    }
+
+    /* (non-Javadoc)
+     * @see org.idch.texts.TokenRepository#forEach(org.idch.texts.Work, int, int, org.idch.texts.TokenVisitor)
+     */
+    @Override
+    public boolean forEach(Work w, int start, int end, TokenVisitor visitor) {
+        assert start >= 0 : "Starting position must be non-negative";
+
+        MappedWorkFile file = getFile(w);
+        end = Math.min(end, file.getNumberOfTokens());
+        for (int i = start; i < end; i++) {
+            if (!visitor.visit(file.getToken(i)))
+                return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Looks up the set of tokens associated with a particular structure.
+     *
+     * @param s The structure whose tokens should be retrieved.
+     * @return The list of tokens associated with that structure.
+     * @see org.idch.texts.TokenRepository#find(org.idch.texts.Structure)
+     */
+    @Override
+    public List<Token> find(Structure s) {
+        List<Token> results = new ArrayList<Token>();
+
+        Work w = repo.getWorkRepository().find(s.getWorkUUID());
+
+        int start = s.getStart();
+        int end = s.getEnd();
+        if (start < 0) {
+            return results;
+        }
+
+        if (end <= start) {
+            results.add(find(w, start));
+        } else {
+            results = find(w, start, end);
+        }
+
+        return results;
+    }
+
+    //===================================================================================
+    // INNER CLASS PROVIDING A VIEW OF A RANGE OF TOKENS
+    //===================================================================================
+
+    /** An unmodifiable list of the tokens in <tt>[start, end)</tt> of a mapped work. */
+    private static class TokenSlice extends AbstractList<Token> implements RandomAccess {
+        private final MappedWorkFile file;
+        private final int start;
+        private final int end;
+
+        TokenSlice(MappedWorkFile file, int start, int end) {
+            this.file = file;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        public Token get(int index) {
+            if (index < 0 || index >= end - start)
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+
+            return file.getToken(start + index);
+        }
+
+        @Override
+        public int size() {
+            return end - start;
+        }
+
+        @Override
+        public List<Token> subList(int from, int to) {
+            if (from < 0 || to > size() || from > to)
+                throw new IndexOutOfBoundsException("From: " + from + ", To: " + to);
+
+            return new TokenSlice(file, start + from, start + to);
+        }
+    }
+}
@@ -0,0 +1,445 @@
+/**
+ *
+ */
+package org.idch.texts.persist.mapped;
+
+import static org.idch.texts.persist.mapped.WorkFileFormat.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.idch.texts.Structure;
+import org.idch.texts.Token;
+import org.idch.texts.Vocabulary;
+import org.idch.texts.Work;
+
+
+/**
+ * A read-only view of a work file that has been mapped into memory. Token and structure
+ * properties are read directly from the mapped buffer; <tt>Token</tt> and
+ * <tt>Structure</tt> objects are only created when requested. Only the vocabulary and the
+ * (small) string pool are decoded when the file is opened.
+ *
+ * <p>All reads use absolute offsets, so a single instance may be shared by multiple
+ * threads.
+ *
+ * @author Neal Audenaert
+ */
+class MappedWorkFile {
+
+    private static final Token.Type[] TYPES = Token.Type.values();
+
+    //===================================================================================
+    // STATIC METHODS
+    //===================================================================================
+
+    /** Returns a view of <tt>length</tt> bytes of a buffer starting at <tt>offset</tt>. */
+    private static ByteBuffer slice(ByteBuffer buffer, int offset, int length) {
+        ByteBuffer b = buffer.duplicate();
+        b.position(offset);
+        b.limit(offset + length);
+        return b.slice();
+    }
+
+    /** Decodes a string table with <tt>n</tt> entries starting at <tt>offset</tt>. */
+    private static String[] readStringTable(ByteBuffer buffer, int offset, int n) {
+        IntBuffer offsets = slice(buffer, offset, 4 * (n + 1)).asIntBuffer();
+        CharBuffer chars = slice(buffer, offset + 4 * (n + 1), 2 * offsets.get(n)).asCharBuffer();
+
+        String[] values = new String[n];
+        for (int i = 0; i < n; i++) {
+            int start = offsets.get(i);
+            values[i] = chars.subSequence(start, offsets.get(i + 1)).toString();
+        }
+
+        return values;
+    }
+
+    //===================================================================================
+    // MEMBER VARIABLES
+    //===================================================================================
+
+    private final File file;
+    private final long id;
+    private final Work work;
+
+    private final int numTokens;
+    private final LongBuffer uuidMsb;
+    private final LongBuffer uuidLsb;
+    private final IntBuffer terms;
+    private final ByteBuffer types;
+
+    private final String[] strings;
+    private final Map<String, Integer> stringIds;
+
+    private final int numStructures;
+    private final ByteBuffer structures;
+    private final IntBuffer attributes;
+
+    /** Record numbers of the structures with each name id, in file (sorted) order. */
+    private final Map<Integer, int[]> structuresByName = new HashMap<Integer, int[]>();
+
+    /** Lazily built hash tables mapping UUIDs to token positions and structure records. */
+    private volatile int[] tokenIndex = null;
+    private volatile int[] structureIndex = null;
+
+    //===================================================================================
+    // CONSTRUCTORS
+    //===================================================================================
+
+    /**
+     * Opens and maps a work file.
+     *
+     * @param file The file to open.
+     * @param id The identifier to assign to the work stored in this file.
+     * @throws IOException If the file could not be read or is not a supported work file.
+     */
+    MappedWorkFile(File file, long id) throws IOException {
+        this.file = file;
+        this.id = id;
+
+        MappedByteBuffer buffer;
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } finally {
+            raf.close();    // the mapping remains valid after the channel is closed
+        }
+
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(HDR_MAGIC) != MAGIC)
+            throw new IOException("Not a work file: " + file);
+
+        int version = buffer.getInt(HDR_VERSION);
+        if (version != VERSION)
+            throw new IOException("Unsupported work file version (" + version + "): " + file);
+
+        int numTerms = buffer.getInt(HDR_NUM_TERMS);
+        numTokens = buffer.getInt(HDR_NUM_TOKENS);
+        numStructures = buffer.getInt(HDR_NUM_STRUCTURES);
+        int numStrings = buffer.getInt(HDR_NUM_STRINGS);
+        int numAttributes = buffer.getInt(HDR_NUM_ATTRIBUTES);
+
+        // token columns
+        int offset = buffer.getInt(HDR_TOKENS_OFFSET);
+        uuidMsb = slice(buffer, offset, 8 * numTokens).asLongBuffer();
+        offset += 8 * numTokens;
+        uuidLsb = slice(buffer, offset, 8 * numTokens).asLongBuffer();
+        offset += 8 * numTokens;
+        terms = slice(buffer, offset, 4 * numTokens).asIntBuffer();
+        offset += 4 * numTokens;
+        types = slice(buffer, offset, numTokens);
+
+        // string pool, structures and attributes
+        strings = readStringTable(buffer, buffer.getInt(HDR_STRINGS_OFFSET), numStrings);
+        stringIds = new HashMap<String, Integer>(numStrings * 2);
+        for (int i = 0; i < numStrings; i++) {
+            stringIds.put(strings[i], i);
+        }
+
+        structures = slice(buffer, buffer.getInt(HDR_STRUCTURES_OFFSET),
+                numStructures * STRUCTURE_SIZE);
+        attributes = slice(buffer, buffer.getInt(HDR_ATTRIBUTES_OFFSET),
+                numAttributes * ATTRIBUTE_SIZE).asIntBuffer();
+        indexStructureNames();
+
+        // the work itself
+        work = new Work(new UUID(buffer.getLong(HDR_UUID_MSB), buffer.getLong(HDR_UUID_LSB)));
+        work.setId(id);
+        readMetadata(buffer, buffer.getInt(HDR_METADATA_OFFSET));
+
+        Vocabulary vocab = work.getVocabulary();
+        String[] vocabulary = readStringTable(buffer, buffer.getInt(HDR_VOCABULARY_OFFSET), numTerms);
+        for (int i = 0; i < numTerms; i++) {
+            vocab.define(i, vocabulary[i]);
+        }
+    }
+
+    //===================================================================================
+    // HELPER METHODS
+    //===================================================================================
+
+    private void readMetadata(ByteBuffer buffer, int offset) {
+        IntBuffer md = slice(buffer, offset, 4 * NUM_METADATA_FIELDS).asIntBuffer();
+
+        work.setTitle(getString(md.get(MD_TITLE)));
+        work.setAbbreviation(getString(md.get(MD_ABBREVIATION)));
+        work.setDescription(getString(md.get(MD_DESCRIPTION)));
+        work.setCreator(getString(md.get(MD_CREATOR)));
+        work.setPublisher(getString(md.get(MD_PUBLISHER)));
+        work.setLgCode(getString(md.get(MD_LANGUAGE)));
+        work.setType(getString(md.get(MD_TYPE)));
+        work.setCopyright(getString(md.get(MD_COPYRIGHT)));
+        work.setScope(getString(md.get(MD_SCOPE)));
+        work.setRefSystem(getString(md.get(MD_REF_SYSTEM)));
+        work.setSourceUrl(getString(md.get(MD_SOURCE_URL)));
+        work.setPublicationDate(getString(md.get(MD_PUBLICATION_DATE)));
+    }
+
+    private void indexStructureNames() {
+        Map<Integer, List<Integer>> names = new HashMap<Integer, List<Integer>>();
+        for (int r = 0; r < numStructures; r++) {
+            Integer name = structures.getInt(r * STRUCTURE_SIZE + STRUCTURE_NAME);
+            List<Integer> records = names.get(name);
+            if (records == null) {
+                records = new ArrayList<Integer>();
+                names.put(name, records);
+            }
+
+            records.add(r);
+        }
+
+        for (Map.Entry<Integer, List<Integer>> entry : names.entrySet()) {
+            List<Integer> records = entry.getValue();
+            int[] values = new int[records.size()];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = records.get(i);
+            }
+
+            structuresByName.put(entry.getKey(), values);
+        }
+    }
+
+    private static int hash(long msb, long lsb) {
+        long h = msb ^ lsb;
+        int x = (int)(h ^ (h >>> 32));
+        return x ^ (x >>> 16);
+    }
+
+    /** Builds an open addressing table mapping UUIDs to index + 1. */
+    private static int[] buildIndex(UUIDColumns uuids, int n) {
+        int capacity = Integer.highestOneBit(Math.max(n, 1)) * 4;
+        int mask = capacity - 1;
+        int[] index = new int[capacity];
+        for (int i = 0; i < n; i++) {
+            int slot = hash(uuids.getMsb(i), uuids.getLsb(i)) & mask;
+            while (index[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+
+            index[slot] = i + 1;
+        }
+
+        return index;
+    }
+
+    private static int lookup(int[] index, UUIDColumns uuids, UUID uuid) {
+        long m = uuid.getMostSignificantBits();
+        long l = uuid.getLeastSignificantBits();
+
+        int mask = index.length - 1;
+        int slot = hash(m, l) & mask;
+        int entry;
+        while ((entry = index[slot]) != 0) {
+            int i = entry - 1;
+            if (uuids.getMsb(i) == m && uuids.getLsb(i) == l)
+                return i;
+
+            slot = (slot + 1) & mask;
+        }
+
+        return -1;
+    }
+
+    private long getStructureLong(int record, int field) {
+        return structures.getLong(record * STRUCTURE_SIZE + field);
+    }
+
+    private int getStructureInt(int record, int field) {
+        return structures.getInt(record * STRUCTURE_SIZE + field);
+    }
+
+    //===================================================================================
+    // WORK AND STRING ACCESSORS
+    //===================================================================================
+
+    File getFile() {
+        return this.file;
+    }
+
+    long getId() {
+        return this.id;
+    }
+
+    Work getWork() {
+        return this.work;
+    }
+
+    /** Returns the string with the specified id from the string pool or <tt>null</tt>. */
+    String getString(int id) {
+        return (id == NONE) ? null : strings[id];
+    }
+
+    /** Returns the id of a string in the string pool or <tt>NONE</tt>. */
+    int getStringId(String value) {
+        Integer id = (value != null) ? stringIds.get(value) : null;
+        return (id != null) ? id : NONE;
+    }
+
+    //===================================================================================
+    // TOKEN ACCESSORS
+    //===================================================================================
+
+    int getNumberOfTokens() {
+        return this.numTokens;
+    }
+
+    /** Creates the token at the specified position. */
+    Token getToken(int pos) {
+        byte type = types.get(pos);
+        return new Token(work, pos, terms.get(pos),
+                (type == NONE) ? null : TYPES[type],
+                new UUID(uuidMsb.get(pos), uuidLsb.get(pos)));
+    }
+
+    /** Returns the position of the token with the supplied UUID or <tt>-1</tt>. */
+    int indexOfToken(UUID uuid) {
+        UUIDColumns uuids = new UUIDColumns() {
+            public long getMsb(int i) { return uuidMsb.get(i); }
+            public long getLsb(int i) { return uuidLsb.get(i); }
+        };
+
+        int[] index = tokenIndex;
+        if (index == null) {
+            index = buildIndex(uuids, numTokens);
+            tokenIndex = index;
+        }
+
+        return lookup(index, uuids, uuid);
+    }
+
+    //===================================================================================
+    // STRUCTURE ACCESSORS
+    //===================================================================================
+
+    int getNumberOfStructures() {
+        return this.numStructures;
+    }
+
+    /** Returns the identifier of the structure stored in the specified record. */
+    long getStructureId(int record) {
+        return (id << 32) | record;
+    }
+
+    /** Returns the start position of a structure as reported by <tt>getStart()</tt>. */
+    int getStart(int record) {
+        return getStructureInt(record, STRUCTURE_START);
+    }
+
+    /** Returns the end position of a structure as reported by <tt>getEnd()</tt>. */
+    int getEnd(int record) {
+        int end = getStructureInt(record, STRUCTURE_END);
+        return (end != NONE) ? end + 1 : getStart(record);
+    }
+
+    /** Returns the records of the structures with the supplied name, in sorted order. */
+    int[] getRecords(String name) {
+        int[] records = structuresByName.get(getStringId(name));
+        return (records != null) ? records : new int[0];
+    }
+
+    /** Returns the records of all structures, in sorted order. */
+    int[] getRecords() {
+        int[] records = new int[numStructures];
+        for (int r = 0; r < numStructures; r++) {
+            records[r] = r;
+        }
+
+        return records;
+    }
+
+    /** Returns the record of the structure with the supplied UUID or <tt>-1</tt>. */
+    int indexOfStructure(UUID uuid) {
+        UUIDColumns uuids = new UUIDColumns() {
+            public long getMsb(int r) { return getStructureLong(r, STRUCTURE_UUID_MSB); }
+            public long getLsb(int r) { return getStructureLong(r, STRUCTURE_UUID_LSB); }
+        };
+
+        int[] index = structureIndex;
+        if (index == null) {
+            index = buildIndex(uuids, numStructures);
+            structureIndex = index;
+        }
+
+        return lookup(index, uuids, uuid);
+    }
+
+    /**
+     * Tests whether the structure in the supplied record has an attribute with the
+     * supplied key and value string ids.
+     */
+    boolean hasAttribute(int record, int key, int value) {
+        int first = getStructureInt(record, STRUCTURE_FIRST_ATTR);
+        int n = getStructureInt(record, STRUCTURE_NUM_ATTRS);
+        for (int a = first; a < first + n; a++) {
+            if (attributes.get(2 * a) == key && attributes.get(2 * a + 1) == value)
+                return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Returns a new structure read from the specified record. Structures are mutable, so
+     * each call creates its own instance rather than sharing one between callers.
+     */
+    Structure getStructure(int record) {
+        Structure s = new Structure(new UUID(getStructureLong(record, STRUCTURE_UUID_MSB),
+                                   getStructureLong(record, STRUCTURE_UUID_LSB)));
+        s.setId(getStructureId(record));
+        s.setWork(work.getUUID());
+        s.setName(getString(getStructureInt(record, STRUCTURE_NAME)));
+        s.setPerspective(getString(getStructureInt(record, STRUCTURE_PERSPECTIVE)));
+
+        int start = getStructureInt(record, STRUCTURE_START);
+        int end = getStructureInt(record, STRUCTURE_END);
+        s.setStartTokenPosition((start != NONE) ? start : null);
+        s.setEndTokenPosition((end != NONE) ? end : null);
+
+        int first = getStructureInt(record, STRUCTURE_FIRST_ATTR);
+        int n = getStructureInt(record, STRUCTURE_NUM_ATTRS);
+        Map<String, String> attrs = new HashMap<String, String>();
+        for (int a = first; a < first + n; a++) {
+            attrs.put(getString(attributes.get(2 * a)), getString(attributes.get(2 * a + 1)));
+        }
+        s.setAttributes(attrs);
+
+        return s;
+    }
+
+    /** Returns the records in <tt>records</tt> for which <tt>filter</tt> is satisfied. */
+    static int[] filter(int[] records, RecordFilter filter) {
+        int[] results = new int[records.length];
+        int n = 0;
+        for (int r : records) {
+            if (filter.accept(r))
+                results[n++] = r;
+        }
+
+        return Arrays.copyOf(results, n);
+    }
+
+    /** Selects structure records by their stored properties. */
+    interface RecordFilter {
+        boolean accept(int record);
+    }
+
+    /** Provides access to the two halves of a column of UUIDs. */
+    private interface UUIDColumns {
+        long getMsb(int i);
+        long getLsb(int i);
+    }
+}
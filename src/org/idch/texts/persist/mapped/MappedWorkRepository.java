@@ -0,0 +1,120 @@
+/**
+ *
+ */
+package org.idch.texts.persist.mapped;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import org.idch.texts.TokenRepository;
+import org.idch.texts.Work;
+import org.idch.texts.WorkRepository;
+
+
+/**
+ * Read-only work repository that provides access to the works stored in the files
+ * opened by a {@link MappedTextModule}.
+ *
+ * @author Neal Audenaert
+ */
+class MappedWorkRepository implements WorkRepository {
+
+    private MappedTextModule repo = null;
+
+    MappedWorkRepository(MappedTextModule repo) {
+        this.repo = repo;
+    }
+
+    /* (non-Javadoc)
+     * @see org.idch.texts.WorkRepository#getTokenRepository()
+     */
+    @Override
+    public TokenRepository getTokenRepository() {
+        return repo.getTokenRepository();
+    }
+
+    /**
+     * Not supported. Mapped work files are created using {@link WorkFileWriter}.
+     * @throws UnsupportedOperationException always
+     */
+    @Override
+    public Work create(String workId) {
+        throw new UnsupportedOperationException("Mapped work repositories are read-only.");
+    }
+
+    @Override
+    public Work find(long id) {
+        MappedWorkFile file = repo.getFile(id);
+        return (file != null) ? file.getWork() : null;
+    }
+
+    @Override
+    public Work find(UUID id) {
+        MappedWorkFile file = repo.getFile(id);
+        return (file != null) ? file.getWork() : null;
+    }
+
+    /* (non-Javadoc)
+     * @see org.idch.texts.WorkRepository#findByType(java.lang.String)
+     */
+    @Override
+    public List<Work> findByType(String type) {
+        List<Work> works = new ArrayList<Work>();
+        for (MappedWorkFile file : repo.getFiles()) {
+            Work w = file.getWork();
+            if (type.equals(w.getType()))
+                works.add(w);
+        }
+
+        return works;
+    }
+
+    /* (non-Javadoc)
+     * @see org.idch.texts.WorkRepository#findByType(java.lang.String, java.lang.String)
+     */
+    @Override
+    public List<Work> findByType(String type, String lgCode) {
+        List<Work> works = new ArrayList<Work>();
+        for (MappedWorkFile file : repo.getFiles()) {
+            Work w = file.getWork();
+            if (type.equals(w.getType()) && lgCode.equalsIgnoreCase(w.getLgCode()))
+                works.add(w);
+        }
+
+        return works;
+    }
+
+    /* (non-Javadoc)
+     * @see org.idch.texts.WorkRepository#findByAbbr(java.lang.String)
+     */
+    @Override
+    public List<Work> findByAbbr(String abbreviation) {
+        List<Work> works = new ArrayList<Work>();
+        for (MappedWorkFile file : repo.getFiles()) {
+            Work w = file.getWork();
+            if (abbreviation.equals(w.getAbbreviation()))
+                works.add(w);
+        }
+
+        return works;
+    }
+
+    /**
+     * Not supported. Mapped work files are created using {@link WorkFileWriter}.
+     * @throws UnsupportedOperationException always
+     */
+    @Override
+    public boolean save(Work w) {
+        throw new UnsupportedOperationException("Mapped work repositories are read-only.");
+    }
+
+    /**
+     * Not supported. Mapped work files are created using {@link WorkFileWriter}.
+     * @throws UnsupportedOperationException always
+     */
+    @Override
+    public boolean remove(Work w) {
+        throw new UnsupportedOperationException("Mapped work repositories are read-only.");
+    }
+}
@@ -0,0 +1,158 @@
+/**
+ *
+ */
+package org.idch.texts.persist.mapped;
+
+import java.util.AbstractSet;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.SortedSet;
+
+import org.idch.texts.Structure;
+import org.idch.texts.StructureComparator;
+
+
+/**
+ * An unmodifiable, sorted view of a set of structure records in a mapped work file.
+ * Records are stored in the order imposed by {@link StructureComparator}, so views are
+ * represented by an array of record numbers and a range within that array. Structures
+ * are created as the elements of the view are accessed.
+ *
+ * @author Neal Audenaert
+ */
+class StructureSlice extends AbstractSet<Structure> implements SortedSet<Structure> {
+
+    private static final Comparator<Structure> COMPARATOR = new StructureComparator();
+
+    private final MappedWorkFile file;
+    private final int[] records;
+    private final int from;
+    private final int to;
+
+    /**
+     * @param file The file the records belong to.
+     * @param records Record numbers in ascending order.
+     */
+    StructureSlice(MappedWorkFile file, int[] records) {
+        this(file, records, 0, records.length);
+    }
+
+    private StructureSlice(MappedWorkFile file, int[] records, int from, int to) {
+        this.file = file;
+        this.records = records;
+        this.from = from;
+        this.to = to;
+    }
+
+    /** Returns the structure at the specified index of the backing records array. */
+    private Structure get(int ix) {
+        return file.getStructure(records[ix]);
+    }
+
+    /**
+     * Returns the index of the first structure in this view that is not less than
+     * <tt>s</tt>.
+     */
+    private int lowerBound(Structure s) {
+        int lo = from;
+        int hi = to;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (COMPARATOR.compare(get(mid), s) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+
+        return lo;
+    }
+
+    //===================================================================================
+    // SET METHODS
+    //===================================================================================
+
+    @Override
+    public int size() {
+        return to - from;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        if (!(o instanceof Structure))
+            return false;
+
+        Structure s = (Structure)o;
+        if (!file.getWork().getUUID().equals(s.getWorkUUID()))
+            return false;
+
+        int ix = lowerBound(s);
+        return (ix < to) && (COMPARATOR.compare(get(ix), s) == 0);
+    }
+
+    @Override
+    public Iterator<Structure> iterator() {
+        return new Iterator<Structure>() {
+            private int ix = from;
+
+            public boolean hasNext() {
+                return ix < to;
+            }
+
+            public Structure next() {
+                if (ix >= to)
+                    throw new NoSuchElementException();
+
+                return get(ix++);
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    //===================================================================================
+    // SORTED SET METHODS
+    //===================================================================================
+
+    @Override
+    public Comparator<? super Structure> comparator() {
+        return COMPARATOR;
+    }
+
+    @Override
+    public Structure first() {
+        if (from == to)
+            throw new NoSuchElementException();
+
+        return get(from);
+    }
+
+    @Override
+    public Structure last() {
+        if (from == to)
+            throw new NoSuchElementException();
+
+        return get(to - 1);
+    }
+
+    @Override
+    public SortedSet<Structure> subSet(Structure fromElement, Structure toElement) {
+        if (COMPARATOR.compare(fromElement, toElement) > 0)
+            throw new IllegalArgumentException("fromElement > toElement");
+
+        return new StructureSlice(file, records, lowerBound(fromElement), lowerBound(toElement));
+    }
+
+    @Override
+    public SortedSet<Structure> headSet(Structure toElement) {
+        return new StructureSlice(file, records, from, lowerBound(toElement));
+    }
+
+    @Override
+    public SortedSet<Structure> tailSet(Structure fromElement) {
+        return new StructureSlice(file, records, lowerBound(fromElement), to);
+    }
+}
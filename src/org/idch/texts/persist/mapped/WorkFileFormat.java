@@ -0,0 +1,124 @@
+/**
+ *
+ */
+package org.idch.texts.persist.mapped;
+
+/**
+ * Defines the layout of the binary work file format read by {@link MappedWorkFile} and
+ * written by {@link WorkFileWriter}. A work file stores a single <tt>Work</tt>, its
+ * tokens and its structures in a form that can be memory-mapped and read in place. All
+ * values are stored in big-endian byte order and every section starts on an 8 byte
+ * boundary.
+ *
+ * <pre>
+ * HEADER       fixed size, see the HDR_* offsets below
+ * METADATA     int[NUM_METADATA_FIELDS] string ids of the work's descriptive metadata
+ * VOCABULARY   string table of the work's terms, indexed by term id
+ * TOKENS       long[n] uuid msb, long[n] uuid lsb, int[n] term id, byte[n] type
+ * STRINGS      string table of structure names, perspectives and attributes
+ * STRUCTURES   fixed size records (see STRUCTURE_*), sorted by StructureComparator
+ * ATTRIBUTES   int key string id, int value string id, grouped by structure
+ * </pre>
+ *
+ * A string table with <tt>n</tt> entries consists of <tt>int[n + 1]</tt> character
+ * offsets followed by the UTF-16 characters of all strings. String <tt>i</tt> occupies
+ * characters <tt>[offset[i], offset[i + 1])</tt>. Absent (<tt>null</tt>) strings and
+ * positions are stored as <tt>-1</tt>.
+ *
+ * @author Neal Audenaert
+ */
+final class WorkFileFormat {
+
+    /** Identifies a work file: 'IDTW'. */
+    static final int MAGIC = 0x49445457;
+
+    /** The current version of the format. Incremented on any incompatible change. */
+    static final int VERSION = 1;
+
+    /** The default extension for work files. */
+    static final String EXTENSION = ".work";
+
+    /** Marks absent string ids and token positions. */
+    static final int NONE = -1;
+
+    //===================================================================================
+    // HEADER LAYOUT
+    //===================================================================================
+
+    static final int HDR_MAGIC              = 0;
+    static final int HDR_VERSION            = 4;
+    static final int HDR_UUID_MSB           = 8;
+    static final int HDR_UUID_LSB           = 16;
+    static final int HDR_NUM_TERMS          = 24;
+    static final int HDR_NUM_TOKENS         = 28;
+    static final int HDR_NUM_STRINGS        = 32;
+    static final int HDR_NUM_STRUCTURES     = 36;
+    static final int HDR_NUM_ATTRIBUTES     = 40;
+    static final int HDR_METADATA_OFFSET    = 44;
+    static final int HDR_VOCABULARY_OFFSET  = 48;
+    static final int HDR_TOKENS_OFFSET      = 52;
+    static final int HDR_STRINGS_OFFSET     = 56;
+    static final int HDR_STRUCTURES_OFFSET  = 60;
+    static final int HDR_ATTRIBUTES_OFFSET  = 64;
+
+    static final int HEADER_SIZE            = 72;
+
+    //===================================================================================
+    // METADATA LAYOUT
+    //===================================================================================
+
+    static final int MD_TITLE               = 0;
+    static final int MD_ABBREVIATION        = 1;
+    static final int MD_DESCRIPTION         = 2;
+    static final int MD_CREATOR             = 3;
+    static final int MD_PUBLISHER           = 4;
+    static final int MD_LANGUAGE            = 5;
+    static final int MD_TYPE                = 6;
+    static final int MD_COPYRIGHT           = 7;
+    static final int MD_SCOPE               = 8;
+    static final int MD_REF_SYSTEM          = 9;
+    static final int MD_SOURCE_URL          = 10;
+    static final int MD_PUBLICATION_DATE    = 11;
+
+    static final int NUM_METADATA_FIELDS    = 12;
+
+    //===================================================================================
+    // STRUCTURE RECORD LAYOUT
+    //===================================================================================
+
+    static final int STRUCTURE_UUID_MSB     = 0;
+    static final int STRUCTURE_UUID_LSB     = 8;
+    static final int STRUCTURE_NAME         = 16;
+    static final int STRUCTURE_PERSPECTIVE  = 20;
+    static final int STRUCTURE_START        = 24;
+    static final int STRUCTURE_END          = 28;
+    static final int STRUCTURE_FIRST_ATTR   = 32;
+    static final int STRUCTURE_NUM_ATTRS    = 36;
+
+    static final int STRUCTURE_SIZE         = 40;
+
+    static final int ATTRIBUTE_SIZE         = 8;
+
+    //===================================================================================
+    // SIZE CALCULATIONS
+    //===================================================================================
+
+    /** Rounds the supplied size up to the next 8 byte boundary. */
+    static int align(int size) {
+        return (size + 7) & ~7;
+    }
+
+    /** Returns the aligned size of a string table. */
+    static int sizeOfStringTable(int numStrings, int numChars) {
+        return align(4 * (numStrings + 1) + 2 * numChars);
+    }
+
+    /** Returns the aligned size of the token columns. */
+    static int sizeOfTokens(int numTokens) {
+        return align(numTokens * (8 + 8 + 4 + 1));
+    }
+
+    private WorkFileFormat() {
+
+    }
+}
@@ -0,0 +1,299 @@
+/**
+ *
+ */
+package org.idch.texts.persist.mapped;
+
+import static org.idch.texts.persist.mapped.WorkFileFormat.*;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.idch.texts.Structure;
+import org.idch.texts.StructureComparator;
+import org.idch.texts.StructureRepository;
+import org.idch.texts.TextModule;
+import org.idch.texts.Token;
+import org.idch.texts.TokenRepository;
+import org.idch.texts.TokenVisitor;
+import org.idch.texts.Vocabulary;
+import org.idch.texts.Work;
+
+
+/**
+ * Writes a <tt>Work</tt>, along with its tokens and structures, to a binary work file
+ * that can be opened by {@link MappedTextModule}. See {@link WorkFileFormat} for a
+ * description of the file layout.
+ *
+ * @author Neal Audenaert
+ */
+public class WorkFileWriter {
+
+    //===================================================================================
+    // STATIC METHODS
+    //===================================================================================
+
+    /**
+     * Writes a work stored in the supplied text module to a file. Since structure
+     * repositories can only be queried by structure name, the names of the structures to
+     * include must be supplied.
+     *
+     * @param module The text module in which the work is stored.
+     * @param w The work to write.
+     * @param structureNames The names of the structures to include.
+     * @param file The file to write.
+     * @throws IOException If the file could not be written.
+     */
+    public static void write(TextModule module, Work w, Collection<String> structureNames,
+            File file) throws IOException {
+        StructureRepository repo = module.getStructureRepository();
+        List<Structure> structures = new ArrayList<Structure>();
+        for (String name : structureNames) {
+            structures.addAll(repo.find(w, name));
+        }
+
+        new WorkFileWriter(w).write(module.getTokenRepository(), structures, file);
+    }
+
+    //===================================================================================
+    // MEMBER VARIABLES
+    //===================================================================================
+
+    private final Work work;
+
+    /** The string pool for structure names, perspectives, attributes and metadata. */
+    private final List<String> strings = new ArrayList<String>();
+    private final Map<String, Integer> stringIds = new HashMap<String, Integer>();
+
+    //===================================================================================
+    // CONSTRUCTORS
+    //===================================================================================
+
+    /**
+     * @param w The work to be written.
+     */
+    public WorkFileWriter(Work w) {
+        this.work = w;
+    }
+
+    //===================================================================================
+    // HELPER METHODS
+    //===================================================================================
+
+    /** Returns the id of a string in the string pool, adding it if needed. */
+    private int string(String value) {
+        if (value == null)
+            return NONE;
+
+        Integer id = stringIds.get(value);
+        if (id == null) {
+            id = strings.size();
+            strings.add(value);
+            stringIds.put(value, id);
+        }
+
+        return id;
+    }
+
+    private static int position(Integer pos) {
+        return (pos != null) ? pos : NONE;
+    }
+
+    private static int countChars(List<String> values) {
+        int ct = 0;
+        for (String value : values) {
+            ct += value.length();
+        }
+
+        return ct;
+    }
+
+    private static void pad(DataOutputStream out, int size) throws IOException {
+        for (int i = size; i < align(size); i++) {
+            out.writeByte(0);
+        }
+    }
+
+    private static void writeStringTable(DataOutputStream out, List<String> values)
+            throws IOException {
+        int offset = 0;
+        out.writeInt(offset);
+        for (String value : values) {
+            offset += value.length();
+            out.writeInt(offset);
+        }
+
+        for (String value : values) {
+            out.writeChars(value);
+        }
+
+        pad(out, 4 * (values.size() + 1) + 2 * offset);
+    }
+
+    //===================================================================================
+    // WRITE METHODS
+    //===================================================================================
+
+    /**
+     * Writes this writer's work to a file.
+     *
+     * @param tokens The repository from which to read the work's tokens.
+     * @param structures The structures to include in the file. All structures must belong
+     *      to the work being written.
+     * @param file The file to write.
+     * @throws IOException If the file could not be written.
+     */
+    public void write(TokenRepository tokens, Collection<Structure> structures, File file)
+            throws IOException {
+
+        // read the token columns, resolving each token's text through the vocabulary
+        final Vocabulary vocab = work.getVocabulary();
+        int numTokens = tokens.getNumberOfTokens(work);
+        final long[] msb = new long[numTokens];
+        final long[] lsb = new long[numTokens];
+        final int[] terms = new int[numTokens];
+        final byte[] types = new byte[numTokens];
+        boolean complete = tokens.forEach(work, 0, numTokens, new TokenVisitor() {
+            public boolean visit(Token t) {
+                int pos = t.getPosition();
+                UUID uuid = t.getUUID();
+                Token.Type type = t.getType();
+
+                msb[pos] = uuid.getMostSignificantBits();
+                lsb[pos] = uuid.getLeastSignificantBits();
+                terms[pos] = vocab.intern(t.getText());
+                types[pos] = (type != null) ? (byte)type.ordinal() : NONE;
+                return true;
+            }
+        });
+
+        if (!complete)
+            throw new IOException("Could not read the tokens of work " + work.getUUID());
+
+        List<String> vocabulary = new ArrayList<String>(vocab.size());
+        for (int id = 0; id < vocab.size(); id++) {
+            vocabulary.add(vocab.getTerm(id));
+        }
+
+        // build the metadata, structure and attribute tables
+        int[] metadata = new int[NUM_METADATA_FIELDS];
+        metadata[MD_TITLE] = string(work.getTitle());
+        metadata[MD_ABBREVIATION] = string(work.getAbbreviation());
+        metadata[MD_DESCRIPTION] = string(work.getDescription());
+        metadata[MD_CREATOR] = string(work.getCreator());
+        metadata[MD_PUBLISHER] = string(work.getPublisher());
+        metadata[MD_LANGUAGE] = string(work.getLgCode());
+        metadata[MD_TYPE] = string(work.getType());
+        metadata[MD_COPYRIGHT] = string(work.getCopyright());
+        metadata[MD_SCOPE] = string(work.getScope());
+        metadata[MD_REF_SYSTEM] = string(work.getRefSystem());
+        metadata[MD_SOURCE_URL] = string(work.getSourceUrl());
+        metadata[MD_PUBLICATION_DATE] = string(work.getPublicationDate());
+
+        List<Structure> sorted = new ArrayList<Structure>(structures);
+        Collections.sort(sorted, new StructureComparator());
+
+        int numStructures = sorted.size();
+        int[] structureStrings = new int[numStructures * 2];
+        List<int[]> attributes = new ArrayList<int[]>();
+        int[] firstAttr = new int[numStructures];
+        for (int i = 0; i < numStructures; i++) {
+            Structure s = sorted.get(i);
+            if (!work.getUUID().equals(s.getWorkUUID()))
+                throw new IllegalArgumentException("Structure " + s.getUUID() +
+                        " does not belong to work " + work.getUUID());
+
+            structureStrings[2 * i] = string(s.getName());
+            structureStrings[2 * i + 1] = string(s.getPerspective());
+
+            firstAttr[i] = attributes.size();
+            for (Map.Entry<String, String> attr : s.getAttributes().entrySet()) {
+                attributes.add(new int[] { string(attr.getKey()), string(attr.getValue()) });
+            }
+        }
+
+        // compute the section offsets
+        int metadataOffset = HEADER_SIZE;
+        int vocabOffset = metadataOffset + align(4 * NUM_METADATA_FIELDS);
+        int tokensOffset = vocabOffset + sizeOfStringTable(vocabulary.size(), countChars(vocabulary));
+        int stringsOffset = tokensOffset + sizeOfTokens(numTokens);
+        int structuresOffset = stringsOffset + sizeOfStringTable(strings.size(), countChars(strings));
+        int attributesOffset = structuresOffset + numStructures * STRUCTURE_SIZE;
+
+        DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+        try {
+            UUID uuid = work.getUUID();
+
+            // HEADER
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(uuid.getMostSignificantBits());
+            out.writeLong(uuid.getLeastSignificantBits());
+            out.writeInt(vocabulary.size());
+            out.writeInt(numTokens);
+            out.writeInt(strings.size());
+            out.writeInt(numStructures);
+            out.writeInt(attributes.size());
+            out.writeInt(metadataOffset);
+            out.writeInt(vocabOffset);
+            out.writeInt(tokensOffset);
+            out.writeInt(stringsOffset);
+            out.writeInt(structuresOffset);
+            out.writeInt(attributesOffset);
+            pad(out, HDR_ATTRIBUTES_OFFSET + 4);
+
+            // METADATA
+            for (int id : metadata) {
+                out.writeInt(id);
+            }
+            pad(out, 4 * NUM_METADATA_FIELDS);
+
+            // VOCABULARY
+            writeStringTable(out, vocabulary);
+
+            // TOKENS
+            for (int i = 0; i < numTokens; i++) out.writeLong(msb[i]);
+            for (int i = 0; i < numTokens; i++) out.writeLong(lsb[i]);
+            for (int i = 0; i < numTokens; i++) out.writeInt(terms[i]);
+            out.write(types);
+            pad(out, numTokens * (8 + 8 + 4 + 1));
+
+            // STRINGS
+            writeStringTable(out, strings);
+
+            // STRUCTURES
+            for (int i = 0; i < numStructures; i++) {
+                Structure s = sorted.get(i);
+                int numAttrs = ((i + 1 < numStructures) ? firstAttr[i + 1] : attributes.size())
+                        - firstAttr[i];
+
+                out.writeLong(s.getUUID().getMostSignificantBits());
+                out.writeLong(s.getUUID().getLeastSignificantBits());
+                out.writeInt(structureStrings[2 * i]);
+                out.writeInt(structureStrings[2 * i + 1]);
+                out.writeInt(position(s.getStartTokenPosition()));
+                out.writeInt(position(s.getEndTokenPosition()));
+                out.writeInt(firstAttr[i]);
+                out.writeInt(numAttrs);
+            }
+
+            // ATTRIBUTES
+            for (int[] attr : attributes) {
+                out.writeInt(attr[0]);
+                out.writeInt(attr[1]);
+            }
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,189 @@
+/**
+ *
+ */
+package org.idch.texts.persist.mem;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import org.idch.texts.Structure;
+
+
+/**
+ * Finds the structures that include a token position or that overlap a range of token
+ * positions. Structures are kept in an array sorted by their start positions, which is
+ * treated as an implicit balanced binary tree: the root of the range <tt>[lo, hi)</tt>
+ * is its middle element. Each element records the greatest end position within its
+ * subtree, so that a query can skip any subtree in which no structure ends after the
+ * query begins. Queries run in <tt>O(log n + k)</tt> time for <tt>k</tt> results.
+ *
+ * <p>The arrays are rebuilt, in <tt>O(n log n)</tt> time, by the first query after
+ * structures have been added. This suits the way structures are stored: they are added
+ * while a document is imported and queried once it has been imported.
+ *
+ * <p>Updates and rebuilds are synchronized. The arrays are never modified once built, so
+ * queries run without locking unless they must rebuild them.
+ *
+ * <p>Positions follow {@link Structure#getStart()} and {@link Structure#getEnd()}: a
+ * structure includes the positions <tt>[getStart(), getEnd())</tt>.
+ *
+ * @author Neal Audenaert
+ */
+class IntervalIndex {
+
+    /** Orders structures by their start positions. */
+    private static final Comparator<Structure> BY_START = new Comparator<Structure>() {
+        public int compare(Structure a, Structure b) {
+            return a.getStart() - b.getStart();
+        }
+    };
+
+    //===================================================================================
+    // MEMBER VARIABLES
+    //===================================================================================
+
+    private final Map<UUID, Structure> structures = new HashMap<UUID, Structure>();
+
+    /** The indexed structures, sorted by start position, or <tt>null</tt> if these
+     *  need to be rebuilt. */
+    private volatile Tree tree = null;
+
+    //===================================================================================
+    // HELPER METHODS
+    //===================================================================================
+
+    /** Returns the current arrays, rebuilding them if structures have been added. */
+    private Tree getTree() {
+        Tree t = tree;
+        return (t != null) ? t : build();
+    }
+
+    private synchronized Tree build() {
+        if (tree == null)
+            tree = new Tree(structures.values().toArray(new Structure[structures.size()]));
+
+        return tree;
+    }
+
+    /** The indexed structures sorted by start position, with their positions. */
+    private static class Tree {
+        final Structure[] sorted;
+        final int[] starts;
+        final int[] ends;
+
+        /** The greatest end position in the subtree rooted at each element. */
+        final int[] maxEnds;
+
+        Tree(Structure[] structures) {
+            int n = structures.length;
+            sorted = structures;
+            Arrays.sort(sorted, BY_START);
+
+            starts = new int[n];
+            ends = new int[n];
+            maxEnds = new int[n];
+            for (int i = 0; i < n; i++) {
+                starts[i] = sorted[i].getStart();
+                ends[i] = sorted[i].getEnd();
+            }
+
+            computeMaxEnds(0, n);
+        }
+
+        /** Records the greatest end position of each subtree of <tt>[lo, hi)</tt>. */
+        private int computeMaxEnds(int lo, int hi) {
+            if (lo >= hi)
+                return Integer.MIN_VALUE;
+
+            int mid = (lo + hi) >>> 1;
+            int max = Math.max(ends[mid],
+                      Math.max(computeMaxEnds(lo, mid), computeMaxEnds(mid + 1, hi)));
+            maxEnds[mid] = max;
+            return max;
+        }
+
+        /** Adds the structures of the subtree <tt>[lo, hi)</tt> that overlap a range. */
+        void find(int lo, int hi, int start, int end, Collection<Structure> results) {
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (maxEnds[mid] <= start)
+                    return;         // nothing in this subtree ends after the range starts
+
+                find(lo, mid, start, end, results);
+                if (starts[mid] >= end)
+                    return;         // this and the right subtree start after the range
+
+                if (ends[mid] > start)
+                    results.add(sorted[mid]);
+
+                lo = mid + 1;
+            }
+        }
+    }
+
+    //===================================================================================
+    // INDEX METHODS
+    //===================================================================================
+
+    /**
+     * Adds a structure to this index, replacing any structure with the same UUID. This
+     * must be called again if the positions of an indexed structure are changed.
+     */
+    synchronized void add(Structure s) {
+        structures.put(s.getUUID(), s);
+        tree = null;
+    }
+
+    /** Returns the number of indexed structures. */
+    synchronized int size() {
+        return structures.size();
+    }
+
+    /**
+     * Adds the structures that include the specified position to <tt>results</tt>.
+     */
+    void find(int position, Collection<Structure> results) {
+        findOverlapping(position, position + 1, results);
+    }
+
+    /**
+     * Adds the structures that include any position in the range <tt>[start, end)</tt>
+     * to <tt>results</tt>.
+     */
+    void findOverlapping(int start, int end, Collection<Structure> results) {
+        if (end <= start)
+            return;
+
+        Tree t = getTree();
+        t.find(0, t.sorted.length, start, end, results);
+    }
+
+    /**
+     * Adds the structures that lie within the range <tt>[start, end)</tt> to
+     * <tt>results</tt>. This examines each structure that starts within the range.
+     */
+    void findWithin(int start, int end, Collection<Structure> results) {
+        Tree t = getTree();
+        int[] starts = t.starts;
+
+        // find the first structure that starts at or after the range
+        int lo = 0, hi = starts.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (starts[mid] < start) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+
+        for (int i = lo; i < starts.length && starts[i] < end; i++) {
+            if (t.ends[i] <= end)
+                results.add(t.sorted[i]);
+        }
+    }
+}
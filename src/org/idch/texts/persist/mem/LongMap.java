@@ -0,0 +1,133 @@
+/**
+ *
+ */
+package org.idch.texts.persist.mem;
+
+
+/**
+ * A hash map from primitive <tt>long</tt> keys to values. Keys are stored in an open
+ * addressing table, so that looking up a key neither boxes it nor allocates an entry.
+ * Entries cannot be removed.
+ *
+ * <p>Calls to {@link #put(long, Object)} must be serialized by the caller, but may run
+ * while other threads call {@link #get(long)}. Readers do not block: a key becomes
+ * visible to them once the <tt>put</tt> that added it has returned. Values should be
+ * safe to publish to other threads (e.g., thread safe collections).
+ *
+ * @param <V> The type of the values.
+ *
+ * @author Neal Audenaert
+ */
+class LongMap<V> {
+
+    //===================================================================================
+    // SYMBOLIC CONSTANTS
+    //===================================================================================
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    //===================================================================================
+    // MEMBER VARIABLES
+    //===================================================================================
+
+    /** The keys and values of each slot. A slot is empty if its value is <tt>null</tt>. */
+    private static class Table {
+        final long[] keys;
+        final Object[] values;
+
+        Table(int capacity) {
+            keys = new long[capacity];
+            values = new Object[capacity];
+        }
+    }
+
+    /** Written after each update, so that readers see the entries added before it. */
+    private volatile int size = 0;
+
+    /** Replaced only by a fully populated table when this map grows. */
+    private volatile Table table = new Table(INITIAL_CAPACITY);
+
+    //===================================================================================
+    // CONSTRUCTORS
+    //===================================================================================
+
+    LongMap() {
+
+    }
+
+    //===================================================================================
+    // HELPER METHODS
+    //===================================================================================
+
+    private static int hash(long key) {
+        key *= 0x9E3779B97F4A7C15L;
+        return (int)(key ^ (key >>> 32));
+    }
+
+    /** Returns the slot of the supplied key or the empty slot where it should be added. */
+    private static int slot(Table t, long key) {
+        int mask = t.keys.length - 1;
+        int slot = hash(key) & mask;
+        while (t.values[slot] != null && t.keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+
+        return slot;
+    }
+
+    private void rehash(int capacity) {
+        Table old = table;
+        Table t = new Table(capacity);
+        for (int i = 0; i < old.keys.length; i++) {
+            if (old.values[i] != null) {
+                int slot = slot(t, old.keys[i]);
+                t.keys[slot] = old.keys[i];
+                t.values[slot] = old.values[i];
+            }
+        }
+
+        table = t;
+    }
+
+    //===================================================================================
+    // MAP METHODS
+    //===================================================================================
+
+    /** Returns the number of keys in this map. */
+    int size() {
+        return size;
+    }
+
+    /** Returns the value of the supplied key, or <tt>null</tt> if it has no value. */
+    @SuppressWarnings("unchecked")
+    V get(long key) {
+        if (size == 0)                      // read first: publishes the entries
+            return null;
+
+        Table t = table;
+        return (V)t.values[slot(t, key)];
+    }
+
+    /**
+     * Sets the value of a key.
+     *
+     * @param key The key.
+     * @param value The value of the key. May not be <tt>null</tt>.
+     */
+    void put(long key, V value) {
+        if (value == null)
+            throw new IllegalArgumentException("Values may not be null.");
+
+        Table t = table;
+        int slot = slot(t, key);
+        boolean added = (t.values[slot] == null);
+        t.keys[slot] = key;
+        t.values[slot] = value;
+
+        int n = added ? size + 1 : size;
+        size = n;
+        if (n * 2 > t.keys.length) {
+            rehash(t.keys.length * 2);
+        }
+    }
+}
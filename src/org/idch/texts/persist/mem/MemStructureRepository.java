@@ -3,22 +3,35 @@
  */
 package org.idch.texts.persist.mem;
 
-import java.util.Collections;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.SortedSet;
 import java.util.TreeSet;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.log4j.Logger;
 import org.idch.texts.Structure;
 import org.idch.texts.StructureComparator;
 import org.idch.texts.StructureRepository;
 import org.idch.texts.Token;
+import org.idch.texts.Vocabulary;
 import org.idch.texts.Work;
 
 
 /**
+ * In-memory structure repository. This may be used from multiple threads. Structures are
+ * indexed by work, and updates to the indices of a work are serialized by that work's 
+ * lock, so that works can be updated concurrently. Queries do not lock, except that the 
+ * first positional query after structures have been added rebuilds the position index 
+ * (see {@link IntervalIndex}). 
+ * 
  * @author Neal Audenaert
  */
 public class MemStructureRepository implements StructureRepository {
@@ -37,15 +50,15 @@ public class MemStructureRepository implements StructureRepository {
     //===================================================================================
     // MEMBER VARIABLES
     //===================================================================================
-    private static long nextId = 1;
+    private static final AtomicLong nextId = new AtomicLong(1);
     
     @SuppressWarnings("unused")
     private MemTextModule repo = null;
-    @SuppressWarnings("unused")
     private AttrIndex attrs = null;
     
-    private Map<String, Structure> structuresByUUID = new HashMap<String, Structure>();
-    private Map<Long, Structure> structuresById = new HashMap<Long, Structure>();
+    private Map<String, Structure> structuresByUUID = 
+            new ConcurrentHashMap<String, Structure>();
+    private Map<Long, Structure> structuresById = new ConcurrentHashMap<Long, Structure>();
     private StructureIndex index = new StructureIndex();
     //===================================================================================
     // CONSTRUCTORS
@@ -64,8 +77,17 @@ public class MemStructureRepository implements StructureRepository {
     // HELPER METHODS
     //===================================================================================
 
-    
-    
+    /** Adds a structure to the indices, holding the lock of the structure's work. */
+    private void index(Structure s) {
+        StructureIndexByWork structures = index.getByWork(s.getWorkUUID().toString());
+        synchronized (structures) {
+            index.add(s);
+            attrs.add(s);
+        }
+        
+        this.structuresById.put(s.getId(), s);
+        this.structuresByUUID.put(s.getUUID().toString(), s);
+    }
     
     //===================================================================================
     // CREATION AND UPDATE METHOS
@@ -93,16 +115,24 @@ public class MemStructureRepository implements StructureRepository {
         if (s.getId() != null)
             return null;
         
-        s.setId(nextId++);
-        
-        index.add(s);
-        this.structuresById.put(s.getId(), s);
-        this.structuresByUUID.put(s.getUUID().toString(), s);
+        s.setId(nextId.getAndIncrement());
+        index(s);
         
         return s;
     }
     
-    
+    /* (non-Javadoc)
+     * @see org.idch.texts.StructureRepository#createAll(java.util.Collection)
+     */
+    @Override
+    public boolean createAll(Collection<Structure> structures) {
+        boolean success = true;
+        for (Structure s : structures) {
+            success &= (create(s) != null);
+        }
+        
+        return success;
+    }
     
     /**
      * 
@@ -120,21 +150,32 @@ public class MemStructureRepository implements StructureRepository {
         if (s.getId() == null) {
             return create(s) != null;
         } else {
-            index.add(s);
-            this.structuresById.put(s.getId(), s);
-            this.structuresByUUID.put(s.getUUID().toString(), s);
+            index(s);
             return true;
         }
         
     }
     
+    /* (non-Javadoc)
+     * @see org.idch.texts.StructureRepository#saveAll(java.util.Collection)
+     */
+    @Override
+    public boolean saveAll(Collection<Structure> structures) {
+        boolean success = true;
+        for (Structure s : structures) {
+            success &= save(s);
+        }
+        
+        return success;
+    }
+    
     /* (non-Javadoc)
      * @see openscriptures.text.StructureRepository#hasStructuresFor(openscriptures.text.Work)
      */
     @Override
     public boolean hasStructuresFor(UUID workId) {
         StructureIndexByWork structures = index.getByWork(workId.toString());
-        return structures.size() != 0;
+        return !structures.isEmpty();
     }
     
 
@@ -189,24 +230,54 @@ public class MemStructureRepository implements StructureRepository {
      */
     @Override
     public SortedSet<Structure> find(Work w, int position) {
-        return new TreeSet<Structure>(new StructureComparator());
+        return findOverlapping(w, position, position + 1);
     }
 
     /* (non-Javadoc)
+     * @see org.idch.texts.StructureRepository#findOverlapping(org.idch.texts.Work, int, int)
+     */
+    @Override
+    public SortedSet<Structure> findOverlapping(Work w, int start, int end) {
+        SortedSet<Structure> results = new TreeSet<Structure>(new StructureComparator());
+        StructureIndexByWork structures = index.getByWork(w.getUUID().toString());
+        for (IntervalIndex intervals : structures.intervals.values()) {
+            intervals.findOverlapping(start, end, results);
+        }
+        
+        return results;
+    }
+
+    /**
+     * Looks up all structures with the specified name that lie within the range
+     * <tt>[start, end)</tt>.
+     * 
      * @see openscriptures.text.StructureRepository#find(openscriptures.text.Work, java.lang.String, int, int)
      */
     @Override
     public SortedSet<Structure> find(Work w, String name, int start, int end) {
-        StructureIndexByWork.filter(find(w, name), start, end);
-        return new TreeSet<Structure>(new StructureComparator());
+        SortedSet<Structure> results = new TreeSet<Structure>(new StructureComparator());
+        StructureIndexByWork structures = index.getByWork(w.getUUID().toString());
+        structures.getIntervals(name).findWithin(start, end, results);
+        return results;
     }
     
-    /* (non-Javadoc)
+    /**
+     * Looks up structures with the specified name relative to the range 
+     * <tt>[start, end)</tt>. If <tt>strict</tt> is <tt>false</tt>, this returns the 
+     * structures that lie within the range. Otherwise, it returns all structures that 
+     * overlap the range.
+     * 
      * @see openscriptures.text.StructureRepository#find(openscriptures.text.Work, java.lang.String, int, int)
      */
     @Override
     public SortedSet<Structure> find(Work w, String name, int start, int end, boolean strict) {
-        return new TreeSet<Structure>(new StructureComparator());
+        if (!strict)
+            return find(w, name, start, end);
+        
+        SortedSet<Structure> results = new TreeSet<Structure>(new StructureComparator());
+        StructureIndexByWork structures = index.getByWork(w.getUUID().toString());
+        structures.getIntervals(name).findOverlapping(start, end, results);
+        return results;
     }
     
     /* (non-Javadoc)
@@ -214,7 +285,7 @@ public class MemStructureRepository implements StructureRepository {
      */
     @Override
     public Map<UUID, SortedSet<Structure>> find(String name, String attribute, String value) {
-        return new HashMap<UUID, SortedSet<Structure>>();
+        return attrs.get(name, attribute, value);
     }
     
     /* (non-Javadoc)
@@ -222,7 +293,7 @@ public class MemStructureRepository implements StructureRepository {
      */
     @Override
     public SortedSet<Structure> find(Work w, String name, String attribute, String value) {
-        return new TreeSet<Structure>(new StructureComparator());
+        return attrs.get(w.getUUID(), name, attribute, value);
     }
     
 
@@ -233,9 +304,10 @@ public class MemStructureRepository implements StructureRepository {
     //===================================================================================
     
     private static class StructureIndex {
-        Map<String, StructureIndexByWork> indexByWork = new HashMap<String, StructureIndexByWork>();
-        Map<String, Structure> indexByUUID = new HashMap<String, Structure>();
-        Map<Long, Structure> indexById = new HashMap<Long, Structure>();
+        ConcurrentMap<String, StructureIndexByWork> indexByWork = 
+                new ConcurrentHashMap<String, StructureIndexByWork>();
+        Map<String, Structure> indexByUUID = new ConcurrentHashMap<String, Structure>();
+        Map<Long, Structure> indexById = new ConcurrentHashMap<Long, Structure>();
         
         void add(Structure s) {
             String workUuid = s.getWorkUUID().toString();
@@ -248,8 +320,10 @@ public class MemStructureRepository implements StructureRepository {
         public StructureIndexByWork getByWork(String workId) {
             StructureIndexByWork workIndex = indexByWork.get(workId);
             if (workIndex == null) {
-                workIndex = new StructureIndexByWork(workId);
-                indexByWork.put(workId, workIndex);
+                StructureIndexByWork created = new StructureIndexByWork(workId);
+                workIndex = indexByWork.putIfAbsent(workId, created);
+                if (workIndex == null)
+                    workIndex = created;
             }
             
             return workIndex;
@@ -266,39 +340,15 @@ public class MemStructureRepository implements StructureRepository {
     
     @SuppressWarnings("unused")
     private static class StructureIndexByWork {
-        private static SortedSet<Structure> filter(SortedSet<Structure> structures, int pos) {
-            SortedSet<Structure> results = new TreeSet<Structure>(new StructureComparator());
-            
-            for (Structure s : structures) {
-                if (s.getEnd() <= pos) 
-                    continue;
-                
-                if (s.getStart() > pos)
-                    break;
-                
-                if (s.getStart() <= pos && s.getEnd() > pos) {
-                    results.add(s);
-                }
-            }
-            
-            return results;
-        }
-        
-        private static SortedSet<Structure> filter(SortedSet<Structure> structures, int start, int end) {
-            SortedSet<Structure> results = new TreeSet<Structure>(new StructureComparator());
-            
-            for (Structure s : structures) {
-                if (start <= s.getStart() && end > s.getEnd())
-                    results.add(s);
-            }
-            
-            return results;
-        }
-        
         private final String workUUID;
         
         // by name
-        Map<String, SortedSet<Structure>> index = new HashMap<String, SortedSet<Structure>>();
+        ConcurrentMap<String, SortedSet<Structure>> index = 
+                new ConcurrentHashMap<String, SortedSet<Structure>>();
+        
+        // positions, by name
+        ConcurrentMap<String, IntervalIndex> intervals = 
+                new ConcurrentHashMap<String, IntervalIndex>();
         
         StructureIndexByWork(String id) {
             workUUID = id;
@@ -312,17 +362,43 @@ public class MemStructureRepository implements StructureRepository {
             return sz;
         }
         
+        public boolean isEmpty() {
+            for (SortedSet<Structure> s : index.values()) {
+                if (!s.isEmpty())
+                    return false;
+            }
+            
+            return true;
+        }
+        
         public SortedSet<Structure> get(String name) {
             SortedSet<Structure> structures = index.get(name);
             if (structures == null) {
-                structures = new TreeSet<Structure>(new StructureComparator());
-                index.put(name, structures);
+                SortedSet<Structure> created = 
+                        new ConcurrentSkipListSet<Structure>(new StructureComparator());
+                structures = index.putIfAbsent(name, created);
+                if (structures == null)
+                    structures = created;
+            }
+            
+            return structures;
+        }
+        
+        public IntervalIndex getIntervals(String name) {
+            IntervalIndex structures = intervals.get(name);
+            if (structures == null) {
+                IntervalIndex created = new IntervalIndex();
+                structures = intervals.putIfAbsent(name, created);
+                if (structures == null)
+                    structures = created;
             }
             
             return structures;
         }
         
         public boolean add(Structure s) {
+            this.getIntervals(s.getName()).add(s);
+            
             SortedSet<Structure> structures = this.get(s.getName());
             return structures.add(s);
         }
@@ -330,107 +406,160 @@ public class MemStructureRepository implements StructureRepository {
     }
     
     
-    @SuppressWarnings("unused")
+    /**
+     * An inverted index of structure attributes. For each structure name, attribute and 
+     * value, this records the structures of each work that have that value, so that a 
+     * structure can be found by an attribute (for example, a verse by its osisID) with a
+     * few hash lookups rather than by examining the structures of a work. Structures are
+     * indexed when they are created or saved; attributes set after a structure has been
+     * saved are indexed when it is next saved.
+     * 
+     * <p>Attribute names and values are interned to integer ids, and the postings for 
+     * each structure name are keyed by the pair of ids packed into a <tt>long</tt>. 
+     * Looking up an attribute value therefore allocates nothing. The ids are local to 
+     * this index.
+     * 
+     * <p>The postings are concurrent maps, so they may be read while they are updated.
+     * Updates to the postings of a structure name are serialized by that name's map.
+     */
     private static class AttrIndex {
-        Map<KeyValuePair, SortedSet<Structure>> structures = new HashMap<KeyValuePair, SortedSet<Structure>>();
+        private final Vocabulary keys = new Vocabulary();
+        private final Vocabulary values = new Vocabulary();
+        
+        /** Structures by name, attribute and value, then by work and UUID. */
+        ConcurrentMap<String, LongMap<Map<UUID, Map<UUID, Structure>>>> postings = 
+                new ConcurrentHashMap<String, LongMap<Map<UUID, Map<UUID, Structure>>>>();
+        
+        /** The postings to which each structure was added when it was last indexed. */
+        Map<UUID, List<Map<UUID, Structure>>> entries = 
+                new ConcurrentHashMap<UUID, List<Map<UUID, Structure>>>();
         
         public AttrIndex() {  }
         
-        public void add(Structure s) {
-            Map<String, String> attrs = s.getAttributes();
-            for (String key : attrs.keySet()) {
-                put(key, attrs.get(key), s);
+        /** 
+         * Returns the postings for an attribute value of structures with the specified 
+         * name, keyed by work, or <tt>null</tt> if there are none and <tt>create</tt> is 
+         * not set.
+         */
+        private Map<UUID, Map<UUID, Structure>> getWorks(
+                String name, String key, String value, boolean create) {
+            LongMap<Map<UUID, Map<UUID, Structure>>> byValue = postings.get(name);
+            if (byValue == null) {
+                if (!create)
+                    return null;
+                
+                LongMap<Map<UUID, Map<UUID, Structure>>> created = 
+                        new LongMap<Map<UUID, Map<UUID, Structure>>>();
+                byValue = postings.putIfAbsent(name, created);
+                if (byValue == null)
+                    byValue = created;
             }
+            
+            if (key == null || value == null)
+                return null;
+            
+            int keyId = create ? keys.intern(key) : keys.lookup(key);
+            int valueId = create ? values.intern(value) : values.lookup(value);
+            if (keyId == Vocabulary.NO_TERM || valueId == Vocabulary.NO_TERM)
+                return null;
+            
+            long kvp = ((long)keyId << 32) | (valueId & 0xFFFFFFFFL);
+            Map<UUID, Map<UUID, Structure>> works = byValue.get(kvp);
+            if (works == null && create) {
+                synchronized (byValue) {
+                    works = byValue.get(kvp);
+                    if (works == null) {
+                        works = new ConcurrentHashMap<UUID, Map<UUID, Structure>>();
+                        byValue.put(kvp, works);
+                    }
+                }
+            }
+            
+            return works;
         }
         
-        public void put(String key, String value, Structure s) {
-            // add this to the main structures table
-            KeyValuePair kvp = KeyValuePair.get(key, value);
-            SortedSet<Structure> structures = this.structures.get(kvp);
-            if (structures == null) {
-                structures = new TreeSet<Structure>(new StructureComparator());
-                this.structures.put(kvp, structures);
+        /** 
+         * Indexes the current attributes of a structure, replacing the entries made when 
+         * it was last indexed.
+         */
+        public void add(Structure s) {
+            remove(s);
+            
+            Map<String, String> attrs = s.getAttributes();
+            if (attrs.isEmpty())
+                return;
+            
+            List<Map<UUID, Structure>> added = new ArrayList<Map<UUID, Structure>>(attrs.size());
+            for (Map.Entry<String, String> attr : attrs.entrySet()) {
+                if (attr.getValue() == null)
+                    continue;
+                
+                Map<UUID, Map<UUID, Structure>> works = 
+                        getWorks(s.getName(), attr.getKey(), attr.getValue(), true);
+                Map<UUID, Structure> posting = works.get(s.getWorkUUID());
+                if (posting == null) {
+                    // only the work's lock holder adds the work's postings
+                    posting = new ConcurrentHashMap<UUID, Structure>();
+                    works.put(s.getWorkUUID(), posting);
+                }
+                
+                posting.put(s.getUUID(), s);
+                added.add(posting);
             }
             
-            if (!structures.contains(s))
-                structures.add(s);
+            entries.put(s.getUUID(), added);
         }
         
-        
-        public SortedSet<Structure> get(String key, String value) {
-            KeyValuePair kvp = KeyValuePair.get(key, value);
-            SortedSet<Structure> structures = this.structures.get(kvp);
-            if (structures == null) {
-                structures = new TreeSet<Structure>(new StructureComparator());
-            }
+        /** Removes a structure from the index. */
+        public void remove(Structure s) {
+            List<Map<UUID, Structure>> added = entries.remove(s.getUUID());
+            if (added == null)
+                return;
             
-            return Collections.unmodifiableSortedSet(structures);
+            for (Map<UUID, Structure> posting : added) {
+                posting.remove(s.getUUID());
+            }
         }
         
-        public SortedSet<Structure> get(String key) {
-            Map<String, KeyValuePair> kvps = KeyValuePair.get(key);
+        /** 
+         * Returns the structures of a work that have the specified name and attribute 
+         * value.
+         */
+        public SortedSet<Structure> get(UUID work, String name, String key, String value) {
             SortedSet<Structure> structures = 
                     new TreeSet<Structure>(new StructureComparator());
-            for (KeyValuePair kvp : kvps.values()) {
-                SortedSet<Structure> structs = this.structures.get(kvp);
-                if (structs != null) {
-                    structures.addAll(structs);
-                }
+            Map<UUID, Map<UUID, Structure>> works = getWorks(name, key, value, false);
+            Map<UUID, Structure> posting = (works != null) ? works.get(work) : null;
+            if (posting != null) {
+                structures.addAll(posting.values());
             }
             
             return structures;
         }
         
-    }   // END AttrRepo class
-    
-    
-    private static class KeyValuePair implements Comparable<KeyValuePair> {
-        private static Map<String, Map<String, KeyValuePair>> pairs =
-                new HashMap<String, Map<String, KeyValuePair>>();
-        
-        public static KeyValuePair get(String key, String value) {
-            Map<String, KeyValuePair> kvps = get(key);
-            KeyValuePair kvp = kvps.get(value);
-            if (kvp == null) {
-                kvp = new KeyValuePair(key, value);
-                kvps.put(value, kvp);
-            }
+        /** 
+         * Returns the structures that have the specified name and attribute value, 
+         * grouped by work.
+         */
+        public Map<UUID, SortedSet<Structure>> get(String name, String key, String value) {
+            Map<UUID, SortedSet<Structure>> structures = 
+                    new HashMap<UUID, SortedSet<Structure>>();
+            Map<UUID, Map<UUID, Structure>> works = getWorks(name, key, value, false);
+            if (works == null)
+                return structures;
             
-            return kvp;
-        }
-        
-        public static Map<String, KeyValuePair> get(String key) {
-            Map<String, KeyValuePair> kvps = pairs.get(key);
-            if (kvps == null) {
-                kvps = new HashMap<String, KeyValuePair>();
-                pairs.put(key, kvps);
+            for (Map.Entry<UUID, Map<UUID, Structure>> posting : works.entrySet()) {
+                if (posting.getValue().isEmpty())
+                    continue;
+                
+                SortedSet<Structure> structs = 
+                        new TreeSet<Structure>(new StructureComparator());
+                structs.addAll(posting.getValue().values());
+                structures.put(posting.getKey(), structs);
             }
             
-            return kvps;
-        }
-        
-        private final String key;
-        private final String value;
-        
-        KeyValuePair(String key, String value) {
-            this.key = key;
-            this.value = value;
-        }
-        
-        public String toString() {
-            return this.key + "::" + this.value;
-        }
-        
-        public int compareTo(KeyValuePair kvp) {
-            return this.toString().compareTo(kvp.toString());
-        }
-        
-        public boolean equals(Object o) {
-            return this.toString().equals(((KeyValuePair)o).toString());
+            return structures;
         }
         
-        public int hashCode() {
-            return toString().hashCode();
-        }
-    }
+    }   // END AttrIndex class
 }
@@ -4,18 +4,25 @@
 package org.idch.texts.persist.mem;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.idch.texts.Structure;
 import org.idch.texts.Token;
 import org.idch.texts.TokenRepository;
+import org.idch.texts.TokenVisitor;
 import org.idch.texts.Work;
 
 
 /**
+ * In-memory token repository. Tokens are stored per work in a columnar format (see 
+ * {@link TokenColumns}) and <tt>Token</tt> objects are created only when requested.
+ * This may be used from multiple threads. Tokens are appended to each work under that 
+ * work's lock, and are read without locking.
+ * 
  * @author Neal Audenaert
  */
 class MemTokenRepository implements TokenRepository {
@@ -23,8 +30,7 @@ class MemTokenRepository implements TokenRepository {
     
     MemTextModule repo = null;
     
-    Map<Long, List<Token>> tokens = new HashMap<Long, List<Token>>();
-    Map<String, Token> tokensByUUID = new HashMap<String, Token>();
+    ConcurrentMap<Long, TokenColumns> tokens = new ConcurrentHashMap<Long, TokenColumns>();
     
     MemTokenRepository(MemTextModule repo) {
         this.repo = repo;
@@ -49,25 +55,31 @@ class MemTokenRepository implements TokenRepository {
         return wId;
     }
     
-    
+    /**
+     * Returns the token columns for the specified work, creating them if needed.
+     */
+    private TokenColumns getColumns(Work w) {
+        Long wId = getWorkId(w);
+        TokenColumns columns = this.tokens.get(wId);
+        if (columns == null) {
+            TokenColumns created = new TokenColumns();
+            columns = this.tokens.putIfAbsent(wId, created);
+            if (columns == null)
+                columns = created;
+        }
+        
+        return columns;
+    }
     
     /* (non-Javadoc)
      * @see openscriptures.text.TokenRepository#create(openscriptures.text.Token)
      */
     @Override
     public Token create(Token t) {
-        Long wId = getWorkId(t.getWork());
-        List<Token> tokenList = this.tokens.get(wId);
-        if (tokenList == null) {
-            tokenList = new ArrayList<Token>();
-            this.tokens.put(wId, tokenList);
-        }
-        
-        t.setPosition(tokenList.size());
+        TokenColumns columns = getColumns(t.getWork());
+        t.setPosition(columns.append(t));
         
-        System.out.print(t.getText());
-        this.tokensByUUID.put(t.getUUID().toString(), t);
-        return tokenList.add(t) ? t : null;
+        return t;
     }
     
     /* (non-Javadoc)
@@ -79,18 +91,12 @@ class MemTokenRepository implements TokenRepository {
             return tokens;
         }
 
-        Long wId = getWorkId(tokens.get(0).getWork());
-        List<Token> tokenList = this.tokens.get(wId);
-        if (tokenList == null) {
-            tokenList = new ArrayList<Token>();
-            this.tokens.put(wId, tokenList);
-        }
-        
-        for (Token t : tokens) {
-            t.setPosition(tokenList.size());
-            
-            this.tokensByUUID.put(t.getUUID().toString(), t);
-            tokenList.add(t);
+        // hold the work's lock so that the tokens are assigned consecutive positions
+        TokenColumns columns = getColumns(tokens.get(0).getWork());
+        synchronized (columns) {
+            for (Token t : tokens) {
+                t.setPosition(columns.append(t));
+            }
         }
         
         return tokens;
@@ -101,19 +107,21 @@ class MemTokenRepository implements TokenRepository {
      */
     @Override
     public int getNumberOfTokens(Work work) {
-        Long wId = getWorkId(work);
-        List<Token> tokenList = this.tokens.get(wId);
-        if (tokenList == null) {
-            tokenList = new ArrayList<Token>();
-            this.tokens.put(wId, tokenList);
-        }
-        
-        return tokenList.size();
+        return getColumns(work).size();
     }
 
     @Override
     public Token find(UUID uuid) {
-        return tokensByUUID.get(uuid.toString());
+        for (Map.Entry<Long, TokenColumns> entry : tokens.entrySet()) {
+            TokenColumns columns = entry.getValue();
+            int pos = columns.indexOf(uuid);
+            if (pos >= 0) {
+                Work w = repo.getWorkRepository().find(entry.getKey());
+                return columns.get(w, pos);
+            }
+        }
+        
+        return null;
     }
 
     /* (non-Javadoc)
@@ -123,16 +131,7 @@ class MemTokenRepository implements TokenRepository {
     public Token find(Work w, int pos) {
         assert pos >= 0 : "Position must be non-negative";
         
-        Long wId = getWorkId(w);
-        List<Token> tokenList = this.tokens.get(wId);
-        if (tokenList == null) {
-            tokenList = new ArrayList<Token>();
-            this.tokens.put(wId, tokenList);
-        }
-        
-        if (pos >= 0 && pos < tokenList.size())
-            return tokenList.get(pos);
-        else return null;
+        return getColumns(w).get(w, pos);
     }
     
     /**
@@ -149,20 +148,33 @@ class MemTokenRepository implements TokenRepository {
         assert start >= 0 : "Starting position must be non-negative";
         assert end > start : "The ending position must be greater than the starting position";
         
-        List<Token> tokens = new ArrayList<Token>(end - start);
-        Long wId = getWorkId(w);
-        List<Token> tokenList = this.tokens.get(wId);
-        if (tokenList == null) {
-            tokenList = new ArrayList<Token>();
-            this.tokens.put(wId, tokenList);
-        }
+        TokenColumns columns = getColumns(w);
+        end = Math.min(end, columns.size());
         
-        for (int i = start; i < end && i < tokenList.size(); i++) {
-            tokens.add(tokenList.get(i));
+        List<Token> tokens = new ArrayList<Token>(Math.max(end - start, 0));
+        for (int i = start; i < end; i++) {
+            tokens.add(columns.get(w, i));
         }
         
         return tokens;
     }
+    
+    /* (non-Javadoc)
+     * @see org.idch.texts.TokenRepository#forEach(org.idch.texts.Work, int, int, org.idch.texts.TokenVisitor)
+     */
+    @Override
+    public boolean forEach(Work w, int start, int end, TokenVisitor visitor) {
+        assert start >= 0 : "Starting position must be non-negative";
+        
+        TokenColumns columns = getColumns(w);
+        end = Math.min(end, columns.size());
+        for (int i = start; i < end; i++) {
+            if (!visitor.visit(columns.get(w, i)))
+                return false;
+        }
+        
+        return true;
+    }
 
     /**
      * Looks up the set of tokens associated with a particular structure. 
@@ -4,10 +4,11 @@
 package org.idch.texts.persist.mem;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.log4j.Logger;
 import org.idch.texts.TokenRepository;
@@ -17,18 +18,19 @@ import org.idch.texts.WorkRepository;
 
 
 /**
+ * In-memory work repository. This may be used from multiple threads: works are cached in 
+ * concurrent maps and ids are assigned atomically.
+ * 
  * @author Neal Audenaert
  */
 class MemWorkRepository implements WorkRepository {
     private final static Logger LOGGER = Logger.getLogger(MemWorkRepository.class);
     
-    private static long nextId = 1;
+    private static final AtomicLong nextId = new AtomicLong(1);
     MemTextModule repo = null;
     
-    // Note, access to the cache is unsynchronized. This should not be used in a 
-    // multi-threaded environment 
-    private Map<String, Work> worksByUUID = new HashMap<String, Work>();
-    private Map<Long, Work> worksById = new HashMap<Long, Work>();
+    private Map<String, Work> worksByUUID = new ConcurrentHashMap<String, Work>();
+    private Map<Long, Work> worksById = new ConcurrentHashMap<Long, Work>();
     
     MemWorkRepository(MemTextModule repo) {
         this.repo = repo;
@@ -74,12 +76,12 @@ class MemWorkRepository implements WorkRepository {
     
 
     
-    public synchronized Work create(Work w) {
+    public Work create(Work w) {
         assert (w.getId() == null) : "This work has already been created.";
         if (w.getId() != null)
             return null;
         
-        w.setId(nextId++);
+        w.setId(nextId.getAndIncrement());
         cache(w);
         return w;
     }
@@ -116,10 +118,8 @@ class MemWorkRepository implements WorkRepository {
      */
     @Override
     public List<Work> findByType(String type) {
-        Work w = null;
         List<Work> works = new ArrayList<Work>();
-        for (long id : worksById.keySet()) {
-            w = worksById.get(id);
+        for (Work w : worksById.values()) {
             if (w.getType().equals(type))
                 works.add(w);
         }
@@ -132,10 +132,8 @@ class MemWorkRepository implements WorkRepository {
      */
     @Override
     public List<Work> findByType(String type, String lgCode) {
-        Work w = null;
         List<Work> works = new ArrayList<Work>();
-        for (long id : worksById.keySet()) {
-            w = worksById.get(id);
+        for (Work w : worksById.values()) {
             if (w.getType().equals(type) && w.getLgCode().equalsIgnoreCase(lgCode))
                 works.add(w);
         }
@@ -150,10 +148,8 @@ class MemWorkRepository implements WorkRepository {
      */
     @Override
     public List<Work> findByAbbr(String abbreviation) {
-        Work w = null;
         List<Work> works = new ArrayList<Work>();
-        for (long id : worksById.keySet()) {
-            w = worksById.get(id);
+        for (Work w : worksById.values()) {
             if (w.getAbbreviation().equals(abbreviation))
                 works.add(w);
         }
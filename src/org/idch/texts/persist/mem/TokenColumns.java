@@ -0,0 +1,219 @@
+/**
+ *
+ */
+package org.idch.texts.persist.mem;
+
+import java.util.UUID;
+
+import org.idch.texts.Token;
+import org.idch.texts.Vocabulary;
+import org.idch.texts.Work;
+
+
+/**
+ * Columnar storage for the tokens of a single <tt>Work</tt>. Rather than retaining one
+ * <tt>Token</tt> object per position, the properties of each token are stored in parallel
+ * primitive arrays: the token type, the id of the token's text in the work's
+ * {@link Vocabulary} and the two halves of the token's UUID. <tt>Token</tt> instances
+ * are created on demand by {@link #get(Work, int)}.
+ *
+ * <p>Tokens can only be appended. Positions are assigned sequentially as tokens are added.
+ * Appends are synchronized. Reads do not block: a token is written before it is
+ * published by <tt>size</tt>, and the columns are replaced, rather than modified, when
+ * they grow, so readers ignore any position that is not less than <tt>size</tt>.
+ *
+ * @author Neal Audenaert
+ */
+class TokenColumns {
+
+    //===================================================================================
+    // SYMBOLIC CONSTANTS
+    //===================================================================================
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    /** Marker used in the type column for tokens that have not been classified. */
+    private static final byte NO_TYPE = -1;
+
+    private static final Token.Type[] TYPES = Token.Type.values();
+
+    //===================================================================================
+    // MEMBER VARIABLES
+    //===================================================================================
+
+    private volatile int size = 0;
+
+    /** The ordinal of each token's type, or <tt>NO_TYPE</tt>. */
+    private volatile byte[] types = new byte[INITIAL_CAPACITY];
+
+    /** The vocabulary term id of each token's text. */
+    private volatile int[] terms = new int[INITIAL_CAPACITY];
+
+    /** Most and least significant bits of each token's UUID. */
+    private volatile long[] uuidMsb = new long[INITIAL_CAPACITY];
+    private volatile long[] uuidLsb = new long[INITIAL_CAPACITY];
+
+    /**
+     * Open addressing hash table mapping UUIDs to positions. Each slot holds the
+     * position + 1 of a token, or <tt>0</tt> if the slot is empty.
+     */
+    private volatile int[] uuidIndex = new int[INITIAL_CAPACITY * 2];
+
+    //===================================================================================
+    // CONSTRUCTORS
+    //===================================================================================
+
+    TokenColumns() {
+
+    }
+
+    //===================================================================================
+    // HELPER METHODS
+    //===================================================================================
+
+    private static int hash(long msb, long lsb) {
+        long h = msb ^ lsb;
+        int x = (int)(h ^ (h >>> 32));
+        return x ^ (x >>> 16);
+    }
+
+    private void ensureCapacity() {
+        if (size == types.length) {
+            int capacity = types.length * 2;
+
+            byte[] t = new byte[capacity];
+            System.arraycopy(types, 0, t, 0, size);
+            types = t;
+
+            int[] tm = new int[capacity];
+            System.arraycopy(terms, 0, tm, 0, size);
+            terms = tm;
+
+            long[] m = new long[capacity];
+            System.arraycopy(uuidMsb, 0, m, 0, size);
+            uuidMsb = m;
+
+            long[] l = new long[capacity];
+            System.arraycopy(uuidLsb, 0, l, 0, size);
+            uuidLsb = l;
+
+            rehash(capacity * 2);
+        }
+    }
+
+    /** Builds a larger index and then publishes it, so that readers see a full index. */
+    private void rehash(int capacity) {
+        int[] index = new int[capacity];
+        for (int pos = 0; pos < size; pos++) {
+            index(index, pos);
+        }
+
+        uuidIndex = index;
+    }
+
+    private void index(int[] index, int pos) {
+        int mask = index.length - 1;
+        int slot = hash(uuidMsb[pos], uuidLsb[pos]) & mask;
+        while (index[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+
+        index[slot] = pos + 1;
+    }
+
+    //===================================================================================
+    // ACCESSORS
+    //===================================================================================
+
+    /** Returns the number of tokens stored in these columns. */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Appends a token, assigning it the next available position. Only the token's term
+     * id, type and UUID are retained.
+     *
+     * @param t The token to append.
+     * @return The position assigned to the token.
+     */
+    synchronized int append(Token t) {
+        int termId = t.getTermId();
+        if (termId == Vocabulary.NO_TERM) {
+            termId = t.getWork().getVocabulary().intern(t.getText());
+        }
+
+        ensureCapacity();
+
+        int pos = size;
+        Token.Type type = t.getType();
+        types[pos] = (type != null) ? (byte)type.ordinal() : NO_TYPE;
+        terms[pos] = termId;
+
+        UUID uuid = t.getUUID();
+        uuidMsb[pos] = uuid.getMostSignificantBits();
+        uuidLsb[pos] = uuid.getLeastSignificantBits();
+
+        index(uuidIndex, pos);
+        size = pos + 1;
+
+        return pos;
+    }
+
+    /**
+     * Returns the position of the token with the specified UUID or <tt>-1</tt> if there is
+     * no such token.
+     */
+    int indexOf(UUID uuid) {
+        long msb = uuid.getMostSignificantBits();
+        long lsb = uuid.getLeastSignificantBits();
+
+        int n = size;                       // read first: publishes the tokens below it
+        int[] index = uuidIndex;
+        long[] msbs = uuidMsb;
+        long[] lsbs = uuidLsb;
+
+        int mask = index.length - 1;
+        int slot = hash(msb, lsb) & mask;
+        int entry;
+        while ((entry = index[slot]) != 0) {
+            int pos = entry - 1;
+            if (pos < n && msbs[pos] == msb && lsbs[pos] == lsb)
+                return pos;
+
+            slot = (slot + 1) & mask;
+        }
+
+        return -1;
+    }
+
+    /** Returns the vocabulary term id of the token at the specified position. */
+    int getTermId(int pos) {
+        return terms[pos];
+    }
+
+    /** Returns the type of the token at the specified position. */
+    Token.Type getType(int pos) {
+        byte type = types[pos];
+        return (type == NO_TYPE) ? null : TYPES[type];
+    }
+
+    /** Returns the UUID of the token at the specified position. */
+    UUID getUUID(int pos) {
+        return new UUID(uuidMsb[pos], uuidLsb[pos]);
+    }
+
+    /**
+     * Creates a <tt>Token</tt> instance for the specified position.
+     *
+     * @param w The work these columns belong to.
+     * @param pos The position of the token to create.
+     * @return The token or <tt>null</tt> if the position is out of range.
+     */
+    Token get(Work w, int pos) {
+        if (pos < 0 || pos >= size)
+            return null;
+
+        return new Token(w, pos, terms[pos], getType(pos), getUUID(pos));
+    }
+}
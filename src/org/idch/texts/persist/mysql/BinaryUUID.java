@@ -0,0 +1,71 @@
+/**
+ *
+ */
+package org.idch.texts.persist.mysql;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.UUID;
+
+
+/**
+ * Converts between <tt>UUID</tt>s and the <tt>BINARY(16)</tt> representation used to
+ * store them in the database. UUIDs are stored as their 16 bytes in big-endian order, so
+ * that the binary form sorts in the same order as the hexadecimal string form.
+ *
+ * @author Neal Audenaert
+ */
+final class BinaryUUID {
+
+    /** The number of bytes in a stored UUID. */
+    static final int SIZE = 16;
+
+    /** Returns the binary form of a UUID. */
+    static byte[] toBytes(UUID uuid) {
+        byte[] bytes = new byte[SIZE];
+        long msb = uuid.getMostSignificantBits();
+        long lsb = uuid.getLeastSignificantBits();
+        for (int i = 0; i < 8; i++) {
+            bytes[i] = (byte)(msb >>> (56 - 8 * i));
+            bytes[8 + i] = (byte)(lsb >>> (56 - 8 * i));
+        }
+
+        return bytes;
+    }
+
+    /**
+     * Returns the UUID represented by a binary value.
+     *
+     * @throws IllegalArgumentException If the value is not 16 bytes long.
+     */
+    static UUID fromBytes(byte[] bytes) {
+        if (bytes.length != SIZE)
+            throw new IllegalArgumentException("Invalid UUID: expected " + SIZE +
+                    " bytes but found " + bytes.length);
+
+        long msb = 0;
+        long lsb = 0;
+        for (int i = 0; i < 8; i++) {
+            msb = (msb << 8) | (bytes[i] & 0xFF);
+            lsb = (lsb << 8) | (bytes[8 + i] & 0xFF);
+        }
+
+        return new UUID(msb, lsb);
+    }
+
+    /** Sets a statement parameter to the binary form of a UUID. */
+    static void set(PreparedStatement stmt, int param, UUID uuid) throws SQLException {
+        stmt.setBytes(param, toBytes(uuid));
+    }
+
+    /** Reads a UUID stored in a column of the current row of a result set. */
+    static UUID get(ResultSet results, int column) throws SQLException {
+        byte[] bytes = results.getBytes(column);
+        return (bytes != null) ? fromBytes(bytes) : null;
+    }
+
+    private BinaryUUID() {
+
+    }
+}
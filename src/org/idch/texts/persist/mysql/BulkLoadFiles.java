@@ -0,0 +1,335 @@
+/**
+ *
+ */
+package org.idch.texts.persist.mysql;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.idch.texts.Structure;
+import org.idch.texts.Token;
+import org.idch.texts.Vocabulary;
+import org.idch.texts.Work;
+
+
+/**
+ * Writes tokens, structures and vocabularies to tab-separated files in the default format
+ * read by MySQL's <tt>LOAD DATA INFILE</tt>: fields are separated by tabs, rows end with
+ * a newline, tabs, newlines, carriage returns, NUL characters and backslashes within
+ * values are escaped with a backslash and <tt>NULL</tt> is written as <tt>\N</tt>. UUIDs
+ * are written in hexadecimal and must be converted with <tt>UNHEX</tt> as they are
+ * loaded. Files are encoded in UTF-8.
+ *
+ * <p>Rows are written as they are supplied, so that the files can be built in a single
+ * pass over a document without keeping its tokens in memory. Tokens that have been
+ * written can be read back from the token file by {@link #readTokens}, starting from an
+ * offset recorded with {@link #getTokenOffset()}.
+ *
+ * @author Neal Audenaert
+ */
+final class BulkLoadFiles {
+
+    /** The representation of a <tt>NULL</tt> value. */
+    static final String NULL = "\\N";
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final File vocabularyFile;
+    private final File tokenFile;
+    private final File structureFile;
+    private final File attributeFile;
+
+    private Writer vocabulary;
+    private Writer tokens;
+    private Writer structures;
+    private Writer attributes;
+
+    private int numTokens = 0;
+    private int numStructures = 0;
+
+    /** The length of the token file, including rows that have not yet been flushed. */
+    private long tokenOffset = 0;
+
+    /**
+     * Creates the files in the specified directory. Existing files with the same names
+     * are replaced.
+     *
+     * @param dir The directory in which to write the files.
+     * @throws IOException If the files could not be created.
+     */
+    BulkLoadFiles(File dir) throws IOException {
+        this.vocabularyFile = new File(dir, "texts_vocabulary.tsv");
+        this.tokenFile = new File(dir, "texts_tokens.tsv");
+        this.structureFile = new File(dir, "texts_structures.tsv");
+        this.attributeFile = new File(dir, "texts_structureattributes.tsv");
+
+        try {
+            this.vocabulary = open(vocabularyFile);
+            this.tokens = open(tokenFile);
+            this.structures = open(structureFile);
+            this.attributes = open(attributeFile);
+        } catch (IOException ioe) {
+            close();
+            throw ioe;
+        }
+    }
+
+    private static Writer open(File file) throws IOException {
+        return new BufferedWriter(
+                new OutputStreamWriter(new FileOutputStream(file), "UTF-8"), 1 << 16);
+    }
+
+    //===================================================================================
+    // ACCESSORS
+    //===================================================================================
+
+    File getVocabularyFile() { return this.vocabularyFile; }
+    File getTokenFile() { return this.tokenFile; }
+    File getStructureFile() { return this.structureFile; }
+    File getAttributeFile() { return this.attributeFile; }
+
+    /** Returns the number of tokens that have been written. */
+    int getNumberOfTokens() { return this.numTokens; }
+
+    /** Returns the number of structures that have been written. */
+    int getNumberOfStructures() { return this.numStructures; }
+
+    /** Returns the offset in the token file at which the next token will be written. */
+    long getTokenOffset() { return this.tokenOffset; }
+
+    //===================================================================================
+    // FORMATTING METHODS
+    //===================================================================================
+
+    /** Writes a value, escaping any characters that have a special meaning. */
+    static void writeValue(Writer out, String value) throws IOException {
+        if (value == null) {
+            out.write(NULL);
+            return;
+        }
+
+        int len = value.length();
+        for (int i = 0; i < len; i++) {
+            char ch = value.charAt(i);
+            switch (ch) {
+            case '\\': out.write("\\\\"); break;
+            case '\t': out.write("\\t");  break;
+            case '\n': out.write("\\n");  break;
+            case '\r': out.write("\\r");  break;
+            case '\0': out.write("\\0");  break;
+            default:   out.write(ch);
+            }
+        }
+    }
+
+    /** Writes an integer value that may be <tt>null</tt>. */
+    static void writeValue(Writer out, Integer value) throws IOException {
+        out.write((value != null) ? value.toString() : NULL);
+    }
+
+    /** Writes the 32 hexadecimal digits of a UUID. */
+    static void writeValue(Writer out, UUID uuid) throws IOException {
+        writeHex(out, uuid.getMostSignificantBits());
+        writeHex(out, uuid.getLeastSignificantBits());
+    }
+
+    private static void writeHex(Writer out, long bits) throws IOException {
+        for (int shift = 60; shift >= 0; shift -= 4) {
+            out.write(HEX[(int)(bits >>> shift) & 0xF]);
+        }
+    }
+
+    /** Reads a UUID written as 32 hexadecimal digits. */
+    static UUID readUUID(String hex) {
+        if (hex.length() != 32)
+            throw new IllegalArgumentException("Invalid UUID: " + hex);
+
+        return new UUID(readHex(hex, 0), readHex(hex, 16));
+    }
+
+    private static long readHex(String hex, int start) {
+        long bits = 0;
+        for (int i = start; i < start + 16; i++) {
+            int digit = Character.digit(hex.charAt(i), 16);
+            if (digit < 0)
+                throw new IllegalArgumentException("Invalid UUID: " + hex);
+
+            bits = (bits << 4) | digit;
+        }
+
+        return bits;
+    }
+
+    //===================================================================================
+    // WRITE METHODS
+    //===================================================================================
+
+    /**
+     * Writes a row of <tt>texts_tokens</tt>: <tt>uuid, work_id, token_pos, term_id,
+     * token_type</tt>.
+     */
+    void writeToken(long workId, Token t) throws IOException {
+        String fields = "\t" + workId +
+                        "\t" + t.getPosition() +
+                        "\t" + t.getTermId() +
+                        "\t" + t.getType().toString() + "\n";
+
+        writeValue(tokens, t.getUUID());
+        tokens.write(fields);
+
+        // token rows are ASCII, so their length in characters is their length in bytes
+        tokenOffset += 32 + fields.length();
+        numTokens++;
+    }
+
+    /**
+     * Writes a row of <tt>texts_structures</tt>: <tt>uuid, work_id, structure_name,
+     * perspective, start_pos, end_pos</tt>, followed by a row of
+     * <tt>texts_structureattributes</tt> for each of its attributes: <tt>uuid, attr_key,
+     * attr_value</tt>, where <tt>uuid</tt> is the structure's UUID.
+     */
+    void writeStructure(long workId, Structure s) throws IOException {
+        writeValue(structures, s.getUUID());
+        structures.write('\t');
+        structures.write(Long.toString(workId));
+        structures.write('\t');
+        writeValue(structures, s.getName());
+        structures.write('\t');
+        writeValue(structures, s.getPerspective());
+        structures.write('\t');
+        writeValue(structures, s.getStartTokenPosition());
+        structures.write('\t');
+        writeValue(structures, s.getEndTokenPosition());
+        structures.write('\n');
+
+        Map<String, String> attrs = s.getAttributes();
+        if (attrs != null) {
+            for (Map.Entry<String, String> attr : attrs.entrySet()) {
+                writeValue(attributes, s.getUUID());
+                attributes.write('\t');
+                writeValue(attributes, attr.getKey());
+                attributes.write('\t');
+                writeValue(attributes, attr.getValue());
+                attributes.write('\n');
+            }
+        }
+
+        numStructures++;
+    }
+
+    /**
+     * Writes rows of <tt>texts_vocabulary</tt>: <tt>work_id, term_id, term_text</tt> for
+     * each term in a vocabulary, starting with the specified term id.
+     */
+    void writeVocabulary(long workId, Vocabulary vocab, int start) throws IOException {
+        int end = vocab.size();
+        for (int id = start; id < end; id++) {
+            vocabulary.write(Long.toString(workId));
+            vocabulary.write('\t');
+            vocabulary.write(Integer.toString(id));
+            vocabulary.write('\t');
+            writeValue(vocabulary, vocab.getTerm(id));
+            vocabulary.write('\n');
+        }
+    }
+
+    //===================================================================================
+    // READ METHODS
+    //===================================================================================
+
+    /**
+     * Reads tokens of a work back from the token file. Rows are read from the specified
+     * offset, which must be the start of a row, and rows of other works are skipped. Since
+     * the tokens of a work are written in order, reading stops at the first row of the 
+     * work at or after the end of the range.
+     *
+     * @param w The work whose tokens are to be read. Its vocabulary must hold the terms
+     *      of the tokens.
+     * @param workId The database id of the work.
+     * @param offset The offset of the row at which to start reading, as returned by
+     *      {@link #getTokenOffset()}.
+     * @param start The position of the first token to read.
+     * @param end The position after the last token to read.
+     * @return The tokens in the range <tt>[start, end)</tt> that have been written.
+     */
+    List<Token> readTokens(Work w, long workId, long offset, int start, int end)
+            throws IOException {
+        if (tokens != null)
+            tokens.flush();
+
+        List<Token> results = new ArrayList<Token>(Math.max(end - start, 0));
+        FileInputStream in = new FileInputStream(tokenFile);
+        try {
+            in.getChannel().position(offset);
+            BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+
+            String line;
+            String work = Long.toString(workId);
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split("\t");
+                if (!fields[1].equals(work))
+                    continue;
+
+                int pos = Integer.parseInt(fields[2]);
+                if (pos >= end)
+                    break;
+                if (pos < start)
+                    continue;
+
+                results.add(new Token(w, pos, Integer.parseInt(fields[3]),
+                        Token.Type.valueOf(fields[4]), readUUID(fields[0])));
+            }
+        } finally {
+            in.close();
+        }
+
+        return results;
+    }
+
+    //===================================================================================
+    // LIFE-CYCLE METHODS
+    //===================================================================================
+
+    /** Flushes and closes the files. The files may be closed more than once. */
+    void close() throws IOException {
+        IOException error = null;
+        Writer[] writers = { vocabulary, tokens, structures, attributes };
+        for (Writer w : writers) {
+            try {
+                if (w != null)
+                    w.close();
+            } catch (IOException ioe) {
+                error = (error == null) ? ioe : error;
+            }
+        }
+
+        vocabulary = tokens = structures = attributes = null;
+        if (error != null)
+            throw error;
+    }
+
+    /** Closes and deletes the files. */
+    void delete() {
+        try {
+            close();
+        } catch (IOException ioe) {
+            // the files are being discarded
+        }
+
+        File[] files = { vocabularyFile, tokenFile, structureFile, attributeFile };
+        for (File f : files) {
+            f.delete();
+        }
+    }
+}
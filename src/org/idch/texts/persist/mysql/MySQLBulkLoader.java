@@ -0,0 +1,646 @@
+/**
+ *
+ */
+package org.idch.texts.persist.mysql;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.UUID;
+
+import org.apache.log4j.Logger;
+import org.idch.persist.RepositoryAccessException;
+import org.idch.texts.Structure;
+import org.idch.texts.StructureRepository;
+import org.idch.texts.Token;
+import org.idch.texts.TokenRepository;
+import org.idch.texts.TokenVisitor;
+import org.idch.texts.Work;
+import org.idch.texts.WorkRepository;
+import org.idch.texts.persist.AbstractTextModule;
+
+
+/**
+ * A text module for the initial import of works into a {@link MySQLTextModule}. Rather
+ * than inserting rows as they are created, the tokens and structures of works created
+ * through this module are written to tab-separated files as they are flushed and saved,
+ * and {@link #load()} then reads these files into the database using
+ * <tt>LOAD DATA LOCAL INFILE</tt>. Unique and foreign key checks are disabled for the
+ * connection while the files are loaded, so that InnoDB can defer maintenance of the
+ * secondary indexes rather than checking them for each row.
+ *
+ * <p>To import a document in this mode, create the importer's <tt>Context</tt> with a
+ * bulk loader and call <tt>load()</tt> once the document has been imported:
+ *
+ * <pre>
+ *   MySQLBulkLoader loader = new MySQLBulkLoader(module, tmpDir);
+ *   new SBLGNTImporter(filename, loader).doImport();
+ *   loader.load();
+ * </pre>
+ *
+ * <p>The loader must be used only for newly created works and is intended to be used by
+ * a single import. Works are created in the database immediately. Until they are loaded,
+ * the tokens of these works are read back from the token file and their structures are
+ * not available from the structure repository. To avoid rereading the file for the 
+ * tokens that structure handlers look up as they close structures, the loader keeps the
+ * last {@value #WINDOW} tokens written for each work in memory, along with the offset in
+ * the file of every {@value #INTERVAL}th token. A structure is written when it is first
+ * saved; structures that have been created but not saved are written by
+ * <tt>load()</tt>. Tokens and structures that are loaded are not assigned database ids.
+ *
+ * <p>Loading local files must be enabled on both the server (<tt>local_infile</tt>) and
+ * the connection (<tt>allowLoadLocalInfile=true</tt> in the database URL).
+ *
+ * @author Neal Audenaert
+ */
+public class MySQLBulkLoader extends AbstractTextModule {
+    private final static Logger LOGGER = Logger.getLogger(MySQLBulkLoader.class);
+
+    /** The number of recently written tokens of each work that are kept in memory. */
+    static final int WINDOW = 1 << 12;
+
+    /** The interval between the tokens whose offsets in the token file are recorded. */
+    static final int INTERVAL = 1 << 8;
+
+    private static final String UPDATE_COUNT_SQL =
+            "UPDATE texts_works SET token_count = ? WHERE work_id = ?";
+
+    /** Computes the span level of each loaded structure from its token positions. */
+    private static final String SPAN_LEVEL_SQL =
+            MySQLStructureRepository.getSpanLevelSQL("@start", "@end");
+
+    //===================================================================================
+    // STATIC METHODS
+    //===================================================================================
+
+    /**
+     * Returns the statement that loads a file into a table.
+     *
+     * @param file The file to load.
+     * @param table The table to load.
+     * @param columns The columns or user variables to which the fields of each row are
+     *      assigned.
+     * @param set Assignments to further columns, or <tt>null</tt> if there are none.
+     */
+    static String getLoadSQL(File file, String table, String columns, String set) {
+        String path = file.getAbsolutePath().replace("\\", "\\\\").replace("'", "\\'");
+        String sql = "LOAD DATA LOCAL INFILE '" + path + "' " +
+                     "INTO TABLE " + table + " CHARACTER SET utf8 " +
+                     "(" + columns + ")";
+
+        return (set != null) ? sql + " SET " + set : sql;
+    }
+
+    //===================================================================================
+    // MEMBER VARIABLES
+    //===================================================================================
+
+    private final MySQLTextModule module;
+    private final BulkLoadFiles files;
+
+    private final WorkRepository worksRepo = new BulkWorkRepository();
+    private final TokenRepository tokensRepo = new BulkTokenRepository();
+    private final StructureRepository structuresRepo = new BulkStructureRepository();
+
+    /** The works created through this loader. */
+    private final Map<UUID, Work> works = new LinkedHashMap<UUID, Work>();
+
+    /** The tokens written for each work created through this loader. */
+    private final Map<UUID, WrittenTokens> writtenTokens =
+            new HashMap<UUID, WrittenTokens>();
+
+    /** Structures that have been created but not yet written. */
+    private final Map<UUID, Structure> pending = new LinkedHashMap<UUID, Structure>();
+
+    /** Structures that have been written. */
+    private final Set<UUID> written = new HashSet<UUID>();
+
+    private boolean loaded = false;
+
+    /** Set once a load has been attempted. The files are closed and cannot be reused. */
+    private boolean spent = false;
+
+    /**
+     * Creates a bulk loader that writes its files to the specified directory.
+     *
+     * @param module The module into which works are to be loaded.
+     * @param dir The directory in which to write the files to be loaded. This must be
+     *      readable by the client.
+     * @throws IOException If the files could not be created.
+     */
+    public MySQLBulkLoader(MySQLTextModule module, File dir) throws IOException {
+        this.module = module;
+        this.files = new BulkLoadFiles(dir);
+    }
+
+    //===================================================================================
+    // HELPER METHODS
+    //===================================================================================
+
+    /** Indicates whether a work was created through this loader and is not yet loaded. */
+    private synchronized boolean isBuffered(Work w) {
+        return !loaded && works.containsKey(w.getUUID());
+    }
+
+    /**
+     * Returns the database id of a work created through this loader.
+     *
+     * @throws IllegalStateException If the works have already been loaded or a load failed.
+     * @throws IllegalArgumentException If the work was not created by this loader.
+     */
+    private long getWorkId(UUID uuid) {
+        checkUsable();
+
+        Work w = works.get(uuid);
+        if (w == null)
+            throw new IllegalArgumentException(
+                    "Work " + uuid + " was not created by this bulk loader.");
+
+        return w.getId();
+    }
+
+    /**
+     * Ensures that works may still be written through this loader.
+     *
+     * @throws IllegalStateException If the works have already been loaded or a previous
+     *      load failed after closing the files.
+     */
+    private void checkUsable() {
+        if (loaded)
+            throw new IllegalStateException("The works have already been loaded.");
+        if (spent)
+            throw new IllegalStateException("A previous load failed and closed the files in " +
+                    files.getTokenFile().getParent() + ". This bulk loader cannot be reused.");
+    }
+
+    /**
+     * Returns the tokens of a work created through this loader in the range 
+     * <tt>[start, end)</tt>, or <tt>null</tt> if they could not be read. Tokens that are
+     * no longer held in memory are read back from the token file.
+     */
+    private synchronized List<Token> findWritten(Work w, int start, int end) {
+        WrittenTokens written = writtenTokens.get(w.getUUID());
+        end = Math.min(end, written.count);
+
+        List<Token> results = new ArrayList<Token>(Math.max(end - start, 0));
+        int oldest = Math.min(written.getOldestRecent(), end);
+        if (start < oldest) {
+            try {
+                results.addAll(files.readTokens(
+                        w, w.getId(), written.getOffset(start), start, oldest));
+            } catch (IOException ioe) {
+                LOGGER.warn("Could not read tokens: " + ioe.getMessage(), ioe);
+                return null;
+            }
+        }
+
+        for (int pos = Math.max(start, oldest); pos < end; pos++) {
+            results.add(written.getRecent(pos));
+        }
+
+        return results;
+    }
+
+    /** Restores the checks that were disabled while loading the files. */
+    private void restoreChecks(Connection conn) {
+        if (conn == null)
+            return;
+
+        Statement stmt = null;
+        try {
+            stmt = conn.createStatement();
+            stmt.execute("SET unique_checks = 1");
+            stmt.execute("SET foreign_key_checks = 1");
+        } catch (SQLException ex) {
+            LOGGER.warn("Could not restore unique and foreign key checks.", ex);
+        } finally {
+            SQLResources.close(stmt);
+        }
+    }
+
+    //===================================================================================
+    // LOAD METHODS
+    //===================================================================================
+
+    /**
+     * Writes any buffered tokens and unsaved structures, loads the files into the
+     * database and updates the token counts of the loaded works. Once the files have been
+     * loaded, they are deleted and the works read their tokens from the database.
+     *
+     * @throws RepositoryAccessException If the files could not be loaded. The files are
+     *      retained so that the failure can be investigated, but the loader is spent: any
+     *      further attempt to write or load through it fails.
+     * @throws IllegalStateException If the works have already been loaded or a previous
+     *      load failed.
+     */
+    public synchronized void load() throws RepositoryAccessException {
+        checkUsable();
+        spent = true;
+
+        int COUNT = 1, WORK = 2;
+
+        Connection conn = null;
+        Statement stmt = null;
+        PreparedStatement update = null;
+        try {
+            for (Work w : works.values()) {
+                w.flushTokens();
+            }
+
+            for (Structure s : new ArrayList<Structure>(pending.values())) {
+                if (!structuresRepo.save(s))
+                    throw new IOException("Could not write structure " + s.getUUID());
+            }
+
+            for (Work w : works.values()) {
+                files.writeVocabulary(w.getId(), w.getVocabulary(), 0);
+            }
+            files.close();
+
+            LOGGER.info("Loading " + files.getNumberOfTokens() + " tokens and " +
+                    files.getNumberOfStructures() + " structures.");
+
+            conn = module.openConnection();
+            stmt = conn.createStatement();
+            stmt.execute("SET unique_checks = 0");
+            stmt.execute("SET foreign_key_checks = 0");
+
+            stmt.execute(getLoadSQL(files.getVocabularyFile(), "texts_vocabulary",
+                    "work_id, term_id, term_text", null));
+            stmt.execute(getLoadSQL(files.getTokenFile(), "texts_tokens",
+                    "@uuid, work_id, token_pos, term_id, token_type", "uuid = UNHEX(@uuid)"));
+            stmt.execute(getLoadSQL(files.getStructureFile(), "texts_structures",
+                    "@uuid, work_id, structure_name, perspective, @start, @end",
+                    "uuid = UNHEX(@uuid), start_pos = @start, end_pos = @end, " +
+                    "span_level = " + SPAN_LEVEL_SQL + ", " +
+                    "span_bucket = LEAST(@start, @end) >> " + SPAN_LEVEL_SQL));
+            stmt.execute(getLoadSQL(files.getAttributeFile(), "texts_structureattributes",
+                    "@uuid, attr_key, attr_value",
+                    "structure_id = (SELECT structure_id FROM texts_structures " +
+                    "WHERE uuid = UNHEX(@uuid))"));
+
+            update = conn.prepareStatement(UPDATE_COUNT_SQL);
+            for (Work w : works.values()) {
+                update.setInt(COUNT, writtenTokens.get(w.getUUID()).count);
+                update.setLong(WORK, w.getId());
+                update.executeUpdate();
+            }
+
+            conn.commit();
+        } catch (Exception ex) {
+            module.rollbackConnection(conn);
+            throw new RepositoryAccessException("Could not load the files in " +
+                    files.getTokenFile().getParent(), ex);
+        } finally {
+            SQLResources.close(stmt);
+            SQLResources.close(update);
+            restoreChecks(conn);
+            module.closeConnection(conn);
+        }
+
+        loaded = true;
+        files.delete();
+        for (Work w : works.values()) {
+            module.invalidateTokenCount(w.getId());
+            w.setTokenRepository(module.getTokenRepository());
+        }
+    }
+
+    //===================================================================================
+    // REPOSITORY GETTERS
+    //===================================================================================
+
+    public WorkRepository getWorkRepository() {
+        return this.worksRepo;
+    }
+
+    public TokenRepository getTokenRepository() {
+        return this.tokensRepo;
+    }
+
+    public StructureRepository getStructureRepository() {
+        return this.structuresRepo;
+    }
+
+    public boolean probe() {
+        return module.probe();
+    }
+
+    //===================================================================================
+    // REPOSITORIES
+    //===================================================================================
+
+    /**
+     * Creates works in the database and binds them to this loader's token repository.
+     * All other methods are passed to the module's work repository.
+     */
+    private class BulkWorkRepository implements WorkRepository {
+        private WorkRepository delegate() {
+            return module.getWorkRepository();
+        }
+
+        public TokenRepository getTokenRepository() {
+            return tokensRepo;
+        }
+
+        public Work create(String workId) {
+            Work w = delegate().create(workId);
+            if (w != null) {
+                synchronized (MySQLBulkLoader.this) {
+                    checkUsable();
+
+                    w.setTokenRepository(tokensRepo);
+                    works.put(w.getUUID(), w);
+                    writtenTokens.put(w.getUUID(), new WrittenTokens());
+                }
+            }
+
+            return w;
+        }
+
+        public Work find(long id) { return delegate().find(id); }
+        public Work find(UUID id) { return delegate().find(id); }
+        public List<Work> findByType(String type) { return delegate().findByType(type); }
+        public List<Work> findByType(String type, String lgCode) {
+            return delegate().findByType(type, lgCode);
+        }
+        public List<Work> findByAbbr(String abbr) { return delegate().findByAbbr(abbr); }
+        public boolean save(Work w) { return delegate().save(w); }
+        public boolean remove(Work w) { return delegate().remove(w); }
+    }
+
+    /**
+     * Writes the tokens of works created through this loader to the token file, from
+     * which they are read until they have been loaded. Tokens of other works are read
+     * from the module's token repository.
+     */
+    private class BulkTokenRepository implements TokenRepository {
+        private TokenRepository delegate() {
+            return module.getTokenRepository();
+        }
+
+        public Token create(Token t) {
+            List<Token> created = create(Collections.singletonList(t));
+            return (created != null) ? t : null;
+        }
+
+        public List<Token> create(List<Token> tokens) {
+            if ((tokens == null) || (tokens.size() == 0)) {
+                return tokens;
+            }
+
+            synchronized (MySQLBulkLoader.this) {
+                try {
+                    UUID uuid = tokens.get(0).getWork().getUUID();
+                    long wId = getWorkId(uuid);
+                    WrittenTokens written = writtenTokens.get(uuid);
+                    for (Token t : tokens) {
+                        if (t.getPosition() != written.count) {
+                            LOGGER.warn("Could not write token at position " + 
+                                    t.getPosition() + ". Expected position " + 
+                                    written.count + ".");
+                            return null;
+                        }
+
+                        long offset = files.getTokenOffset();
+                        files.writeToken(wId, t);
+                        written.add(t, offset);
+                    }
+
+                    return tokens;
+                } catch (IOException ioe) {
+                    LOGGER.warn("Could not write tokens: " + ioe.getMessage(), ioe);
+                    return null;
+                }
+            }
+        }
+
+        public int getNumberOfTokens(Work w) {
+            synchronized (MySQLBulkLoader.this) {
+                if (isBuffered(w))
+                    return writtenTokens.get(w.getUUID()).count;
+            }
+
+            return delegate().getNumberOfTokens(w);
+        }
+
+        public Token find(UUID id) {
+            return delegate().find(id);
+        }
+
+        public Token find(Work w, int pos) {
+            if (!isBuffered(w))
+                return delegate().find(w, pos);
+
+            List<Token> found = findWritten(w, pos, pos + 1);
+            return (found != null && !found.isEmpty()) ? found.get(0) : null;
+        }
+
+        public List<Token> find(Work w, int start, int end) {
+            return isBuffered(w) ? findWritten(w, start, end)
+                                 : delegate().find(w, start, end);
+        }
+
+        public boolean forEach(Work w, int start, int end, TokenVisitor visitor) {
+            if (!isBuffered(w))
+                return delegate().forEach(w, start, end, visitor);
+
+            List<Token> found = findWritten(w, start, end);
+            if (found == null)
+                return false;
+
+            for (Token t : found) {
+                if (!visitor.visit(t))
+                    return false;
+            }
+
+            return true;
+        }
+
+        public List<Token> find(Structure s) {
+            Work w = works.get(s.getWorkUUID());
+            if (w == null || !isBuffered(w))
+                return delegate().find(s);
+
+            int start = s.getStart();
+            int end = s.getEnd();
+            if (start < 0) {
+                return new ArrayList<Token>();
+            } else if (end <= start) {
+                List<Token> results = new ArrayList<Token>();
+                results.add(find(w, start));
+                return results;
+            } else {
+                return find(w, start, end);
+            }
+        }
+    }
+
+    /**
+     * Tracks the tokens of a work that have been written to the token file: the number
+     * written, the last {@link #WINDOW} tokens and the offset in the file of every 
+     * {@link #INTERVAL}th token.
+     */
+    private static class WrittenTokens {
+        int count = 0;
+
+        private final Token[] recent = new Token[WINDOW];
+        private long[] offsets = new long[16];
+
+        /** Records a token written at the specified offset in the token file. */
+        void add(Token t, long offset) {
+            if (count % INTERVAL == 0) {
+                int ix = count / INTERVAL;
+                if (ix == offsets.length) {
+                    long[] grown = new long[offsets.length * 2];
+                    System.arraycopy(offsets, 0, grown, 0, offsets.length);
+                    offsets = grown;
+                }
+
+                offsets[ix] = offset;
+            }
+
+            recent[count % WINDOW] = t;
+            count++;
+        }
+
+        /** Returns the position of the oldest token held in memory. */
+        int getOldestRecent() {
+            return Math.max(0, count - WINDOW);
+        }
+
+        /** Returns a token held in memory. */
+        Token getRecent(int pos) {
+            return recent[pos % WINDOW];
+        }
+
+        /** Returns an offset in the token file at or before the row of a token. */
+        long getOffset(int pos) {
+            return offsets[pos / INTERVAL];
+        }
+    }
+
+    /**
+     * Writes structures of works created through this loader to the structure and
+     * attribute files when they are saved. All queries are passed to the module's
+     * structure repository and do not return structures that have not been loaded.
+     */
+    private class BulkStructureRepository implements StructureRepository {
+        private StructureRepository delegate() {
+            return module.getStructureRepository();
+        }
+
+        public Structure create(Work work, String name) {
+            return create(new Structure(work.getUUID(), name));
+        }
+
+        public Structure create(Work work, String name, Token start, Token end) {
+            return create(new Structure(work.getUUID(), name, start, end));
+        }
+
+        public Structure create(Structure s) {
+            synchronized (MySQLBulkLoader.this) {
+                getWorkId(s.getWorkUUID());
+                if (written.contains(s.getUUID()) || pending.containsKey(s.getUUID()))
+                    return null;
+
+                pending.put(s.getUUID(), s);
+                return s;
+            }
+        }
+
+        public boolean createAll(Collection<Structure> structures) {
+            boolean success = true;
+            for (Structure s : structures) {
+                success &= (create(s) != null);
+            }
+
+            return success;
+        }
+
+        public boolean save(Structure s) {
+            synchronized (MySQLBulkLoader.this) {
+                if (written.contains(s.getUUID())) {
+                    LOGGER.warn("Could not save structure: " + s.getName() + ". The " +
+                            "structure has already been written and cannot be changed.");
+                    return false;
+                }
+
+                try {
+                    files.writeStructure(getWorkId(s.getWorkUUID()), s);
+                } catch (IOException ioe) {
+                    LOGGER.warn("Could not save structure: " + s.getName() + ". " +
+                            ioe.getMessage(), ioe);
+                    return false;
+                }
+
+                pending.remove(s.getUUID());
+                written.add(s.getUUID());
+                return true;
+            }
+        }
+
+        public boolean saveAll(Collection<Structure> structures) {
+            boolean success = true;
+            for (Structure s : structures) {
+                success &= save(s);
+            }
+
+            return success;
+        }
+
+        public Structure synchronize(Structure s) {
+            synchronized (MySQLBulkLoader.this) {
+                Structure p = (s.getUUID() != null) ? pending.get(s.getUUID()) : null;
+                if (p != null)
+                    return p;
+            }
+
+            return delegate().synchronize(s);
+        }
+
+        public boolean hasStructuresFor(UUID workId) {
+            return delegate().hasStructuresFor(workId);
+        }
+
+        public Structure find(UUID id) { return delegate().find(id); }
+        public Structure find(long id) { return delegate().find(id); }
+        public SortedSet<Structure> find(Work w, String name) {
+            return delegate().find(w, name);
+        }
+        public SortedSet<Structure> find(Work w, int position) {
+            return delegate().find(w, position);
+        }
+        public SortedSet<Structure> findOverlapping(Work w, int start, int end) {
+            return delegate().findOverlapping(w, start, end);
+        }
+        public SortedSet<Structure> find(Work w, String name, int start, int end) {
+            return delegate().find(w, name, start, end);
+        }
+        public SortedSet<Structure> find(Work w, String name, int start, int end,
+                boolean strict) {
+            return delegate().find(w, name, start, end, strict);
+        }
+        public SortedSet<Structure> find(Work w, String name, String attribute,
+                String value) {
+            return delegate().find(w, name, attribute, value);
+        }
+        public Map<UUID, SortedSet<Structure>> find(String name, String attribute,
+                String value) {
+            return delegate().find(name, attribute, value);
+        }
+    }
+}
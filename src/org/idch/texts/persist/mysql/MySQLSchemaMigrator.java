@@ -0,0 +1,255 @@
+/**
+ *
+ */
+package org.idch.texts.persist.mysql;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+import org.idch.persist.RepositoryAccessException;
+import org.idch.texts.TextModuleInstance;
+
+
+/**
+ * Upgrades the database used by a {@link MySQLTextModule} to the current schema version.
+ * The version of a database is recorded in the <tt>texts_schema_version</tt> table;
+ * databases created before this table was introduced are version 1. Each upgrade is
+ * defined by a <tt>migrate-&lt;version&gt;.sql</tt> script in the module's SQL script
+ * directory, which must record the new version once it has been applied.
+ *
+ * <p>Migrations alter tables in place and MySQL cannot roll back schema changes. Back up
+ * the database before running a migration.
+ *
+ * @author Neal Audenaert
+ */
+public class MySQLSchemaMigrator {
+    private final static Logger LOGGER = Logger.getLogger(MySQLSchemaMigrator.class);
+
+    /** The schema version used by this version of the MySQL repositories. */
+    public static final int SCHEMA_VERSION = 5;
+
+    private MySQLTextModule repo;
+    private File scriptDir;
+
+    /**
+     * @param repo The module whose database is to be migrated.
+     * @param scriptDir The directory containing the migration scripts.
+     */
+    public MySQLSchemaMigrator(MySQLTextModule repo, File scriptDir) {
+        this.repo = repo;
+        this.scriptDir = scriptDir;
+    }
+
+    //===================================================================================
+    // HELPER METHODS
+    //===================================================================================
+
+    /**
+     * Reads the statements of an SQL script. Statements are terminated by a semi-colon.
+     * Blank lines and lines starting with <tt>--</tt> are ignored.
+     */
+    static List<String> readScript(File file) throws IOException {
+        List<String> statements = new ArrayList<String>();
+        BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new FileInputStream(file), "UTF-8"));
+        try {
+            StringBuilder sql = new StringBuilder();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.length() == 0 || line.startsWith("--"))
+                    continue;
+
+                sql.append(" ").append(line);
+                if (line.endsWith(";")) {
+                    statements.add(sql.substring(0, sql.length() - 1).trim());
+                    sql.setLength(0);
+                }
+            }
+        } finally {
+            reader.close();
+        }
+
+        return statements;
+    }
+
+    /**
+     * Verifies that a database can be upgraded to the specified version.
+     *
+     * @throws RepositoryAccessException If the data cannot be migrated.
+     */
+    private void checkPreconditions(Connection conn, int version)
+            throws SQLException, RepositoryAccessException {
+        if (version == 2) {
+            // structures are now keyed by work_id, so every structure must have a work
+            String sql = "SELECT COUNT(*) FROM texts_structures " +
+                         " WHERE work_uuid NOT IN (SELECT uuid FROM texts_works)";
+            int orphans = 0;
+            Statement stmt = conn.createStatement();
+            try {
+                ResultSet results = stmt.executeQuery(sql);
+                results.next();
+                orphans = results.getInt(1);
+            } finally {
+                SQLResources.close(stmt);
+            }
+
+            if (orphans > 0)
+                throw new RepositoryAccessException("Cannot migrate to schema version 2: " +
+                        orphans + " structures reference works that are not stored in " +
+                        "this database.");
+        } else if (version == 5) {
+            // terms are numbered using a window function
+            int major = conn.getMetaData().getDatabaseMajorVersion();
+            if (major < 8)
+                throw new RepositoryAccessException("Cannot migrate to schema version 5: " +
+                        "MySQL 8.0 or later is required (found " +
+                        conn.getMetaData().getDatabaseProductVersion() + ").");
+        }
+    }
+
+    /**
+     * Indicates whether the changes made by a migration are already present. Databases 
+     * created from <tt>create.sql</tt> at version 4 already store tokens by term, so 
+     * they only need to record version 5.
+     */
+    private boolean isApplied(Connection conn, int version) throws SQLException {
+        if (version != 5)
+            return false;
+
+        DatabaseMetaData meta = conn.getMetaData();
+        ResultSet columns = meta.getColumns(conn.getCatalog(), null, "texts_tokens", "term_id");
+        try {
+            return columns.next();
+        } finally {
+            SQLResources.close(columns);
+        }
+    }
+
+    //===================================================================================
+    // MIGRATION METHODS
+    //===================================================================================
+
+    /**
+     * Returns the schema version of the module's database.
+     *
+     * @throws RepositoryAccessException If the database could not be accessed.
+     */
+    public int getVersion() throws RepositoryAccessException {
+        String sql = "SELECT MAX(version) FROM texts_schema_version";
+
+        Connection conn = null;
+        Statement stmt = null;
+        ResultSet results = null;
+        try {
+            conn = repo.openReadOnlyConnection();
+            stmt = conn.createStatement();
+            try {
+                results = stmt.executeQuery(sql);
+            } catch (SQLException ex) {
+                return 1;       // the version table was introduced in version 2
+            }
+
+            return results.next() ? Math.max(1, results.getInt(1)) : 1;
+        } catch (Exception ex) {
+            throw new RepositoryAccessException("Could not determine schema version", ex);
+        } finally {
+            SQLResources.close(results);
+            SQLResources.close(stmt);
+            repo.closeConnection(conn);
+        }
+    }
+
+    /**
+     * Upgrades the module's database to the current schema version, applying each
+     * migration script in turn.
+     *
+     * @return The number of migrations applied.
+     * @throws RepositoryAccessException If a migration failed. The database may be left
+     *      partially migrated.
+     */
+    public int migrate() throws RepositoryAccessException {
+        int ct = 0;
+        for (int v = getVersion() + 1; v <= SCHEMA_VERSION; v++) {
+            File script = new File(scriptDir, "migrate-" + v + ".sql");
+            LOGGER.info("Migrating texts schema to version " + v + " (" + script + ")");
+
+            Connection conn = null;
+            Statement stmt = null;
+            try {
+                List<String> statements = readScript(script);
+
+                conn = repo.openConnection();
+                if (isApplied(conn, v)) {
+                    LOGGER.info("The changes for version " + v + " are already present.");
+                    statements = Collections.singletonList(
+                            "INSERT INTO texts_schema_version (version) VALUES (" + v + ")");
+                } else {
+                    checkPreconditions(conn, v);
+                }
+
+                stmt = conn.createStatement();
+                for (String sql : statements) {
+                    LOGGER.debug("Executing: " + sql);
+                    stmt.execute(sql);
+                }
+
+                conn.commit();
+                ct++;
+            } catch (RepositoryAccessException ex) {
+                repo.rollbackConnection(conn);
+                throw ex;
+            } catch (Exception ex) {
+                repo.rollbackConnection(conn);
+                throw new RepositoryAccessException(
+                        "Could not migrate texts schema to version " + v, ex);
+            } finally {
+                SQLResources.close(stmt);
+                repo.closeConnection(conn);
+            }
+        }
+
+        return ct;
+    }
+
+    //===================================================================================
+    // MAIN METHOD
+    //===================================================================================
+
+    /**
+     * Migrates the database of the configured text module.
+     *
+     * @param args The directory containing the migration scripts (e.g., <tt>sql/texts</tt>).
+     */
+    public static void main(String[] args) {
+        if (args.length != 1) {
+            System.out.println("Usage: MySQLSchemaMigrator <script directory>");
+            return;
+        }
+
+        try {
+            MySQLTextModule module = (MySQLTextModule)TextModuleInstance.get();
+            MySQLSchemaMigrator migrator = new MySQLSchemaMigrator(module, new File(args[0]));
+
+            int from = migrator.getVersion();
+            int ct = migrator.migrate();
+            System.out.println("Migrated texts schema from version " + from + " to " +
+                    migrator.getVersion() + " (" + ct + " migrations applied).");
+        } catch (Exception ex) {
+            System.out.println(ex);
+            ex.printStackTrace();
+        }
+    }
+}
@@ -7,8 +7,12 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.SortedSet;
 import java.util.TreeSet;
@@ -33,7 +37,7 @@ public class MySQLStructureRepository implements StructureRepository {
     private final static Logger LOGGER = Logger.getLogger(MySQLStructureRepository.class);
     
     private static final int S_UUID       = 1;
-    private static final int WORK_UUID    = 2;
+    private static final int WORK_ID      = 2;
     private static final int NAME         = 3;
     private static final int PERSPECTIVE  = 4;
     private static final int START        = 5;
@@ -41,14 +45,166 @@ public class MySQLStructureRepository implements StructureRepository {
     
     private static final int STRUCTURE_ID = 7;
     
+    /** The maximum number of structures written by a single batch of statements. */
+    static final int BATCH_SIZE = 256;
+    
     private static final String FIELDS =
-            "uuid, work_uuid, structure_name, perspective, " + 
+            "uuid, work_id, structure_name, perspective, " + 
             "start_pos, end_pos ";
     
+    /** 
+     * The number of span levels. A structure spanning the token positions 
+     * <tt>[start_pos, end_pos]</tt> is assigned the lowest level <tt>L</tt> for which both 
+     * positions fall within the same aligned block of 2<sup>L</sup> positions. The block 
+     * is recorded as <tt>span_bucket = start_pos &gt;&gt; L</tt>. Since token positions 
+     * are non-negative integers, every span has a level below 32.
+     */
+    static final int SPAN_LEVELS = 32;
+    
+    // Queries used to retrieve structures. These are checked against the indexes 
+    // defined in create.sql by MySQLQueryPlanTests and should be kept in step with them.
+    
+    static final String HAS_STRUCTURES_SQL = 
+            "SELECT structure_id FROM texts_structures WHERE work_id = ? LIMIT 1";
+    
+    static final String FIND_BY_NAME_SQL = 
+            "SELECT " + FIELDS + ", structure_id " +
+            "  FROM texts_structures" + 
+            " WHERE work_id = ? AND structure_name = ?" +
+            " ORDER BY start_pos ASC, end_pos DESC";
+    
+    /**
+     * Finds the structures that include a token. A structure that includes position 
+     * <tt>p</tt> lies in block <tt>p &gt;&gt; L</tt> of its level <tt>L</tt>, so this
+     * looks up one block per level and filters the structures found there.
+     */
+    static final String FIND_AT_POSITION_SQL = 
+            "SELECT " + FIELDS + ", structure_id " +
+            "  FROM texts_structures" + 
+            " WHERE work_id = ? AND " + getSpanCondition(false) + " AND " +
+            "       start_pos <= ? AND end_pos >= ?" +
+            " ORDER BY start_pos ASC, end_pos DESC";
+    
+    /**
+     * Finds the structures that include any token in the range <tt>[start, end)</tt>. 
+     * These lie in the blocks from <tt>start &gt;&gt; L</tt> to 
+     * <tt>(end - 1) &gt;&gt; L</tt> of their level <tt>L</tt>.
+     */
+    static final String FIND_IN_SPAN_SQL = 
+            "SELECT " + FIELDS + ", structure_id " +
+            "  FROM texts_structures" + 
+            " WHERE work_id = ? AND " + getSpanCondition(true) + " AND " +
+            "       start_pos < ? AND end_pos >= ?" +
+            " ORDER BY start_pos ASC, end_pos DESC";
+    
+    static final String FIND_IN_RANGE_SQL = 
+            "SELECT " + FIELDS + ", structure_id " +
+            "  FROM texts_structures" + 
+            " WHERE work_id = ? AND " +
+            "       structure_name = ? AND start_pos >= ? AND end_pos < ?" +
+            " ORDER BY start_pos ASC, end_pos DESC";
+    
+    static final String FIND_OVERLAPPING_SQL = 
+            "SELECT " + FIELDS + ", structure_id " +
+            "  FROM texts_structures" + 
+            " WHERE work_id = ? AND " +
+            "       structure_name = ? AND " +
+            "       ((start_pos <= ? AND end_pos > ?) " +
+            "     OR (start_pos < ? AND end_pos > ?))" +
+            " ORDER BY start_pos ASC, end_pos DESC";
+    
+    static final String FIND_BY_ATTRIBUTE_SQL = 
+            "SELECT " + FIELDS + ", S.structure_id AS structure_id" +
+            "  FROM texts_structures AS S, texts_structureattributes AS A" + 
+            " WHERE S.structure_id = A.structure_id AND" +
+            "       S.structure_name = ? AND" +
+            "       A.attr_key = ? AND" +
+            "       A.attr_value = ?" +
+            " ORDER BY start_pos ASC, end_pos DESC";
+    
+    static final String FIND_IN_WORK_BY_ATTRIBUTE_SQL = 
+            "SELECT " + FIELDS + ", S.structure_id AS structure_id" +
+            "  FROM texts_structures AS S, texts_structureattributes AS A" + 
+            " WHERE S.structure_id = A.structure_id AND" +
+            "       S.work_id = ? AND " +
+            "       S.structure_name = ? AND" +
+            "       A.attr_key = ? AND" +
+            "       A.attr_value = ?" +
+            " ORDER BY start_pos ASC, end_pos DESC";
+    
     //===================================================================================
     // STATIC METHODS
     //===================================================================================
     
+    /** 
+     * Returns the span level of a structure, or <tt>null</tt> if either of its token 
+     * positions has not been set.
+     */
+    static Integer getSpanLevel(Integer start, Integer end) {
+        if (start == null || end == null)
+            return null;
+        
+        return 32 - Integer.numberOfLeadingZeros(start ^ end);
+    }
+    
+    /** 
+     * Returns an SQL expression that computes the span level of a structure from its 
+     * token positions, for use where structures are written by SQL rather than through 
+     * this repository.
+     */
+    static String getSpanLevelSQL(String start, String end) {
+        return "IF(" + start + " = " + end + ", 0, LENGTH(BIN(" + start + " ^ " + end + ")))";
+    }
+    
+    /** 
+     * Returns a condition that selects the span blocks that contain a position or, if 
+     * <tt>range</tt> is set, that overlap a range of positions. The blocks of each level 
+     * are supplied as parameters by {@link #setSpanParameters(PreparedStatement, int, int, int, boolean)}.
+     */
+    private static String getSpanCondition(boolean range) {
+        StringBuilder sb = new StringBuilder("(");
+        for (int level = 0; level < SPAN_LEVELS; level++) {
+            if (level > 0)
+                sb.append(" OR ");
+            
+            sb.append("(span_level = ").append(level)
+              .append(range ? " AND span_bucket BETWEEN ? AND ?)" : " AND span_bucket = ?)");
+        }
+        
+        return sb.append(")").toString();
+    }
+    
+    /**
+     * Sets the parameters of a span condition, starting at <tt>param</tt>. 
+     * 
+     * @param first The first position of the range, or the position to look up.
+     * @param last The last position of the range. This is ignored unless <tt>range</tt>
+     *      is set. 
+     * @return The index of the next parameter.
+     */
+    private static int setSpanParameters(
+            PreparedStatement stmt, int param, int first, int last, boolean range) 
+            throws SQLException {
+        for (int level = 0; level < SPAN_LEVELS; level++) {
+            stmt.setInt(param++, first >> level);
+            if (range)
+                stmt.setInt(param++, last >> level);
+        }
+        
+        return param;
+    }
+    
+    /** Sets the span level and block of a structure that is being written. */
+    private static void setSpan(PreparedStatement stmt, int param, Structure s) 
+            throws SQLException {
+        Integer start = s.getStartTokenPosition();
+        Integer end = s.getEndTokenPosition();
+        Integer level = getSpanLevel(start, end);
+        
+        setParameter(stmt, param, level);
+        setParameter(stmt, param + 1, (level != null) ? Math.min(start, end) >> level : null);
+    }
+    
     /**
      * 
      * @param stmt
@@ -81,6 +237,14 @@ public class MySQLStructureRepository implements StructureRepository {
     private MySQLTextModule repo = null;
     private AttrRepo attrs = null;
     
+    /** 
+     * The ids and UUIDs of works referenced by structures. Structures are stored with the 
+     * id of their work, while the API identifies works by UUID. Work ids are not reused, 
+     * so these mappings become invalid only if the creation of a work is rolled back.
+     */
+    private final Map<UUID, Long> workIds = new HashMap<UUID, Long>();
+    private final Map<Long, UUID> workUUIDs = new HashMap<Long, UUID>();
+    
     //===================================================================================
     // CONSTRUCTORS
     //===================================================================================
@@ -98,6 +262,87 @@ public class MySQLStructureRepository implements StructureRepository {
     // HELPER METHODS
     //===================================================================================
 
+    /** Discards the cached ids of works. */
+    void discardCaches() {
+        synchronized (workIds) {
+            workIds.clear();
+            workUUIDs.clear();
+        }
+    }
+    
+    private void cacheWork(long id, UUID uuid) {
+        synchronized (workIds) {
+            workIds.put(uuid, id);
+            workUUIDs.put(id, uuid);
+        }
+    }
+    
+    /** Returns the database id of a work, or <tt>null</tt> if it has not been stored. */
+    private Long getWorkId(Connection conn, UUID uuid) throws SQLException {
+        synchronized (workIds) {
+            Long id = workIds.get(uuid);
+            if (id != null)
+                return id;
+        }
+        
+        PreparedStatement stmt = conn.prepareStatement(
+                "SELECT work_id FROM texts_works WHERE uuid = ?");
+        ResultSet results = null;
+        try {
+            BinaryUUID.set(stmt, 1, uuid);
+            results = stmt.executeQuery();
+            if (!results.next())
+                return null;
+            
+            long id = results.getLong(1);
+            cacheWork(id, uuid);
+            return id;
+        } finally {
+            SQLResources.close(results);
+            SQLResources.close(stmt);
+        }
+    }
+    
+    /** Returns the database id of a work, using the id of the supplied instance if set. */
+    private long getWorkId(Connection conn, Work w) throws SQLException {
+        Long id = w.getId();
+        if (id != null) {
+            cacheWork(id, w.getUUID());
+        } else {
+            id = getWorkId(conn, w.getUUID());
+            if (id == null)
+                throw new SQLException("Work " + w.getUUID() + " has not been stored.");
+        }
+        
+        return id;
+    }
+    
+    /** Returns the UUID of the work with the specified database id. */
+    private UUID getWorkUUID(Connection conn, long id) throws SQLException {
+        synchronized (workIds) {
+            UUID uuid = workUUIDs.get(id);
+            if (uuid != null)
+                return uuid;
+        }
+        
+        PreparedStatement stmt = conn.prepareStatement(
+                "SELECT uuid FROM texts_works WHERE work_id = ?");
+        ResultSet results = null;
+        try {
+            stmt.setLong(1, id);
+            results = stmt.executeQuery();
+            if (!results.next())
+                throw new SQLException("No work found with id " + id);
+            
+            UUID uuid = BinaryUUID.get(results, 1);
+            cacheWork(id, uuid);
+            return uuid;
+        } finally {
+            SQLResources.close(results);
+            SQLResources.close(stmt);
+        }
+    }
+
     private void saveAttributes(Connection conn, Structure s) throws SQLException {
         assert s.getId() != null;
         if (s.getId() == null) {
@@ -112,17 +357,20 @@ public class MySQLStructureRepository implements StructureRepository {
     }
 
     private boolean update(Structure s) {
-        int NAME = 1, PERSPECTIVE = 2, START = 3, END = 4, ID = 5;
+        int NAME = 1, PERSPECTIVE = 2, START = 3, END = 4, ID = 7;
         String sql = 
                 "UPDATE texts_structures SET " +
                 "    structure_name = ?, " +
                 "    perspective = ?, " + 
                 "    start_pos = ?, " + 
-                "    end_pos = ? " +
+                "    end_pos = ?, " +
+                "    span_level = ?, " + 
+                "    span_bucket = ? " +
                 "WHERE structure_id = ?";
         
         boolean success = false;
         Connection conn = null;
+        PreparedStatement stmt = null;
         try {
             conn = repo.openConnection();
             
@@ -130,17 +378,18 @@ public class MySQLStructureRepository implements StructureRepository {
             saveAttributes(conn, s);
             
             // build the statement
-            PreparedStatement stmt = conn.prepareStatement(sql); 
+            stmt = conn.prepareStatement(sql); 
             
             stmt.setString(NAME, s.getName());
             stmt.setString(PERSPECTIVE, s.getPerspective());
             setParameter(stmt, START, s.getStartTokenPosition());
             setParameter(stmt, END, s.getEndTokenPosition());
+            setSpan(stmt, END + 1, s);
             stmt.setLong(ID, s.getId());
 
             // execute the query
             int numRowsChanged = stmt.executeUpdate();
-            success = (numRowsChanged != 1);
+            success = (numRowsChanged == 1);
             if (numRowsChanged > 1) {
                 LOGGER.warn("Bizarre number of rows changed (" + numRowsChanged + ") " + 
                             "while saving a structure (" + s.getUUID() + "). Expected 1.");
@@ -155,6 +404,7 @@ public class MySQLStructureRepository implements StructureRepository {
             LOGGER.warn(msg, ex);
             success = false;
         } finally {
+            SQLResources.close(stmt);
             repo.closeConnection(conn);
         }
         
@@ -188,27 +438,34 @@ public class MySQLStructureRepository implements StructureRepository {
         if (s.getId() != null)
             return null;
         
-        String sql = "INSERT INTO texts_structures (" + FIELDS + ") " +
-                     "VALUES (?, ?, ?, ?, ?, ?)";
+        String sql = "INSERT INTO texts_structures (" + FIELDS + ", span_level, span_bucket) " +
+                     "VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
         
         boolean success = false;
         Connection conn = null;
+        PreparedStatement stmt = null;
+        ResultSet results = null;
         try {
             // build the statement
             conn = repo.openConnection();
-            PreparedStatement stmt = conn.prepareStatement(sql, 
+            stmt = conn.prepareStatement(sql, 
                     PreparedStatement.RETURN_GENERATED_KEYS);
             
-            stmt.setString(S_UUID, s.getUUID().toString());
-            stmt.setString(WORK_UUID, s.getWorkUUID().toString());
+            Long workId = getWorkId(conn, s.getWorkUUID());
+            if (workId == null)
+                throw new SQLException("Work " + s.getWorkUUID() + " has not been stored.");
+            
+            BinaryUUID.set(stmt, S_UUID, s.getUUID());
+            stmt.setLong(WORK_ID, workId);
             stmt.setString(NAME, s.getName());
             stmt.setString(PERSPECTIVE, s.getPerspective());
             setParameter(stmt, START, s.getStartTokenPosition());
             setParameter(stmt, END, s.getEndTokenPosition());
+            setSpan(stmt, END + 1, s);
             
             // execute the query
             int numRowsChanged = stmt.executeUpdate();
-            ResultSet results = stmt.getGeneratedKeys();
+            results = stmt.getGeneratedKeys();
             if (numRowsChanged == 1 && results.next()) {
                 long id = results.getLong(1);
                 s.setId(id);
@@ -225,13 +482,179 @@ public class MySQLStructureRepository implements StructureRepository {
             success = false;
             s = null;
         } finally {
+            SQLResources.close(results);
+            SQLResources.close(stmt);
             repo.closeConnection(conn);
         }
         
         return success ? s : null;
     }
     
+    /* (non-Javadoc)
+     * @see org.idch.texts.StructureRepository#createAll(java.util.Collection)
+     */
+    @Override
+    public boolean createAll(Collection<Structure> structures) {
+        for (Structure s : structures) {
+            assert (s.getId() == null) : "This structure has already been created.";
+            if (s.getId() != null)
+                return false;
+        }
+        
+        return saveAll(structures);
+    }
     
+    /**
+     * Saves a group of structures using a single transaction. New structures are 
+     * inserted and existing structures are updated using batched statements, so that 
+     * the group is written in a few round trips rather than several per structure. If 
+     * any structure cannot be written, none of the group is saved and the structures 
+     * that were to be created are left without an id.
+     * 
+     * @see org.idch.texts.StructureRepository#saveAll(java.util.Collection)
+     */
+    @Override
+    public boolean saveAll(Collection<Structure> structures) {
+        List<Structure> created = new ArrayList<Structure>();
+        List<Structure> updated = new ArrayList<Structure>();
+        for (Structure s : structures) {
+            if (s == null)
+                throw new NullPointerException("Cannot save a null structure");
+            
+            if (s.getId() == null) {
+                created.add(s);
+            } else {
+                updated.add(s);
+            }
+        }
+        
+        if (created.isEmpty() && updated.isEmpty())
+            return true;
+        
+        boolean success = false;
+        Connection conn = null;
+        try {
+            conn = repo.openConnection();
+            insert(conn, created);
+            update(conn, updated);
+            attrs.save(conn, created, false);
+            attrs.save(conn, updated, true);
+            
+            conn.commit();
+            success = true;
+        } catch (Exception ex) {
+            repo.rollbackConnection(conn);
+            for (Structure s : created) {
+                s.setId(null);
+            }
+            
+            String msg = "Could not save " + structures.size() + " structure(s). " + 
+                         ex.getMessage();
+            LOGGER.warn(msg, ex);
+            success = false;
+        } finally {
+            repo.closeConnection(conn);
+        }
+        
+        return success;
+    }
+    
+    /**
+     * Inserts new structures in batches of {@link #BATCH_SIZE} and assigns them the ids 
+     * generated for each batch, in order. 
+     */
+    private void insert(Connection conn, List<Structure> structures) throws SQLException {
+        if (structures.isEmpty())
+            return;
+        
+        String sql = "INSERT INTO texts_structures (" + FIELDS + ", span_level, span_bucket) " +
+                     "VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
+        
+        PreparedStatement stmt = conn.prepareStatement(sql, 
+                PreparedStatement.RETURN_GENERATED_KEYS);
+        ResultSet results = null;
+        try {
+            int n = structures.size();
+            for (int from = 0; from < n; from += BATCH_SIZE) {
+                List<Structure> batch = structures.subList(from, Math.min(n, from + BATCH_SIZE));
+                for (Structure s : batch) {
+                    Long workId = getWorkId(conn, s.getWorkUUID());
+                    if (workId == null)
+                        throw new SQLException("Work " + s.getWorkUUID() + " has not been stored.");
+                    
+                    BinaryUUID.set(stmt, S_UUID, s.getUUID());
+                    stmt.setLong(WORK_ID, workId);
+                    stmt.setString(NAME, s.getName());
+                    stmt.setString(PERSPECTIVE, s.getPerspective());
+                    setParameter(stmt, START, s.getStartTokenPosition());
+                    setParameter(stmt, END, s.getEndTokenPosition());
+                    setSpan(stmt, END + 1, s);
+                    stmt.addBatch();
+                }
+                
+                stmt.executeBatch();
+                results = stmt.getGeneratedKeys();
+                for (Structure s : batch) {
+                    if (!results.next())
+                        throw new SQLException("No id was generated for structure " + s.getUUID());
+                    
+                    s.setId(results.getLong(1));
+                }
+                
+                SQLResources.close(results);
+                results = null;
+            }
+        } finally {
+            SQLResources.close(results);
+            SQLResources.close(stmt);
+        }
+    }
+    
+    /** Updates existing structures in batches of {@link #BATCH_SIZE}. */
+    private void update(Connection conn, List<Structure> structures) throws SQLException {
+        int NAME = 1, PERSPECTIVE = 2, START = 3, END = 4, ID = 7;
+        if (structures.isEmpty())
+            return;
+        
+        String sql = 
+                "UPDATE texts_structures SET " +
+                "    structure_name = ?, " +
+                "    perspective = ?, " + 
+                "    start_pos = ?, " + 
+                "    end_pos = ?, " +
+                "    span_level = ?, " + 
+                "    span_bucket = ? " +
+                "WHERE structure_id = ?";
+        
+        PreparedStatement stmt = conn.prepareStatement(sql);
+        try {
+            int n = structures.size();
+            for (int from = 0; from < n; from += BATCH_SIZE) {
+                List<Structure> batch = structures.subList(from, Math.min(n, from + BATCH_SIZE));
+                for (Structure s : batch) {
+                    stmt.setString(NAME, s.getName());
+                    stmt.setString(PERSPECTIVE, s.getPerspective());
+                    setParameter(stmt, START, s.getStartTokenPosition());
+                    setParameter(stmt, END, s.getEndTokenPosition());
+                    setSpan(stmt, END + 1, s);
+                    stmt.setLong(ID, s.getId());
+                    stmt.addBatch();
+                }
+                
+                int[] counts = stmt.executeBatch();
+                for (int i = 0; counts != null && i < counts.length; i++) {
+                    if (counts[i] > 1)
+                        throw new SQLException("Bizarre number of rows changed (" + counts[i] + 
+                                ") while saving a structure (" + batch.get(i).getUUID() + 
+                                "). Expected 1.");
+                    if (counts[i] == Statement.EXECUTE_FAILED)
+                        throw new SQLException("Could not update structure " + batch.get(i).getUUID());
+                }
+            }
+        } finally {
+            SQLResources.close(stmt);
+        }
+    }
     
     /**
      * 
@@ -258,23 +681,30 @@ public class MySQLStructureRepository implements StructureRepository {
      */
     @Override
     public boolean hasStructuresFor(UUID workId) {
-        String sql = "SELECT structure_id FROM texts_structures WHERE work_uuid = ? LIMIT 1";
+        String sql = HAS_STRUCTURES_SQL;
 
         boolean hasStructures = false;
         Connection conn = null;
+        PreparedStatement stmt = null;
+        ResultSet results = null;
         try {
             conn = repo.openReadOnlyConnection();
-            PreparedStatement stmt = conn.prepareStatement(sql);
-            
-            stmt.setString(1, workId.toString());
-            ResultSet results = stmt.executeQuery();
-            hasStructures = results.next(); 
+            Long id = getWorkId(conn, workId);
+            if (id != null) {
+                stmt = conn.prepareStatement(sql);
+                
+                stmt.setLong(1, id);
+                results = stmt.executeQuery();
+                hasStructures = results.next(); 
+            }
         } catch (Exception ex) {
             String msg = "Failed to determine if structures exist for the specified work " +
             		"(" + workId.toString() + "): " + ex.getMessage();
             LOGGER.warn(msg, ex);
             hasStructures = false;
         } finally {
+            SQLResources.close(results);
+            SQLResources.close(stmt);
             repo.closeConnection(conn);
         }
         
@@ -287,54 +717,60 @@ public class MySQLStructureRepository implements StructureRepository {
     //===================================================================================
 
     /**
+     * Restores the properties of a structure from the current row of a result set. This
+     * does not restore the structure's attributes, which are retrieved for all of the 
+     * structures returned by a query once its results have been read (see 
+     * {@link AttrRepo#load(Connection, List)}).
      * 
-     * @param s
-     * @param results
-     * @return
+     * @param conn The connection used to generate the result set.
+     * @param s The structure to restore.
+     * @param results The result set positioned at the row to restore.
+     * @return The restored structure.
      * @throws SQLException
      */
-    private Structure restore(Structure s, ResultSet results) throws SQLException {
-        s.setUUIDString(results.getString(S_UUID));
+    private Structure restore(Connection conn, Structure s, ResultSet results) 
+            throws SQLException {
+        s.setUUID(BinaryUUID.get(results, S_UUID));
         s.setName(results.getString(NAME));
         s.setPerspective(results.getString(PERSPECTIVE));
         s.setStartTokenPosition(getParameter(results, START, Integer.class));
         s.setEndTokenPosition(getParameter(results, END, Integer.class));
-        
-        String wId = results.getString(WORK_UUID);
-        assert wId != null : "No identifier for this token's work.";         // should be enforced by DB constraints
-        s.setWork(UUID.fromString(wId));
-
-        // retrieve the attributes
-        Connection conn = results.getStatement().getConnection();
-        s.setAttributes(attrs.get(conn, s.getId()));
+        s.setWork(getWorkUUID(conn, results.getLong(WORK_ID)));
         
         return s;
     }
     
-    private void restore(Map<UUID, SortedSet<Structure>> structures, ResultSet results) 
+    /**
+     * Restores the structures returned by a query along with their attributes. 
+     * 
+     * @param conn The connection used to prepare the query.
+     * @param stmt The query to execute. 
+     * @return The restored structures, in the order returned by the query.
+     * @throws SQLException
+     */
+    private List<Structure> restore(Connection conn, PreparedStatement stmt) 
             throws SQLException {
-        Structure s = new Structure(results.getLong(STRUCTURE_ID));
-        s = restore(s, results);
+        List<Structure> structures = new ArrayList<Structure>();
         
-        UUID uuid = s.getWorkUUID();
-        SortedSet<Structure> structs = structures.get(uuid);
-        if (structs == null) {
-            structs = new TreeSet<Structure>(new StructureComparator());
-            structures.put(uuid, structs);
+        Structure s; 
+        ResultSet results = stmt.executeQuery();
+        try {
+            while (results.next()) {
+                s = new Structure(results.getLong(STRUCTURE_ID));
+                structures.add(restore(conn, s, results));
+            }
+        } finally {
+            SQLResources.close(results);
         }
         
-        structs.add(s);
+        attrs.load(conn, structures);
+        return structures;
     }
     
-    private SortedSet<Structure> find(PreparedStatement stmt) throws SQLException {
+    private SortedSet<Structure> find(Connection conn, PreparedStatement stmt) 
+            throws SQLException {
         SortedSet<Structure> structures = new TreeSet<Structure>(new StructureComparator()); 
-        
-        Structure s; 
-        ResultSet results = stmt.executeQuery();
-        while (results.next()) {
-            s = new Structure(results.getLong(STRUCTURE_ID));
-            structures.add(restore(s, results));
-        }
+        structures.addAll(restore(conn, stmt));
         
         return structures;
     }
@@ -365,21 +801,24 @@ public class MySQLStructureRepository implements StructureRepository {
         }
         
         Connection conn = null;
+        PreparedStatement stmt = null;
+        ResultSet results = null;
         try {
             conn = repo.openReadOnlyConnection();
-            PreparedStatement stmt = conn.prepareStatement(sql);
+            stmt = conn.prepareStatement(sql);
             if (useUUID) {
-                stmt.setString(1, s.getUUID().toString());
+                BinaryUUID.set(stmt, 1, s.getUUID());
             } else {
                 stmt.setLong(1, s.getId());
             }
             
-            ResultSet results = stmt.executeQuery();
+            results = stmt.executeQuery();
             if (results.next()) {
                 if (useUUID) 
                     s.setId(results.getLong(STRUCTURE_ID));
                 
-                s = restore(s, results);
+                s = restore(conn, s, results);
+                s.setAttributes(attrs.get(conn, s.getId()));
             } else {
                 s = null;
             }
@@ -388,6 +827,8 @@ public class MySQLStructureRepository implements StructureRepository {
             LOGGER.warn(msg, ex);
             s = null;
         } finally {
+            SQLResources.close(results);
+            SQLResources.close(stmt);
             repo.closeConnection(conn);
         }
         
@@ -414,26 +855,24 @@ public class MySQLStructureRepository implements StructureRepository {
     public SortedSet<Structure> find(Work w, String name) {
         // TODO LOTS of duplicated code. Refactor into delgate class.
         int WORK_ID = 1, NAME = 2;
-        String sql = 
-                "SELECT " + FIELDS + ", structure_id " +
-                "  FROM texts_structures" + 
-                " WHERE work_uuid = ? AND structure_name = ?" +
-                " ORDER BY start_pos ASC, end_pos DESC";
+        String sql = FIND_BY_NAME_SQL;
         
         SortedSet<Structure> structures = null;
         Connection conn = null;
+        PreparedStatement stmt = null;
         try {
             conn = repo.openReadOnlyConnection();
-            PreparedStatement stmt = conn.prepareStatement(sql);
-            stmt.setString(WORK_ID, w.getUUID().toString());
+            stmt = conn.prepareStatement(sql);
+            stmt.setLong(WORK_ID, getWorkId(conn, w));
             stmt.setString(NAME,  name);
         
-            structures = find(stmt);
+            structures = find(conn, stmt);
         } catch (Exception ex) {
             String msg = "Could not retrieve structures (" + name + "): " + ex.getMessage();
             LOGGER.warn(msg, ex);
             structures.clear();
         } finally {
+            SQLResources.close(stmt);
             repo.closeConnection(conn);
         }
         
@@ -445,29 +884,62 @@ public class MySQLStructureRepository implements StructureRepository {
      */
     @Override
     public SortedSet<Structure> find(Work w, int position) {
-        int WORK_ID = 1, START_POS = 2, END_POS = 3;
-        String sql =
-                "SELECT " + FIELDS + ", structure_id " +
-                "  FROM texts_structures" + 
-                " WHERE work_uuid = ? AND " +
-                "       start_pos <= ? AND end_pos > ?" +
-                " ORDER BY start_pos ASC, end_pos DESC";
+        int WORK_ID = 1;
+        String sql = FIND_AT_POSITION_SQL;
         
         SortedSet<Structure> structures = null;
         Connection conn = null;
+        PreparedStatement stmt = null;
         try {
             conn = repo.openReadOnlyConnection();
-            PreparedStatement stmt = conn.prepareStatement(sql);
-            stmt.setString(WORK_ID, w.getUUID().toString());
-            stmt.setInt(START_POS,  position);
-            stmt.setInt(END_POS,  position);
+            stmt = conn.prepareStatement(sql);
+            stmt.setLong(WORK_ID, getWorkId(conn, w));
+            int param = setSpanParameters(stmt, WORK_ID + 1, position, position, false);
+            stmt.setInt(param++, position);
+            stmt.setInt(param++, position);
         
-            structures = find(stmt);
+            structures = find(conn, stmt);
         } catch (Exception ex) {
             String msg = "Could not retrieve structures: " + ex.getMessage();
             LOGGER.warn(msg, ex);
             structures.clear();
         } finally {
+            SQLResources.close(stmt);
+            repo.closeConnection(conn);
+        }
+        
+        return structures;
+    }
+
+    /* (non-Javadoc)
+     * @see org.idch.texts.StructureRepository#findOverlapping(org.idch.texts.Work, int, int)
+     */
+    @Override
+    public SortedSet<Structure> findOverlapping(Work w, int start, int end) {
+        int WORK_ID = 1;
+        String sql = FIND_IN_SPAN_SQL;
+        
+        SortedSet<Structure> structures = new TreeSet<Structure>(new StructureComparator());
+        if (end <= start)
+            return structures;
+        
+        Connection conn = null;
+        PreparedStatement stmt = null;
+        try {
+            conn = repo.openReadOnlyConnection();
+            stmt = conn.prepareStatement(sql);
+            stmt.setLong(WORK_ID, getWorkId(conn, w));
+            int param = setSpanParameters(stmt, WORK_ID + 1, start, end - 1, true);
+            stmt.setInt(param++, end);
+            stmt.setInt(param++, start);
+        
+            structures = find(conn, stmt);
+        } catch (Exception ex) {
+            String msg = "Could not retrieve structures: " + ex.getMessage();
+            LOGGER.warn(msg, ex);
+            structures.clear();
+        } finally {
+            SQLResources.close(stmt);
             repo.closeConnection(conn);
         }
         
@@ -480,29 +952,26 @@ public class MySQLStructureRepository implements StructureRepository {
     @Override
     public SortedSet<Structure> find(Work w, String name, int start, int end) {
         int WORK_ID = 1, NAME = 2, START_POS = 3, END_POS = 4;
-        String sql =
-                "SELECT " + FIELDS + ", structure_id " +
-                "  FROM texts_structures" + 
-                " WHERE work_uuid = ? AND " +
-                "       structure_name = ? AND start_pos >= ? AND end_pos < ?" +
-                " ORDER BY start_pos ASC, end_pos DESC";
+        String sql = FIND_IN_RANGE_SQL;
         
         SortedSet<Structure> structures = null;
         Connection conn = null;
+        PreparedStatement stmt = null;
         try {
             conn = repo.openReadOnlyConnection();
-            PreparedStatement stmt = conn.prepareStatement(sql);
-            stmt.setString(WORK_ID, w.getUUID().toString());
+            stmt = conn.prepareStatement(sql);
+            stmt.setLong(WORK_ID, getWorkId(conn, w));
             stmt.setString(NAME,  name);
             stmt.setInt(START_POS,  start);
             stmt.setInt(END_POS,  end);
         
-            structures = find(stmt);
+            structures = find(conn, stmt);
         } catch (Exception ex) {
             String msg = "Could not retrieve structures: " + ex.getMessage();
             LOGGER.warn(msg, ex);
             structures.clear();
         } finally {
+            SQLResources.close(stmt);
             repo.closeConnection(conn);
         }
         
@@ -517,24 +986,18 @@ public class MySQLStructureRepository implements StructureRepository {
         int WORK_ID = 1, NAME = 2, 
             AFTER = 3, BEFORE = 4,
             END_AFTER = 5, END_BEFORE = 6;
-        String sql =
-                "SELECT " + FIELDS + ", structure_id " +
-                "  FROM texts_structures" + 
-                " WHERE work_uuid = ? AND " +
-                "       structure_name = ? AND " +
-                "       (start_pos <= ? AND end_pos > ?) " +
-    ((strict) ? "    OR (start_pos < ? AND end_pos > ?)" : "") +
-                " ORDER BY start_pos ASC, end_pos DESC";
-        
         if (!strict)
             return this.find(w, name, start, end);
         
+        String sql = FIND_OVERLAPPING_SQL;
+        
         SortedSet<Structure> structures = null;
         Connection conn = null;
+        PreparedStatement stmt = null;
         try {
             conn = repo.openReadOnlyConnection();
-            PreparedStatement stmt = conn.prepareStatement(sql);
-            stmt.setString(WORK_ID, w.getUUID().toString());
+            stmt = conn.prepareStatement(sql);
+            stmt.setLong(WORK_ID, getWorkId(conn, w));
             stmt.setString(NAME,  name);
             
             if (strict) {
@@ -547,12 +1010,13 @@ public class MySQLStructureRepository implements StructureRepository {
                 stmt.setInt(BEFORE, END);
             }
         
-            structures = find(stmt);
+            structures = find(conn, stmt);
         } catch (Exception ex) {
             String msg = "Could not retrieve structures: " + ex.getMessage();
             LOGGER.warn(msg, ex);
             structures.clear();
         } finally {
+            SQLResources.close(stmt);
             repo.closeConnection(conn);
         }
         
@@ -566,35 +1030,35 @@ public class MySQLStructureRepository implements StructureRepository {
     public Map<UUID, SortedSet<Structure>> find(String name, String attribute, String value) {
         // TODO LOTS of duplicated code. Refactor into delgate class.
         int NAME = 1, ATTR = 2, VALUE = 3;
-        String sql = 
-                "SELECT " + FIELDS + ", S.structure_id AS structure_id" +
-                "  FROM texts_structures AS S, texts_structureattributes AS A" + 
-                " WHERE S.structure_id = A.structure_id AND" +
-                "       S.structure_name = ? AND" +
-                "       A.attr_key = ? AND" +
-                "       A.attr_value = ?" +
-                " ORDER BY start_pos ASC, end_pos DESC";
+        String sql = FIND_BY_ATTRIBUTE_SQL;
         
         Map<UUID, SortedSet<Structure>> structures = 
                 new HashMap<UUID, SortedSet<Structure>>();
         Connection conn = null;
+        PreparedStatement stmt = null;
         try {
             conn = repo.openReadOnlyConnection();
-            PreparedStatement stmt = conn.prepareStatement(sql);
+            stmt = conn.prepareStatement(sql);
             stmt.setString(NAME,  name);
             stmt.setString(ATTR,  attribute);
             stmt.setString(VALUE,  value);
             
-            ResultSet results = stmt.executeQuery();
-            while (results.next()) {
-                restore(structures, results);
+            for (Structure s : restore(conn, stmt)) {
+                UUID uuid = s.getWorkUUID();
+                SortedSet<Structure> structs = structures.get(uuid);
+                if (structs == null) {
+                    structs = new TreeSet<Structure>(new StructureComparator());
+                    structures.put(uuid, structs);
+                }
+                
+                structs.add(s);
             }
-            
         } catch (Exception ex) {
             String msg = "Could not retrieve structures (" + name + "): " + ex.getMessage();
             LOGGER.warn(msg, ex);
             structures.clear();
         } finally {
+            SQLResources.close(stmt);
             repo.closeConnection(conn);
         }
         
@@ -608,31 +1072,25 @@ public class MySQLStructureRepository implements StructureRepository {
     public SortedSet<Structure> find(Work w, String name, String attribute, String value) {
         // TODO LOTS of duplicated code. Refactor into delgate class.
         int WORK_ID = 1, NAME = 2, ATTR = 3, VALUE = 4;
-        String sql = 
-                "SELECT " + FIELDS + ", S.structure_id AS structure_id" +
-                "  FROM texts_structures AS S, texts_structureattributes AS A" + 
-                " WHERE S.structure_id = A.structure_id AND" +
-                "       S.work_uuid = ? AND " +
-                "       S.structure_name = ? AND" +
-                "       A.attr_key = ? AND" +
-                "       A.attr_value = ?" +
-                " ORDER BY start_pos ASC, end_pos DESC";
+        String sql = FIND_IN_WORK_BY_ATTRIBUTE_SQL;
         
         SortedSet<Structure> structures = null;
         Connection conn = null;
+        PreparedStatement stmt = null;
         try {
             conn = repo.openReadOnlyConnection();
-            PreparedStatement stmt = conn.prepareStatement(sql);
-            stmt.setString(WORK_ID, w.getUUID().toString());
+            stmt = conn.prepareStatement(sql);
+            stmt.setLong(WORK_ID, getWorkId(conn, w));
             stmt.setString(NAME,  name);
             stmt.setString(ATTR,  attribute);
             stmt.setString(VALUE,  value);
-            structures = find(stmt);
+            structures = find(conn, stmt);
         } catch (Exception ex) {
             String msg = "Could not retrieve structures (" + name + "): " + ex.getMessage();
             LOGGER.warn(msg, ex);
             structures.clear();
         } finally {
+            SQLResources.close(stmt);
             repo.closeConnection(conn);
         }
         
@@ -646,19 +1104,100 @@ public class MySQLStructureRepository implements StructureRepository {
     // INNER CLASS FOR PERSISTING ATTRIBUTES
     //===================================================================================
     
-    private static class AttrRepo {
+    static class AttrRepo {
         private static final String DROP_SQL = 
                 "DELETE FROM texts_structureattributes WHERE structure_id = ?";
         private static final String INSERT_SQL = 
                 "INSERT INTO texts_structureattributes (structure_id, attr_key, attr_value) " +
                         "VALUES (?, ?, ?)";
-        private static final String SELECT_SQL = 
+        static final String SELECT_SQL = 
                 "SELECT attr_key, attr_value " +
                 "  FROM texts_structureattributes " +
                 " WHERE structure_id = ?";        
         
+        /** The maximum number of structures whose attributes are retrieved per query. */
+        static final int BATCH_SIZE = 256;
+        
         public AttrRepo() {  }
         
+        /** 
+         * Returns a query for the attributes of <tt>n</tt> structures. 
+         */
+        static String getBatchSQL(int n) {
+            StringBuilder sb = new StringBuilder(
+                    "SELECT structure_id, attr_key, attr_value " +
+                    "  FROM texts_structureattributes " +
+                    " WHERE structure_id IN (?");
+            for (int i = 1; i < n; i++) {
+                sb.append(", ?");
+            }
+            
+            return sb.append(")").toString();
+        }
+        
+        /** 
+         * Returns the number of parameters in the batch query used to retrieve the 
+         * attributes of <tt>n</tt> structures. This is rounded up to a power of two, so 
+         * that only a few distinct statements are prepared.
+         */
+        static int getBatchSize(int n) {
+            if (n >= BATCH_SIZE)
+                return BATCH_SIZE;
+            
+            int size = Integer.highestOneBit(n);
+            return (size < n) ? size << 1 : size;
+        }
+        
+        /**
+         * Retrieves the attributes of the supplied structures, issuing one query for 
+         * each {@link #BATCH_SIZE} structures rather than one for each structure. The
+         * last batch is padded by repeating the id of its last structure.
+         * 
+         * @param conn The database connection to use.
+         * @param structures The structures whose attributes should be retrieved. These 
+         *      must have been stored.
+         * @throws SQLException
+         */
+        public void load(Connection conn, List<Structure> structures) throws SQLException {
+            int ID = 1, KEY = 2, VALUE = 3;
+            
+            int n = structures.size();
+            if (n == 0)
+                return;
+            
+            Map<Long, Map<String, String>> attrs = new HashMap<Long, Map<String, String>>();
+            for (Structure s : structures) {
+                Map<String, String> values = new HashMap<String, String>();
+                attrs.put(s.getId(), values);
+                s.setAttributes(values);
+            }
+            
+            int size = getBatchSize(n);
+            PreparedStatement stmt = conn.prepareStatement(getBatchSQL(size));
+            ResultSet results = null;
+            try {
+                for (int from = 0; from < n; from += size) {
+                    int to = Math.min(n, from + size);
+                    for (int i = 0; i < size; i++) {
+                        stmt.setLong(i + 1, structures.get(Math.min(from + i, to - 1)).getId());
+                    }
+                    
+                    results = stmt.executeQuery();
+                    while (results.next()) {
+                        Map<String, String> values = attrs.get(results.getLong(ID));
+                        if (values != null)
+                            values.put(results.getString(KEY), results.getString(VALUE));
+                    }
+                    
+                    SQLResources.close(results);
+                    results = null;
+                }
+            } finally {
+                SQLResources.close(results);
+                SQLResources.close(stmt);
+            }
+        }
+        
         /**
          * 
          * @param conn
@@ -673,18 +1212,93 @@ public class MySQLStructureRepository implements StructureRepository {
             
             PreparedStatement stmt = null;
             stmt = conn.prepareStatement(DROP_SQL);
-            stmt.setLong(ID, structureId);
-            stmt.executeUpdate();
+            try {
+                stmt.setLong(ID, structureId);
+                stmt.executeUpdate();
+            } finally {
+                SQLResources.close(stmt);
+            }
             
             stmt = conn.prepareStatement(INSERT_SQL); 
-            stmt.setLong(ID, structureId);
-            for (String k : attrs.keySet()) {
-                stmt.setString(KEY, k);
-                stmt.setString(VALUE, attrs.get(k));
-                
-                int numberOfRows = stmt.executeUpdate();
-                assert numberOfRows == 1 : "Unexpected number of rows inserted.";
+            try {
+                stmt.setLong(ID, structureId);
+                for (String k : attrs.keySet()) {
+                    stmt.setString(KEY, k);
+                    stmt.setString(VALUE, attrs.get(k));
+                    
+                    int numberOfRows = stmt.executeUpdate();
+                    assert numberOfRows == 1 : "Unexpected number of rows inserted.";
+                    
+                }
+            } finally {
+                SQLResources.close(stmt);
+            }
+        }
+        
+        /**
+         * Writes the attributes of a group of structures using batched statements. As 
+         * with {@link #createOrUpdate(Connection, long, Map)}, structures that have no 
+         * attributes are skipped.
+         * 
+         * @param conn The database connection to use.
+         * @param structures The structures whose attributes should be written. These must 
+         *      have been stored.
+         * @param replace Whether the stored attributes of these structures should be 
+         *      removed first. This is not needed for newly created structures.
+         * @throws SQLException
+         */
+        public void save(Connection conn, List<Structure> structures, boolean replace) 
+        throws SQLException {
+            int ID = 1, KEY = 2, VALUE = 3;
+            
+            List<Structure> attributed = new ArrayList<Structure>(structures.size());
+            for (Structure s : structures) {
+                Map<String, String> attrs = s.getAttributes();
+                if (attrs != null && attrs.size() > 0)
+                    attributed.add(s);
+            }
+            
+            if (attributed.isEmpty())
+                return;
+            
+            PreparedStatement stmt = null;
+            if (replace) {
+                stmt = conn.prepareStatement(DROP_SQL);
+                try {
+                    int ct = 0;
+                    for (Structure s : attributed) {
+                        stmt.setLong(ID, s.getId());
+                        stmt.addBatch();
+                        if (++ct % BATCH_SIZE == 0)
+                            stmt.executeBatch();
+                    }
+                    
+                    if (ct % BATCH_SIZE != 0)
+                        stmt.executeBatch();
+                } finally {
+                    SQLResources.close(stmt);
+                }
+            }
+            
+            stmt = conn.prepareStatement(INSERT_SQL); 
+            try {
+                int ct = 0;
+                for (Structure s : attributed) {
+                    Map<String, String> attrs = s.getAttributes();
+                    for (String k : attrs.keySet()) {
+                        stmt.setLong(ID, s.getId());
+                        stmt.setString(KEY, k);
+                        stmt.setString(VALUE, attrs.get(k));
+                        stmt.addBatch();
+                        if (++ct % BATCH_SIZE == 0)
+                            stmt.executeBatch();
+                    }
+                }
                 
+                if (ct % BATCH_SIZE != 0)
+                    stmt.executeBatch();
+            } finally {
+                SQLResources.close(stmt);
             }
         }
         
@@ -700,11 +1314,16 @@ public class MySQLStructureRepository implements StructureRepository {
             
             Map<String, String> attrs = new HashMap<String, String>();
             PreparedStatement stmt = conn.prepareStatement(SELECT_SQL); 
-                
-            stmt.setLong(ID, structureId);
-            ResultSet results = stmt.executeQuery();
-            while(results.next()) {
-                attrs.put(results.getString(KEY), results.getString(VALUE));
+            ResultSet results = null;
+            try {
+                stmt.setLong(ID, structureId);
+                results = stmt.executeQuery();
+                while(results.next()) {
+                    attrs.put(results.getString(KEY), results.getString(VALUE));
+                }
+            } finally {
+                SQLResources.close(results);
+                SQLResources.close(stmt);
             }
             
             return attrs;
@@ -7,10 +7,15 @@ import java.sql.Connection;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.ResourceBundle;
 
+import org.apache.log4j.Logger;
 import org.idch.persist.DatabaseException;
+import org.idch.persist.RepositoryAccessException;
 import org.idch.texts.StructureRepository;
 import org.idch.texts.TokenRepository;
+import org.idch.texts.UnitOfWork;
+import org.idch.texts.Work;
 import org.idch.texts.WorkRepository;
 import org.idch.texts.persist.AbstractTextModule;
 
@@ -18,10 +23,50 @@ import org.idch.texts.persist.AbstractTextModule;
  * @author Neal Audenaert
  */
 public class MySQLTextModule extends AbstractTextModule {
+    private final static Logger LOGGER = Logger.getLogger(MySQLTextModule.class);
+    
+    /** The number of tokens to write in each JDBC batch. Optional. */
+    public final static String BATCH_SIZE_PROP = "repo.db.batchsize";
 
-    private WorkRepository m_worksRepo = new MySQLWorkRepository(this);
-    private TokenRepository m_tokensRepo = new MySQLTokenRepository(this);;
-    private StructureRepository m_structuresRepo = new MySQLStructureRepository(this);;
+    private MySQLWorkRepository m_worksRepo = new MySQLWorkRepository(this);
+    private MySQLTokenRepository m_tokensRepo = new MySQLTokenRepository(this);
+    private MySQLStructureRepository m_structuresRepo = new MySQLStructureRepository(this);
+    
+    /** The unit of work bound to each thread, if any. */
+    private final ThreadLocal<MySQLUnitOfWork> m_units = new ThreadLocal<MySQLUnitOfWork>();
+    
+    /**
+     * Configures the JDBC batch size for token inserts. Batched inserts are only sent as a
+     * single statement if the connection URL sets <tt>rewriteBatchedStatements=true</tt>, 
+     * so this warns if that option is missing. Likewise, the repositories close their 
+     * statements after each call, so the driver reuses them across calls on a pooled 
+     * connection only if the URL sets <tt>cachePrepStmts=true</tt>.
+     */
+    @Override
+    protected void initialize(String module, ResourceBundle bundle) 
+            throws RepositoryAccessException {
+        super.initialize(module, bundle);
+        
+        String url = bundle.getString(DB_URL_PROP);
+        if (url.indexOf("rewriteBatchedStatements=true") < 0) {
+            LOGGER.warn("The database URL does not enable rewriteBatchedStatements. " +
+                    "Batched inserts will be sent one row at a time.");
+        }
+        
+        if (url.indexOf("cachePrepStmts=true") < 0) {
+            LOGGER.warn("The database URL does not enable cachePrepStmts. " +
+                    "Statements will be prepared again for each query.");
+        }
+        
+        if (bundle.containsKey(BATCH_SIZE_PROP)) {
+            String size = bundle.getString(BATCH_SIZE_PROP).trim();
+            try {
+                m_tokensRepo.setBatchSize(Integer.parseInt(size));
+            } catch (IllegalArgumentException iae) {
+                throw new RepositoryAccessException("Invalid batch size: " + size, iae);
+            }
+        }
+    }
     
     //========================================================================
     // REPOSITORY GETTERS
@@ -34,27 +79,93 @@ public class MySQLTextModule extends AbstractTextModule {
         return this.m_tokensRepo;
     }
     
+    /** Loads the stored terms of a work that are not yet in its vocabulary. */
+    void loadVocabulary(Connection conn, Work w) throws SQLException {
+        this.m_tokensRepo.loadVocabulary(conn, w);
+    }
+    
+    /** Discards any cached token count for the work with the specified id. */
+    void invalidateTokenCount(long workId) {
+        this.m_tokensRepo.invalidateTokenCount(workId);
+    }
+    
     public StructureRepository getStructureRepository() {
         return this.m_structuresRepo;
     }
     
+    /**
+     * Discards cached state that may reflect changes that have been rolled back. The 
+     * repositories update their caches when a change is committed, which, within a unit 
+     * of work, happens before the change is durable.
+     */
+    void discardCaches() {
+        this.m_worksRepo.discardCaches();
+        this.m_tokensRepo.discardCaches();
+        this.m_structuresRepo.discardCaches();
+    }
+    
+    //========================================================================
+    // UNIT OF WORK METHODS
+    //========================================================================
+    
+    /**
+     * Begins a unit of work that binds a single connection to the current thread. Until
+     * the unit ends, the connections opened by this module's repositories on this thread
+     * share its transaction, which is committed only at the unit's checkpoints.
+     */
+    @Override
+    public UnitOfWork beginUnitOfWork() throws RepositoryAccessException {
+        MySQLUnitOfWork unit = m_units.get();
+        if (unit != null)
+            return unit.join();
+        
+        try {
+            unit = new MySQLUnitOfWork(this, super.openTransaction());
+        } catch (Exception ex) {
+            throw new RepositoryAccessException("Could not begin unit of work", ex);
+        }
+        
+        m_units.set(unit);
+        return unit;
+    }
+    
+    /** Called when a unit of work ends to release it from the current thread. */
+    void unbind(MySQLUnitOfWork unit) {
+        if (m_units.get() == unit)
+            m_units.remove();
+    }
+    
     //========================================================================
     // DATABASE MANIPULATION METHODS
     //========================================================================
     public Connection openConnection() throws SQLException, DatabaseException {
-        return super.openTransaction();
+        MySQLUnitOfWork unit = m_units.get();
+        return (unit != null) ? unit.getConnection() : super.openTransaction();
     }
     
+    /**
+     * Opens a connection for queries. Within a unit of work, this returns the unit's 
+     * connection so that queries see the changes it has made.
+     */
     public Connection openReadOnlyConnection() throws SQLException, DatabaseException {
-        return super.openReadOnly();
+        MySQLUnitOfWork unit = m_units.get();
+        return (unit != null) ? unit.getConnection() : super.openReadOnly();
     }
 
     public void rollbackConnection(Connection conn) {
-        super.rollback(conn);
+        MySQLUnitOfWork unit = m_units.get();
+        if (unit != null && unit.owns(conn)) {
+            unit.fail();
+        } else {
+            super.rollback(conn);
+        }
     }
     
     public void closeConnection(Connection conn) {
-        super.close(conn);
+        MySQLUnitOfWork unit = m_units.get();
+        if (unit == null || !unit.owns(conn)) {
+            super.close(conn);
+        }
     }
 
     /**
@@ -7,15 +7,19 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.WeakHashMap;
 
 import org.apache.log4j.Logger;
 import org.idch.texts.Structure;
 import org.idch.texts.Token;
 import org.idch.texts.TokenRepository;
+import org.idch.texts.TokenVisitor;
+import org.idch.texts.Vocabulary;
 import org.idch.texts.Work;
 import org.idch.texts.WorkRepository;
 import org.idch.util.Cache;
@@ -34,21 +38,71 @@ public class MySQLTokenRepository implements TokenRepository {
     private final static int UUID = 2;
     private final static int WORK_ID = 3;
     private final static int POS = 4;
-    private final static int TEXT = 5;
+    private final static int TERM = 5;
     private final static int TYPE = 6;
     
     private final static String FIELDS = 
-            "token_id, uuid, work_id, token_pos, token_text, token_type ";
+            "token_id, uuid, work_id, token_pos, term_id, token_type ";
+    
+    /** The default number of tokens written in each JDBC batch. */
+    public static final int DEFAULT_BATCH_SIZE = 1000;
+    
+    /** The number of tokens read by each query issued by <tt>forEach</tt>. */
+    static final int PAGE_SIZE = 1000;
     
     private static final String CREATE_SQL = 
-            "INSERT INTO texts_tokens_Tokens (uuid, work_id, token_pos, token_text, token_type) " +
+            "INSERT INTO texts_tokens (uuid, work_id, token_pos, term_id, token_type) " +
                     "VALUES (?, ?, ?, ?, ?)";
     
+    private static final String CREATE_TERM_SQL = 
+            "INSERT INTO texts_vocabulary (work_id, term_id, term_text) VALUES (?, ?, ?)";
+    
+    private static final String UPDATE_COUNT_SQL = 
+            "UPDATE texts_works SET token_count = GREATEST(token_count, ?) WHERE work_id = ?";
+    
+    private static final String FIND_RANGE_SQL = 
+            "SELECT " + FIELDS + "FROM texts_tokens " +
+            " WHERE work_id = ? " +
+            "   AND token_pos >= ? AND token_pos < ?" +
+            " ORDER BY token_pos"; 
+    
     private Cache<Long, Token> cache = new Cache<Long, Token>("Tokens", 1000);
     
+    /** 
+     * The stored terms of each vocabulary. This is kept for each vocabulary instance 
+     * rather than for each work, since a work that is restored again starts with an 
+     * empty vocabulary. The map is locked only to look up entries.
+     */
+    private Map<Vocabulary, StoredTerms> storedTerms = 
+            new WeakHashMap<Vocabulary, StoredTerms>();
+    
+    /** The number of tokens stored for each work, as recorded in texts_works. */
+    private Map<Long, Integer> tokenCounts = new HashMap<Long, Integer>();
+    
+    private volatile int batchSize = DEFAULT_BATCH_SIZE;
+    
     MySQLTokenRepository(MySQLTextModule repo) {
         this.repo = repo;
     }
+    
+    /** Returns the maximum number of tokens written in a single JDBC batch. */
+    public int getBatchSize() {
+        return this.batchSize;
+    }
+    
+    /**
+     * Sets the maximum number of tokens written in a single JDBC batch. Batches are sent 
+     * to the server as a single multi-row insert only if the connection URL sets 
+     * <tt>rewriteBatchedStatements=true</tt>; otherwise each row is a separate round trip.
+     * 
+     * @param size The batch size.
+     */
+    public void setBatchSize(int size) {
+        if (size < 1)
+            throw new IllegalArgumentException("Invalid batch size: " + size);
+        
+        this.batchSize = size;
+    }
 
     /**
      * Returns the id of a work. If the supplied work does not have an id set, this throws 
@@ -69,15 +123,213 @@ public class MySQLTokenRepository implements TokenRepository {
         return wId;
     }
     
+    /**
+     * Records the number of terms of a vocabulary that are known to be stored. Loading 
+     * and storing the terms of a vocabulary is serialized by locking this record, so 
+     * that the vocabularies of different works may be loaded and stored concurrently.
+     */
+    private static class StoredTerms {
+        /** Indicates whether the stored terms have been loaded or stored. */
+        boolean known = false;
+        int count = 0;
+    }
+    
+    /** Returns the record of the stored terms of a vocabulary, creating it if needed. */
+    private StoredTerms getStoredTerms(Vocabulary vocab) {
+        synchronized (storedTerms) {
+            StoredTerms stored = storedTerms.get(vocab);
+            if (stored == null) {
+                stored = new StoredTerms();
+                storedTerms.put(vocab, stored);
+            }
+            
+            return stored;
+        }
+    }
+    
+    /**
+     * Loads terms from the stored vocabulary of a work that have not yet been defined in 
+     * the work's in-memory vocabulary.
+     * 
+     * @param conn The database connection to use.
+     * @param w The work whose vocabulary should be loaded.
+     * @return The number of terms stored for this work.
+     * @throws SQLException if there are problems accessing the database.
+     */
+    int loadVocabulary(Connection conn, Work w) throws SQLException {
+        int WORK = 1, START = 2;
+        int TERM_ID = 1, TERM_TEXT = 2;
+        String sql = "SELECT term_id, term_text FROM texts_vocabulary " +
+                     " WHERE work_id = ? AND term_id >= ?" +
+                     " ORDER BY term_id";
+        
+        Long wId = getWorkId(w);
+        Vocabulary vocab = w.getVocabulary();
+        StoredTerms stored = getStoredTerms(vocab);
+        synchronized (stored) {
+            int count = stored.count;
+            
+            PreparedStatement stmt = conn.prepareStatement(sql);
+            ResultSet results = null;
+            try {
+                stmt.setLong(WORK, wId);
+                stmt.setInt(START, count);
+                
+                results = stmt.executeQuery();
+                while (results.next()) {
+                    int id = results.getInt(TERM_ID);
+                    vocab.define(id, results.getString(TERM_TEXT));
+                    count = id + 1;
+                }
+            } finally {
+                SQLResources.close(results);
+                SQLResources.close(stmt);
+            }
+            
+            stored.known = true;
+            stored.count = count;
+            return count;
+        }
+    }
+    
+    /**
+     * Stores any terms in a work's vocabulary that have been added since the vocabulary 
+     * was last stored. This must be called within the same transaction as the insertion 
+     * of the tokens that reference these terms. Once the transaction has been committed, 
+     * the caller must record the returned number of terms using <tt>markStored</tt>.
+     * 
+     * @param conn The database connection to use.
+     * @param w The work whose vocabulary should be stored.
+     * @return The number of terms in the vocabulary that have been stored. 
+     * @throws SQLException if there are problems accessing the database.
+     */
+    private int storeVocabulary(Connection conn, Work w) throws SQLException {
+        int WORK = 1, TERM_ID = 2, TERM_TEXT = 3;
+        
+        Long wId = getWorkId(w);
+        Vocabulary vocab = w.getVocabulary();
+        StoredTerms stored = getStoredTerms(vocab);
+        synchronized (stored) {
+            int start = stored.known ? stored.count : loadVocabulary(conn, w);
+            int end = vocab.size();
+            if (start < end) {
+                PreparedStatement stmt = conn.prepareStatement(CREATE_TERM_SQL);
+                try {
+                    for (int id = start; id < end; id++) {
+                        stmt.setLong(WORK, wId);
+                        stmt.setInt(TERM_ID, id);
+                        stmt.setString(TERM_TEXT, vocab.getTerm(id));
+                        stmt.addBatch();
+                    }
+                    
+                    stmt.executeBatch();
+                } finally {
+                    SQLResources.close(stmt);
+                }
+            }
+            
+            return end;
+        }
+    }
+    
+    /** Records the number of terms that have been stored for a work. */
+    private void markStored(Work w, int numTerms) {
+        StoredTerms stored = getStoredTerms(w.getVocabulary());
+        synchronized (stored) {
+            if (!stored.known || stored.count < numTerms) {
+                stored.known = true;
+                stored.count = numTerms;
+            }
+        }
+    }
+    
+    /**
+     * Updates the number of tokens recorded for a work to include tokens up to the 
+     * specified position. This must be called within the same transaction as the 
+     * insertion of those tokens. Once the transaction has been committed, the caller must
+     * record the count using <tt>markCounted</tt>.
+     * 
+     * @param conn The database connection to use.
+     * @param wId The id of the work whose tokens have been inserted.
+     * @param count The number of tokens in the work after the insertion. 
+     * @throws SQLException if there are problems accessing the database.
+     */
+    private void updateTokenCount(Connection conn, long wId, int count) throws SQLException {
+        int COUNT = 1, WORK = 2;
+        
+        PreparedStatement stmt = conn.prepareStatement(UPDATE_COUNT_SQL);
+        try {
+            stmt.setInt(COUNT, count);
+            stmt.setLong(WORK, wId);
+            stmt.executeUpdate();
+        } finally {
+            SQLResources.close(stmt);
+        }
+    }
+    
+    /** Records the number of tokens that have been stored for a work. */
+    private void markCounted(long wId, int count) {
+        synchronized (tokenCounts) {
+            Integer stored = tokenCounts.get(wId);
+            if (stored == null || stored < count) {
+                tokenCounts.put(wId, count);
+            }
+        }
+    }
+    
+    /**
+     * Discards the cached number of tokens for a work. This is called whenever the 
+     * stored tokens of a work may have changed in ways this repository cannot track.
+     * 
+     * @param wId The id of the work.
+     */
+    void invalidateTokenCount(long wId) {
+        synchronized (tokenCounts) {
+            tokenCounts.remove(wId);
+        }
+    }
+    
+    /**
+     * Discards all cached tokens, vocabulary state and token counts. This is called when
+     * changes that have already been recorded in these caches are rolled back.
+     */
+    void discardCaches() {
+        synchronized (storedTerms) {
+            storedTerms.clear();
+        }
+        synchronized (tokenCounts) {
+            tokenCounts.clear();
+        }
+        
+        cache = new Cache<Long, Token>("Tokens", 1000);
+    }
+    
+    /**
+     * Creates a token from its stored properties, resolving its text from the work's 
+     * vocabulary. Loads the vocabulary if the token's term has not yet been restored.
+     */
+    private Token restore(Connection conn, Work w, long id, int pos, UUID uuid, int termId, String type) 
+            throws SQLException {
+        if (w.getVocabulary().getTerm(termId) == null) {
+            loadVocabulary(conn, w);
+        }
+        
+        Token token = new Token(w, pos, termId, Token.Type.valueOf(type), uuid);
+        token.setId(id);
+        
+        return token;
+    }
+    
     /**
      * Restores a token from the provide result set. This assumes that the result set 
      * cursor is positioned at the row to be restored. This will not update the cursor.
      * 
+     * @param conn The connection used to generate the result set.
      * @param results The result set to use to restore the token.
      * @return The restored token.
      * @throws SQLException if there are problems accessing the result set.
      */
-    private Token restore(ResultSet results) throws SQLException {
+    private Token restore(Connection conn, ResultSet results) throws SQLException {
 
         Token token = null;
         synchronized (cache) {
@@ -91,16 +343,12 @@ public class MySQLTokenRepository implements TokenRepository {
 
                 // Retrieve the token parameters
                 int pos = results.getInt(POS);
-                String uuid = results.getString(UUID);
-                String text = results.getString(TEXT);
+                UUID uuid = BinaryUUID.get(results, UUID);
+                int termId = results.getInt(TERM);
                 String type = results.getString(TYPE);
 
                 // create the token and update the properties.
-                token = new Token(w, pos, text);
-                token.setId(id);
-                token.setUUIDString(uuid);
-                token.setType(Token.Type.valueOf(type));
-                
+                token = restore(conn, w, id, pos, uuid, termId, type);
                 cache.cache(id, token);
             }
         }
@@ -116,34 +364,44 @@ public class MySQLTokenRepository implements TokenRepository {
     public Token create(Token t) {
         
 
-        Long wId = getWorkId(t.getWork());
+        Work w = t.getWork();
+        Long wId = getWorkId(w);
         Connection conn = null;
+        PreparedStatement stmt = null;
+        ResultSet results = null;
         try {
             conn = repo.openConnection();
+            int numTerms = storeVocabulary(conn, w);
 
-            PreparedStatement stmt = conn.prepareStatement(CREATE_SQL, 
+            stmt = conn.prepareStatement(CREATE_SQL, 
                     PreparedStatement.RETURN_GENERATED_KEYS);
-            stmt.setString(1, t.getUUID().toString());
+            BinaryUUID.set(stmt, 1, t.getUUID());
             stmt.setLong(2, wId);
             stmt.setLong(3, t.getPosition());
-            stmt.setString(4, t.getText());
+            stmt.setInt(4, t.getTermId());
             stmt.setString(5, t.getType().toString());
             
             int numRowsChanged = stmt.executeUpdate();
-            ResultSet results = stmt.getGeneratedKeys();
+            results = stmt.getGeneratedKeys();
             if (numRowsChanged == 1 && results.next()) {
                 long id = results.getLong(1);
                 t.setId(id);
             }
             
+            updateTokenCount(conn, wId, t.getPosition() + 1);
             conn.commit();
+            markStored(w, numTerms);
+            markCounted(wId, t.getPosition() + 1);
         } catch (Exception ex) {
             repo.rollbackConnection(conn);
+            invalidateTokenCount(wId);
             String msg = "Could not create token: " + t.getUUID() + ". " + ex.getMessage();
         
             LOGGER.warn(msg, ex);
             t = null;
         } finally {
+            SQLResources.close(results);
+            SQLResources.close(stmt);
             repo.closeConnection(conn);
         }
         
@@ -159,65 +417,68 @@ public class MySQLTokenRepository implements TokenRepository {
             return tokens;
         }
 
-        Long wId = getWorkId(tokens.get(0).getWork());
+        Work w = tokens.get(0).getWork();
+        Long wId = getWorkId(w);
         Connection conn = null;
+        PreparedStatement stmt = null;
+        ResultSet results = null;
         try {
             conn = repo.openConnection();
-            StringBuilder sqlBuilder = new StringBuilder();
-            sqlBuilder.append("INSERT INTO texts_tokens (uuid, work_id, token_pos, token_text, token_type) VALUES");
+            int numTerms = storeVocabulary(conn, w);
             
-            boolean first = true;
-            int sz = tokens.size();
-            for (int i = 0; i < sz; i++) {
-                if (first) first = false;
-                else 
-                    sqlBuilder.append(", ");
-                
-                sqlBuilder.append("(?, ").append(wId).append(", ?, ?, ?)");
-            }
-                    
-            PreparedStatement stmt = conn.prepareStatement(sqlBuilder.toString(), 
+            // insert the tokens in fixed size batches using a single statement
+            stmt = conn.prepareStatement(CREATE_SQL, 
                     PreparedStatement.RETURN_GENERATED_KEYS);
             
             Token t = null;
-            for (int i = 0; i < sz; i++) {
-                t = tokens.get(i);
+            int count = 0;
+            int sz = tokens.size();
+            int batch = this.batchSize;
+            for (int from = 0; from < sz; from += batch) {
+                int to = Math.min(sz, from + batch);
+                for (int i = from; i < to; i++) {
+                    t = tokens.get(i);
+                    count = Math.max(count, t.getPosition() + 1);
+                    
+                    BinaryUUID.set(stmt, 1, t.getUUID());
+                    stmt.setLong(2, wId);
+                    stmt.setLong(3, t.getPosition());
+                    stmt.setInt(4, t.getTermId());
+                    stmt.setString(5, t.getType().toString());
+                    stmt.addBatch();
+                }
                 
-                int offset = i * 4;
-                stmt.setString(offset + 1, t.getUUID().toString());
-                stmt.setLong(offset + 2, t.getPosition());
-                stmt.setString(offset + 3, t.getText());
-                stmt.setString(offset + 4, t.getType().toString());
-            }
-            
-            int numRowsChanged = stmt.executeUpdate();
-            ResultSet results = stmt.getGeneratedKeys();
-            if (numRowsChanged != sz) {
-                // THEN WE HAVE A PROBLEM
-                throw new Exception("Unexpected number of rows changed") ;
-            }
-            
-            for (int i = 0; i < sz; i++) {
-                if (!results.next()) {
-                    throw new Exception("No ID found: " + i);
-                    // THEN WE HAVE A PROBLEM
+                stmt.executeBatch();
+                results = stmt.getGeneratedKeys();
+                for (int i = from; i < to; i++) {
+                    if (!results.next()) {
+                        throw new Exception("No ID found: " + i);
+                    }
+                    
+                    tokens.get(i).setId(results.getLong(1));
                 }
                 
-                t = tokens.get(i);
-                long id = results.getLong(1);
-                t.setId(id);
+                SQLResources.close(results);
+                results = null;
             }
             
+            updateTokenCount(conn, wId, count);
+            
             timer.start();
             conn.commit();
             timer.pause();
+            markStored(w, numTerms);
+            markCounted(wId, count);
         } catch (Exception ex) {
             repo.rollbackConnection(conn);
+            invalidateTokenCount(wId);
             String msg = "Could not create tokens: " + ex.getMessage();
         
             LOGGER.warn(msg, ex);
             tokens = null;      // should throw exception
         } finally {
+            SQLResources.close(results);
+            SQLResources.close(stmt);
             repo.closeConnection(conn);
         }
         
@@ -230,30 +491,39 @@ public class MySQLTokenRepository implements TokenRepository {
      */
     @Override
     public int getNumberOfTokens(Work work) {
-        int WORK_ID = 1, NEXT_POS = 1;
-        String sql = 
-            "SELECT COALESCE(MAX(token_pos), -1) + 1 " +
-            "  FROM texts_tokens" +
-            " WHERE work_id = ?";
+        int WORK_ID = 1, TOKEN_COUNT = 1;
+        String sql = "SELECT token_count FROM texts_works WHERE work_id = ?";
         
         int pos = -1;
         Long wId = getWorkId(work);
+        synchronized (tokenCounts) {
+            Integer count = tokenCounts.get(wId);
+            if (count != null)
+                return count;
+        }
+        
         Connection conn = null;
+        PreparedStatement stmt = null;
+        ResultSet results = null;
         try {
             conn = repo.openReadOnlyConnection();
-            PreparedStatement stmt = conn.prepareStatement(sql);
+            stmt = conn.prepareStatement(sql);
             stmt.setLong(WORK_ID, wId);
             
-            ResultSet results = stmt.executeQuery();
-            if (results.next())
-                pos = results.getInt(NEXT_POS);
+            results = stmt.executeQuery();
+            if (results.next()) {
+                pos = results.getInt(TOKEN_COUNT);
+                markCounted(wId, pos);
+            }
             
         } catch (Exception ex) {
-            String msg = "Could not retrieve max position for work " +
+            String msg = "Could not retrieve token count for work " +
             		"(id=" + wId + "): " + ex.getMessage();
             LOGGER.warn(msg, ex);
             pos = -1;
         } finally {
+            SQLResources.close(results);
+            SQLResources.close(stmt);
             repo.closeConnection(conn);
         }
         
@@ -266,20 +536,24 @@ public class MySQLTokenRepository implements TokenRepository {
         
         Token token = null;
         Connection conn = null;
+        PreparedStatement stmt = null;
+        ResultSet results = null;
         try {
             conn = repo.openReadOnlyConnection();
-            PreparedStatement stmt = conn.prepareStatement(sql);
-            stmt.setString(1, uuid.toString());
+            stmt = conn.prepareStatement(sql);
+            BinaryUUID.set(stmt, 1, uuid);
             
-            ResultSet results = stmt.executeQuery();
+            results = stmt.executeQuery();
             if (results.next()) {
-                token = restore(results);
+                token = restore(conn, results);
             }
         } catch (Exception ex) {
             String msg = "Could not retrieve token (" + uuid.toString() + "): " + ex.getMessage();
             LOGGER.warn(msg, ex);
             token = null;
         } finally {
+            SQLResources.close(results);
+            SQLResources.close(stmt);
             repo.closeConnection(conn);
         }
         
@@ -291,29 +565,32 @@ public class MySQLTokenRepository implements TokenRepository {
      */
     @Override
     public Token find(Work w, int pos) {
+        int WORK = 1, POS = 2;
         Long wId = getWorkId(w);
         String sql = "SELECT " + FIELDS + 
                      "  FROM texts_tokens" +
-                     " WHERE work_id = " + wId + " AND token_pos = " + pos;
+                     " WHERE work_id = ? AND token_pos = ?";
         
         assert pos >= 0 : "Position must be non-negative";
         
         Token token = null;
         Connection conn = null;
+        PreparedStatement stmt = null;
+        ResultSet results = null;
         try {
             conn = repo.openReadOnlyConnection();
-            Statement stmt = conn.createStatement();
-            ResultSet results = stmt.executeQuery(sql);
+            stmt = conn.prepareStatement(sql);
+            stmt.setLong(WORK, wId);
+            stmt.setInt(POS, pos);
+            
+            results = stmt.executeQuery();
             if (results.next()) {
                 long id = results.getLong(ID);
-                String uuidStr = results.getString(UUID);
-                String text = results.getString(TEXT);
+                UUID uuid = BinaryUUID.get(results, UUID);
+                int termId = results.getInt(TERM);
                 String type = results.getString(TYPE);
                 
-                token = new Token(w, pos, text);
-                token.setId(id);
-                token.setUUIDString(uuidStr);
-                token.setType(Token.Type.valueOf(type));
+                token = restore(conn, w, id, pos, uuid, termId, type);
             }
         } catch (Exception ex) {
             String msg = "Could not retrieve token " +
@@ -321,6 +598,8 @@ public class MySQLTokenRepository implements TokenRepository {
             LOGGER.warn(msg, ex);
             token = null;
         } finally {
+            SQLResources.close(results);
+            SQLResources.close(stmt);
             repo.closeConnection(conn);
         }
         
@@ -339,37 +618,119 @@ public class MySQLTokenRepository implements TokenRepository {
     @Override
     public List<Token> find(Work w, int start, int end) {
         int WORK = 1, START = 2, END = 3;
-        String sql = "SELECT " + FIELDS + "FROM texts_tokens " +
-        		     " WHERE work_id = ? " +
-        		     "   AND token_pos >= ? AND token_pos < ?" +
-        		     " ORDER BY token_pos"; 
         
         assert start >= 0 : "Starting position must be non-negative";
         assert end > start : "The ending position must be greater than the starting position";
         
-        List<Token> tokens = new ArrayList<Token>(end - start);
+        // the range may extend well past the end of the work
+        List<Token> tokens = new ArrayList<Token>(Math.max(0, Math.min(end - start, PAGE_SIZE)));
         Connection conn = null;
+        PreparedStatement stmt = null;
+        ResultSet results = null;
         try {
             conn = repo.openReadOnlyConnection();
-            PreparedStatement stmt = conn.prepareStatement(sql);
+            stmt = conn.prepareStatement(FIND_RANGE_SQL);
             stmt.setLong(WORK, getWorkId(w));
             stmt.setInt(START, start);
             stmt.setInt(END, end);
             
-            ResultSet results = stmt.executeQuery();
+            results = stmt.executeQuery();
             while (results.next()) {
-                tokens.add(restore(results));
+                tokens.add(restore(conn, results));
             }
         } catch (Exception ex) {
             String msg = "Could not retrieve tokens (" + "): " + ex.getMessage();
             LOGGER.warn(msg, ex);
             tokens = null;
         } finally {
+            SQLResources.close(results);
+            SQLResources.close(stmt);
             repo.closeConnection(conn);
         }
         
         return tokens;
     }
+    
+    /**
+     * Passes the tokens in the range <tt>[start, end)</tt> to a visitor. The tokens are 
+     * read in pages of {@link #PAGE_SIZE} positions, each using a separate query whose 
+     * results are released before its tokens are visited. This keeps the memory used 
+     * by both this repository and the driver, which buffers each result set in full, 
+     * independent of the size of the range, and allows the visitor to use the 
+     * repositories while visiting. Unlike <tt>find</tt>, the tokens are not cached.
+     * 
+     * @see org.idch.texts.TokenRepository#forEach(org.idch.texts.Work, int, int, org.idch.texts.TokenVisitor)
+     */
+    @Override
+    public boolean forEach(Work w, int start, int end, TokenVisitor visitor) {
+        assert start >= 0 : "Starting position must be non-negative";
+        
+        int size = getNumberOfTokens(w);
+        if (size < 0)
+            return false;
+        
+        end = Math.min(end, size);
+        List<Token> page = new ArrayList<Token>(PAGE_SIZE);
+        for (int from = start; from < end; from += PAGE_SIZE) {
+            page.clear();
+            if (!read(w, from, Math.min(end, from + PAGE_SIZE), page))
+                return false;
+            
+            for (Token t : page) {
+                if (!visitor.visit(t))
+                    return false;
+            }
+        }
+        
+        return true;
+    }
+    
+    /**
+     * Reads the tokens in the range <tt>[start, end)</tt> into the supplied list without
+     * caching them.
+     * 
+     * @return <tt>true</tt> if the tokens were read, <tt>false</tt> if they could not be.
+     */
+    private boolean read(Work w, int start, int end, List<Token> tokens) {
+        int WORK = 1, START = 2, END = 3;
+        
+        long wId = getWorkId(w);
+        boolean success = false;
+        Connection conn = null;
+        PreparedStatement stmt = null;
+        ResultSet results = null;
+        try {
+            conn = repo.openReadOnlyConnection();
+            stmt = conn.prepareStatement(FIND_RANGE_SQL);
+            stmt.setLong(WORK, wId);
+            stmt.setInt(START, start);
+            stmt.setInt(END, end);
+            
+            results = stmt.executeQuery();
+            while (results.next()) {
+                long id = results.getLong(ID);
+                int pos = results.getInt(POS);
+                UUID uuid = BinaryUUID.get(results, UUID);
+                int termId = results.getInt(TERM);
+                String type = results.getString(TYPE);
+                
+                tokens.add(restore(conn, w, id, pos, uuid, termId, type));
+            }
+            
+            success = true;
+        } catch (Exception ex) {
+            String msg = "Could not retrieve tokens " +
+                    "(workId=" + wId + ", start=" + start + ", end=" + end + "): " + 
+                    ex.getMessage();
+            LOGGER.warn(msg, ex);
+        } finally {
+            SQLResources.close(results);
+            SQLResources.close(stmt);
+            repo.closeConnection(conn);
+        }
+        
+        return success;
+    }
 
     /**
      * Looks up the set of tokens associated with a particular structure. 
@@ -0,0 +1,325 @@
+/**
+ *
+ */
+package org.idch.texts.persist.mysql;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+import org.idch.persist.RepositoryAccessException;
+import org.idch.texts.UnitOfWork;
+
+
+/**
+ * A unit of work that binds a single connection to the thread that began it. The
+ * repositories of a {@link MySQLTextModule} obtain their connections from the module, which
+ * returns a proxy for the bound connection while a unit of work is active. The proxy
+ * ignores <tt>commit</tt> and <tt>close</tt>, so that changes are committed only at the
+ * unit's checkpoints. A rollback requested by a repository discards the changes made
+ * since the last checkpoint and causes the unit to fail: subsequent checkpoints throw an
+ * exception, since the changes they would commit may depend on the discarded ones.
+ *
+ * <p>The statements prepared on the bound connection are kept until the unit ends, so
+ * that a repository that runs the same query many times prepares it once. Closing one of
+ * these statements returns it to the unit for reuse.
+ *
+ * @author Neal Audenaert
+ */
+class MySQLUnitOfWork implements UnitOfWork {
+    private final static Logger LOGGER = Logger.getLogger(MySQLUnitOfWork.class);
+
+    /** The maximum number of prepared statements kept for reuse. */
+    final static int MAX_STATEMENTS = 64;
+
+    private final MySQLTextModule repo;
+    private final Connection conn;
+    private final Connection proxy;
+
+    /** The number of units that have joined this one and have not yet ended. */
+    private int joined = 0;
+    private boolean failed = false;
+    private boolean ended = false;
+
+    /** Prepared statements kept for reuse, keyed by their SQL. */
+    private final Map<String, PreparedStatement> statements =
+            new HashMap<String, PreparedStatement>();
+
+    /** The keys of kept statements that are in use and have not yet been closed. */
+    private final Set<String> inUse = new HashSet<String>();
+
+    /**
+     * @param repo The module whose repositories join this unit of work.
+     * @param conn The connection to bind. This must not be in auto-commit mode.
+     */
+    MySQLUnitOfWork(MySQLTextModule repo, Connection conn) {
+        this.repo = repo;
+        this.conn = conn;
+        this.proxy = (Connection)Proxy.newProxyInstance(
+                Connection.class.getClassLoader(),
+                new Class<?>[] { Connection.class },
+                new BoundConnection());
+    }
+
+    //===================================================================================
+    // CONNECTION MANAGEMENT
+    //===================================================================================
+
+    /** Returns the connection to be used by repositories. */
+    Connection getConnection() {
+        return this.proxy;
+    }
+
+    /** Indicates whether a connection was supplied by this unit of work. */
+    boolean owns(Connection c) {
+        return c == this.proxy;
+    }
+
+    /**
+     * Discards the changes made since the last checkpoint and marks this unit as failed.
+     * This is called when a repository rolls back the bound connection.
+     */
+    void fail() {
+        if (ended)
+            return;
+
+        failed = true;
+        try {
+            conn.rollback();
+        } catch (SQLException ex) {
+            LOGGER.warn("Could not roll back unit of work.", ex);
+        }
+
+        repo.discardCaches();
+    }
+
+    /** Releases the bound connection. */
+    private void end() {
+        if (ended)
+            return;
+
+        ended = true;
+        repo.unbind(this);
+        for (PreparedStatement stmt : statements.values()) {
+            SQLResources.close(stmt);
+        }
+        statements.clear();
+        inUse.clear();
+        repo.closeConnection(conn);
+    }
+
+    /** Returns a unit of work that joins this one. */
+    UnitOfWork join() {
+        joined++;
+        return new UnitOfWork() {
+            private boolean active = true;
+
+            public void checkpoint() throws RepositoryAccessException {
+                if (failed)
+                    throw new RepositoryAccessException("The unit of work has been rolled back.");
+            }
+
+            public void commit() throws RepositoryAccessException {
+                checkpoint();
+                if (active) {
+                    active = false;
+                    joined--;
+                }
+            }
+
+            public void rollback() {
+                if (active) {
+                    active = false;
+                    joined--;
+                    fail();
+                }
+            }
+        };
+    }
+
+    //===================================================================================
+    // UNIT OF WORK METHODS
+    //===================================================================================
+
+    public void checkpoint() throws RepositoryAccessException {
+        if (ended)
+            throw new IllegalStateException("The unit of work has ended.");
+        if (failed)
+            throw new RepositoryAccessException("The unit of work has been rolled back.");
+
+        try {
+            conn.commit();
+        } catch (SQLException ex) {
+            fail();
+            throw new RepositoryAccessException("Could not commit the unit of work.", ex);
+        }
+    }
+
+    public void commit() throws RepositoryAccessException {
+        if (joined > 0)
+            LOGGER.warn("Committing a unit of work that has " + joined + " active nested units.");
+
+        try {
+            checkpoint();
+        } finally {
+            end();
+        }
+    }
+
+    public void rollback() {
+        if (ended)
+            return;
+
+        fail();
+        end();
+    }
+
+    //===================================================================================
+    // STATEMENT CACHE
+    //===================================================================================
+
+    /**
+     * Returns a prepared statement for the supplied SQL, reusing the statement that was
+     * prepared for it earlier if that statement is not in use. A statement is in use if
+     * it was prepared by a call that is still running, for example a query that invokes
+     * another repository method for each of its rows.
+     *
+     * @param m The <tt>prepareStatement</tt> method to invoke on the bound connection.
+     * @param args The SQL and, optionally, whether generated keys should be returned.
+     */
+    private PreparedStatement prepare(Method m, Object[] args) throws Throwable {
+        String key = (args.length == 1) ? (String)args[0] : args[1] + ":" + args[0];
+        PreparedStatement stmt = statements.get(key);
+        if (stmt == null) {
+            stmt = (PreparedStatement)delegate(m, args);
+            if (statements.size() >= MAX_STATEMENTS)
+                return stmt;
+
+            statements.put(key, stmt);
+        } else if (inUse.contains(key)) {
+            return (PreparedStatement)delegate(m, args);
+        }
+
+        inUse.add(key);
+        return (PreparedStatement)Proxy.newProxyInstance(
+                PreparedStatement.class.getClassLoader(),
+                new Class<?>[] { PreparedStatement.class },
+                new KeptStatement(key, stmt));
+    }
+
+    /** Invokes a method on the bound connection. */
+    private Object delegate(Method m, Object[] args) throws Throwable {
+        try {
+            return m.invoke(conn, args);
+        } catch (InvocationTargetException ite) {
+            throw ite.getCause();
+        }
+    }
+
+    /**
+     * Passes calls to a kept statement until it is closed, which returns the statement
+     * to the unit of work with its parameters cleared.
+     */
+    private class KeptStatement implements InvocationHandler {
+        private final String key;
+        private final PreparedStatement stmt;
+        private boolean closed = false;
+
+        KeptStatement(String key, PreparedStatement stmt) {
+            this.key = key;
+            this.stmt = stmt;
+        }
+
+        public Object invoke(Object p, Method m, Object[] args) throws Throwable {
+            String name = m.getName();
+            int argc = (args != null) ? args.length : 0;
+            if (argc == 0 && name.equals("close")) {
+                release();
+                return null;
+            } else if (argc == 0 && name.equals("isClosed")) {
+                return closed;
+            } else if (argc == 0 && name.equals("getConnection")) {
+                return proxy;
+            } else if (argc == 1 && name.equals("equals")) {
+                return p == args[0];
+            } else if (argc == 0 && name.equals("hashCode")) {
+                return System.identityHashCode(p);
+            }
+
+            if (closed)
+                throw new SQLException("The statement has been closed.");
+
+            try {
+                return m.invoke(stmt, args);
+            } catch (InvocationTargetException ite) {
+                throw ite.getCause();
+            }
+        }
+
+        private void release() {
+            if (closed)
+                return;
+
+            closed = true;
+            inUse.remove(key);
+            if (ended)
+                return;
+
+            try {
+                stmt.clearParameters();
+                stmt.clearBatch();
+            } catch (SQLException ex) {
+                LOGGER.warn("Could not reset prepared statement. It will not be reused.", ex);
+                statements.remove(key);
+                SQLResources.close(stmt);
+            }
+        }
+    }
+
+    //===================================================================================
+    // BOUND CONNECTION
+    //===================================================================================
+
+    /**
+     * Passes calls to the bound connection, except those that would end its transaction.
+     */
+    private class BoundConnection implements InvocationHandler {
+        public Object invoke(Object p, Method m, Object[] args) throws Throwable {
+            String name = m.getName();
+            int argc = (args != null) ? args.length : 0;
+            if (argc == 0 && (name.equals("commit") || name.equals("close"))) {
+                return null;
+            } else if (argc == 0 && name.equals("rollback")) {
+                fail();
+                return null;
+            } else if (argc == 0 && name.equals("isClosed")) {
+                return ended;
+            } else if (argc == 1 && name.equals("setAutoCommit")) {
+                return null;
+            } else if (argc == 1 && name.equals("equals")) {
+                return p == args[0];
+            } else if (argc == 0 && name.equals("hashCode")) {
+                return System.identityHashCode(p);
+            }
+
+            if (ended)
+                throw new SQLException("The unit of work has ended.");
+
+            if (name.equals("prepareStatement")
+                    && (argc == 1 || (argc == 2 && args[1] instanceof Integer))) {
+                return prepare(m, args);
+            }
+
+            return delegate(m, args);
+        }
+    }
+}
@@ -53,7 +53,7 @@ public class MySQLWorkRepository implements WorkRepository {
     
     MySQLTextModule repo = null;
     
-    private Cache<String, Work> worksByUUID = new Cache<String, Work>("works", 20);
+    private Cache<UUID, Work> worksByUUID = new Cache<UUID, Work>("works", 20);
     private Cache<Long, Work> worksById = new Cache<Long, Work>("works", 20);
     private Object cacheMutex = new Object();
     
@@ -61,6 +61,14 @@ public class MySQLWorkRepository implements WorkRepository {
         this.repo = repo;
     }
     
+    /** Discards all cached works. */
+    void discardCaches() {
+        synchronized (cacheMutex) {
+            worksByUUID = new Cache<UUID, Work>("works", 20);
+            worksById = new Cache<Long, Work>("works", 20);
+        }
+    }
+    
 
     /**
      * 
@@ -86,13 +94,15 @@ public class MySQLWorkRepository implements WorkRepository {
         String sql = "INSERT INTO texts_works (" + FIELDS +") " +
         		     "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
         Connection conn = null;
+        PreparedStatement stmt = null;
+        ResultSet results = null;
         try {
             // build the statement
             conn = repo.openConnection();
-            PreparedStatement stmt = conn.prepareStatement(sql, 
+            stmt = conn.prepareStatement(sql, 
                     PreparedStatement.RETURN_GENERATED_KEYS);
             
-            stmt.setString(UUID, w.getUUID().toString());
+            BinaryUUID.set(stmt, UUID, w.getUUID());
             stmt.setString(TITLE, w.getTitle());
             stmt.setString(ABBV, w.getAbbreviation());
             stmt.setString(DESC, w.getDescription());
@@ -115,7 +125,7 @@ public class MySQLWorkRepository implements WorkRepository {
             
             // execute the query
             int numRowsChanged = stmt.executeUpdate();
-            ResultSet results = stmt.getGeneratedKeys();
+            results = stmt.getGeneratedKeys();
             if (numRowsChanged == 1 && results.next()) {
                 long id = results.getLong(1);
                 w.setId(id);
@@ -129,6 +139,8 @@ public class MySQLWorkRepository implements WorkRepository {
             LOGGER.warn(msg, ex);
             w = null;
         } finally {
+            SQLResources.close(results);
+            SQLResources.close(stmt);
             repo.closeConnection(conn);
         }
         
@@ -136,7 +148,7 @@ public class MySQLWorkRepository implements WorkRepository {
     }
 
     private Work restore(Work w, ResultSet results) throws SQLException {
-        w.setUUIDString(results.getString(UUID));
+        w.setUUID(BinaryUUID.get(results, UUID));
         w.setTitle(results.getString(TITLE));
         w.setAbbreviation(results.getString(ABBV));
         w.setDescription(results.getString(DESC));
@@ -164,7 +176,7 @@ public class MySQLWorkRepository implements WorkRepository {
                 w = synchronize(new Work(id));
                 
                 if (w != null) {
-                    worksByUUID.cache(w.getUUID().toString(), w);
+                    worksByUUID.cache(w.getUUID(), w);
                     worksById.cache(w.getId(), w);
                 }
             }
@@ -176,12 +188,12 @@ public class MySQLWorkRepository implements WorkRepository {
     public Work find(UUID id) {
         Work w = null;
         synchronized (cacheMutex) {
-            w = worksByUUID.get(id.toString());
+            w = worksByUUID.get(id);
             if (w == null) {
                 w = synchronize(new Work(id));
                 
                 if (w != null) {
-                    worksByUUID.cache(w.getUUID().toString(), w);
+                    worksByUUID.cache(w.getUUID(), w);
                     worksById.cache(w.getId(), w);
                 }
             }
@@ -192,7 +204,9 @@ public class MySQLWorkRepository implements WorkRepository {
     
     /**
      * Synchronizes the state of the supplied work with the database. Any changes to the 
-     * work will be overridden with the latest values from the database. 
+     * work will be overridden with the latest values from the database. The stored 
+     * vocabulary of the work is loaded, so that new terms are not assigned the ids of 
+     * terms that have already been stored.
      * 
      * @param w The work to be synchronized.
      * @return The synchronized work instance.
@@ -215,16 +229,18 @@ public class MySQLWorkRepository implements WorkRepository {
         }
         
         Connection conn = null;
+        PreparedStatement stmt = null;
+        ResultSet results = null;
         try {
             conn = repo.openReadOnlyConnection();
-            PreparedStatement stmt = conn.prepareStatement(sql);
+            stmt = conn.prepareStatement(sql);
             if (useUUID) {
-                stmt.setString(1, w.getUUID().toString());
+                BinaryUUID.set(stmt, 1, w.getUUID());
             } else {
                 stmt.setLong(1, w.getId());
             }
             
-            ResultSet results = stmt.executeQuery();
+            results = stmt.executeQuery();
             if (results.next()) {
                 if (useUUID) 
                     w.setId(results.getLong(WORK_ID));
@@ -233,11 +249,16 @@ public class MySQLWorkRepository implements WorkRepository {
             } else {
                 w = null;
             }
+            
+            if (w != null)
+                repo.loadVocabulary(conn, w);
         } catch (Exception ex) {
             String msg = "Could not retrieve work (" + ident + "): " + ex.getMessage();
             LOGGER.warn(msg, ex);
             w = null;
         } finally {
+            SQLResources.close(results);
+            SQLResources.close(stmt);
             repo.closeConnection(conn);
         }
         
@@ -256,22 +277,30 @@ public class MySQLWorkRepository implements WorkRepository {
         
         List<Work> works = new ArrayList<Work>();
         Connection conn = null;
+        PreparedStatement stmt = null;
+        ResultSet results = null;
         try {
             conn = repo.openReadOnlyConnection();
-            PreparedStatement stmt = conn.prepareStatement(sql);
+            stmt = conn.prepareStatement(sql);
             stmt.setString(worktype, type);
             
             Work w = null;
-            ResultSet results = stmt.executeQuery();
+            results = stmt.executeQuery();
             while (results.next()) {
                 w = new Work(results.getLong(WORK_ID));
                 works.add(restore(w, results));
             }
+            
+            for (Work restored : works) {
+                repo.loadVocabulary(conn, restored);
+            }
         } catch (Exception ex) {
             String msg = "Could not retrieve works by type (" + type + "): " + ex.getMessage();
             LOGGER.warn(msg, ex);
             works.clear();
         } finally {
+            SQLResources.close(results);
+            SQLResources.close(stmt);
             repo.closeConnection(conn);
         }
         
@@ -290,23 +319,31 @@ public class MySQLWorkRepository implements WorkRepository {
         
         List<Work> works = new ArrayList<Work>();
         Connection conn = null;
+        PreparedStatement stmt = null;
+        ResultSet results = null;
         try {
             conn = repo.openReadOnlyConnection();
-            PreparedStatement stmt = conn.prepareStatement(sql);
+            stmt = conn.prepareStatement(sql);
             stmt.setString(worktype, type);
             stmt.setString(lg, lgCode);
             
             Work w = null;
-            ResultSet results = stmt.executeQuery();
+            results = stmt.executeQuery();
             while (results.next()) {
                 w = new Work(results.getLong(WORK_ID));
                 works.add(restore(w, results));
             }
+            
+            for (Work restored : works) {
+                repo.loadVocabulary(conn, restored);
+            }
         } catch (Exception ex) {
             String msg = "Could not retrieve works by type (" + type + "): " + ex.getMessage();
             LOGGER.warn(msg, ex);
             works.clear();
         } finally {
+            SQLResources.close(results);
+            SQLResources.close(stmt);
             repo.closeConnection(conn);
         }
         
@@ -327,22 +364,30 @@ public class MySQLWorkRepository implements WorkRepository {
        
         List<Work> works = new ArrayList<Work>();
         Connection conn = null;
+        PreparedStatement stmt = null;
+        ResultSet results = null;
         try {
             conn = repo.openReadOnlyConnection();
-            PreparedStatement stmt = conn.prepareStatement(sql);
+            stmt = conn.prepareStatement(sql);
             stmt.setString(abbr, abbreviation);
             
             Work w = null;
-            ResultSet results = stmt.executeQuery();
+            results = stmt.executeQuery();
             while (results.next()) {
                 w = new Work(results.getLong(WORK_ID));
                 works.add(restore(w, results));
             }
+            
+            for (Work restored : works) {
+                repo.loadVocabulary(conn, restored);
+            }
         } catch (Exception ex) {
             String msg = "Could not retrieve works by abbreviation (" + abbreviation + "): " + ex.getMessage();
             LOGGER.warn(msg, ex);
             works.clear();
         } finally {
+            SQLResources.close(results);
+            SQLResources.close(stmt);
             repo.closeConnection(conn);
         }
        
@@ -372,10 +417,11 @@ public class MySQLWorkRepository implements WorkRepository {
         
         boolean success = false;
         Connection conn = null;
+        PreparedStatement stmt = null;
         try {
             // build the statement
             conn = repo.openConnection();
-            PreparedStatement stmt = conn.prepareStatement(sql);
+            stmt = conn.prepareStatement(sql);
             
             stmt.setLong(ID, w.getId());
             
@@ -418,6 +464,7 @@ public class MySQLWorkRepository implements WorkRepository {
             LOGGER.warn(msg, ex);
             w = null;
         } finally {
+            SQLResources.close(stmt);
             repo.closeConnection(conn);
         }
         
@@ -425,8 +472,7 @@ public class MySQLWorkRepository implements WorkRepository {
     }
     
     /**
-     * Removes the indicated work and all associated tokens. Note that this does not remove 
-     * any structures associated with this work. 
+     * Removes the indicated work along with all associated tokens and structures.
      */
     public boolean remove(Work w) {
         int ID = 1;
@@ -434,10 +480,11 @@ public class MySQLWorkRepository implements WorkRepository {
         
         boolean success = false;
         Connection conn = null;
+        PreparedStatement stmt = null;
         try {
             // build the statement
             conn = repo.openConnection();
-            PreparedStatement stmt = conn.prepareStatement(sql);
+            stmt = conn.prepareStatement(sql);
             
             stmt.setLong(ID, w.getId());
             
@@ -449,8 +496,9 @@ public class MySQLWorkRepository implements WorkRepository {
                             "while removing a work (" + w.getUUID() + "). Expected 1.");
                 repo.rollbackConnection(conn);
             } else {
-                w.setId(null);
                 conn.commit();
+                repo.invalidateTokenCount(w.getId());
+                w.setId(null);
             }
             
         } catch (Exception ex) {
@@ -459,6 +507,7 @@ public class MySQLWorkRepository implements WorkRepository {
             String msg = "Could not remove work: " + w.getWorkId() + ". " + ex.getMessage();
             LOGGER.warn(msg, ex);
         } finally {
+            SQLResources.close(stmt);
             repo.closeConnection(conn);
         }
         
@@ -0,0 +1,51 @@
+/**
+ *
+ */
+package org.idch.texts.persist.mysql;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.apache.log4j.Logger;
+
+
+/**
+ * Releases the statements and result sets opened by the MySQL repositories. Pooled
+ * connections are not closed when a repository is done with them, so the statements
+ * created on them must be closed explicitly. These methods are intended to be called from
+ * <tt>finally</tt> blocks: they accept <tt>null</tt> and log, rather than throw, any
+ * error raised while closing.
+ *
+ * @author Neal Audenaert
+ */
+final class SQLResources {
+    private final static Logger LOGGER = Logger.getLogger(SQLResources.class);
+
+    private SQLResources() {
+    }
+
+    /** Closes a result set, if one was opened. */
+    static void close(ResultSet results) {
+        if (results == null)
+            return;
+
+        try {
+            results.close();
+        } catch (SQLException ex) {
+            LOGGER.warn("Could not close result set: " + ex.getMessage(), ex);
+        }
+    }
+
+    /** Closes a statement, along with any result set it has open. */
+    static void close(Statement stmt) {
+        if (stmt == null)
+            return;
+
+        try {
+            stmt.close();
+        } catch (SQLException ex) {
+            LOGGER.warn("Could not close statement: " + ex.getMessage(), ex);
+        }
+    }
+}
@@ -0,0 +1,151 @@
+/**
+ * 
+ */
+package org.idch.texts;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+import junit.framework.TestCase;
+
+/**
+ * @author Neal Audenaert
+ */
+public class StructureComparatorTests extends TestCase {
+    
+    private static final int NUM_STRUCTURES = 100000;
+    private static final String[] NAMES = { "verse", "paragraph", "speaker", "quote" };
+    
+    private final UUID work = UUID.randomUUID();
+    private final StructureComparator comparator = new StructureComparator();
+    
+    private Structure create(String name, int start, int end) {
+        Structure s = new Structure(work, name);
+        s.setStartTokenPosition(start);
+        s.setEndTokenPosition(end);
+        return s;
+    }
+    
+    /** 
+     * Returns structures with few distinct positions, so that many are ordered by their
+     * names and UUIDs. 
+     */
+    private Structure[] createStructures() {
+        Random random = new Random(11);
+        Structure[] structures = new Structure[NUM_STRUCTURES];
+        for (int i = 0; i < NUM_STRUCTURES; i++) {
+            int start = random.nextInt(100);
+            structures[i] = create(NAMES[random.nextInt(NAMES.length)], 
+                    start, start + random.nextInt(3));
+            structures[i].setUUID(new UUID(random.nextLong(), random.nextLong()));
+        }
+        
+        return structures;
+    }
+    
+    /** 
+     * Returns the number of bytes allocated by the current thread, or <tt>-1</tt> if the
+     * JVM does not report this.
+     */
+    private static long allocated() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (!(threads instanceof com.sun.management.ThreadMXBean))
+            return -1;
+        
+        com.sun.management.ThreadMXBean mx = (com.sun.management.ThreadMXBean)threads;
+        if (!mx.isThreadAllocatedMemorySupported() || !mx.isThreadAllocatedMemoryEnabled())
+            return -1;
+        
+        return mx.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+    
+    public void testOrder() {
+        Structure chapter = create("chapter", 0, 99);
+        Structure verse = create("verse", 0, 9);
+        Structure next = create("verse", 10, 19);
+        Structure paragraph = create("paragraph", 0, 9);
+        
+        List<Structure> structures = new ArrayList<Structure>(
+                Arrays.asList(next, verse, paragraph, chapter));
+        Collections.sort(structures, comparator);
+        
+        // enclosing structures first, then co-extensive structures by name
+        assertEquals(Arrays.asList(chapter, paragraph, verse, next), structures);
+        assertEquals(0, comparator.compare(verse, verse));
+    }
+    
+    public void testUUIDsAreOrderedAsStrings() {
+        Random random = new Random(3);
+        for (int i = 0; i < 10000; i++) {
+            Structure a = create("verse", 0, 9);
+            Structure b = create("verse", 0, 9);
+            a.setUUID(new UUID(random.nextLong(), random.nextLong()));
+            b.setUUID((i % 2 == 0) 
+                    ? new UUID(a.getUUID().getMostSignificantBits(), random.nextLong()) 
+                    : new UUID(random.nextLong(), random.nextLong()));
+            
+            int expected = a.getUUID().toString().compareTo(b.getUUID().toString());
+            assertEquals(Integer.signum(expected), comparator.compare(a, b));
+            assertEquals(-Integer.signum(expected), comparator.compare(b, a));
+        }
+    }
+    
+    public void testChangesAreReflected() {
+        Structure a = create("verse", 0, 9);
+        Structure b = create("verse", 10, 19);
+        assertTrue(comparator.compare(a, b) < 0);
+        
+        a.setStartTokenPosition(20);
+        a.setEndTokenPosition(29);
+        assertTrue(comparator.compare(a, b) > 0);
+        
+        b.setStartTokenPosition(20);
+        b.setEndTokenPosition(29);
+        b.setName("paragraph");
+        assertTrue(comparator.compare(a, b) > 0);
+        
+        b.setName("verse");
+        b.setUUID(a.getUUID());
+        assertEquals(0, comparator.compare(a, b));
+    }
+    
+    public void testComparisonsDoNotAllocate() {
+        Structure[] structures = createStructures();
+        
+        // compute the sort keys before measuring
+        Arrays.sort(structures, comparator);
+        Collections.shuffle(Arrays.asList(structures), new Random(5));
+        
+        // reading the counter may itself allocate
+        long before = allocated();
+        if (before < 0)
+            return;
+        long overhead = allocated() - before;
+        
+        before = allocated();
+        int ct = 0;
+        for (int i = 1; i < NUM_STRUCTURES; i++) {
+            ct += comparator.compare(structures[i - 1], structures[i]);
+        }
+        
+        assertEquals(0, allocated() - before - overhead);
+        
+        // sorting allocates only merge buffers, which grow by doubling to at most half 
+        // as many references as there are structures
+        before = allocated();
+        Arrays.sort(structures, comparator);
+        long bytes = allocated() - before - overhead;
+        assertTrue("Allocated " + bytes + " bytes (" + ct + ")", 
+                bytes <= 8L * NUM_STRUCTURES);
+        
+        for (int i = 1; i < NUM_STRUCTURES; i++) {
+            assertTrue(comparator.compare(structures[i - 1], structures[i]) <= 0);
+        }
+    }
+}
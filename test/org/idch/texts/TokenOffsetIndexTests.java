@@ -0,0 +1,103 @@
+/**
+ * 
+ */
+package org.idch.texts;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.idch.texts.persist.mem.MemTextModule;
+
+import junit.framework.TestCase;
+
+/**
+ * @author Neal Audenaert
+ */
+public class TokenOffsetIndexTests extends TestCase {
+    
+    private static final String TEXT = "Ἐν ἀρχῇ ἦν ὁ λόγος, καὶ ὁ λόγος ἦν πρὸς τὸν θεόν.";
+    
+    public void testOffsets() {
+        Work w = new Work("Example", "EX", "An example work");
+        List<Token> tokens = new ArrayList<Token>();
+        tokens.add(new Token(w, 0, "Ἐν"));
+        tokens.add(new Token(w, 1, " "));
+        tokens.add(new Token(w, 2, "ἀρχῇ"));
+        
+        TokenOffsetIndex index = new TokenOffsetIndex(tokens);
+        assertEquals(3, index.size());
+        assertEquals(7, index.length());
+        assertEquals(0, index.offsetOf(0));
+        assertEquals(2, index.offsetOf(1));
+        assertEquals(3, index.offsetOf(2));
+        assertEquals(7, index.offsetOf(3));
+        
+        assertEquals(0, index.indexAt(0));
+        assertEquals(0, index.indexAt(1));
+        assertEquals(1, index.indexAt(2));
+        assertEquals(2, index.indexAt(3));
+        assertEquals(2, index.indexAt(6));
+        assertEquals(-1, index.indexAt(7));
+        assertEquals(-1, index.indexAt(-1));
+    }
+    
+    public void testGetTokenAt() {
+        MemTextModule module = new MemTextModule();
+        Work w = module.getWorkRepository().create("Bible.grc.SBLGNT.2010");
+        w.setTokenRepository(module.getTokenRepository());
+        w.appendAll(TEXT);
+        w.flushTokens();
+        
+        String text = module.toString(w);
+        assertEquals(TEXT, text);
+        assertEquals(text.length(), w.getOffsetIndex().length());
+        
+        // compare against a linear scan of the tokens
+        List<Token> tokens = module.getTokens(w);
+        for (int i = 0; i < text.length(); i++) {
+            int ix = 0;
+            Token expected = null;
+            for (Token t : tokens) {
+                ix += t.getText().length();
+                if (ix > i) {
+                    expected = t;
+                    break;
+                }
+            }
+            
+            assertEquals(expected.getPosition(), module.getTokenAt(w, i).getPosition());
+            assertEquals(expected.getPosition(), module.getTokenAt(tokens, i).getPosition());
+        }
+        
+        assertNull(module.getTokenAt(w, text.length()));
+        
+        // the index is extended as tokens are appended
+        w.appendAll(" Οὗτος ἦν");
+        assertEquals("ἦν", module.getTokenAt(w, TEXT.length() + 7).getText());
+    }
+    
+    public void testGetTokenAtInList() {
+        MemTextModule module = new MemTextModule();
+        Work w = module.getWorkRepository().create("Bible.grc.SBLGNT.2010");
+        w.setTokenRepository(module.getTokenRepository());
+        w.appendAll(TEXT);
+        w.flushTokens();
+        
+        List<Token> tokens = new ArrayList<Token>(module.getTokens(w));
+        assertEquals(tokens.get(0), module.getTokenAt(tokens, 0));
+        assertNull(module.getTokenAt(tokens, TEXT.length()));
+        
+        // the offsets of a list are rebuilt if tokens are added to it
+        Token t = new Token(w, tokens.size(), "ἦν");
+        tokens.add(t);
+        assertSame(t, module.getTokenAt(tokens, TEXT.length()));
+        assertEquals(tokens.get(1), module.getTokenAt(tokens.subList(1, 3), 0));
+        
+        // replacing a token in place changes the offsets of the tokens that follow it
+        assertSame(tokens.get(1), module.getTokenAt(tokens, 2));
+        Token longer = new Token(w, 0, "Ἐνἐν");
+        tokens.set(0, longer);
+        assertSame(longer, module.getTokenAt(tokens, 3));
+        assertSame(tokens.get(1), module.getTokenAt(tokens, 4));
+    }
+}
@@ -0,0 +1,148 @@
+/**
+ * 
+ */
+package org.idch.texts;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.UUID;
+
+import org.idch.texts.persist.mem.MemTextModule;
+
+import junit.framework.TestCase;
+
+/**
+ * @author Neal Audenaert
+ */
+public class TokenSequenceIteratorTests extends TestCase {
+    
+    private static final int NUM_TOKENS = 10000;
+    
+    private CountingTokenRepository tokens;
+    private Work work;
+    
+    protected void setUp() throws Exception {
+        MemTextModule module = new MemTextModule();
+        work = module.getWorkRepository().create("Bible.grc.SBLGNT.2010");
+        tokens = new CountingTokenRepository(module.getTokenRepository());
+        work.setTokenRepository(tokens);
+        
+        for (int i = 0; i < NUM_TOKENS; i++) {
+            work.append("w" + i);
+        }
+        work.flushTokens();
+        tokens.reset();
+    }
+    
+    public void testSequentialIteration() {
+        int ix = 0;
+        Iterator<Token> i = work.iterator();
+        while (i.hasNext()) {
+            assertEquals("w" + ix++, i.next().getText());
+        }
+        
+        assertEquals(NUM_TOKENS, ix);
+        assertEquals(0, tokens.singleQueries);
+        assertTrue("Too many queries: " + tokens.rangeQueries, tokens.rangeQueries <= 8);
+    }
+    
+    public void testReverseIteration() {
+        ListIterator<Token> i = work.listIterator(NUM_TOKENS - 1);
+        int ix = NUM_TOKENS - 1;
+        while (i.hasPrevious()) {
+            assertEquals("w" + --ix, i.previous().getText());
+        }
+        
+        assertEquals(0, ix);
+        assertEquals(0, tokens.singleQueries);
+        assertTrue("Too many queries: " + tokens.rangeQueries, tokens.rangeQueries <= 8);
+    }
+    
+    public void testChangeOfDirection() {
+        ListIterator<Token> i = work.listIterator();
+        for (int ix = 0; ix < 100; ix++) {
+            assertEquals("w" + ix, i.next().getText());
+        }
+        
+        for (int ix = 98; ix >= 0; ix--) {
+            assertEquals("w" + ix, i.previous().getText());
+        }
+    }
+    
+    public void testToArray() {
+        Token[] array = work.toArray();
+        assertEquals(NUM_TOKENS, array.length);
+        for (int ix = 0; ix < NUM_TOKENS; ix++) {
+            assertEquals(ix, array[ix].getPosition());
+        }
+        
+        assertEquals(0, tokens.singleQueries);
+        assertTrue("Too many queries: " + tokens.rangeQueries, tokens.rangeQueries <= 3);
+    }
+    
+    public void testSizeIsCached() {
+        Iterator<Token> i = work.iterator();
+        while (i.hasNext()) {
+            i.next();
+        }
+        
+        assertEquals(NUM_TOKENS, work.size());
+        assertEquals(0, tokens.countQueries);
+    }
+    
+    public void testUnbufferedAppend() {
+        work.setUseTokenBuffer(false);
+        for (int ix = 0; ix < 100; ix++) {
+            Token t = work.append("x" + ix);
+            assertEquals(NUM_TOKENS + ix, t.getPosition());
+        }
+        
+        assertEquals(NUM_TOKENS + 100, work.size());
+        assertEquals(NUM_TOKENS + 100, tokens.getNumberOfTokens(work));
+        assertEquals(1, tokens.countQueries);
+    }
+    
+    /** Counts the queries issued against a token repository. */
+    private static class CountingTokenRepository implements TokenRepository {
+        private final TokenRepository delegate;
+        int singleQueries = 0;
+        int rangeQueries = 0;
+        int countQueries = 0;
+        
+        CountingTokenRepository(TokenRepository delegate) {
+            this.delegate = delegate;
+        }
+        
+        void reset() {
+            singleQueries = 0;
+            rangeQueries = 0;
+            countQueries = 0;
+        }
+        
+        public Token create(Token t) { return delegate.create(t); }
+        public List<Token> create(List<Token> t) { return delegate.create(t); }
+        public int getNumberOfTokens(Work w) { 
+            countQueries++;
+            return delegate.getNumberOfTokens(w); 
+        }
+        
+        public Token find(UUID id) { return delegate.find(id); }
+        public List<Token> find(Structure s) { return delegate.find(s); }
+        
+        public Token find(Work w, int pos) { 
+            singleQueries++;
+            return delegate.find(w, pos); 
+        }
+        
+        public List<Token> find(Work w, int start, int end) { 
+            rangeQueries++;
+            return delegate.find(w, start, end); 
+        }
+        
+        public boolean forEach(Work w, int start, int end, TokenVisitor visitor) { 
+            rangeQueries++;
+            return delegate.forEach(w, start, end, visitor); 
+        }
+    }
+}
@@ -0,0 +1,161 @@
+/**
+ *
+ */
+package org.idch.texts;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.idch.texts.persist.mem.MemTextModule;
+
+import junit.framework.TestCase;
+
+/**
+ * Checks that {@link Tokenizer} produces the same tokens as
+ * {@link Token#TOKENIZATION_PATTERN}.
+ *
+ * @author Neal Audenaert
+ */
+public class TokenizerTests extends TestCase {
+
+    /** John 1:1-5 from the SBLGNT, including its critical apparatus markers. */
+    private static final String SBLGNT =
+        "Ἐν ἀρχῇ ἦν ὁ λόγος, καὶ ὁ λόγος ἦν πρὸς τὸν θεόν, καὶ θεὸς ἦν ὁ λόγος. \n" +
+        "\tοὗτος ἦν ἐν ἀρχῇ πρὸς τὸν θεόν. πάντα δι’ αὐτοῦ ἐγένετο, καὶ χωρὶς αὐτοῦ " +
+        "ἐγένετο οὐδὲ ἕν. ὃ γέγονεν ⸀ἐν αὐτῷ ζωὴ ἦν, καὶ ἡ ζωὴ ἦν τὸ φῶς τῶν ἀνθρώπων· " +
+        "καὶ τὸ φῶς ἐν τῇ σκοτίᾳ φαίνει, καὶ ἡ σκοτία αὐτὸ οὐ ⸂κατέλαβεν⸃.\r\n";
+
+    /** John 1:1-5 from the HCSB, including footnote markers and verse numbers. */
+    private static final String HCSB =
+        "1 In the beginning was the Word, and the Word was with God, and the Word was " +
+        "God.\r\n2 He was with God in the beginning.\r\n 3 All things were created " +
+        "through Him, and apart from Him not one thing was created that has been " +
+        "created.* 4 Life was in Him,[a] and that life was the light of men. " +
+        "5 That light shines in the darkness, yet the darkness did not overcome it. " +
+        "— “Isaiah 40:3” — 'tis $5 & 10% ½ of ©2009 Holman Bible​Publishers";
+
+    private static List<String> expected(String text) {
+        List<String> tokens = new ArrayList<String>();
+        Matcher mat = Pattern.compile(Token.TOKENIZATION_PATTERN).matcher(text);
+        while (mat.find()) {
+            String token = mat.group();
+            tokens.add(token + "|" + classify(token));
+        }
+
+        return tokens;
+    }
+
+    /** The original, regular expression based classification of tokens. */
+    private static Token.Type classify(String string) {
+        Token.Type type = null;
+        if (string.matches(Token.UNICODE_WORDSCHARS + "+")) {
+            type = Token.Type.WORD;
+        } else if (string.matches(Token.UNICODE_PUNCTUATION + "+")) {
+            type = Token.Type.PUNCTUATION;
+        } else if (string.matches(Token.UNICODE_WHITESPACE + "+")) {
+            type = Token.Type.WHITESPACE;
+        }
+
+        return type;
+    }
+
+    private static List<String> actual(String text) {
+        List<String> tokens = new ArrayList<String>();
+        Tokenizer tokenizer = new Tokenizer(text);
+        while (tokenizer.next()) {
+            String token = tokenizer.getToken();
+            assertEquals(token, text.substring(tokenizer.getStart(), tokenizer.getEnd()));
+            assertEquals(Token.classify(token), tokenizer.getType());
+            tokens.add(token + "|" + tokenizer.getType());
+        }
+
+        return tokens;
+    }
+
+    public void testSBLGNT() {
+        assertEquals(expected(SBLGNT), actual(SBLGNT));
+    }
+
+    public void testHCSB() {
+        assertEquals(expected(HCSB), actual(HCSB));
+    }
+
+    public void testEdgeCases() {
+        String[] samples = {
+            "", " ", "\r", "\r\n", "\n\r", "a\u0000\tb", "x́y", "٣4५",
+            "𐐀𝐀", "a\ud800b", "a\udc00", "_-_", "ˆa", "¿Qué?"
+        };
+
+        for (String sample : samples) {
+            assertEquals(sample, expected(sample), actual(sample));
+        }
+    }
+
+    /** Compares tokenizations of random strings drawn from an alphabet of hard cases. */
+    public void testRandomText() {
+        String alphabet = SBLGNT + HCSB + "\t\r\n\u0000́­٣𐐀\ud800";
+        Random random = new Random(7);
+        for (int i = 0; i < 1000; i++) {
+            StringBuilder sb = new StringBuilder();
+            int len = random.nextInt(40);
+            for (int j = 0; j < len; j++) {
+                sb.append(alphabet.charAt(random.nextInt(alphabet.length())));
+            }
+
+            String text = sb.toString();
+            assertEquals(text, expected(text), actual(text));
+        }
+    }
+
+    public void testCharArray() {
+        String text = "<" + SBLGNT + HCSB + ">";
+        char[] buf = text.toCharArray();
+
+        List<String> tokens = new ArrayList<String>();
+        Tokenizer tokenizer = new Tokenizer(buf, 1, buf.length - 2);
+        while (tokenizer.next()) {
+            assertEquals(tokenizer.getToken(),
+                    text.substring(tokenizer.getStart(), tokenizer.getEnd()));
+            tokens.add(tokenizer.getToken() + "|" + tokenizer.getType());
+        }
+
+        assertEquals(actual(SBLGNT + HCSB), tokens);
+    }
+
+    public void testAppendChars() {
+        MemTextModule module = new MemTextModule();
+        Work expected = module.getWorkRepository().create("Bible.grc.SBLGNT.2010");
+        Work actual = module.getWorkRepository().create("Bible.grc.SBLGNT.2011");
+        expected.setTokenRepository(module.getTokenRepository());
+        actual.setTokenRepository(module.getTokenRepository());
+
+        char[] buf = SBLGNT.toCharArray();
+        int ct = 0;
+        for (int off = 0; off < buf.length; off += 17) {
+            int len = Math.min(17, buf.length - off);
+            expected.appendAll(new String(buf, off, len));
+            ct += actual.append(buf, off, len);
+        }
+
+        assertEquals(expected.size(), ct);
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            Token t = actual.get(i);
+            assertEquals(expected.get(i).getText(), t.getText());
+            assertEquals(expected.get(i).getType(), t.getType());
+            assertEquals(i, t.getPosition());
+        }
+    }
+
+    public void testClassify() {
+        assertEquals(Token.Type.WORD, Token.classify("λόγος"));
+        assertEquals(Token.Type.PUNCTUATION, Token.classify("·"));
+        assertEquals(Token.Type.WHITESPACE, Token.classify(" \n\t"));
+        assertNull(Token.classify(""));
+        assertNull(Token.classify("a,"));
+        assertNull(Token.classify("\r"));
+    }
+}
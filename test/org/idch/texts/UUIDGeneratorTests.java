@@ -0,0 +1,83 @@
+/**
+ *
+ */
+package org.idch.texts;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+
+import junit.framework.TestCase;
+
+/**
+ * @author Neal Audenaert
+ */
+public class UUIDGeneratorTests extends TestCase {
+
+    public void testTimeOrderedLayout() {
+        long before = System.currentTimeMillis();
+        UUID uuid = UUIDGenerator.TIME_ORDERED.generate();
+        long after = System.currentTimeMillis();
+
+        assertEquals(7, uuid.version());
+        assertEquals(2, uuid.variant());
+
+        long timestamp = uuid.getMostSignificantBits() >>> 16;
+        assertTrue(timestamp >= before);
+        assertTrue(timestamp <= after + 1);
+    }
+
+    public void testTimeOrderedIsIncreasing() {
+        Set<UUID> seen = new HashSet<UUID>();
+        UUID previous = UUIDGenerator.TIME_ORDERED.generate();
+        for (int i = 0; i < 100000; i++) {
+            UUID uuid = UUIDGenerator.TIME_ORDERED.generate();
+            assertTrue(uuid.getMostSignificantBits() > previous.getMostSignificantBits());
+            assertTrue(seen.add(uuid));
+            previous = uuid;
+        }
+    }
+
+    public void testConcurrentGeneration() throws InterruptedException {
+        final int numThreads = 4;
+        final int perThread = 20000;
+        final UUID[][] generated = new UUID[numThreads][perThread];
+
+        Thread[] threads = new Thread[numThreads];
+        for (int t = 0; t < numThreads; t++) {
+            final UUID[] uuids = generated[t];
+            threads[t] = new Thread() {
+                public void run() {
+                    for (int i = 0; i < perThread; i++) {
+                        uuids[i] = UUIDGenerator.TIME_ORDERED.generate();
+                    }
+                }
+            };
+            threads[t].start();
+        }
+
+        Set<UUID> seen = new HashSet<UUID>();
+        for (int t = 0; t < numThreads; t++) {
+            threads[t].join();
+            for (UUID uuid : generated[t]) {
+                assertTrue(seen.add(uuid));
+            }
+        }
+    }
+
+    public void testPluggableGenerator() {
+        Work work = new Work("Example", "EX", "An example work");
+        Token.setUUIDGenerator(UUIDGenerator.RANDOM);
+        Structure.setUUIDGenerator(UUIDGenerator.RANDOM);
+        try {
+            assertEquals(4, new Token(work, 0, "ἐν").getUUID().version());
+            assertEquals(4, new Structure(work.getUUID(), "verse").getUUID().version());
+        } finally {
+            Token.setUUIDGenerator(UUIDGenerator.TIME_ORDERED);
+            Structure.setUUIDGenerator(UUIDGenerator.TIME_ORDERED);
+        }
+
+        assertEquals(7, new Token(work, 0, "ἐν").getUUID().version());
+        assertEquals(7, new Structure(work.getUUID(), "verse").getUUID().version());
+    }
+}
@@ -0,0 +1,144 @@
+/**
+ * 
+ */
+package org.idch.texts;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import junit.framework.TestCase;
+
+/**
+ * @author Neal Audenaert
+ */
+public class VocabularyTests extends TestCase {
+    
+    public void testIntern() {
+        Vocabulary vocab = new Vocabulary();
+        int kai = vocab.intern("καὶ");
+        int space = vocab.intern(" ");
+        
+        assertEquals(0, kai);
+        assertEquals(1, space);
+        assertEquals(kai, vocab.intern(new String("καὶ")));
+        assertEquals(2, vocab.size());
+        
+        assertEquals("καὶ", vocab.getTerm(kai));
+        assertSame(vocab.getTerm(kai), vocab.getTerm(vocab.intern(new String("καὶ"))));
+        assertNull(vocab.getTerm(2));
+    }
+    
+    public void testLookup() {
+        Vocabulary vocab = new Vocabulary();
+        vocab.intern("the");
+        
+        assertEquals(0, vocab.lookup("the"));
+        assertEquals(Vocabulary.NO_TERM, vocab.lookup("a"));
+        assertEquals(1, vocab.size());
+    }
+    
+    public void testGrowth() {
+        Vocabulary vocab = new Vocabulary();
+        for (int i = 0; i < 10000; i++) {
+            assertEquals(i, vocab.intern("term" + i));
+        }
+        
+        for (int i = 0; i < 10000; i++) {
+            assertEquals(i, vocab.lookup("term" + i));
+            assertEquals("term" + i, vocab.getTerm(i));
+        }
+    }
+    
+    public void testInternChars() {
+        Vocabulary vocab = new Vocabulary();
+        char[] buf = "ὁ λόγος ἦν λόγος".toCharArray();
+        int logos = vocab.intern(buf, 2, 5);
+        
+        assertEquals(0, logos);
+        assertEquals(logos, vocab.intern(buf, 11, 5));
+        assertEquals(logos, vocab.intern("λόγος"));
+        assertEquals(1, vocab.intern(buf, 8, 2));
+        assertEquals("ἦν", vocab.getTerm(1));
+        assertEquals(2, vocab.size());
+    }
+    
+    public void testDefine() {
+        Vocabulary vocab = new Vocabulary();
+        vocab.define(0, "ἐν");
+        vocab.define(1, "ἀρχῇ");
+        vocab.define(0, "ἐν");
+        assertEquals(1, vocab.intern("ἀρχῇ"));
+        
+        try {
+            vocab.define(3, "ἦν");
+            fail("Expected out of order definition to fail");
+        } catch (IllegalStateException ex) {
+            // expected
+        }
+        
+        try {
+            vocab.define(1, "ὁ");
+            fail("Expected conflicting definition to fail");
+        } catch (IllegalStateException ex) {
+            // expected
+        }
+    }
+    
+    public void testTokensShareText() {
+        Work work = new Work("Example", "EX", "An example work");
+        Token a = new Token(work, 0, new String("καὶ"));
+        Token b = new Token(work, 2, new String("καὶ"));
+        
+        assertEquals(a.getTermId(), b.getTermId());
+        assertSame(a.getText(), b.getText());
+    }
+    
+    public void testReadsDuringGrowth() throws Exception {
+        final Vocabulary vocab = new Vocabulary();
+        final int numTerms = 200000;
+        final Queue<String> failures = new ConcurrentLinkedQueue<String>();
+        final AtomicBoolean done = new AtomicBoolean(false);
+        
+        // readers look up the most recently added terms while the arrays grow
+        List<Thread> readers = new ArrayList<Thread>();
+        for (int i = 0; i < 3; i++) {
+            Thread t = new Thread() {
+                public void run() {
+                    try {
+                        while (!done.get()) {
+                            int n = vocab.size();
+                            for (int id = Math.max(0, n - 2); id <= n + 2; id++) {
+                                String term = vocab.getTerm(id);
+                                if (id < n && !("term" + id).equals(term))
+                                    failures.add("Wrong term for " + id + ": " + term);
+                            }
+                            
+                            if (n > 0 && vocab.lookup("term" + (n - 1)) != n - 1)
+                                failures.add("Term " + (n - 1) + " not found");
+                        }
+                    } catch (Throwable ex) {
+                        failures.add("Reader failed: " + ex);
+                    }
+                }
+            };
+            
+            readers.add(t);
+            t.start();
+        }
+        
+        for (int i = 0; i < numTerms; i++) {
+            vocab.intern("term" + i);
+        }
+        
+        done.set(true);
+        for (Thread t : readers) {
+            t.join();
+        }
+        
+        assertTrue(failures.size() + " failures, e.g., " + failures.peek(), 
+                failures.isEmpty());
+    }
+}
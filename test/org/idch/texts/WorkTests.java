@@ -3,7 +3,12 @@
  */
 package org.idch.texts;
 
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
 
 import org.idch.texts.Work;
 import org.idch.texts.WorkId;
@@ -90,6 +95,57 @@ public class WorkTests extends TestCase {
     }
     
     
+    public void testInvalidTokenBuffer() {
+        Work work = new Work("Example", "EX", "An example work");
+        work.setMaxTokenBuffer(1);
+        
+        try {
+            work.setMaxTokenBuffer(0);
+            fail("Expected an empty token buffer to be rejected");
+        } catch (IllegalArgumentException ex) {
+            // expected
+        }
+    }
+    
+    /** 
+     * Returns a token repository that stores tokens in a list and fails to create the 
+     * tokens whose text is <tt>fail</tt>.
+     */
+    private TokenRepository createRepository(final List<Token> stored, final String fail) {
+        return (TokenRepository)Proxy.newProxyInstance(
+                TokenRepository.class.getClassLoader(), new Class<?>[] { TokenRepository.class },
+                new InvocationHandler() {
+                    public Object invoke(Object proxy, Method m, Object[] args) {
+                        if (m.getName().equals("getNumberOfTokens"))
+                            return stored.size();
+                        if (!m.getName().equals("create") || !(args[0] instanceof Token))
+                            throw new UnsupportedOperationException(m.getName());
+                        
+                        Token t = (Token)args[0];
+                        if (t.getText().equals(fail))
+                            return null;
+                        
+                        t.setPosition(stored.size());
+                        stored.add(t);
+                        return t;
+                    }
+                });
+    }
+    
+    public void testAppendAfterFailedCreate() {
+        List<Token> stored = new ArrayList<Token>();
+        Work work = new Work(1L);
+        work.setTokenRepository(createRepository(stored, "fail"));
+        work.setUseTokenBuffer(false);
+        
+        assertEquals(0, work.append("ἐν").getPosition());
+        assertNull(work.append("fail"));
+        assertEquals(1, work.append("ἀρχῇ").getPosition());
+        assertEquals(2, work.append("ἦν").getPosition());
+        assertEquals(3, work.size());
+        assertEquals(3, stored.size());
+    }
+    
     public void testAddTokens() {
 //        List<Token> tokens = new ArrayList<Token>();
 //        Work work = new Work(new WorkId("Bible.grc.SBLGNT.2010"));
@@ -0,0 +1,299 @@
+/**
+ *
+ */
+package org.idch.texts.persist;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.idch.persist.RepositoryAccessException;
+import org.idch.texts.Structure;
+import org.idch.texts.StructureRepository;
+import org.idch.texts.Token;
+import org.idch.texts.TokenRepository;
+import org.idch.texts.Work;
+import org.idch.texts.persist.mem.MemTextModule;
+
+import junit.framework.TestCase;
+
+/**
+ * @author Neal Audenaert
+ */
+public class WriteBehindTextModuleTests extends TestCase {
+
+    private static final String TEXT =
+        "Ἐν ἀρχῇ ἦν ὁ λόγος, καὶ ὁ λόγος ἦν πρὸς τὸν θεόν, καὶ θεὸς ἦν ὁ λόγος. ";
+
+    private MemTextModule mem;
+    private WriteBehindTextModule module;
+
+    @Override
+    protected void setUp() throws Exception {
+        mem = new MemTextModule();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        if (module != null)
+            module.close();
+    }
+
+    /** Creates a proxy that passes all calls to a target, invoking a hook first. */
+    @SuppressWarnings("unchecked")
+    private static <T> T intercept(Class<T> type, final T target, final InvocationHandler hook) {
+        return (T)Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type },
+                new InvocationHandler() {
+                    public Object invoke(Object proxy, Method m, Object[] args)
+                            throws Throwable {
+                        Object result = hook.invoke(proxy, m, args);
+                        if (result != null)
+                            return result;
+
+                        try {
+                            return m.invoke(target, args);
+                        } catch (InvocationTargetException ite) {
+                            throw ite.getCause();
+                        }
+                    }
+                });
+    }
+
+    public void testWritesAreApplied() throws Exception {
+        module = new WriteBehindTextModule(mem, 2, 4);
+        Work w = module.getWorkRepository().create("Bible.grc.SBLGNT.2010");
+        w.setMaxTokenBuffer(7);
+
+        List<Structure> verses = new ArrayList<Structure>();
+        char[] text = TEXT.toCharArray();
+        for (int i = 0; i < 50; i++) {
+            int start = w.size();
+            w.append(text, 0, text.length);
+
+            Structure s = module.getStructureRepository().create(w, "verse");
+            s.setTokens(w.get(start), w.get(w.size() - 1));
+            s.setAttribute("osisID", "John.1." + (i + 1));
+            assertTrue(module.getStructureRepository().save(s));
+            verses.add(s);
+
+            // read back tokens that may still be waiting to be written
+            assertEquals("Ἐν", w.get(start).getText());
+            List<Token> range = module.getTokenRepository().find(w, start, start + 3);
+            assertEquals(3, range.size());
+            assertEquals("ἀρχῇ", range.get(2).getText());
+        }
+        w.flushTokens();
+        module.flush();
+
+        TokenRepository tokens = mem.getTokenRepository();
+        assertEquals(w.size(), tokens.getNumberOfTokens(w));
+        for (int i = 0; i < w.size(); i++) {
+            Token t = tokens.find(w, i);
+            assertEquals(w.get(i).getUUID(), t.getUUID());
+            assertEquals(w.get(i).getText(), t.getText());
+        }
+
+        for (Structure s : verses) {
+            assertNotNull(s.getId());
+
+            Structure copy = mem.getStructureRepository().find(s.getUUID());
+            assertFalse(s == copy);
+            assertEquals(s.getAttribute("osisID"), copy.getAttribute("osisID"));
+            assertEquals(s.getStart(), copy.getStart());
+            assertEquals(s.getEnd(), copy.getEnd());
+        }
+    }
+
+    public void testIdsAreSetByFlush() throws Exception {
+        module = new WriteBehindTextModule(mem);
+        Work w = module.getWorkRepository().create("Bible.grc.SBLGNT.2010");
+        Structure s = module.getStructureRepository().create(w, "verse");
+
+        // queries wait for the write, but the writer does not modify the caller's copy
+        Structure stored = module.getStructureRepository().find(s.getUUID());
+        assertNotNull(stored.getId());
+        assertNull(s.getId());
+
+        module.flush();
+        assertEquals(stored.getId(), s.getId());
+    }
+
+    public void testFailuresAreReported() throws Exception {
+        final StructureRepository structures = intercept(StructureRepository.class,
+                mem.getStructureRepository(), new InvocationHandler() {
+                    public Object invoke(Object proxy, Method m, Object[] args) {
+                        return m.getName().equals("save") ? Boolean.FALSE : null;
+                    }
+                });
+
+        module = new WriteBehindTextModule(new MemTextModule() {
+            @Override
+            public StructureRepository getStructureRepository() {
+                return structures;
+            }
+        });
+
+        Work w = module.getWorkRepository().create("Bible.grc.SBLGNT.2010");
+        Structure s = module.getStructureRepository().create(w, "verse");
+        assertTrue(module.getStructureRepository().save(s));
+        assertTrue(module.getStructureRepository().save(s));
+
+        try {
+            module.flush();
+            fail("Expected the failed writes to be reported");
+        } catch (RepositoryAccessException ex) {
+            assertTrue(ex.getMessage(), ex.getMessage().startsWith("2 write(s) failed"));
+        }
+
+        // failures are reported once
+        module.flush();
+    }
+
+    public void testWriterSurvivesErrors() throws Exception {
+        final StructureRepository structures = intercept(StructureRepository.class,
+                mem.getStructureRepository(), new InvocationHandler() {
+                    public Object invoke(Object proxy, Method m, Object[] args) {
+                        if (m.getName().equals("create"))
+                            throw new Error("Simulated writer failure");
+                        return null;
+                    }
+                });
+
+        MemTextModule target = new MemTextModule() {
+            @Override
+            public StructureRepository getStructureRepository() {
+                return structures;
+            }
+        };
+        module = new WriteBehindTextModule(target);
+
+        Work w = module.getWorkRepository().create("Bible.grc.SBLGNT.2010");
+        module.getStructureRepository().create(w, "verse");
+
+        final List<Exception> flushed = new ArrayList<Exception>();
+        Thread flusher = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    module.flush();
+                } catch (RepositoryAccessException ex) {
+                    flushed.add(ex);
+                }
+            }
+        };
+        flusher.start();
+        flusher.join(TimeUnit.SECONDS.toMillis(10));
+        assertFalse("Expected the failed write to release the flush", flusher.isAlive());
+        assertEquals(1, flushed.size());
+        assertTrue(flushed.get(0).getMessage().startsWith("1 write(s) failed"));
+        assertTrue(flushed.get(0).getCause().getCause() instanceof Error);
+
+        // the writer continues to apply later writes
+        w.appendAll("λόγος");
+        w.flushTokens();
+        module.flush();
+        assertEquals(1, target.getTokenRepository().getNumberOfTokens(w));
+    }
+
+    public void testRangesReadWrittenTokensAtOnce() throws Exception {
+        final List<String> finds = Collections.synchronizedList(new ArrayList<String>());
+        final AtomicBoolean hold = new AtomicBoolean(false);
+        final CountDownLatch release = new CountDownLatch(1);
+        final TokenRepository tokens = intercept(TokenRepository.class,
+                mem.getTokenRepository(), new InvocationHandler() {
+                    public Object invoke(Object proxy, Method m, Object[] args)
+                            throws InterruptedException {
+                        if (m.getName().equals("find")) {
+                            finds.add(m.getName() + args.length);
+                        } else if (m.getName().equals("create") && hold.get()) {
+                            release.await();
+                        }
+                        return null;
+                    }
+                });
+
+        module = new WriteBehindTextModule(new MemTextModule() {
+            @Override
+            public TokenRepository getTokenRepository() {
+                return tokens;
+            }
+        });
+
+        Work w = module.getWorkRepository().create("Bible.grc.SBLGNT.2010");
+        w.setMaxTokenBuffer(10);
+        w.appendAll(TEXT);
+        w.flushTokens();
+        module.flush();
+        int written = w.size();
+
+        // hold the remaining tokens in the queue
+        hold.set(true);
+        w.appendAll(TEXT);
+        w.flushTokens();
+        try {
+            finds.clear();
+            List<Token> range = module.getTokenRepository().find(w, 1, w.size());
+            assertEquals(w.size() - 1, range.size());
+            for (int i = 0; i < range.size(); i++) {
+                assertEquals(i + 1, range.get(i).getPosition());
+            }
+
+            // the written tokens are read with a single query
+            assertEquals(1, finds.size());
+            assertEquals("find3", finds.get(0));
+            assertTrue(w.size() > written);
+        } finally {
+            release.countDown();
+        }
+    }
+
+    public void testBackpressure() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final TokenRepository tokens = intercept(TokenRepository.class,
+                mem.getTokenRepository(), new InvocationHandler() {
+                    public Object invoke(Object proxy, Method m, Object[] args)
+                            throws InterruptedException {
+                        if (m.getName().equals("create"))
+                            release.await();
+                        return null;
+                    }
+                });
+
+        module = new WriteBehindTextModule(new MemTextModule() {
+            @Override
+            public TokenRepository getTokenRepository() {
+                return tokens;
+            }
+        }, 1, 2);
+
+        final Work w = module.getWorkRepository().create("Bible.grc.SBLGNT.2010");
+        w.setMaxTokenBuffer(1);
+        Thread producer = new Thread() {
+            @Override
+            public void run() {
+                for (int i = 0; i < 10; i++) {
+                    w.appendAll("λόγος");
+                }
+            }
+        };
+        producer.start();
+
+        // the writer holds one write and the queue two more, so the producer must wait
+        producer.join(500);
+        assertTrue(producer.isAlive());
+
+        release.countDown();
+        producer.join(TimeUnit.SECONDS.toMillis(10));
+        assertFalse(producer.isAlive());
+
+        module.flush();
+        assertEquals(10, mem.getTokenRepository().getNumberOfTokens(w));
+    }
+}
@@ -0,0 +1,156 @@
+/**
+ * 
+ */
+package org.idch.texts.persist.mapped;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SortedSet;
+
+import org.idch.texts.Structure;
+import org.idch.texts.StructureRepository;
+import org.idch.texts.Token;
+import org.idch.texts.TokenRepository;
+import org.idch.texts.Work;
+import org.idch.texts.persist.mem.MemTextModule;
+
+import junit.framework.TestCase;
+
+/**
+ * @author Neal Audenaert
+ */
+public class MappedTextModuleTests extends TestCase {
+    
+    private static final String TEXT = 
+        "Ἰούδας Ἰησοῦ Χριστοῦ δοῦλος, ἀδελφὸς δὲ Ἰακώβου, τοῖς ἐν θεῷ πατρὶ " +
+        "ἠγαπημένοις καὶ Ἰησοῦ Χριστῷ τετηρημένοις κλητοῖς· ἔλεος ὑμῖν καὶ εἰρήνη " +
+        "καὶ ἀγάπη πληθυνθείη.";
+    
+    private File dir;
+    private Work source;
+    private List<Token> sourceTokens;
+    private List<Structure> sourceStructures = new ArrayList<Structure>();
+    
+    protected void setUp() throws Exception {
+        MemTextModule mem = new MemTextModule();
+        source = mem.getWorkRepository().create("Bible.grc.SBLGNT.2010");
+        source.setTitle("SBL Greek New Testament");
+        source.setTokenRepository(mem.getTokenRepository());
+        source.appendAll(TEXT);
+        source.flushTokens();
+        
+        TokenRepository tokens = mem.getTokenRepository();
+        sourceTokens = tokens.find(source, 0, source.size());
+        
+        StructureRepository structures = mem.getStructureRepository();
+        Structure verse1 = new Structure(source.getUUID(), "verse");
+        verse1.setStartTokenPosition(0);
+        verse1.setEndTokenPosition(19);
+        verse1.setAttribute("osisId", "Jude.1.1");
+        sourceStructures.add(structures.create(verse1));
+        
+        Structure verse2 = new Structure(source.getUUID(), "verse");
+        verse2.setStartTokenPosition(21);
+        verse2.setEndTokenPosition(source.size() - 1);
+        verse2.setAttribute("osisId", "Jude.1.2");
+        sourceStructures.add(structures.create(verse2));
+        
+        Structure chapter = new Structure(source.getUUID(), "chapter");
+        chapter.setStartTokenPosition(0);
+        chapter.setEndTokenPosition(source.size() - 1);
+        chapter.setAttribute("osisId", "Jude.1");
+        sourceStructures.add(structures.create(chapter));
+        
+        dir = new File(System.getProperty("java.io.tmpdir"), "mapped-" + System.nanoTime());
+        dir.mkdirs();
+        new WorkFileWriter(source).write(tokens, sourceStructures, new File(dir, "jude.work"));
+    }
+    
+    protected void tearDown() throws Exception {
+        for (File f : dir.listFiles()) {
+            f.delete();
+        }
+        dir.delete();
+    }
+    
+    public void testWork() throws Exception {
+        MappedTextModule module = new MappedTextModule(dir);
+        Work w = module.getWorkRepository().find(source.getUUID());
+        
+        assertNotNull(w);
+        assertEquals("SBL Greek New Testament", w.getTitle());
+        assertEquals("SBLGNT", w.getAbbreviation());
+        assertEquals(sourceTokens.size(), w.size());
+        assertSame(w, module.getWorkRepository().find(w.getId()));
+    }
+    
+    public void testTokens() throws Exception {
+        MappedTextModule module = new MappedTextModule(dir);
+        Work w = module.getWorkRepository().find(source.getUUID());
+        TokenRepository tokens = module.getTokenRepository();
+        
+        List<Token> mapped = tokens.find(w, 0, w.size());
+        assertEquals(sourceTokens.size(), mapped.size());
+        for (int i = 0; i < mapped.size(); i++) {
+            Token expected = sourceTokens.get(i);
+            Token t = mapped.get(i);
+            assertEquals(i, t.getPosition());
+            assertEquals(expected.getText(), t.getText());
+            assertEquals(expected.getType(), t.getType());
+            assertEquals(expected.getUUID(), t.getUUID());
+        }
+        
+        Token expected = sourceTokens.get(7);
+        assertEquals(expected.getText(), tokens.find(expected.getUUID()).getText());
+        assertEquals(expected.getText(), tokens.find(w, 7).getText());
+        assertEquals(3, tokens.find(w, 5, 8).size());
+        assertEquals(2, tokens.find(w, w.size() - 2, w.size() + 10).size());
+    }
+    
+    public void testStructures() throws Exception {
+        MappedTextModule module = new MappedTextModule(dir);
+        Work w = module.getWorkRepository().find(source.getUUID());
+        StructureRepository structures = module.getStructureRepository();
+        
+        SortedSet<Structure> verses = structures.find(w, "verse");
+        assertEquals(2, verses.size());
+        assertEquals("Jude.1.1", verses.first().getAttribute("osisId"));
+        assertEquals("Jude.1.2", verses.last().getAttribute("osisId"));
+        assertTrue(verses.contains(sourceStructures.get(1)));
+        
+        SortedSet<Structure> atPosition = structures.find(w, 22);
+        assertEquals(2, atPosition.size());
+        assertEquals("chapter", atPosition.first().getName());
+        
+        SortedSet<Structure> byAttr = structures.find(w, "verse", "osisId", "Jude.1.2");
+        assertEquals(1, byAttr.size());
+        assertEquals(sourceStructures.get(1).getUUID(), byAttr.first().getUUID());
+        
+        Structure s = structures.find(sourceStructures.get(2).getUUID());
+        assertEquals("Jude.1", s.getAttribute("osisId"));
+        assertEquals(s.getUUID(), structures.find(s.getId()).getUUID());
+        
+        assertEquals(1, structures.find(w, "verse", 0, 21).size());
+        assertEquals(2, structures.find(w, "verse", 10, 30, true).size());
+    }
+    
+    public void testStructuresAreNotShared() throws Exception {
+        MappedTextModule module = new MappedTextModule(dir);
+        Work w = module.getWorkRepository().find(source.getUUID());
+        StructureRepository structures = module.getStructureRepository();
+        
+        Structure verse = structures.find(w, "verse").last();
+        verse.setStartTokenPosition(0);
+        verse.setAttribute("osisId", "Jude.1.3");
+        
+        Structure found = structures.find(verse.getUUID());
+        assertTrue(verse != found);
+        assertEquals(21, found.getStart());
+        assertEquals("Jude.1.2", found.getAttribute("osisId"));
+        
+        SortedSet<Structure> verses = structures.find(w, "verse");
+        assertTrue(verses.contains(sourceStructures.get(1)));
+        assertEquals("Jude.1.2", verses.last().getAttribute("osisId"));
+    }
+}
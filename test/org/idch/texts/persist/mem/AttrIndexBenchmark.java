@@ -0,0 +1,134 @@
+/**
+ *
+ */
+package org.idch.texts.persist.mem;
+
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.idch.texts.Structure;
+import org.idch.texts.StructureRepository;
+import org.idch.texts.Vocabulary;
+import org.idch.texts.Work;
+
+/**
+ * Compares the keys of the attribute index of {@link MemStructureRepository} with the
+ * keys it used before attributes were interned: pairs whose hash code and equality are
+ * computed from the string <tt>key + "::" + value</tt>. Each lookup resolves the osisID
+ * of one of the 7,957 verses of the New Testament, first through each kind of key alone
+ * and then through the repository, which also builds the sorted set it returns. The time
+ * and the number of bytes allocated per lookup are reported. This is run by hand rather
+ * than as part of the unit tests, on a JVM that reports allocation per thread:
+ *
+ * <pre>
+ *   java org.idch.texts.persist.mem.AttrIndexBenchmark [numLookups]
+ * </pre>
+ *
+ * @author Neal Audenaert
+ */
+public class AttrIndexBenchmark {
+
+    private static final int NUM_VERSES = 7957;
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+
+    /** The key of the attribute index before attributes were interned. */
+    private static class StringPair {
+        private final String key;
+        private final String value;
+
+        StringPair(String key, String value) {
+            this.key = key;
+            this.value = value;
+        }
+
+        public String toString() {
+            return this.key + "::" + this.value;
+        }
+
+        public boolean equals(Object o) {
+            return this.toString().equals(((StringPair)o).toString());
+        }
+
+        public int hashCode() {
+            return toString().hashCode();
+        }
+    }
+
+    private static long allocated() {
+        return THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static void report(String label, long start, long bytes, int lookups, int found) {
+        double us = (System.nanoTime() - start) / 1e3;
+        System.out.println(String.format("%-20s %8.3f us/lookup %8.1f bytes/lookup (%d found)",
+                label, us / lookups, (double)(allocated() - bytes) / lookups, found));
+    }
+
+    public static void main(String[] args) {
+        int numLookups = (args.length > 0) ? Integer.parseInt(args[0]) : 1000000;
+
+        MemTextModule module = new MemTextModule();
+        StructureRepository repo = module.getStructureRepository();
+        Work w = new Work("New Testament", "NT", "Benchmark structures");
+        ((MemWorkRepository)module.getWorkRepository()).create(w);
+
+        Map<StringPair, Structure> pairs = new HashMap<StringPair, Structure>();
+        Vocabulary keys = new Vocabulary();
+        Vocabulary values = new Vocabulary();
+        LongMap<Structure> interned = new LongMap<Structure>();
+
+        String[] ids = new String[NUM_VERSES];
+        for (int i = 0; i < NUM_VERSES; i++) {
+            ids[i] = "Verse." + (i / 30 + 1) + "." + (i % 30 + 1);
+
+            Structure s = new Structure(w.getUUID(), "verse");
+            s.setStartTokenPosition(i * 36);
+            s.setEndTokenPosition(i * 36 + 35);
+            s.setAttribute("osisID", ids[i]);
+            repo.create(s);
+
+            pairs.put(new StringPair("osisID", ids[i]), s);
+            interned.put(((long)keys.intern("osisID") << 32) | values.intern(ids[i]), s);
+        }
+
+        // look up copies of the ids, as a caller parsing a reference would
+        Random random = new Random();
+        String[] lookups = new String[numLookups];
+        for (int i = 0; i < numLookups; i++) {
+            lookups[i] = new String(ids[random.nextInt(NUM_VERSES)]);
+        }
+
+        for (int round = 0; round < 3; round++) {          // the first rounds warm up
+            long bytes = allocated();
+            long start = System.nanoTime();
+            int found = 0;
+            for (String id : lookups) {
+                if (pairs.get(new StringPair("osisID", id)) != null)
+                    found++;
+            }
+            report("string pair keys", start, bytes, numLookups, found);
+
+            bytes = allocated();
+            start = System.nanoTime();
+            found = 0;
+            for (String id : lookups) {
+                long kvp = ((long)keys.lookup("osisID") << 32) | values.lookup(id);
+                if (interned.get(kvp) != null)
+                    found++;
+            }
+            report("interned keys", start, bytes, numLookups, found);
+
+            bytes = allocated();
+            start = System.nanoTime();
+            found = 0;
+            for (String id : lookups) {
+                found += repo.find(w, "verse", "osisID", id).size();
+            }
+            report("repository find", start, bytes, numLookups, found);
+        }
+    }
+}
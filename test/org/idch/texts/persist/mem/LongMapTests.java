@@ -0,0 +1,42 @@
+/**
+ * 
+ */
+package org.idch.texts.persist.mem;
+
+import junit.framework.TestCase;
+
+/**
+ * @author Neal Audenaert
+ */
+public class LongMapTests extends TestCase {
+    
+    public void testPutAndGet() {
+        LongMap<String> map = new LongMap<String>();
+        map.put(0L, "zero");
+        map.put(-1L, "minus one");
+        map.put(1L << 32, "high");
+        
+        assertEquals("zero", map.get(0L));
+        assertEquals("minus one", map.get(-1L));
+        assertEquals("high", map.get(1L << 32));
+        assertNull(map.get(1L));
+        assertEquals(3, map.size());
+        
+        map.put(0L, "replaced");
+        assertEquals("replaced", map.get(0L));
+        assertEquals(3, map.size());
+    }
+    
+    public void testGrowth() {
+        LongMap<Long> map = new LongMap<Long>();
+        for (long i = 0; i < 10000; i++) {
+            map.put(i << 32 | i, Long.valueOf(i));
+        }
+        
+        assertEquals(10000, map.size());
+        for (long i = 0; i < 10000; i++) {
+            assertEquals(Long.valueOf(i), map.get(i << 32 | i));
+            assertNull(map.get(i << 32 | (i + 1)));
+        }
+    }
+}
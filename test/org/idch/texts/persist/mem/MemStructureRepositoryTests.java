@@ -0,0 +1,173 @@
+/**
+ * 
+ */
+package org.idch.texts.persist.mem;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.SortedSet;
+import java.util.UUID;
+
+import org.idch.texts.Structure;
+import org.idch.texts.StructureRepository;
+import org.idch.texts.Work;
+
+import junit.framework.TestCase;
+
+/**
+ * Checks the positional queries of {@link MemStructureRepository} against a scan of all
+ * of the stored structures.
+ * 
+ * @author Neal Audenaert
+ */
+public class MemStructureRepositoryTests extends TestCase {
+    
+    private static final String[] NAMES = { "verse", "paragraph", "speaker" };
+    private static final int NUM_STRUCTURES = 3000;
+    private static final int NUM_TOKENS = 20000;
+    
+    private StructureRepository repo;
+    private Work work;
+    private List<Structure> structures;
+    
+    protected void setUp() throws Exception {
+        MemTextModule module = new MemTextModule();
+        repo = module.getStructureRepository();
+        
+        work = new Work("Example", "EX", "An example work");
+        ((MemWorkRepository)module.getWorkRepository()).create(work);
+        
+        Random random = new Random(7);
+        structures = new ArrayList<Structure>();
+        for (int i = 0; i < NUM_STRUCTURES; i++) {
+            Structure s = new Structure(work.getUUID(), NAMES[i % NAMES.length]);
+            int start = random.nextInt(NUM_TOKENS);
+            s.setStartTokenPosition(start);
+            s.setEndTokenPosition(start + random.nextInt(200));
+            s.setAttribute("osisID", "EX." + i);
+            structures.add(s);
+        }
+        
+        assertTrue(repo.createAll(structures));
+    }
+    
+    /** Returns the number of structures that include any position in [start, end). */
+    private int countOverlapping(String name, int start, int end) {
+        int ct = 0;
+        for (Structure s : structures) {
+            if ((name == null || name.equals(s.getName())) 
+                    && s.getStart() < end && s.getEnd() > start)
+                ct++;
+        }
+        
+        return ct;
+    }
+    
+    private int countWithin(String name, int start, int end) {
+        int ct = 0;
+        for (Structure s : structures) {
+            if (name.equals(s.getName()) && s.getStart() >= start && s.getEnd() <= end)
+                ct++;
+        }
+        
+        return ct;
+    }
+    
+    public void testFindAtPosition() {
+        for (int pos = 0; pos < NUM_TOKENS; pos += 37) {
+            SortedSet<Structure> found = repo.find(work, pos);
+            assertEquals(countOverlapping(null, pos, pos + 1), found.size());
+            for (Structure s : found) {
+                assertTrue(s.getStart() <= pos && pos < s.getEnd());
+            }
+        }
+    }
+    
+    public void testFindOverlapping() {
+        for (int start = 0; start < NUM_TOKENS; start += 101) {
+            int end = start + 50;
+            assertEquals(countOverlapping(null, start, end), 
+                    repo.findOverlapping(work, start, end).size());
+            assertEquals(countOverlapping("verse", start, end), 
+                    repo.find(work, "verse", start, end, true).size());
+        }
+        
+        assertTrue(repo.findOverlapping(work, 100, 100).isEmpty());
+    }
+    
+    public void testFindWithin() {
+        for (int start = 0; start < NUM_TOKENS; start += 101) {
+            int end = start + 500;
+            SortedSet<Structure> found = repo.find(work, "paragraph", start, end);
+            assertEquals(countWithin("paragraph", start, end), found.size());
+            assertEquals(found, repo.find(work, "paragraph", start, end, false));
+        }
+    }
+    
+    public void testSavedStructuresAreReindexed() {
+        Structure s = structures.get(0);
+        int pos = NUM_TOKENS + 1000;
+        assertTrue(repo.find(work, pos).isEmpty());
+        
+        s.setStartTokenPosition(pos);
+        s.setEndTokenPosition(pos);
+        assertTrue(repo.save(s));
+        
+        SortedSet<Structure> found = repo.find(work, pos);
+        assertEquals(1, found.size());
+        assertSame(s, found.first());
+    }
+    
+    public void testFindByAttribute() {
+        for (int i = 0; i < NUM_STRUCTURES; i += 7) {
+            Structure expected = structures.get(i);
+            SortedSet<Structure> found = 
+                    repo.find(work, expected.getName(), "osisID", "EX." + i);
+            assertEquals(1, found.size());
+            assertSame(expected, found.first());
+        }
+        
+        // the name of the structure must match as well as the attribute
+        assertTrue(repo.find(work, NAMES[1], "osisID", "EX.0").isEmpty());
+        assertTrue(repo.find(work, NAMES[0], "osisID", "EX.none").isEmpty());
+    }
+    
+    public void testFindByAttributeInAllWorks() {
+        Work other = new Work(UUID.randomUUID());
+        Structure s = new Structure(other.getUUID(), NAMES[0]);
+        s.setStartTokenPosition(0);
+        s.setEndTokenPosition(1);
+        s.setAttribute("osisID", "EX.0");
+        assertSame(s, repo.create(s));
+        
+        Map<UUID, SortedSet<Structure>> found = repo.find(NAMES[0], "osisID", "EX.0");
+        assertEquals(2, found.size());
+        assertSame(structures.get(0), found.get(work.getUUID()).first());
+        assertSame(s, found.get(other.getUUID()).first());
+        assertTrue(repo.find(work, NAMES[0], "osisID", "EX.0").contains(structures.get(0)));
+        assertEquals(1, repo.find(other, NAMES[0], "osisID", "EX.0").size());
+    }
+    
+    public void testChangedAttributesAreReindexed() {
+        Structure s = structures.get(0);
+        s.setAttribute("osisID", "EX.changed");
+        assertTrue(repo.save(s));
+        
+        assertTrue(repo.find(work, s.getName(), "osisID", "EX.0").isEmpty());
+        SortedSet<Structure> found = repo.find(work, s.getName(), "osisID", "EX.changed");
+        assertEquals(1, found.size());
+        assertSame(s, found.first());
+    }
+    
+    public void testAttributesWithoutValuesAreNotIndexed() {
+        Structure s = structures.get(0);
+        s.setAttribute("speaker", null);
+        assertTrue(repo.save(s));
+        
+        assertTrue(repo.find(work, s.getName(), "speaker", null).isEmpty());
+        assertTrue(repo.find(work, s.getName(), "speaker", "null").isEmpty());
+        assertSame(s, repo.find(work, s.getName(), "osisID", "EX.0").first());
+    }
+}
@@ -0,0 +1,199 @@
+/**
+ * 
+ */
+package org.idch.texts.persist.mem;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+
+import org.idch.texts.Structure;
+import org.idch.texts.StructureRepository;
+import org.idch.texts.Token;
+import org.idch.texts.TokenRepository;
+import org.idch.texts.Work;
+
+import junit.framework.TestCase;
+
+/**
+ * Runs mixed workloads against a {@link MemTextModule} from several threads. Each thread
+ * checks that what it has created is immediately visible to it, and that every result 
+ * it sees from other threads is consistent with its query. Violations are collected and
+ * reported once the threads have finished, in the manner of a jcstress test: the 
+ * interleavings are not controlled, so a passing run shows only that no forbidden 
+ * outcome was observed.
+ * 
+ * @author Neal Audenaert
+ */
+public class MemTextModuleStressTests extends TestCase {
+    
+    private static final int NUM_THREADS = 8;
+    private static final int NUM_WORKS = 3;
+    private static final int ITERATIONS = 1500;
+    private static final int NUM_TOKENS = 20000;
+    
+    private static final String[] NAMES = { "verse", "paragraph" };
+    private static final String[] TEXT = { "λόγος", " ", "καὶ", " ", "θεὸς", "." };
+    
+    private MemTextModule module;
+    private List<Work> works;
+    private Queue<String> failures;
+    
+    protected void setUp() throws Exception {
+        module = new MemTextModule();
+        failures = new ConcurrentLinkedQueue<String>();
+        
+        works = new ArrayList<Work>();
+        for (int i = 0; i < NUM_WORKS; i++) {
+            Work w = new Work("Work " + i, "W" + i, "A work to be updated concurrently");
+            ((MemWorkRepository)module.getWorkRepository()).create(w);
+            works.add(w);
+        }
+    }
+    
+    /** Runs a task on each of several threads, starting them together. */
+    private void run(final Task task) throws InterruptedException {
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < NUM_THREADS; i++) {
+            final int id = i;
+            Thread t = new Thread() {
+                public void run() {
+                    try {
+                        start.await();
+                        task.run(id);
+                    } catch (Throwable ex) {
+                        failures.add("Thread " + id + " failed: " + ex);
+                    }
+                }
+            };
+            
+            threads.add(t);
+            t.start();
+        }
+        
+        start.countDown();
+        for (Thread t : threads) {
+            t.join();
+        }
+        
+        if (!failures.isEmpty())
+            fail(failures.size() + " violations, e.g., " + failures.peek());
+    }
+    
+    private interface Task {
+        void run(int thread);
+    }
+    
+    private void check(boolean condition, String msg) {
+        if (!condition)
+            failures.add(msg);
+    }
+    
+    public void testConcurrentStructures() throws Exception {
+        final StructureRepository repo = module.getStructureRepository();
+        final List<Structure> created = Collections.synchronizedList(new ArrayList<Structure>());
+        
+        run(new Task() {
+            public void run(int thread) {
+                Random random = new Random(thread);
+                for (int i = 0; i < ITERATIONS; i++) {
+                    Work w = works.get(random.nextInt(NUM_WORKS));
+                    String name = NAMES[i % NAMES.length];
+                    String osisId = "T" + thread + "." + i;
+                    
+                    Structure s = new Structure(w.getUUID(), name);
+                    int start = random.nextInt(NUM_TOKENS);
+                    s.setStartTokenPosition(start);
+                    s.setEndTokenPosition(start + 1 + random.nextInt(100));
+                    s.setAttribute("osisID", osisId);
+                    check(repo.create(s) == s, "Not created: " + osisId);
+                    created.add(s);
+                    
+                    // a structure is visible to its creator as soon as it is created
+                    check(repo.find(s.getUUID()) == s, "Not found by UUID: " + osisId);
+                    check(repo.find(w, name).contains(s), "Not found by name: " + osisId);
+                    check(repo.find(w, start).contains(s), "Not found at start: " + osisId);
+                    check(repo.find(w, name, "osisID", osisId).contains(s), 
+                            "Not found by attribute: " + osisId);
+                    
+                    // and every structure found satisfies the query, whoever created it
+                    int pos = random.nextInt(NUM_TOKENS);
+                    for (Structure found : repo.find(w, pos)) {
+                        check(found.getStart() <= pos && pos < found.getEnd(), 
+                                "Does not include " + pos + ": " + found.getAttribute("osisID"));
+                        check(found.getWorkUUID().equals(w.getUUID()), 
+                                "Found in the wrong work: " + found.getAttribute("osisID"));
+                    }
+                }
+            }
+        });
+        
+        // every structure was assigned a distinct id and is indexed exactly once
+        Set<Long> ids = new HashSet<Long>();
+        int ct = 0;
+        for (Structure s : created) {
+            assertTrue(ids.add(s.getId()));
+        }
+        
+        for (Work w : works) {
+            for (String name : NAMES) {
+                ct += repo.find(w, name).size();
+            }
+        }
+        
+        assertEquals(NUM_THREADS * ITERATIONS, ct);
+    }
+    
+    public void testConcurrentTokens() throws Exception {
+        final TokenRepository repo = module.getTokenRepository();
+        
+        run(new Task() {
+            public void run(int thread) {
+                Random random = new Random(thread);
+                Work w = works.get(thread % NUM_WORKS);
+                for (int i = 0; i < ITERATIONS; i++) {
+                    List<Token> tokens = new ArrayList<Token>();
+                    for (int j = 0; j < TEXT.length; j++) {
+                        tokens.add(new Token(w, 0, TEXT[j]));
+                    }
+                    
+                    // tokens created together are assigned consecutive positions
+                    repo.create(tokens);
+                    int first = tokens.get(0).getPosition();
+                    for (int j = 0; j < TEXT.length; j++) {
+                        Token t = tokens.get(j);
+                        check(t.getPosition() == first + j, "Not consecutive: " + t);
+                        
+                        Token found = repo.find(w, t.getPosition());
+                        check(found != null && found.getUUID().equals(t.getUUID()), 
+                                "Not found at its position: " + t);
+                    }
+                    
+                    Token t = tokens.get(random.nextInt(TEXT.length));
+                    Token found = repo.find(t.getUUID());
+                    check(found != null && found.getPosition() == t.getPosition(),
+                            "Not found by UUID: " + t);
+                    
+                    // any token below the count is readable, whoever appended it
+                    int n = repo.getNumberOfTokens(w);
+                    Token other = repo.find(w, random.nextInt(n));
+                    check(other != null && other.getText() != null, "Not readable: " + other);
+                }
+            }
+        });
+        
+        int ct = 0;
+        for (Work w : works) {
+            ct += repo.getNumberOfTokens(w);
+        }
+        
+        assertEquals(NUM_THREADS * ITERATIONS * TEXT.length, ct);
+    }
+}
@@ -0,0 +1,116 @@
+/**
+ * 
+ */
+package org.idch.texts.persist.mem;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import org.idch.texts.Token;
+import org.idch.texts.TokenVisitor;
+import org.idch.texts.Work;
+
+import junit.framework.TestCase;
+
+/**
+ * @author Neal Audenaert
+ */
+public class MemTokenRepositoryTests extends TestCase {
+    
+    private static final String[] TEXT = {
+        "Ἰούδας", " ", "Ἰησοῦ", " ", "Χριστοῦ", " ", "δοῦλος", ",", " ", "ἀδελφὸς"
+    };
+    
+    private MemTokenRepository repo;
+    private Work work;
+    
+    protected void setUp() throws Exception {
+        MemTextModule module = new MemTextModule();
+        repo = (MemTokenRepository)module.getTokenRepository();
+        
+        work = new Work("Example", "EX", "An example work");
+        ((MemWorkRepository)module.getWorkRepository()).create(work);
+    }
+    
+    private List<Token> createTokens(int ct) {
+        List<Token> tokens = new ArrayList<Token>();
+        for (int i = 0; i < ct; i++) {
+            tokens.add(new Token(work, i, TEXT[i % TEXT.length]));
+        }
+        
+        return repo.create(tokens);
+    }
+    
+    public void testCreateAndFind() {
+        List<Token> tokens = createTokens(5000);
+        assertEquals(5000, repo.getNumberOfTokens(work));
+        
+        for (int i = 0; i < tokens.size(); i += 7) {
+            Token expected = tokens.get(i);
+            Token t = repo.find(work, i);
+            
+            assertEquals(i, t.getPosition());
+            assertEquals(expected.getText(), t.getText());
+            assertEquals(expected.getType(), t.getType());
+            assertEquals(expected.getUUID(), t.getUUID());
+            assertSame(work, t.getWork());
+        }
+        
+        assertNull(repo.find(work, 5000));
+    }
+    
+    public void testFindRange() {
+        createTokens(100);
+        
+        List<Token> tokens = repo.find(work, 10, 20);
+        assertEquals(10, tokens.size());
+        for (int i = 0; i < tokens.size(); i++) {
+            assertEquals(10 + i, tokens.get(i).getPosition());
+            assertEquals(TEXT[(10 + i) % TEXT.length], tokens.get(i).getText());
+        }
+        
+        // ranges that extend past the end of the work are truncated
+        assertEquals(5, repo.find(work, 95, 200).size());
+    }
+    
+    public void testForEach() {
+        createTokens(100);
+        
+        final List<Token> visited = new ArrayList<Token>();
+        assertTrue(repo.forEach(work, 10, 200, new TokenVisitor() {
+            public boolean visit(Token t) {
+                visited.add(t);
+                return true;
+            }
+        }));
+        
+        assertEquals(90, visited.size());
+        for (int i = 0; i < visited.size(); i++) {
+            assertEquals(10 + i, visited.get(i).getPosition());
+            assertEquals(TEXT[(10 + i) % TEXT.length], visited.get(i).getText());
+        }
+        
+        // the visitor may stop early
+        visited.clear();
+        assertFalse(repo.forEach(work, 0, 100, new TokenVisitor() {
+            public boolean visit(Token t) {
+                visited.add(t);
+                return visited.size() < 5;
+            }
+        }));
+        assertEquals(5, visited.size());
+    }
+    
+    public void testFindByUUID() {
+        List<Token> tokens = createTokens(3000);
+        
+        Token expected = tokens.get(2345);
+        Token t = repo.find(expected.getUUID());
+        assertNotNull(t);
+        assertEquals(2345, t.getPosition());
+        assertEquals(expected.getText(), t.getText());
+        
+        assertNull(repo.find(UUID.randomUUID()));
+    }
+}
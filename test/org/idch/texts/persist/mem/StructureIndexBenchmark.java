@@ -0,0 +1,126 @@
+/**
+ *
+ */
+package org.idch.texts.persist.mem;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+import org.idch.texts.Structure;
+import org.idch.texts.StructureComparator;
+import org.idch.texts.StructureRepository;
+import org.idch.texts.Work;
+
+/**
+ * Compares the positional queries of {@link MemStructureRepository} with a scan of the
+ * structures sorted by start position, as the repository performed before it indexed
+ * structure positions. The structures approximate those of the New Testament: 7,957
+ * verses, together with paragraphs and speaker turns that cross verse boundaries. This
+ * is run by hand rather than as part of the unit tests:
+ *
+ * <pre>
+ *   java org.idch.texts.persist.mem.StructureIndexBenchmark [numLookups]
+ * </pre>
+ *
+ * @author Neal Audenaert
+ */
+public class StructureIndexBenchmark {
+
+    private static final int NUM_VERSES = 7957;
+    private static final int NUM_PARAGRAPHS = 2400;
+    private static final int NUM_SPEAKERS = 1800;
+
+    /** The approximate number of tokens (including whitespace) in a verse. */
+    private static final int VERSE_LENGTH = 36;
+    private static final int NUM_TOKENS = NUM_VERSES * VERSE_LENGTH;
+
+    private static final String[] NAMES = { "verse", "paragraph", "speaker" };
+
+    private static Structure create(Work w, String name, int start, int end) {
+        Structure s = new Structure(w.getUUID(), name);
+        s.setStartTokenPosition(start);
+        s.setEndTokenPosition(end - 1);
+        return s;
+    }
+
+    /** Returns structures of the specified name that divide the work into equal parts. */
+    private static List<Structure> divide(Work w, String name, int ct, int offset) {
+        List<Structure> structures = new ArrayList<Structure>();
+        for (int i = 0; i < ct; i++) {
+            int start = Math.min(NUM_TOKENS - 1, offset + (int)((long)NUM_TOKENS * i / ct));
+            int end = Math.min(NUM_TOKENS, offset + (int)((long)NUM_TOKENS * (i + 1) / ct));
+            structures.add(create(w, name, start, Math.max(start + 1, end)));
+        }
+
+        return structures;
+    }
+
+    /** Finds the structures that include a position by scanning a sorted set. */
+    private static int scan(SortedSet<Structure> structures, int pos) {
+        SortedSet<Structure> results = new TreeSet<Structure>(new StructureComparator());
+        for (Structure s : structures) {
+            if (s.getEnd() <= pos)
+                continue;
+
+            if (s.getStart() > pos)
+                break;
+
+            results.add(s);
+        }
+
+        return results.size();
+    }
+
+    private static void report(String label, long start, int lookups, int found) {
+        double us = (System.nanoTime() - start) / 1e3;
+        System.out.println(String.format("%-24s %10.3f us/lookup (%d structures found)",
+                label, us / lookups, found));
+    }
+
+    public static void main(String[] args) {
+        int numLookups = (args.length > 0) ? Integer.parseInt(args[0]) : 100000;
+
+        MemTextModule module = new MemTextModule();
+        StructureRepository repo = module.getStructureRepository();
+        Work w = new Work("New Testament", "NT", "Benchmark structures");
+        ((MemWorkRepository)module.getWorkRepository()).create(w);
+
+        repo.createAll(divide(w, "verse", NUM_VERSES, 0));
+        repo.createAll(divide(w, "paragraph", NUM_PARAGRAPHS, VERSE_LENGTH / 2));
+        repo.createAll(divide(w, "speaker", NUM_SPEAKERS, VERSE_LENGTH / 3));
+
+        Random random = new Random();
+        int[] positions = new int[numLookups];
+        for (int i = 0; i < numLookups; i++) {
+            positions[i] = random.nextInt(NUM_TOKENS);
+        }
+
+        for (int round = 0; round < 2; round++) {          // the first round warms up
+            long start = System.nanoTime();
+            int found = 0;
+            for (int pos : positions) {
+                for (String name : NAMES) {
+                    found += scan(repo.find(w, name), pos);
+                }
+            }
+            report("sorted set scan", start, numLookups, found);
+
+            start = System.nanoTime();
+            found = 0;
+            for (int pos : positions) {
+                found += repo.find(w, pos).size();
+            }
+            report("interval index", start, numLookups, found);
+
+            start = System.nanoTime();
+            found = 0;
+            for (int pos : positions) {
+                found += repo.findOverlapping(w, pos, pos + 10 * VERSE_LENGTH).size();
+            }
+            report("interval index (overlap)", start, numLookups, found);
+        }
+    }
+}
@@ -0,0 +1,46 @@
+/**
+ * 
+ */
+package org.idch.texts.persist.mysql;
+
+import java.util.UUID;
+
+import junit.framework.TestCase;
+
+/**
+ * @author Neal Audenaert
+ */
+public class BinaryUUIDTests extends TestCase {
+    
+    public void testRoundTrip() {
+        for (int i = 0; i < 1000; i++) {
+            UUID uuid = UUID.randomUUID();
+            byte[] bytes = BinaryUUID.toBytes(uuid);
+            
+            assertEquals(BinaryUUID.SIZE, bytes.length);
+            assertEquals(uuid, BinaryUUID.fromBytes(bytes));
+        }
+    }
+    
+    /** The binary form must match MySQL's UNHEX(REPLACE(uuid, '-', '')). */
+    public void testMatchesHexString() {
+        UUID uuid = UUID.fromString("0189f7a2-3c4d-7e5f-8a9b-0c1d2e3f4a5b");
+        byte[] bytes = BinaryUUID.toBytes(uuid);
+        
+        StringBuilder hex = new StringBuilder();
+        for (byte b : bytes) {
+            hex.append(String.format("%02x", b & 0xFF));
+        }
+        
+        assertEquals(uuid.toString().replace("-", ""), hex.toString());
+    }
+    
+    public void testInvalidLength() {
+        try {
+            BinaryUUID.fromBytes(new byte[15]);
+            fail("Expected invalid UUID to be rejected");
+        } catch (IllegalArgumentException ex) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,180 @@
+/**
+ *
+ */
+package org.idch.texts.persist.mysql;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import org.idch.texts.Structure;
+import org.idch.texts.Token;
+import org.idch.texts.Work;
+import org.idch.texts.persist.mem.MemTextModule;
+
+import junit.framework.TestCase;
+
+/**
+ * Checks the files written for <tt>LOAD DATA INFILE</tt> by {@link BulkLoadFiles}.
+ *
+ * @author Neal Audenaert
+ */
+public class BulkLoadFilesTests extends TestCase {
+
+    private static final UUID S_UUID = UUID.fromString("0123abcd-4567-89ef-0123-456789abcdef");
+
+    private File dir;
+    private BulkLoadFiles files;
+
+    @Override
+    protected void setUp() throws Exception {
+        dir = File.createTempFile("bulkload", "");
+        dir.delete();
+        dir.mkdir();
+        files = new BulkLoadFiles(dir);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        files.delete();
+        dir.delete();
+    }
+
+    private static List<String> read(File file) throws IOException {
+        List<String> lines = new ArrayList<String>();
+        BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new FileInputStream(file), "UTF-8"));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines.add(line);
+            }
+        } finally {
+            reader.close();
+        }
+
+        return lines;
+    }
+
+    public void testTokens() throws IOException {
+        MemTextModule module = new MemTextModule();
+        Work w = module.getWorkRepository().create("Bible.grc.SBLGNT.2010");
+        w.setTokenRepository(module.getTokenRepository());
+        w.appendAll("Ἐν ἀρχῇ ἦν");
+
+        for (int i = 0; i < w.size(); i++) {
+            files.writeToken(7, w.get(i));
+        }
+        files.writeVocabulary(7, w.getVocabulary(), 0);
+        files.close();
+
+        List<String> tokens = read(files.getTokenFile());
+        assertEquals(w.size(), tokens.size());
+        assertEquals(w.size(), files.getNumberOfTokens());
+        for (int i = 0; i < w.size(); i++) {
+            Token t = w.get(i);
+            String uuid = t.getUUID().toString().replace("-", "");
+            String row = uuid + "\t7\t" + i + "\t" + t.getTermId() + "\t" + t.getType();
+            assertEquals(row, tokens.get(i));
+            assertEquals(BinaryUUID.fromBytes(hex(uuid)), t.getUUID());
+        }
+
+        List<String> vocab = read(files.getVocabularyFile());
+        assertEquals(w.getVocabulary().size(), vocab.size());
+        assertTrue(vocab.contains("7\t" + w.get(0).getTermId() + "\tἘν"));
+        assertTrue(vocab.contains("7\t" + w.get(3).getTermId() + "\t" + w.get(3).getText()));
+    }
+
+    public void testReadTokens() throws IOException {
+        MemTextModule module = new MemTextModule();
+        Work w = module.getWorkRepository().create("Bible.grc.SBLGNT.2010");
+        w.setTokenRepository(module.getTokenRepository());
+        w.appendAll("Ἐν ἀρχῇ ἦν ὁ λόγος");
+
+        long offset = 0;
+        for (int i = 0; i < w.size(); i++) {
+            if (i == 2)
+                offset = files.getTokenOffset();
+
+            files.writeToken(7, w.get(i));
+            files.writeToken(8, w.get(i));
+        }
+
+        // reads unflushed rows, skipping those of other works
+        List<Token> tokens = files.readTokens(w, 7, offset, 3, 6);
+        assertEquals(3, tokens.size());
+        for (int i = 0; i < tokens.size(); i++) {
+            Token expected = w.get(3 + i);
+            assertEquals(expected.getPosition(), tokens.get(i).getPosition());
+            assertEquals(expected.getUUID(), tokens.get(i).getUUID());
+            assertEquals(expected.getText(), tokens.get(i).getText());
+            assertEquals(expected.getType(), tokens.get(i).getType());
+        }
+
+        files.close();
+        assertEquals(files.getTokenFile().length(), files.getTokenOffset());
+        assertEquals(2, files.readTokens(w, 8, offset, w.size() - 2, w.size() + 5).size());
+        assertEquals(S_UUID, BulkLoadFiles.readUUID("0123abcd456789ef0123456789abcdef"));
+    }
+
+    public void testStructures() throws IOException {
+        Structure s = new Structure(UUID.randomUUID(), "verse");
+        s.setUUID(S_UUID);
+        s.setStartTokenPosition(3);
+        s.setAttribute("osisID", "John.1.1");
+        s.setAttribute("note", "a\tb\nc\\d\re\0");
+
+        Structure empty = new Structure(UUID.randomUUID(), null);
+        empty.setUUID(S_UUID);
+
+        files.writeStructure(12, s);
+        files.writeStructure(12, empty);
+        files.close();
+
+        String uuid = "0123abcd456789ef0123456789abcdef";
+        List<String> structures = read(files.getStructureFile());
+        assertEquals(2, structures.size());
+        assertEquals(uuid + "\t12\tverse\t\\N\t3\t\\N", structures.get(0));
+        assertEquals(uuid + "\t12\t\\N\t\\N\t\\N\t\\N", structures.get(1));
+        assertEquals(2, files.getNumberOfStructures());
+
+        List<String> attrs = read(files.getAttributeFile());
+        assertEquals(2, attrs.size());
+        assertTrue(attrs.contains(uuid + "\tosisID\tJohn.1.1"));
+        assertTrue(attrs.contains(uuid + "\tnote\ta\\tb\\nc\\\\d\\re\\0"));
+    }
+
+    public void testDelete() throws IOException {
+        files.close();
+        files.close();
+        assertTrue(files.getTokenFile().exists());
+
+        files.delete();
+        assertFalse(files.getTokenFile().exists());
+        assertFalse(files.getStructureFile().exists());
+        assertFalse(files.getAttributeFile().exists());
+        assertFalse(files.getVocabularyFile().exists());
+    }
+
+    public void testLoadSQL() {
+        File file = new File("/tmp/it's");
+        assertEquals("LOAD DATA LOCAL INFILE '/tmp/it\\'s' INTO TABLE texts_tokens " +
+                "CHARACTER SET utf8 (@uuid, work_id) SET uuid = UNHEX(@uuid)",
+                MySQLBulkLoader.getLoadSQL(file, "texts_tokens", "@uuid, work_id",
+                        "uuid = UNHEX(@uuid)"));
+    }
+
+    private static byte[] hex(String digits) {
+        byte[] bytes = new byte[digits.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte)Integer.parseInt(digits.substring(2 * i, 2 * i + 2), 16);
+        }
+
+        return bytes;
+    }
+}
@@ -0,0 +1,130 @@
+/**
+ *
+ */
+package org.idch.texts.persist.mysql;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.idch.texts.UnitOfWork;
+
+/**
+ * Builds the fake JDBC objects used to run the MySQL repositories without a database.
+ * Each fake passes its calls to a handler; calls for which the handler returns 
+ * <tt>null</tt> return <tt>false</tt>, zero or <tt>null</tt>, according to the return 
+ * type of the method.
+ *
+ * @author Neal Audenaert
+ */
+class FakeJDBC {
+
+    private FakeJDBC() {
+    }
+
+    /** Returns the value returned by a fake for calls that its handler does not answer. */
+    static Object defaultValue(Class<?> type) {
+        if (type.equals(boolean.class))
+            return Boolean.FALSE;
+        if (type.equals(int.class))
+            return Integer.valueOf(0);
+        if (type.equals(long.class))
+            return Long.valueOf(0);
+        if (type.equals(short.class))
+            return Short.valueOf((short)0);
+        if (type.equals(byte.class))
+            return Byte.valueOf((byte)0);
+        if (type.equals(double.class))
+            return Double.valueOf(0);
+        if (type.equals(float.class))
+            return Float.valueOf(0);
+
+        return null;
+    }
+
+    /** Creates a fake JDBC object of the specified type. */
+    static <T> T proxy(Class<T> type, final InvocationHandler handler) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type },
+                new InvocationHandler() {
+                    public Object invoke(Object proxy, Method m, Object[] args)
+                            throws Throwable {
+                        Object result = handler.invoke(proxy, m, args);
+                        return (result != null) ? result : defaultValue(m.getReturnType());
+                    }
+                }));
+    }
+
+    /** Returns a list holding a single row. */
+    static List<Object[]> rows(Object... row) {
+        List<Object[]> rows = new ArrayList<Object[]>();
+        rows.add(row);
+        return rows;
+    }
+
+    /** Returns a result set over the supplied rows. */
+    static ResultSet results(List<Object[]> rows) {
+        return results(rows, null);
+    }
+
+    /**
+     * Returns a result set over the supplied rows. Each call is first passed to a hook; 
+     * if the hook returns <tt>null</tt>, the call is answered from the rows.
+     */
+    static ResultSet results(final List<Object[]> rows, final InvocationHandler hook) {
+        return proxy(ResultSet.class, new InvocationHandler() {
+            private int row = -1;
+            private Object last = null;
+
+            public Object invoke(Object proxy, Method m, Object[] args) throws Throwable {
+                Object result = (hook != null) ? hook.invoke(proxy, m, args) : null;
+                if (result != null)
+                    return result;
+
+                String name = m.getName();
+                if (name.equals("next")) {
+                    return ++row < rows.size();
+                } else if (name.equals("wasNull")) {
+                    return last == null;
+                } else if (name.startsWith("get") && args != null && row < rows.size()) {
+                    last = rows.get(row)[(Integer)args[0] - 1];
+                    return last;
+                }
+
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Returns a module whose repositories use the supplied connection. The connection is
+     * never closed, and each unit of work is bound to it.
+     */
+    static MySQLTextModule module(final Connection conn) {
+        return new MySQLTextModule() {
+            @Override
+            public Connection openConnection() {
+                return conn;
+            }
+
+            @Override
+            public Connection openReadOnlyConnection() {
+                return conn;
+            }
+
+            @Override
+            public void closeConnection(Connection c) {
+                // the fake connection is not pooled
+            }
+
+            @Override
+            public UnitOfWork beginUnitOfWork() {
+                return new MySQLUnitOfWork(this, conn);
+            }
+        };
+    }
+
+}
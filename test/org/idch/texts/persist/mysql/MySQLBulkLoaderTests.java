@@ -0,0 +1,114 @@
+/**
+ *
+ */
+package org.idch.texts.persist.mysql;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.idch.persist.RepositoryAccessException;
+import org.idch.texts.Token;
+import org.idch.texts.TokenRepository;
+import org.idch.texts.Work;
+import org.idch.texts.WorkRepository;
+import org.idch.texts.persist.mem.MemTextModule;
+
+import junit.framework.TestCase;
+
+/**
+ * Checks the tokens read back and the handling of failed loads by {@link MySQLBulkLoader}.
+ *
+ * @author Neal Audenaert
+ */
+public class MySQLBulkLoaderTests extends TestCase {
+
+    private File dir;
+    private MySQLBulkLoader loader;
+
+    @Override
+    protected void setUp() throws Exception {
+        dir = File.createTempFile("bulkload", "");
+        dir.delete();
+        dir.mkdir();
+
+        final MemTextModule mem = new MemTextModule();
+        MySQLTextModule module = new MySQLTextModule() {
+            @Override
+            public Connection openConnection() throws SQLException {
+                throw new SQLException("No database.");
+            }
+
+            @Override
+            public WorkRepository getWorkRepository() {
+                return mem.getWorkRepository();
+            }
+        };
+
+        loader = new MySQLBulkLoader(module, dir);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        File[] contents = dir.listFiles();
+        for (File f : contents) {
+            f.delete();
+        }
+
+        dir.delete();
+    }
+
+    public void testReadsBackWrittenTokens() {
+        Work w = loader.getWorkRepository().create("Bible.grc.SBLGNT.2010");
+        int size = MySQLBulkLoader.WINDOW + 3 * MySQLBulkLoader.INTERVAL + 5;
+        List<Token> appended = new ArrayList<Token>();
+        for (int i = 0; i < size; i++) {
+            appended.addAll(w.appendAll((i % 2 == 0) ? "word" + (i % 7) : " "));
+        }
+        w.flushTokens();
+
+        TokenRepository repo = loader.getTokenRepository();
+        assertEquals(size, repo.getNumberOfTokens(w));
+
+        // tokens that have left the in-memory window are read from the token file
+        int oldest = size - MySQLBulkLoader.WINDOW;
+        int[] positions = { 0, 1, MySQLBulkLoader.INTERVAL + 3, oldest - 1, oldest, size - 1 };
+        for (int pos : positions) {
+            Token expected = appended.get(pos);
+            Token found = repo.find(w, pos);
+            assertEquals(pos, found.getPosition());
+            assertEquals(expected.getUUID(), found.getUUID());
+            assertEquals(expected.getText(), found.getText());
+            assertEquals(expected.getType(), found.getType());
+        }
+        assertNull(repo.find(w, size));
+
+        int start = oldest - 10;
+        List<Token> range = repo.find(w, start, size + 10);
+        assertEquals(size - start, range.size());
+        for (int i = 0; i < range.size(); i++) {
+            assertEquals(start + i, range.get(i).getPosition());
+            assertEquals(appended.get(start + i).getUUID(), range.get(i).getUUID());
+        }
+    }
+
+    public void testFailedLoadIsNotRetried() {
+        try {
+            loader.load();
+            fail("Expected the load to fail.");
+        } catch (RepositoryAccessException ex) {
+            // expected
+        }
+
+        try {
+            loader.load();
+            fail("Expected the spent loader to be rejected.");
+        } catch (RepositoryAccessException ex) {
+            fail("Expected the spent loader to be rejected before loading.");
+        } catch (IllegalStateException ex) {
+            assertTrue(ex.getMessage().contains(dir.getPath()));
+        }
+    }
+}
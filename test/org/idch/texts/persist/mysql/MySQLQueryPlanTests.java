@@ -0,0 +1,236 @@
+/**
+ *
+ */
+package org.idch.texts.persist.mysql;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import junit.framework.TestCase;
+
+/**
+ * Runs <tt>EXPLAIN</tt> for the queries used to retrieve structures and fails if any of
+ * them reads an entire table or index. The queries are explained against a scratch
+ * database that is created from <tt>sql/texts/create.sql</tt> and populated with a small
+ * work. The database is identified by the following system properties; the tests are
+ * skipped if these are not set:
+ *
+ * <pre>
+ *   texts.test.db.url       (e.g., jdbc:mysql://localhost/texts_test)
+ *   texts.test.db.user
+ *   texts.test.db.password
+ * </pre>
+ *
+ * <p>Any texts tables in the scratch database are dropped.
+ *
+ * @author Neal Audenaert
+ */
+public class MySQLQueryPlanTests extends TestCase {
+
+    public static final String URL_PROP = "texts.test.db.url";
+    public static final String USER_PROP = "texts.test.db.user";
+    public static final String PASSWORD_PROP = "texts.test.db.password";
+
+    private static final File SCRIPT_DIR = new File("sql/texts");
+
+    private static final int NUM_CHAPTERS = 50;
+    private static final int NUM_VERSES = 40;
+    private static final int VERSE_LENGTH = 20;
+
+    private Connection conn;
+    private long workId;
+
+    @Override
+    protected void setUp() throws Exception {
+        String url = System.getProperty(URL_PROP);
+        if (url == null)
+            return;
+
+        conn = DriverManager.getConnection(url,
+                System.getProperty(USER_PROP), System.getProperty(PASSWORD_PROP));
+        run("drop.sql");
+        run("create.sql");
+        populate();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        if (conn == null)
+            return;
+
+        try {
+            run("drop.sql");
+        } finally {
+            conn.close();
+        }
+    }
+
+    /** Executes the statements of an SQL script. */
+    private void run(String script) throws Exception {
+        Statement stmt = conn.createStatement();
+        try {
+            for (String sql : MySQLSchemaMigrator.readScript(new File(SCRIPT_DIR, script))) {
+                stmt.execute(sql);
+            }
+        } finally {
+            stmt.close();
+        }
+    }
+
+    /**
+     * Stores a work with a book that is divided into chapters and verses, and updates the
+     * index statistics so that the plans reflect a populated database.
+     */
+    private void populate() throws Exception {
+        PreparedStatement stmt = conn.prepareStatement(
+                "INSERT INTO texts_works (uuid, title) VALUES (?, 'Query Plans')",
+                PreparedStatement.RETURN_GENERATED_KEYS);
+        try {
+            BinaryUUID.set(stmt, 1, UUID.randomUUID());
+            stmt.executeUpdate();
+            ResultSet results = stmt.getGeneratedKeys();
+            results.next();
+            workId = results.getLong(1);
+        } finally {
+            stmt.close();
+        }
+
+        int chapterLength = NUM_VERSES * VERSE_LENGTH;
+        insert("book", "Gen", 0, NUM_CHAPTERS * chapterLength - 1);
+        for (int c = 0; c < NUM_CHAPTERS; c++) {
+            int start = c * chapterLength;
+            insert("chapter", "Gen." + (c + 1), start, start + chapterLength - 1);
+            for (int v = 0; v < NUM_VERSES; v++) {
+                int pos = start + v * VERSE_LENGTH;
+                insert("verse", "Gen." + (c + 1) + "." + (v + 1), pos, pos + VERSE_LENGTH - 1);
+            }
+        }
+
+        Statement analyze = conn.createStatement();
+        try {
+            analyze.execute("ANALYZE TABLE texts_structures, texts_structureattributes");
+        } finally {
+            analyze.close();
+        }
+    }
+
+    /** Stores a structure spanning the token positions <tt>[start, end]</tt>. */
+    private void insert(String name, String osisId, int start, int end) throws Exception {
+        long id;
+        int level = MySQLStructureRepository.getSpanLevel(start, end);
+        PreparedStatement stmt = conn.prepareStatement(
+                "INSERT INTO texts_structures " +
+                "       (uuid, work_id, structure_name, start_pos, end_pos, " +
+                "        span_level, span_bucket) " +
+                "VALUES (?, ?, ?, ?, ?, ?, ?)", PreparedStatement.RETURN_GENERATED_KEYS);
+        try {
+            BinaryUUID.set(stmt, 1, UUID.randomUUID());
+            stmt.setLong(2, workId);
+            stmt.setString(3, name);
+            stmt.setInt(4, start);
+            stmt.setInt(5, end);
+            stmt.setInt(6, level);
+            stmt.setInt(7, start >> level);
+            stmt.executeUpdate();
+            ResultSet results = stmt.getGeneratedKeys();
+            results.next();
+            id = results.getLong(1);
+        } finally {
+            stmt.close();
+        }
+
+        stmt = conn.prepareStatement(
+                "INSERT INTO texts_structureattributes VALUES (?, 'osisID', ?)");
+        try {
+            stmt.setLong(1, id);
+            stmt.setString(2, osisId);
+            stmt.executeUpdate();
+        } finally {
+            stmt.close();
+        }
+    }
+
+    /**
+     * Explains a query and returns a description of the first step of its plan that reads
+     * an entire table or index, or <tt>null</tt> if there is no such step.
+     */
+    private String findFullScan(String sql, Object[] params) throws Exception {
+        PreparedStatement stmt = conn.prepareStatement("EXPLAIN " + sql);
+        try {
+            for (int i = 0; i < params.length; i++) {
+                stmt.setObject(i + 1, params[i]);
+            }
+
+            ResultSet results = stmt.executeQuery();
+            while (results.next()) {
+                String type = results.getString("type");
+                if ("ALL".equals(type) || "index".equals(type))
+                    return results.getString("table") + " (" + type + ")";
+            }
+        } finally {
+            stmt.close();
+        }
+
+        return null;
+    }
+
+    /** 
+     * Returns the parameters of a span query for the range <tt>[first, last]</tt>, or 
+     * for the position <tt>first</tt> if <tt>range</tt> is not set.
+     */
+    private Object[] getSpanParameters(int first, int last, boolean range) {
+        List<Object> params = new ArrayList<Object>();
+        params.add(workId);
+        for (int level = 0; level < MySQLStructureRepository.SPAN_LEVELS; level++) {
+            params.add(first >> level);
+            if (range)
+                params.add(last >> level);
+        }
+
+        params.add(range ? last + 1 : first);
+        params.add(first);
+        return params.toArray();
+    }
+
+    public void testStructureQueriesUseIndexes() throws Exception {
+        if (conn == null)
+            return;
+
+        int mid = NUM_CHAPTERS * NUM_VERSES * VERSE_LENGTH / 2;
+        Map<String, Object[]> queries = new LinkedHashMap<String, Object[]>();
+        queries.put(MySQLStructureRepository.HAS_STRUCTURES_SQL,
+                new Object[] { workId });
+        queries.put(MySQLStructureRepository.FIND_BY_NAME_SQL,
+                new Object[] { workId, "chapter" });
+        queries.put(MySQLStructureRepository.FIND_AT_POSITION_SQL,
+                getSpanParameters(mid, mid, false));
+        queries.put(MySQLStructureRepository.FIND_IN_SPAN_SQL,
+                getSpanParameters(mid, mid + 199, true));
+        queries.put(MySQLStructureRepository.FIND_IN_RANGE_SQL,
+                new Object[] { workId, "verse", mid, mid + 200 });
+        queries.put(MySQLStructureRepository.FIND_OVERLAPPING_SQL,
+                new Object[] { workId, "verse", mid, mid, mid + 200, mid + 200 });
+        queries.put(MySQLStructureRepository.FIND_BY_ATTRIBUTE_SQL,
+                new Object[] { "verse", "osisID", "Gen.1.1" });
+        queries.put(MySQLStructureRepository.FIND_IN_WORK_BY_ATTRIBUTE_SQL,
+                new Object[] { workId, "verse", "osisID", "Gen.1.1" });
+        queries.put(MySQLStructureRepository.AttrRepo.SELECT_SQL,
+                new Object[] { 1L });
+        queries.put(MySQLStructureRepository.AttrRepo.getBatchSQL(4),
+                new Object[] { 1L, 2L, 3L, 4L });
+
+        for (String sql : queries.keySet()) {
+            String scan = findFullScan(sql, queries.get(sql));
+            assertNull("Full scan of " + scan + " for: " + sql, scan);
+        }
+    }
+}
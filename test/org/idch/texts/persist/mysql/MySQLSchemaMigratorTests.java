@@ -0,0 +1,200 @@
+/**
+ *
+ */
+package org.idch.texts.persist.mysql;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.SortedSet;
+import java.util.UUID;
+
+import org.idch.texts.Structure;
+import org.idch.texts.Token;
+import org.idch.texts.TokenRepository;
+import org.idch.texts.Work;
+
+import junit.framework.TestCase;
+
+/**
+ * Migrates a scratch database created from the version 1 schema 
+ * (<tt>create-1.sql</tt>, next to this test) to the current version and reads the 
+ * migrated work through the MySQL repositories. The database is identified by the 
+ * system properties used by {@link MySQLQueryPlanTests}; the tests are skipped if these 
+ * are not set.
+ *
+ * <p>Any texts tables in the scratch database are dropped.
+ *
+ * @author Neal Audenaert
+ */
+public class MySQLSchemaMigratorTests extends TestCase {
+
+    private static final File SCRIPT_DIR = new File("sql/texts");
+    private static final File BASELINE = new File("test/org/idch/texts/persist/mysql/create-1.sql");
+
+    /** The tokens of the work. Terms are distinguished by case. */
+    private static final String[] TOKENS = {
+        "Ἐν", " ", "ἀρχῇ", " ", "ἦν", " ", "ὁ", " ", "λόγος", ",", " ", "Λόγος", "." 
+    };
+
+    private Connection conn;
+    private MySQLTextModule module;
+    private UUID uuid;
+
+    @Override
+    protected void setUp() throws Exception {
+        String url = System.getProperty(MySQLQueryPlanTests.URL_PROP);
+        if (url == null)
+            return;
+
+        conn = DriverManager.getConnection(url,
+                System.getProperty(MySQLQueryPlanTests.USER_PROP), 
+                System.getProperty(MySQLQueryPlanTests.PASSWORD_PROP));
+        run(new File(SCRIPT_DIR, "drop.sql"));
+        run(BASELINE);
+        populate();
+        conn.setAutoCommit(false);
+
+        module = new MySQLTextModule() {
+            @Override
+            public Connection openConnection() {
+                return conn;
+            }
+
+            @Override
+            public Connection openReadOnlyConnection() {
+                return conn;
+            }
+
+            @Override
+            public void rollbackConnection(Connection c) {
+                try {
+                    c.rollback();
+                } catch (SQLException ex) {
+                    throw new RuntimeException(ex);
+                }
+            }
+
+            @Override
+            public void closeConnection(Connection c) {
+                // the connection is closed by tearDown
+            }
+        };
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        if (conn == null)
+            return;
+
+        try {
+            conn.setAutoCommit(true);
+            run(new File(SCRIPT_DIR, "drop.sql"));
+        } finally {
+            conn.close();
+        }
+    }
+
+    /** Executes the statements of an SQL script. */
+    private void run(File script) throws Exception {
+        Statement stmt = conn.createStatement();
+        try {
+            for (String sql : MySQLSchemaMigrator.readScript(script)) {
+                stmt.execute(sql);
+            }
+        } finally {
+            stmt.close();
+        }
+    }
+
+    /** Stores a work, its tokens and a structure in the version 1 schema. */
+    private void populate() throws Exception {
+        uuid = UUID.randomUUID();
+
+        Statement stmt = conn.createStatement();
+        try {
+            stmt.execute("INSERT INTO texts_works (uuid, title) " +
+                         "VALUES ('" + uuid + "', 'Migration')");
+            stmt.execute("INSERT INTO texts_structures " +
+                         "       (uuid, work_uuid, structure_name, start_pos, end_pos) " +
+                         "VALUES ('" + UUID.randomUUID() + "', '" + uuid + "', 'verse', 0, " + 
+                         (TOKENS.length - 1) + ")");
+        } finally {
+            stmt.close();
+        }
+
+        PreparedStatement insert = conn.prepareStatement(
+                "INSERT INTO texts_tokens (uuid, work_id, token_pos, token_text, token_type) " +
+                "SELECT ?, work_id, ?, ?, ? FROM texts_works WHERE uuid = ?");
+        try {
+            for (int i = 0; i < TOKENS.length; i++) {
+                insert.setString(1, UUID.randomUUID().toString());
+                insert.setInt(2, i);
+                insert.setString(3, TOKENS[i]);
+                insert.setString(4, Token.classify(TOKENS[i]).name());
+                insert.setString(5, uuid.toString());
+                insert.executeUpdate();
+            }
+        } finally {
+            insert.close();
+        }
+    }
+
+    public void testMigrateBaseline() throws Exception {
+        if (conn == null)
+            return;
+
+        MySQLSchemaMigrator migrator = new MySQLSchemaMigrator(module, SCRIPT_DIR);
+        assertEquals(1, migrator.getVersion());
+        assertEquals(MySQLSchemaMigrator.SCHEMA_VERSION - 1, migrator.migrate());
+        assertEquals(MySQLSchemaMigrator.SCHEMA_VERSION, migrator.getVersion());
+
+        Work w = module.getWorkRepository().find(uuid);
+        assertNotNull(w);
+        w.setTokenRepository(module.getTokenRepository());
+
+        TokenRepository tokens = module.getTokenRepository();
+        assertEquals(TOKENS.length, tokens.getNumberOfTokens(w));
+        for (int i = 0; i < TOKENS.length; i++) {
+            assertEquals(TOKENS[i], tokens.find(w, i).getText());
+        }
+
+        // new tokens reuse the migrated terms and add new ones after them
+        int size = w.getVocabulary().size();
+        w.appendAll(" λόγος καὶ");
+        w.flushTokens();
+        assertEquals(size + 1, w.getVocabulary().size());
+        assertEquals(TOKENS.length + 4, tokens.getNumberOfTokens(w));
+        assertEquals("καὶ", tokens.find(w, TOKENS.length + 3).getText());
+
+        SortedSet<Structure> verses = module.getStructureRepository().find(w, "verse");
+        assertEquals(1, verses.size());
+        assertEquals(TOKENS.length - 1, verses.first().getEndTokenPosition().intValue());
+    }
+
+    public void testMigrateCurrentSchema() throws Exception {
+        if (conn == null)
+            return;
+
+        conn.setAutoCommit(true);
+        run(new File(SCRIPT_DIR, "drop.sql"));
+        run(new File(SCRIPT_DIR, "create.sql"));
+
+        // a database created at version 4 already stores tokens by term
+        Statement stmt = conn.createStatement();
+        try {
+            stmt.execute("DELETE FROM texts_schema_version");
+            stmt.execute("INSERT INTO texts_schema_version (version) VALUES (4)");
+        } finally {
+            stmt.close();
+        }
+        conn.setAutoCommit(false);
+
+        MySQLSchemaMigrator migrator = new MySQLSchemaMigrator(module, SCRIPT_DIR);
+        assertEquals(1, migrator.migrate());
+        assertEquals(MySQLSchemaMigrator.SCHEMA_VERSION, migrator.getVersion());
+    }
+}
@@ -0,0 +1,212 @@
+/**
+ *
+ */
+package org.idch.texts.persist.mysql;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.UUID;
+
+import org.idch.texts.Structure;
+import org.idch.texts.StructureRepository;
+import org.idch.texts.Work;
+import org.idch.texts.persist.WriteBehindTextModule;
+
+import junit.framework.TestCase;
+
+/**
+ * Retrieves and saves structures through a connection that returns canned rows and 
+ * records the queries and batches issued against it.
+ *
+ * @author Neal Audenaert
+ */
+public class MySQLStructureRepositoryTests extends TestCase {
+
+    private static final int NUM_VERSES = 1000;
+
+    private List<String> queries;
+    private List<String> batches;
+    private List<String> updates;
+    private long nextId;
+    private MySQLTextModule module;
+    private Work work;
+
+    @Override
+    protected void setUp() throws Exception {
+        queries = new ArrayList<String>();
+        batches = new ArrayList<String>();
+        updates = new ArrayList<String>();
+        nextId = 1;
+
+        Connection conn = FakeJDBC.proxy(Connection.class, new InvocationHandler() {
+            public Object invoke(Object proxy, Method m, Object[] args) {
+                return m.getName().equals("prepareStatement") 
+                        ? statement((String)args[0]) : null;
+            }
+        });
+
+        module = FakeJDBC.module(conn);
+
+        work = new Work(1L);
+        work.setUUID(UUID.randomUUID());
+    }
+
+    /** 
+     * Returns a statement that answers structure and attribute queries, and generates
+     * sequential ids for batched inserts.
+     */
+    private PreparedStatement statement(final String sql) {
+        final Map<Integer, Object> params = new HashMap<Integer, Object>();
+        return FakeJDBC.proxy(PreparedStatement.class, new InvocationHandler() {
+            private int batched = 0;
+            private List<Object[]> keys = new ArrayList<Object[]>();
+
+            public Object invoke(Object proxy, Method m, Object[] args) {
+                String name = m.getName();
+                if (name.startsWith("set")) {
+                    params.put((Integer)args[0], args[1]);
+                } else if (name.equals("executeQuery")) {
+                    queries.add(sql);
+                    if (sql.contains("texts_works"))
+                        return FakeJDBC.results(FakeJDBC.rows(work.getId()));
+                    return FakeJDBC.results(sql.contains("texts_structureattributes")
+                            ? attributeRows(params) : structureRows());
+                } else if (name.equals("addBatch")) {
+                    batched++;
+                } else if (name.equals("executeUpdate")) {
+                    updates.add(sql);
+                    return 1;
+                } else if (name.equals("executeBatch")) {
+                    batches.add(sql);
+                    keys.clear();
+                    int[] counts = new int[batched];
+                    for (int i = 0; i < batched; i++) {
+                        counts[i] = 1;
+                        keys.add(new Object[] { nextId++ });
+                    }
+
+                    batched = 0;
+                    return counts;
+                } else if (name.equals("getGeneratedKeys")) {
+                    return FakeJDBC.results(keys);
+                }
+
+                return null;
+            }
+        });
+    }
+
+    private List<Object[]> structureRows() {
+        List<Object[]> rows = new ArrayList<Object[]>();
+        for (int i = 0; i < NUM_VERSES; i++) {
+            rows.add(new Object[] {
+                    BinaryUUID.toBytes(UUID.randomUUID()), 1L, "verse", null,
+                    i, i + 1, (long)(i + 1) });
+        }
+
+        return rows;
+    }
+
+    private List<Object[]> attributeRows(Map<Integer, Object> params) {
+        Set<Object> ids = new LinkedHashSet<Object>(params.values());
+        List<Object[]> rows = new ArrayList<Object[]>();
+        for (Object id : ids) {
+            rows.add(new Object[] { id, "osisID", "v" + id });
+        }
+
+        return rows;
+    }
+
+    public void testAttributesAreRetrievedInBatches() {
+        SortedSet<Structure> verses = module.getStructureRepository().find(work, "verse");
+        assertEquals(NUM_VERSES, verses.size());
+        for (Structure s : verses) {
+            assertEquals("v" + s.getId(), s.getAttribute("osisID"));
+            assertEquals(work.getUUID(), s.getWorkUUID());
+        }
+
+        // one query for the structures and one for each batch of 256 structures
+        assertEquals(5, queries.size());
+        for (String sql : queries.subList(1, queries.size())) {
+            assertTrue(sql, sql.contains("structure_id IN ("));
+        }
+    }
+
+    public void testStructuresAreSavedInBatches() {
+        List<Structure> verses = new ArrayList<Structure>();
+        for (int i = 0; i < NUM_VERSES; i++) {
+            Structure s = new Structure(work.getUUID(), "verse");
+            s.setStartTokenPosition(i);
+            s.setEndTokenPosition(i + 1);
+            s.setAttribute("osisID", "v" + i);
+            verses.add(s);
+        }
+
+        StructureRepository structures = module.getStructureRepository();
+        assertTrue(structures.createAll(verses));
+        for (int i = 0; i < NUM_VERSES; i++) {
+            assertEquals(Long.valueOf(i + 1), verses.get(i).getId());
+        }
+
+        // one batch of inserts and one batch of attributes for each 256 structures
+        assertEquals(8, batches.size());
+        assertEquals(1, queries.size());
+
+        // existing structures are updated, replacing their attributes
+        batches.clear();
+        assertTrue(structures.saveAll(verses));
+        assertEquals(12, batches.size());
+        for (String sql : batches) {
+            assertFalse(sql, sql.startsWith("INSERT INTO texts_structures "));
+        }
+    }
+
+    public void testWriteBehindUpdate() throws Exception {
+        Structure s = new Structure(work.getUUID(), "verse");
+        s.setId(42L);
+        s.setStartTokenPosition(3);
+        s.setEndTokenPosition(8);
+
+        // a lone update is saved on its own rather than in a batch
+        WriteBehindTextModule writeBehind = new WriteBehindTextModule(module);
+        try {
+            assertTrue(writeBehind.getStructureRepository().save(s));
+            writeBehind.flush();
+        } finally {
+            writeBehind.close();
+        }
+
+        assertEquals(1, updates.size());
+        assertTrue(updates.get(0), updates.get(0).startsWith("UPDATE texts_structures "));
+        assertTrue(batches.isEmpty());
+    }
+
+    public void testSpanLevels() {
+        assertEquals(0, MySQLStructureRepository.getSpanLevel(5, 5).intValue());
+        assertEquals(1, MySQLStructureRepository.getSpanLevel(4, 5).intValue());
+        assertEquals(3, MySQLStructureRepository.getSpanLevel(3, 4).intValue());
+        assertNull(MySQLStructureRepository.getSpanLevel(3, null));
+
+        // every position within a span lies in the span's block at its level
+        Random random = new Random(42);
+        for (int i = 0; i < 10000; i++) {
+            int start = random.nextInt(1000000);
+            int end = start + random.nextInt(5000);
+            int level = MySQLStructureRepository.getSpanLevel(start, end);
+            assertTrue(level < MySQLStructureRepository.SPAN_LEVELS);
+            assertEquals(start >> level, end >> level);
+            if (level > 0)
+                assertFalse((start >> (level - 1)) == (end >> (level - 1)));
+        }
+    }
+}
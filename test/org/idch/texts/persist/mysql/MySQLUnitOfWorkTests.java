@@ -0,0 +1,143 @@
+/**
+ *
+ */
+package org.idch.texts.persist.mysql;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.idch.persist.RepositoryAccessException;
+import org.idch.texts.UnitOfWork;
+
+import junit.framework.TestCase;
+
+/**
+ * Checks how {@link MySQLUnitOfWork} passes calls to its bound connection, using a
+ * connection that records the calls made to it.
+ *
+ * @author Neal Audenaert
+ */
+public class MySQLUnitOfWorkTests extends TestCase {
+
+    private List<String> calls;
+    private List<String> statementCalls;
+    private MySQLUnitOfWork unit;
+
+    @Override
+    protected void setUp() throws Exception {
+        calls = new ArrayList<String>();
+        statementCalls = new ArrayList<String>();
+        Connection conn = FakeJDBC.proxy(Connection.class, new InvocationHandler() {
+            public Object invoke(Object proxy, Method m, Object[] args) {
+                calls.add(m.getName());
+                return m.getName().equals("prepareStatement") ? statement() : null;
+            }
+        });
+
+        unit = new MySQLUnitOfWork(new MySQLTextModule(), conn);
+    }
+
+    /** Returns a statement that records the calls made to it. */
+    private PreparedStatement statement() {
+        return FakeJDBC.proxy(PreparedStatement.class, new InvocationHandler() {
+            public Object invoke(Object proxy, Method m, Object[] args) {
+                statementCalls.add(m.getName());
+                return null;
+            }
+        });
+    }
+
+    public void testCommitsAtCheckpoints() throws Exception {
+        Connection conn = unit.getConnection();
+        assertTrue(unit.owns(conn));
+
+        conn.prepareStatement("INSERT");
+        conn.commit();
+        conn.close();
+        assertEquals("[prepareStatement]", calls.toString());
+
+        unit.checkpoint();
+        conn.prepareStatement("INSERT");
+        conn.commit();
+        unit.commit();
+        assertEquals("[prepareStatement, commit, prepareStatement, commit, close]",
+                calls.toString());
+        assertTrue(conn.isClosed());
+
+        // rolling back a committed unit has no effect
+        unit.rollback();
+        assertEquals(5, calls.size());
+    }
+
+    public void testRepositoryRollbackFails() throws Exception {
+        Connection conn = unit.getConnection();
+        conn.prepareStatement("INSERT");
+        conn.rollback();
+        assertEquals("[prepareStatement, rollback]", calls.toString());
+
+        try {
+            unit.checkpoint();
+            fail("Expected the failed unit of work to be reported");
+        } catch (RepositoryAccessException ex) {
+            // expected
+        }
+
+        unit.rollback();
+        assertEquals("[prepareStatement, rollback, rollback, close]", calls.toString());
+    }
+
+    public void testJoinedUnits() throws Exception {
+        UnitOfWork inner = unit.join();
+        inner.commit();
+        assertTrue(calls.isEmpty());
+
+        inner = unit.join();
+        inner.rollback();
+        assertEquals("[rollback]", calls.toString());
+
+        try {
+            unit.commit();
+            fail("Expected the failed unit of work to be reported");
+        } catch (RepositoryAccessException ex) {
+            // expected
+        }
+        assertEquals("[rollback, close]", calls.toString());
+    }
+
+    public void testStatementsAreReused() throws Exception {
+        Connection conn = unit.getConnection();
+        PreparedStatement stmt = conn.prepareStatement("SELECT");
+        stmt.setLong(1, 1);
+        stmt.executeQuery();
+        stmt.close();
+        assertTrue(stmt.isClosed());
+
+        stmt = conn.prepareStatement("SELECT");
+        assertEquals("[prepareStatement]", calls.toString());
+        assertEquals("[setLong, executeQuery, clearParameters, clearBatch]",
+                statementCalls.toString());
+
+        // a statement that is still in use is not shared
+        PreparedStatement nested = conn.prepareStatement("SELECT");
+        assertFalse(nested.isClosed());
+        nested.close();
+        assertEquals("[prepareStatement, prepareStatement]", calls.toString());
+
+        // statements that return generated keys are kept separately
+        conn.prepareStatement("SELECT", PreparedStatement.RETURN_GENERATED_KEYS).close();
+        conn.prepareStatement("SELECT", PreparedStatement.RETURN_GENERATED_KEYS).close();
+        assertEquals("[prepareStatement, prepareStatement, prepareStatement]",
+                calls.toString());
+
+        // the kept statements are closed when the unit ends
+        statementCalls.clear();
+        unit.commit();
+        assertEquals("[close, close]", statementCalls.toString());
+        stmt.close();
+        assertEquals(2, statementCalls.size());
+    }
+}
@@ -0,0 +1,159 @@
+/**
+ *
+ */
+package org.idch.texts.persist.mysql;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.idch.texts.Vocabulary;
+import org.idch.texts.Work;
+
+import junit.framework.TestCase;
+
+/**
+ * Restores works through a connection that returns a canned work and its stored 
+ * vocabulary.
+ *
+ * @author Neal Audenaert
+ */
+public class MySQLWorkRepositoryTests extends TestCase {
+
+    private static final String[] TERMS = { "Ἐν", "ἀρχῇ", "ἦν" };
+
+    private UUID uuid;
+    private Connection conn;
+    private MySQLTextModule module;
+
+    /** If set, vocabulary queries for work 1 wait until this is released. */
+    private CountDownLatch blocked;
+    private CountDownLatch entered;
+
+    @Override
+    protected void setUp() throws Exception {
+        uuid = UUID.randomUUID();
+
+        conn = FakeJDBC.proxy(Connection.class, new InvocationHandler() {
+            public Object invoke(Object proxy, Method m, Object[] args) {
+                return m.getName().equals("prepareStatement") 
+                        ? statement((String)args[0]) : null;
+            }
+        });
+
+        module = FakeJDBC.module(conn);
+    }
+
+    /** 
+     * Returns a statement that answers work queries with a single work and vocabulary 
+     * queries with the stored terms from the requested id onwards.
+     */
+    private PreparedStatement statement(final String sql) {
+        final Map<Integer, Object> params = new HashMap<Integer, Object>();
+        return FakeJDBC.proxy(PreparedStatement.class, new InvocationHandler() {
+            public Object invoke(Object proxy, Method m, Object[] args)
+                    throws InterruptedException {
+                String name = m.getName();
+                if (name.startsWith("set")) {
+                    params.put((Integer)args[0], args[1]);
+                } else if (name.equals("executeQuery")) {
+                    List<Object[]> rows = new ArrayList<Object[]>();
+                    if (sql.contains("texts_vocabulary")) {
+                        if (blocked != null && params.get(1).equals(1L)) {
+                            entered.countDown();
+                            blocked.await();
+                        }
+
+                        for (int id = (Integer)params.get(2); id < TERMS.length; id++) {
+                            rows.add(new Object[] { id, TERMS[id] });
+                        }
+                    } else {
+                        Object[] row = new Object[15];
+                        row[0] = BinaryUUID.toBytes(uuid);
+                        row[14] = 1L;
+                        rows.add(row);
+                    }
+
+                    return FakeJDBC.results(rows);
+                }
+
+                return null;
+            }
+        });
+    }
+
+    private static void assertVocabulary(Work w) {
+        Vocabulary vocab = w.getVocabulary();
+        assertEquals(TERMS.length, vocab.size());
+        for (int id = 0; id < TERMS.length; id++) {
+            assertEquals(TERMS[id], vocab.getTerm(id));
+        }
+    }
+
+    public void testRestoredWorksLoadVocabulary() {
+        Work first = module.getWorkRepository().find(1L);
+        assertEquals(uuid, first.getUUID());
+        assertVocabulary(first);
+
+        // a work restored again for the same id starts with an empty vocabulary, which 
+        // must be loaded in full so that new terms are not assigned stored ids
+        List<Work> works = module.getWorkRepository().findByType("Bible");
+        assertEquals(1, works.size());
+
+        Work second = works.get(0);
+        assertFalse(first == second);
+        assertVocabulary(second);
+        assertEquals(TERMS.length, second.getVocabulary().intern("λόγος"));
+    }
+
+    /** Starts a thread that loads the vocabulary of a work. */
+    private Thread load(final Work w) {
+        Thread loader = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    module.loadVocabulary(conn, w);
+                } catch (SQLException ex) {
+                    throw new RuntimeException(ex);
+                }
+            }
+        };
+        loader.setDaemon(true);
+        loader.start();
+
+        return loader;
+    }
+
+    public void testVocabulariesLoadConcurrently() throws Exception {
+        blocked = new CountDownLatch(1);
+        entered = new CountDownLatch(1);
+
+        Work first = new Work(1L);
+        Thread slow = load(first);
+        try {
+            assertTrue(entered.await(10, TimeUnit.SECONDS));
+
+            // another work's vocabulary loads while the first query is still running
+            Work second = new Work(2L);
+            Thread fast = load(second);
+            fast.join(TimeUnit.SECONDS.toMillis(10));
+            assertFalse(fast.isAlive());
+            assertVocabulary(second);
+        } finally {
+            blocked.countDown();
+        }
+
+        slow.join(TimeUnit.SECONDS.toMillis(10));
+        assertFalse(slow.isAlive());
+        assertVocabulary(first);
+    }
+}
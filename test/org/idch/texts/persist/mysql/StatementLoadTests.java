@@ -0,0 +1,144 @@
+/**
+ *
+ */
+package org.idch.texts.persist.mysql;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.List;
+import java.util.UUID;
+
+import org.idch.texts.Token;
+import org.idch.texts.TokenRepository;
+import org.idch.texts.Work;
+
+import junit.framework.TestCase;
+
+/**
+ * Looks up tokens many times against a connection that counts the statements and result
+ * sets opened on it, to check that the MySQL repositories release what they open.
+ *
+ * @author Neal Audenaert
+ */
+public class StatementLoadTests extends TestCase {
+
+    private static final int LOOKUPS = 1000000;
+
+    private int prepared;
+    private int openStatements;
+    private int openResults;
+    private int maxOpenStatements;
+    private int maxOpenResults;
+
+    private Connection conn;
+    private MySQLUnitOfWork unit;
+    private MySQLTextModule module;
+    private Work work;
+
+    @Override
+    protected void setUp() throws Exception {
+        conn = FakeJDBC.proxy(Connection.class, new InvocationHandler() {
+            public Object invoke(Object proxy, Method m, Object[] args) {
+                return m.getName().equals("prepareStatement") ? statement(proxy) : null;
+            }
+        });
+
+        module = new MySQLTextModule() {
+            @Override
+            public Connection openConnection() {
+                return openReadOnlyConnection();
+            }
+
+            @Override
+            public Connection openReadOnlyConnection() {
+                return (unit != null) ? unit.getConnection() : conn;
+            }
+
+            @Override
+            public void closeConnection(Connection c) {
+                // the counting connection is not pooled
+            }
+        };
+
+        work = new Work(1L);
+        work.getVocabulary().define(0, "λόγος");
+    }
+
+    /** Returns a statement whose queries return a single token. */
+    private PreparedStatement statement(final Object connection) {
+        prepared++;
+        maxOpenStatements = Math.max(maxOpenStatements, ++openStatements);
+        return FakeJDBC.proxy(PreparedStatement.class, new InvocationHandler() {
+            private boolean closed = false;
+
+            public Object invoke(Object proxy, Method m, Object[] args) {
+                String name = m.getName();
+                if (name.equals("close")) {
+                    if (!closed)
+                        openStatements--;
+                    closed = true;
+                } else if (name.equals("executeQuery")) {
+                    return results();
+                } else if (name.equals("getConnection")) {
+                    return connection;
+                }
+
+                return null;
+            }
+        });
+    }
+
+    /** Returns a result set with one row describing a token. */
+    private ResultSet results() {
+        maxOpenResults = Math.max(maxOpenResults, ++openResults);
+        List<Object[]> rows = FakeJDBC.rows(1L, BinaryUUID.toBytes(UUID.randomUUID()), 1L,
+                0, 0, Token.Type.WORD.toString());
+        return FakeJDBC.results(rows, new InvocationHandler() {
+            private boolean closed = false;
+
+            public Object invoke(Object proxy, Method m, Object[] args) {
+                if (m.getName().equals("close")) {
+                    if (!closed)
+                        openResults--;
+                    closed = true;
+                }
+
+                return null;
+            }
+        });
+    }
+
+    private void lookup() {
+        TokenRepository tokens = module.getTokenRepository();
+        for (int i = 0; i < LOOKUPS; i++) {
+            Token t = tokens.find(work, i % 1000);
+            assertNotNull(t);
+        }
+    }
+
+    public void testStatementsAreClosed() {
+        lookup();
+
+        assertEquals(LOOKUPS, prepared);
+        assertEquals(0, openStatements);
+        assertEquals(0, openResults);
+        assertEquals(1, maxOpenStatements);
+        assertEquals(1, maxOpenResults);
+    }
+
+    public void testStatementsAreReusedWithinUnitOfWork() throws Exception {
+        unit = new MySQLUnitOfWork(module, conn);
+        lookup();
+
+        assertEquals(1, prepared);
+        assertEquals(1, openStatements);
+        assertEquals(0, openResults);
+        assertEquals(1, maxOpenResults);
+
+        unit.commit();
+        assertEquals(0, openStatements);
+    }
+}
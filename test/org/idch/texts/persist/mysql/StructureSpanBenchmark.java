@@ -0,0 +1,166 @@
+/**
+ *
+ */
+package org.idch.texts.persist.mysql;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.idch.texts.Structure;
+import org.idch.texts.StructureRepository;
+import org.idch.texts.TextModuleInstance;
+import org.idch.texts.Work;
+
+/**
+ * Measures the time taken to find the structures that include a token position in a
+ * work with the structures of a full Bible (66 books, 1,189 chapters and 31,102 verses),
+ * comparing the span level lookups used by {@link MySQLStructureRepository} with a
+ * query that compares token positions alone. This requires a configured database and is
+ * run by hand rather than as part of the unit tests:
+ *
+ * <pre>
+ *   java org.idch.texts.persist.mysql.StructureSpanBenchmark [numLookups]
+ * </pre>
+ *
+ * @author Neal Audenaert
+ */
+public class StructureSpanBenchmark {
+
+    private static final int NUM_BOOKS = 66;
+    private static final int NUM_CHAPTERS = 1189;
+    private static final int NUM_VERSES = 31102;
+
+    /** The approximate number of tokens (including whitespace) in a verse. */
+    private static final int VERSE_LENGTH = 50;
+
+    /** Finds structures by comparing token positions, without span levels. */
+    private static final String POSITION_SQL =
+            "SELECT structure_id FROM texts_structures " +
+            " WHERE work_id = ? AND start_pos <= ? AND end_pos >= ?" +
+            " ORDER BY start_pos ASC, end_pos DESC";
+
+    private static Structure create(Work w, String name, int start, int end) {
+        Structure s = new Structure(w.getUUID(), name);
+        s.setStartTokenPosition(start);
+        s.setEndTokenPosition(end);
+        return s;
+    }
+
+    /** Returns the books, chapters and verses of a work, spread evenly over its tokens. */
+    private static List<Structure> getStructures(Work w) {
+        List<Structure> structures = new ArrayList<Structure>();
+        int verse = 0;
+        int chapter = 0;
+        for (int b = 0; b < NUM_BOOKS; b++) {
+            int bookStart = verse * VERSE_LENGTH;
+            int chapters = (NUM_CHAPTERS * (b + 1)) / NUM_BOOKS - chapter;
+            for (int c = 0; c < chapters; c++, chapter++) {
+                int chapterStart = verse * VERSE_LENGTH;
+                int verses = (NUM_VERSES * (chapter + 1)) / NUM_CHAPTERS - verse;
+                for (int v = 0; v < verses; v++, verse++) {
+                    int start = verse * VERSE_LENGTH;
+                    structures.add(create(w, "verse", start, start + VERSE_LENGTH - 1));
+                }
+
+                structures.add(create(w, "chapter", chapterStart, verse * VERSE_LENGTH - 1));
+            }
+
+            structures.add(create(w, "book", bookStart, verse * VERSE_LENGTH - 1));
+        }
+
+        return structures;
+    }
+
+    /** Finds the structures that include each position by comparing positions alone. */
+    private static int findByPosition(MySQLTextModule module, Work w, int[] positions)
+            throws Exception {
+        int ct = 0;
+        Connection conn = module.openReadOnlyConnection();
+        try {
+            PreparedStatement stmt = conn.prepareStatement(POSITION_SQL);
+            try {
+                for (int pos : positions) {
+                    stmt.setLong(1, w.getId());
+                    stmt.setInt(2, pos);
+                    stmt.setInt(3, pos);
+                    ResultSet results = stmt.executeQuery();
+                    while (results.next()) {
+                        ct++;
+                    }
+                    results.close();
+                }
+            } finally {
+                stmt.close();
+            }
+        } finally {
+            module.closeConnection(conn);
+        }
+
+        return ct;
+    }
+
+    /** Finds the structures that include each position using span levels. */
+    private static int findBySpan(StructureRepository structures, Work w, int[] positions) {
+        int ct = 0;
+        for (int pos : positions) {
+            ct += structures.find(w, pos).size();
+        }
+
+        return ct;
+    }
+
+    /** Finds the structures that overlap a range of ten verses at each position. */
+    private static int findOverlapping(StructureRepository structures, Work w, int[] positions) {
+        int ct = 0;
+        for (int pos : positions) {
+            ct += structures.findOverlapping(w, pos, pos + 10 * VERSE_LENGTH).size();
+        }
+
+        return ct;
+    }
+
+    private static void report(String label, long start, int lookups, int found) {
+        double ms = (System.nanoTime() - start) / 1e6;
+        System.out.println(String.format("%-24s %10.3f ms/lookup (%d structures found)",
+                label, ms / lookups, found));
+    }
+
+    public static void main(String[] args) throws Exception {
+        int numLookups = (args.length > 0) ? Integer.parseInt(args[0]) : 1000;
+
+        MySQLTextModule module = (MySQLTextModule)TextModuleInstance.get();
+        StructureRepository structures = module.getStructureRepository();
+        Work w = module.getWorkRepository().create("Bible.grc.SpanBenchmark");
+        try {
+            if (!structures.createAll(getStructures(w)))
+                throw new IllegalStateException("Could not store the benchmark structures.");
+
+            Random random = new Random();
+            int[] positions = new int[numLookups];
+            for (int i = 0; i < numLookups; i++) {
+                positions[i] = random.nextInt(NUM_VERSES * VERSE_LENGTH);
+            }
+
+            findBySpan(structures, w, positions);                   // warm up
+            findByPosition(module, w, positions);
+
+            long start = System.nanoTime();
+            int found = findByPosition(module, w, positions);
+            report("start_pos/end_pos", start, numLookups, found);
+
+            start = System.nanoTime();
+            found = findBySpan(structures, w, positions);
+            report("span level", start, numLookups, found);
+
+            start = System.nanoTime();
+            found = findOverlapping(structures, w, positions);
+            report("span level (overlap)", start, numLookups, found);
+        } finally {
+            module.getWorkRepository().remove(w);
+        }
+    }
+}
@@ -0,0 +1,67 @@
+/**
+ *
+ */
+package org.idch.texts.persist.mysql;
+
+import org.idch.texts.TextModule;
+import org.idch.texts.TextModuleInstance;
+import org.idch.texts.Work;
+
+/**
+ * Measures the rate at which tokens are written to the configured MySQL text module for
+ * a range of batch sizes. This requires a configured database and is run by hand rather
+ * than as part of the unit tests:
+ *
+ * <pre>
+ *   java org.idch.texts.persist.mysql.TokenInsertBenchmark [numTokens]
+ * </pre>
+ *
+ * @author Neal Audenaert
+ */
+public class TokenInsertBenchmark {
+
+    private static final int[] BATCH_SIZES = { 100, 1000, 10000 };
+
+    private static final String TEXT =
+        "Ἐν ἀρχῇ ἦν ὁ λόγος, καὶ ὁ λόγος ἦν πρὸς τὸν θεόν, καὶ θεὸς ἦν ὁ λόγος. " +
+        "οὗτος ἦν ἐν ἀρχῇ πρὸς τὸν θεόν. πάντα δι’ αὐτοῦ ἐγένετο, καὶ χωρὶς αὐτοῦ " +
+        "ἐγένετο οὐδὲ ἕν. ";
+
+    /**
+     * Appends tokens to a new work, writing them in batches of the specified size.
+     *
+     * @return The number of tokens written per second.
+     */
+    private static double run(TextModule module, int batchSize, int numTokens) {
+        MySQLTokenRepository tokens = (MySQLTokenRepository)module.getTokenRepository();
+        tokens.setBatchSize(batchSize);
+
+        Work w = module.getWorkRepository().create("Bible.grc.Benchmark." + batchSize);
+        w.setTokenRepository(tokens);
+        w.setMaxTokenBuffer(batchSize);
+        try {
+            char[] text = TEXT.toCharArray();
+            long start = System.nanoTime();
+            while (w.size() < numTokens) {
+                w.append(text, 0, text.length);
+            }
+            w.flushTokens();
+            long elapsed = System.nanoTime() - start;
+
+            return w.size() / (elapsed / 1e9);
+        } finally {
+            module.getWorkRepository().remove(w);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int numTokens = (args.length > 0) ? Integer.parseInt(args[0]) : 100000;
+
+        TextModule module = TextModuleInstance.get();
+        run(module, 1000, Math.min(numTokens, 10000));         // warm up
+        for (int batchSize : BATCH_SIZES) {
+            double rate = run(module, batchSize, numTokens);
+            System.out.println(String.format("batch size %6d: %10.0f tokens/s", batchSize, rate));
+        }
+    }
+}